@@ -0,0 +1,106 @@
+package com.martinkl.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Deterministic synthetic WARC data for the benchmarks. Every corpus is generated from a
+ * fixed random seed, so that results from different runs (and different versions of the
+ * library) are measured on exactly the same bytes.
+ */
+final class BenchmarkCorpus {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long SEED = 0x5741524343L;
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * Returns a serialized `response` record with the given number of extra header fields
+     * (in addition to the six standard ones) and a body of the given size.
+     */
+    static byte[] makeRecord(int index, int extraHeaders, int bodySize) {
+        Random random = new Random(SEED + index);
+        byte[] body = makeBody(random, bodySize);
+        StringBuilder header = new StringBuilder();
+        header.append("WARC/1.0\r\n");
+        header.append("WARC-Type: response\r\n");
+        header.append("WARC-Target-URI: http://www.example").append(index % 97).append(".com/path/")
+              .append(Long.toHexString(random.nextLong())).append("?q=").append(index).append("\r\n");
+        header.append("WARC-Date: 2014-03-18T17:47:").append(10 + index % 50).append("Z\r\n");
+        header.append("WARC-Record-ID: <urn:uuid:").append(new UUID(random.nextLong(), random.nextLong())).append(">\r\n");
+        header.append("Content-Type: application/http; msgtype=response\r\n");
+        for (int i = 0; i < extraHeaders; i++) {
+            header.append("X-Benchmark-Field-").append(i).append(": ").append(Long.toHexString(random.nextLong()))
+                  .append(Long.toHexString(random.nextLong())).append("\r\n");
+        }
+        header.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(header.length() + body.length + 4);
+        byte[] headerBytes = header.toString().getBytes(UTF8);
+        out.write(headerBytes, 0, headerBytes.length);
+        out.write(body, 0, body.length);
+        out.write('\r');
+        out.write('\n');
+        out.write('\r');
+        out.write('\n');
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns an HTTP response of the given size, made of lines of pseudo-random words, so
+     * that it compresses roughly like real HTML.
+     */
+    private static byte[] makeBody(Random random, int size) {
+        String[] words = { "<div>", "</div>", "<p>", "</p>", "the", "archive", "web", "crawl", "record",
+                           "class=\"content\"", "href=\"/index.html\"", "lorem", "ipsum", "data", "\n" };
+        StringBuilder body = new StringBuilder(size + 64);
+        body.append("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n");
+        while (body.length() < size) body.append(words[random.nextInt(words.length)]).append(' ');
+        body.setLength(size);
+        return body.toString().getBytes(UTF8);
+    }
+
+    /** Parses serialized records back into {@link WARCRecord}s. */
+    static List<WARCRecord> parseRecords(List<byte[]> serialized) throws IOException {
+        List<WARCRecord> records = new ArrayList<WARCRecord>(serialized.size());
+        for (byte[] bytes : serialized) {
+            records.add(new WARCRecord(new DataInputStream(new ByteArrayInputStream(bytes))));
+        }
+        return records;
+    }
+
+    /**
+     * Returns a list of records whose body sizes follow a fixed mix of small and large
+     * pages, averaging roughly 20kB.
+     */
+    static List<byte[]> makeMixedRecords(int count) {
+        int[] sizes = { 1024, 4096, 8192, 16384, 32768, 65536 };
+        List<byte[]> records = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) records.add(makeRecord(i, 4, sizes[i % sizes.length]));
+        return records;
+    }
+
+    /** Creates an empty temporary directory for benchmark files. */
+    static File createTempDir() throws IOException {
+        File dir = File.createTempFile("warc-bench", "");
+        if (!dir.delete() || !dir.mkdir()) throw new IOException("Could not create " + dir);
+        return dir;
+    }
+
+    /** Deletes a temporary directory created by {@link #createTempDir()}. */
+    static void deleteTempDir(File dir) throws IOException {
+        FileSystem.getLocal(new Configuration()).delete(new Path(dir.toURI()), true);
+    }
+}
@@ -0,0 +1,65 @@
+package com.martinkl.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures reading whole records (header and body) from memory, with bodies of different
+ * sizes, into a fresh record, a reused record, or a pooled off-heap buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BodyReadBenchmark {
+
+    @Param({ "1024", "65536", "1048576", "16777216" })
+    public int bodySize;
+
+    private byte[] record;
+    private WARCRecord reusable;
+    private DirectBufferPool pool;
+
+    @Setup
+    public void setup() {
+        record = BenchmarkCorpus.makeRecord(0, 4, bodySize);
+        reusable = new WARCRecord(new WARCRecord.Header());
+        pool = new DirectBufferPool(64L * 1024 * 1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        reusable.release();
+    }
+
+    @Benchmark
+    public WARCRecord readNewRecord() throws IOException {
+        return new WARCRecord(new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    @Benchmark
+    public WARCRecord readReusedRecord() throws IOException {
+        WARCInputStream in = new WARCInputStream(new ByteArrayInputStream(record));
+        reusable.getHeader().read(in);
+        reusable.readContent(in);
+        return reusable;
+    }
+
+    @Benchmark
+    public WARCRecord readOffHeap() throws IOException {
+        WARCInputStream in = new WARCInputStream(new ByteArrayInputStream(record));
+        reusable.getHeader().read(in);
+        reusable.readContent(in, pool);
+        return reusable;
+    }
+}
@@ -0,0 +1,71 @@
+package com.martinkl.warc;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures reading a whole WARC file of 2,000 records (about 40MB uncompressed) with
+ * {@link WARCFileReader}, from an uncompressed file and from a file with one gzip member
+ * per record, with and without read-ahead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileReaderBenchmark {
+    private static final int NUM_RECORDS = 2000;
+
+    @Param({ "none", "gzip" })
+    public String compression;
+
+    @Param({ "false", "true" })
+    public boolean readAhead;
+
+    private File tempDir;
+    private Path path;
+    private Configuration conf;
+
+    @Setup
+    public void setup() throws IOException {
+        tempDir = BenchmarkCorpus.createTempDir();
+        conf = new Configuration();
+        Path prefix = new Path(new Path(tempDir.toURI()), "corpus");
+        WARCFileWriter writer = new WARCFileWriter(conf,
+                "gzip".equals(compression) ? WARCFileWriter.getGzipCodec(conf) : null, prefix);
+        for (WARCRecord record : BenchmarkCorpus.parseRecords(BenchmarkCorpus.makeMixedRecords(NUM_RECORDS))) {
+            writer.write(record);
+        }
+        path = writer.getSegmentPath();
+        writer.close();
+        conf.setBoolean("warc.input.readahead", readAhead);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkCorpus.deleteTempDir(tempDir);
+    }
+
+    @Benchmark
+    public long readFile() throws IOException {
+        WARCFileReader reader = new WARCFileReader(conf, path);
+        long bytes = 0;
+        try {
+            while (true) bytes += reader.read().getHeader().getContentLength();
+        } catch (EOFException e) {
+            reader.close();
+        }
+        return bytes;
+    }
+}
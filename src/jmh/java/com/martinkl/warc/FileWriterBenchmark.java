@@ -0,0 +1,61 @@
+package com.martinkl.warc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures writing 2,000 records (about 40MB uncompressed) with {@link WARCFileWriter},
+ * uncompressed and with one gzip member per record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileWriterBenchmark {
+    private static final int NUM_RECORDS = 2000;
+
+    @Param({ "none", "gzip" })
+    public String compression;
+
+    private File tempDir;
+    private Configuration conf;
+    private List<WARCRecord> records;
+    private int iteration = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        tempDir = BenchmarkCorpus.createTempDir();
+        conf = new Configuration();
+        records = BenchmarkCorpus.parseRecords(BenchmarkCorpus.makeMixedRecords(NUM_RECORDS));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkCorpus.deleteTempDir(tempDir);
+    }
+
+    @Benchmark
+    public long writeFile() throws IOException {
+        Path prefix = new Path(new Path(tempDir.toURI()), "output-" + (iteration++));
+        WARCFileWriter writer = new WARCFileWriter(conf,
+                "gzip".equals(compression) ? WARCFileWriter.getGzipCodec(conf) : null, prefix);
+        for (WARCRecord record : records) writer.write(record);
+        Path path = writer.getSegmentPath();
+        writer.close();
+        long size = path.getFileSystem(conf).getFileStatus(path).getLen();
+        path.getFileSystem(conf).delete(path, false);
+        return size;
+    }
+}
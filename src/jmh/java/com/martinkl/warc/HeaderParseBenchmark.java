@@ -0,0 +1,46 @@
+package com.martinkl.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures parsing of record headers with different numbers of fields, and the cost of
+ * looking up fields in the parsed header.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HeaderParseBenchmark {
+
+    @Param({ "0", "8", "32", "128" })
+    public int extraHeaders;
+
+    private byte[] record;
+    private final WARCRecord.Header header = new WARCRecord.Header();
+
+    @Setup
+    public void setup() {
+        record = BenchmarkCorpus.makeRecord(0, extraHeaders, 0);
+    }
+
+    @Benchmark
+    public WARCRecord.Header parseHeader() throws IOException {
+        header.read(new WARCInputStream(new ByteArrayInputStream(record)));
+        return header;
+    }
+
+    @Benchmark
+    public String parseHeaderAndLookup() throws IOException {
+        header.read(new WARCInputStream(new ByteArrayInputStream(record)));
+        return header.getTargetURI() + header.getRecordID() + header.getContentLength();
+    }
+}
@@ -0,0 +1,59 @@
+package com.martinkl.warc;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures serializing and deserializing a record with {@link WARCWritable} and with
+ * {@link CompactWARCWritable}, as happens when records are shuffled between mappers and
+ * reducers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WritableBenchmark {
+
+    @Param({ "1024", "65536", "1048576" })
+    public int bodySize;
+
+    private WARCRecord record;
+    private final DataOutputBuffer out = new DataOutputBuffer();
+    private final DataInputBuffer in = new DataInputBuffer();
+    private final WARCWritable writable = new WARCWritable();
+    private final CompactWARCWritable compact = new CompactWARCWritable();
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] bytes = BenchmarkCorpus.makeRecord(0, 8, bodySize);
+        record = BenchmarkCorpus.parseRecords(Collections.singletonList(bytes)).get(0);
+    }
+
+    @Benchmark
+    public WARCWritable warcWritableRoundTrip() throws IOException {
+        out.reset();
+        new WARCWritable(record).write(out);
+        in.reset(out.getData(), out.getLength());
+        writable.readFields(in);
+        return writable;
+    }
+
+    @Benchmark
+    public CompactWARCWritable compactWritableRoundTrip() throws IOException {
+        out.reset();
+        new CompactWARCWritable(record).write(out);
+        in.reset(out.getData(), out.getLength());
+        compact.readFields(in);
+        return compact;
+    }
+}
@@ -0,0 +1,321 @@
+package com.martinkl.warc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Reads {@link WARCRecord}s from a sequence of files (or byte ranges of files) one after
+ * another, as if they were a single input. This is used by the combining InputFormats
+ * (the mapred {@link com.martinkl.warc.mapred.CombineWARCInputFormat} and the mapreduce
+ * {@link com.martinkl.warc.mapreduce.CombineWARCInputFormat}), which pack many small WARC
+ * files into a single split.
+ *
+ * Only one file is open at a time: when the end of a file is reached, its
+ * {@link WARCFileReader} is closed (stopping any read-ahead threads) and the next file is
+ * opened. {@link #getRecordsRead()} counts records from the start of the current file, so
+ * records have the same numbers as they would have if each file were read on its own.
+ *
+ * If `warc.input.continuation.reassemble` is set to true, records that were split into
+ * WARC `continuation` records (e.g. by {@link WARCFileWriter} with `warc.output.continuation`)
+ * are put back together: the first segment of a record is returned as a single record, whose
+ * body is read from one segment after another as you read its content stream, without
+ * being buffered; the continuation records are not returned separately. The segments
+ * must be read in order, one straight after another, as the writer produces them (they may
+ * be spread across consecutive files). The header of the reassembled record is that of the
+ * first segment, without `WARC-Segment-Number`; since the total length is only recorded in
+ * the last segment, `Content-Length` is added to the header once the body has been read to
+ * the end. The body is only available through {@link WARCRecord#getContentStream()}, and
+ * any unread part of it is skipped when the next record is read.
+ *
+ * Reassembly needs all segments of a record in the same reader, in the order in which they
+ * were written. The combining InputFormats don't guarantee that: they group files by
+ * location, not by writer, so the segments may end up out of order or in different splits.
+ * Records that can't be reassembled are returned unmerged, and counted in
+ * {@link WARCCounter#RECORDS_NOT_REASSEMBLED}. If the next segment isn't there when the body
+ * of a segment has been read, the body ends at that point, and the header gets back its
+ * `WARC-Segment-Number` along with the `Content-Length` that was read; the record that
+ * followed is returned next, as usual. A continuation record whose first segment was not
+ * read is returned as it is.
+ */
+public class CombinedWARCFileReader {
+    private final Configuration conf;
+    private final Path[] paths;
+    private final long[] starts, lengths;
+    private final long totalLength;
+    private final WARCMetrics metrics;
+    private final boolean reassemble;
+    private ReassembledStream reassembled = null;
+    private WARCRecord pending = null;
+    private WARCFileReader reader = null;
+    private int fileIndex = -1;
+    private long completedLength = 0, completedBytesRead = 0;
+
+    /**
+     * Prepares to read a sequence of byte ranges. Files are opened lazily, in the order given.
+     * @param conf The Hadoop configuration.
+     * @param paths The Hadoop paths of the files that should be read.
+     * @param starts For each file, the compressed byte offset at which to start reading.
+     * @param lengths For each file, the number of compressed bytes in which records may start.
+     */
+    public CombinedWARCFileReader(Configuration conf, Path[] paths, long[] starts, long[] lengths) {
+        if (paths.length != starts.length || paths.length != lengths.length) {
+            throw new IllegalArgumentException("paths, starts and lengths must have the same length");
+        }
+        this.conf = conf;
+        this.paths = paths;
+        this.starts = starts;
+        this.lengths = lengths;
+        long total = 0;
+        for (long length : lengths) total += length;
+        this.totalLength = total;
+        this.metrics = new WARCMetrics(conf);
+        this.reassemble = conf.getBoolean("warc.input.continuation.reassemble", false);
+    }
+
+    /**
+     * Reads the next record, moving on to the next file when the current one is exhausted.
+     * @return The record that was read.
+     * @throws EOFException if there are no more records in any of the files.
+     * @throws IOException
+     */
+    public WARCRecord read() throws IOException {
+        if (reassembled != null) {
+            reassembled.skipRemaining();
+            reassembled = null;
+        }
+        WARCRecord record = pending;
+        pending = null;
+        if (record == null) record = readNext();
+        if (!reassemble) return record;
+        if (isFirstSegment(record.getHeader())) {
+            reassembled = new ReassembledStream(record);
+            return reassembled.record;
+        }
+        if ("continuation".equals(record.getHeader().getRecordType())) {
+            metrics.add(WARCCounter.RECORDS_NOT_REASSEMBLED, 1);
+        }
+        return record;
+    }
+
+    /**
+     * Returns true if a header is that of the first record of a series of segments, which is
+     * followed by continuation records.
+     */
+    private static boolean isFirstSegment(WARCRecord.Header header) {
+        return "1".equals(header.getField("WARC-Segment-Number")) && !"continuation".equals(header.getRecordType()) &&
+               header.getField("WARC-Segment-Total-Length") == null;
+    }
+
+    /** Reads the next record as it appears in the input. */
+    private WARCRecord readNext() throws IOException {
+        while (true) {
+            if (reader == null && !openNextFile()) throw new EOFException("No more input files");
+            try {
+                return reader.read();
+            } catch (EOFException eof) {
+                closeCurrentFile();
+            }
+        }
+    }
+
+    private boolean openNextFile() throws IOException {
+        if (fileIndex + 1 >= paths.length) return false;
+        fileIndex++;
+        reader = new WARCFileReader(conf, paths[fileIndex], starts[fileIndex], lengths[fileIndex], metrics);
+        return true;
+    }
+
+    private void closeCurrentFile() throws IOException {
+        completedLength += lengths[fileIndex];
+        completedBytesRead += reader.getBytesRead();
+        reader.close();
+        reader = null;
+    }
+
+    /**
+     * Returns the metrics collected while reading all of the files.
+     */
+    public WARCMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the path of the file from which the last record was read, or null if no
+     * file has been opened yet.
+     */
+    public Path getCurrentPath() {
+        return fileIndex < 0 ? null : paths[fileIndex];
+    }
+
+    /**
+     * Returns the number of records that have been read from the current file.
+     */
+    public long getRecordsRead() {
+        return reader == null ? 0 : reader.getRecordsRead();
+    }
+
+    /**
+     * Returns the number of bytes that have been read from all files so far. If files are
+     * compressed, this refers to the compressed size.
+     */
+    public long getBytesRead() {
+        return completedBytesRead + (reader == null ? 0 : reader.getBytesRead());
+    }
+
+    /**
+     * Returns the proportion of the input that has been read, as a number between 0.0 and
+     * 1.0. Each file is weighted by the length of its byte range.
+     */
+    public float getProgress() {
+        if (totalLength <= 0) return 1.0f;
+        float current = (reader == null) ? 0.0f : reader.getProgress() * lengths[fileIndex];
+        return Math.min(1.0f, (completedLength + current) / totalLength);
+    }
+
+    /**
+     * Closes the current file. No more reading is possible after the reader has been closed.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (reader != null) reader.close();
+        reader = null;
+        reassembled = null;
+        pending = null;
+        fileIndex = paths.length;
+    }
+
+
+    /**
+     * The body of a record reassembled from segments: reads the body of each segment in turn,
+     * reading the next continuation record when one segment's body is exhausted.
+     */
+    private class ReassembledStream extends InputStream {
+        final WARCRecord record;
+        private final WARCRecord.Header header;
+        private final String originID;
+        private InputStream part;
+        private int number = 1;
+        private long length = 0, totalLength = -1;
+        private boolean done = false;
+
+        ReassembledStream(WARCRecord first) {
+            this.header = first.getHeader().copyExcept("WARC-Segment-Number", "Content-Length");
+            this.originID = first.getHeader().getRecordID();
+            this.part = first.getContentStream();
+            this.record = new WARCRecord(header);
+            record.setContent(new WARCRecordBuilder.BodySource(-1) {
+                private boolean opened = false;
+
+                @Override
+                boolean isRepeatable() {
+                    return false;
+                }
+
+                @Override
+                InputStream open() {
+                    if (opened) throw new IllegalStateException("The body of a reassembled record can only be read once");
+                    opened = true;
+                    return ReassembledStream.this;
+                }
+            });
+        }
+
+        /**
+         * Moves on to the body of the next segment, or if the last segment has been read,
+         * completes the header. If the next record isn't the next segment, ends the body
+         * and keeps that record to be returned next. Returns false at the end of the body.
+         */
+        private boolean nextPart() throws IOException {
+            if (totalLength >= 0) {
+                if (length != totalLength) {
+                    throw new IllegalStateException("Segments of " + originID + " add up to " + length +
+                                                    " bytes, but WARC-Segment-Total-Length is " + totalLength);
+                }
+                header.appendField("Content-Length", Long.toString(length));
+                metrics.add(WARCCounter.RECORDS_REASSEMBLED, 1);
+                done = true;
+                return false;
+            }
+            WARCRecord next;
+            try {
+                next = readNext();
+            } catch (EOFException e) {
+                next = null;
+            }
+            WARCRecord.Header nextHeader = (next == null) ? null : next.getHeader();
+            if (next == null || !"continuation".equals(nextHeader.getRecordType()) ||
+                    !originID.equals(nextHeader.getField("WARC-Segment-Origin-ID")) ||
+                    !Integer.toString(number + 1).equals(nextHeader.getField("WARC-Segment-Number"))) {
+                // Segments missing or out of order: return what was read as the first segment
+                pending = next;
+                header.appendField("WARC-Segment-Number", "1");
+                header.appendField("Content-Length", Long.toString(length));
+                metrics.add(WARCCounter.RECORDS_NOT_REASSEMBLED, 1);
+                done = true;
+                return false;
+            }
+            number++;
+            String total = nextHeader.getField("WARC-Segment-Total-Length");
+            if (total != null) {
+                try {
+                    totalLength = Long.parseLong(total.trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalStateException("Malformed WARC-Segment-Total-Length: " + total);
+                }
+            }
+            part = next.getContentStream();
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (!done) {
+                int b = part.read();
+                if (b >= 0) {
+                    length++;
+                    return b;
+                }
+                nextPart();
+            }
+            return -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (!done) {
+                int n = part.read(b, off, len);
+                if (n > 0) {
+                    length += n;
+                    return n;
+                }
+                nextPart();
+            }
+            return -1;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            while (!done && n > 0) {
+                long skipped = part.skip(n);
+                if (skipped > 0) {
+                    length += skipped;
+                    return skipped;
+                }
+                if (read() < 0) return 0;
+                return 1;
+            }
+            return 0;
+        }
+
+        /** Skips the rest of the body, reading any remaining continuation records. */
+        void skipRemaining() throws IOException {
+            while (!done) {
+                if (skip(Long.MAX_VALUE) <= 0 && !done) nextPart();
+            }
+        }
+    }
+}
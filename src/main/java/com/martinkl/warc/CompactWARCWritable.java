@@ -0,0 +1,295 @@
+package com.martinkl.warc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A mutable wrapper around a {@link WARCRecord}, like {@link WARCWritable}, but using a
+ * compact binary encoding instead of the textual WARC format. This is intended for data that
+ * is shuffled between mappers and reducers: deserializing doesn't require parsing header
+ * lines, and records can be sorted without deserializing them at all.
+ *
+ * The encoding is as follows (all lengths and counts are Hadoop variable-length integers):
+ *
+ * 1. The length and UTF-8 bytes of the `WARC-Target-URI` (length -1 if there is none).
+ * 2. The length and UTF-8 bytes of the `WARC-Date` (length -1 if there is none).
+ * 3. The number of header fields, followed by each field: a code identifying one of the
+ *    standard WARC 1.0 field names (or 0, followed by the length and bytes of a
+ *    non-standard name), and the length and bytes of the value. A value length of -1
+ *    means that the value is the target URI or date from the start of the encoding.
+ * 4. The length of the body (-1 if the record has no body), followed by the raw body.
+ *
+ * Since the target URI and date come first, {@link URIComparator} and {@link DateComparator}
+ * can compare records directly on their serialized bytes. The URI comparator is registered
+ * as the default comparator for this class, so records used as map output keys are sorted
+ * by target URI and then by date. To sort by date instead, use
+ * `job.setSortComparatorClass(CompactWARCWritable.DateComparator.class)` (or
+ * `setOutputKeyComparatorClass` in the mapred API).
+ *
+ * When a record is read, the header and body buffers of the previous record read by this
+ * writable are reused, so a record obtained from {@link #getRecord()} is only valid until the
+ * next call to {@link #readFields(DataInput)}, in the same way as Hadoop's `Text`.
+ */
+public class CompactWARCWritable implements WritableComparable<CompactWARCWritable> {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // The position in this array is the code used in the encoding, so never reorder it;
+    // new names may only be appended.
+    private static final String[] STANDARD_FIELDS = {
+        null, "WARC-Type", "WARC-Record-ID", "WARC-Date", "Content-Length", "Content-Type",
+        "WARC-Concurrent-To", "WARC-Block-Digest", "WARC-Payload-Digest", "WARC-IP-Address",
+        "WARC-Refers-To", "WARC-Target-URI", "WARC-Truncated", "WARC-Warcinfo-ID", "WARC-Filename",
+        "WARC-Profile", "WARC-Identified-Payload-Type", "WARC-Segment-Origin-ID",
+        "WARC-Segment-Number", "WARC-Segment-Total-Length"
+    };
+    private static final byte[][] STANDARD_FIELD_BYTES = new byte[STANDARD_FIELDS.length][];
+    private static final int TARGET_URI_CODE = 11, DATE_CODE = 3;
+    private static final byte[] EMPTY = new byte[0];
+
+    static {
+        for (int i = 1; i < STANDARD_FIELDS.length; i++) STANDARD_FIELD_BYTES[i] = STANDARD_FIELDS[i].getBytes(UTF8);
+        WritableComparator.define(CompactWARCWritable.class, new URIComparator());
+    }
+
+    private WARCRecord record, ownRecord;
+    private byte[] uri = EMPTY, date = EMPTY, name = EMPTY, value = EMPTY;
+    private int uriLength, dateLength;
+
+    /** Creates an empty writable (with a null record). */
+    public CompactWARCWritable() {
+        this.record = null;
+    }
+
+    /** Creates a writable wrapper around a given WARCRecord. */
+    public CompactWARCWritable(WARCRecord record) {
+        this.record = record;
+    }
+
+    /** Returns the record currently wrapped by this writable. */
+    public WARCRecord getRecord() {
+        return record;
+    }
+
+    /** Updates the record held within this writable wrapper. */
+    public void setRecord(WARCRecord record) {
+        this.record = record;
+    }
+
+    /** Appends the current record to a {@link DataOutput} stream, in the compact encoding. */
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WARCRecord.Header header = record.getHeader();
+        byte[] data = header.getData();
+        int uriIndex = header.indexOf("WARC-Target-URI"), dateIndex = header.indexOf("WARC-Date");
+        writeValue(out, header, uriIndex);
+        writeValue(out, header, dateIndex);
+
+        int count = header.getFieldCount();
+        WritableUtils.writeVInt(out, count);
+        for (int i = 0; i < count; i++) {
+            int nameStart = header.getFieldOffset(4 * i), nameEnd = header.getFieldOffset(4 * i + 1);
+            int code = fieldCode(data, nameStart, nameEnd);
+            WritableUtils.writeVInt(out, code);
+            if (code == 0) {
+                WritableUtils.writeVInt(out, nameEnd - nameStart);
+                out.write(data, nameStart, nameEnd - nameStart);
+            }
+            if (i == uriIndex || i == dateIndex) {
+                WritableUtils.writeVInt(out, -1);
+            } else {
+                writeValue(out, header, i);
+            }
+        }
+
+        if (record.hasContent()) {
+            WritableUtils.writeVLong(out, record.getBodyLength());
+            record.writeBody(out);
+        } else {
+            WritableUtils.writeVLong(out, -1);
+        }
+    }
+
+    private static void writeValue(DataOutput out, WARCRecord.Header header, int index) throws IOException {
+        if (index < 0) {
+            WritableUtils.writeVInt(out, -1);
+        } else {
+            int start = header.getFieldOffset(4 * index + 2), end = header.getFieldOffset(4 * index + 3);
+            WritableUtils.writeVInt(out, end - start);
+            out.write(header.getData(), start, end - start);
+        }
+    }
+
+    private static int fieldCode(byte[] data, int start, int end) {
+        for (int code = 1; code < STANDARD_FIELD_BYTES.length; code++) {
+            byte[] name = STANDARD_FIELD_BYTES[code];
+            if (name.length != end - start) continue;
+            int i = 0;
+            while (i < name.length && name[i] == data[start + i]) i++;
+            if (i == name.length) return code;
+        }
+        return 0;
+    }
+
+    /**
+     * Reads a record in the compact encoding from a {@link DataInput} stream, and makes it
+     * the writable's current record.
+     */
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        uriLength = WritableUtils.readVInt(in);
+        if (uriLength > 0) uri = readBytes(in, uri, uriLength);
+        dateLength = WritableUtils.readVInt(in);
+        if (dateLength > 0) date = readBytes(in, date, dateLength);
+
+        if (ownRecord == null) ownRecord = new WARCRecord(new WARCRecord.Header());
+        WARCRecord.Header header = ownRecord.getHeader();
+        header.clear();
+        int count = WritableUtils.readVInt(in);
+        for (int i = 0; i < count; i++) {
+            int code = WritableUtils.readVInt(in);
+            byte[] nameBytes;
+            int nameLength;
+            if (code == 0) {
+                nameLength = WritableUtils.readVInt(in);
+                nameBytes = name = readBytes(in, name, nameLength);
+            } else if (code < STANDARD_FIELD_BYTES.length) {
+                nameBytes = STANDARD_FIELD_BYTES[code];
+                nameLength = nameBytes.length;
+            } else {
+                throw new IOException("Unknown field code " + code + " in compact WARC record");
+            }
+
+            int valueLength = WritableUtils.readVInt(in);
+            if (valueLength >= 0) {
+                value = readBytes(in, value, valueLength);
+                header.appendField(nameBytes, 0, nameLength, value, 0, valueLength);
+            } else if (code == TARGET_URI_CODE && uriLength >= 0) {
+                header.appendField(nameBytes, 0, nameLength, uri, 0, uriLength);
+            } else if (code == DATE_CODE && dateLength >= 0) {
+                header.appendField(nameBytes, 0, nameLength, date, 0, dateLength);
+            } else {
+                throw new IOException("Invalid field reference in compact WARC record");
+            }
+        }
+
+        long bodyLength = WritableUtils.readVLong(in);
+        if (bodyLength >= 0) {
+            ownRecord.readBody(in, bodyLength);
+        } else {
+            ownRecord.clearContent();
+        }
+        record = ownRecord;
+    }
+
+    private static byte[] readBytes(DataInput in, byte[] buf, int length) throws IOException {
+        if (length < 0) throw new IOException("Negative length in compact WARC record");
+        if (buf.length < length) buf = new byte[Math.max(length, 2 * buf.length)];
+        in.readFully(buf, 0, length);
+        return buf;
+    }
+
+    /**
+     * Compares records by target URI (as UTF-8 bytes), and then by date. Records without a
+     * target URI or date sort first.
+     */
+    @Override
+    public int compareTo(CompactWARCWritable other) {
+        WARCRecord.Header a = record.getHeader(), b = other.record.getHeader();
+        int cmp = compareFields(a, a.indexOf("WARC-Target-URI"), b, b.indexOf("WARC-Target-URI"));
+        if (cmp != 0) return cmp;
+        return compareFields(a, a.indexOf("WARC-Date"), b, b.indexOf("WARC-Date"));
+    }
+
+    private static int compareFields(WARCRecord.Header a, int indexA, WARCRecord.Header b, int indexB) {
+        if (indexA < 0 || indexB < 0) return (indexA < 0 ? 0 : 1) - (indexB < 0 ? 0 : 1);
+        int startA = a.getFieldOffset(4 * indexA + 2), endA = a.getFieldOffset(4 * indexA + 3);
+        int startB = b.getFieldOffset(4 * indexB + 2), endB = b.getFieldOffset(4 * indexB + 3);
+        return WritableComparator.compareBytes(a.getData(), startA, endA - startA, b.getData(), startB, endB - startB);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CompactWARCWritable && compareTo((CompactWARCWritable) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        WARCRecord.Header header = record.getHeader();
+        int index = header.indexOf("WARC-Target-URI");
+        if (index < 0) return 0;
+        int start = header.getFieldOffset(4 * index + 2), end = header.getFieldOffset(4 * index + 3);
+        return WritableComparator.hashBytes(header.getData(), start, end - start);
+    }
+
+    /**
+     * Compares serialized records by target URI, and then by date, without deserializing them.
+     */
+    public static class URIComparator extends WritableComparator {
+        public URIComparator() {
+            super(CompactWARCWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                int uriLength1 = readVInt(b1, s1), uriLength2 = readVInt(b2, s2);
+                s1 += WritableUtils.decodeVIntSize(b1[s1]);
+                s2 += WritableUtils.decodeVIntSize(b2[s2]);
+                int cmp = compareValues(b1, s1, uriLength1, b2, s2, uriLength2);
+                if (cmp != 0) return cmp;
+                s1 += Math.max(0, uriLength1);
+                s2 += Math.max(0, uriLength2);
+                return compareValues(b1, s1 + WritableUtils.decodeVIntSize(b1[s1]), readVInt(b1, s1),
+                                     b2, s2 + WritableUtils.decodeVIntSize(b2[s2]), readVInt(b2, s2));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    /**
+     * Compares serialized records by date, and then by target URI, without deserializing them.
+     */
+    public static class DateComparator extends WritableComparator {
+        public DateComparator() {
+            super(CompactWARCWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                int uriLength1 = readVInt(b1, s1), uriLength2 = readVInt(b2, s2);
+                int uriStart1 = s1 + WritableUtils.decodeVIntSize(b1[s1]);
+                int uriStart2 = s2 + WritableUtils.decodeVIntSize(b2[s2]);
+                int dateField1 = uriStart1 + Math.max(0, uriLength1), dateField2 = uriStart2 + Math.max(0, uriLength2);
+                int cmp = compareValues(b1, dateField1 + WritableUtils.decodeVIntSize(b1[dateField1]), readVInt(b1, dateField1),
+                                        b2, dateField2 + WritableUtils.decodeVIntSize(b2[dateField2]), readVInt(b2, dateField2));
+                if (cmp != 0) return cmp;
+                return compareValues(b1, uriStart1, uriLength1, b2, uriStart2, uriLength2);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int compare(WritableComparable a, WritableComparable b) {
+            WARCRecord.Header headerA = ((CompactWARCWritable) a).record.getHeader();
+            WARCRecord.Header headerB = ((CompactWARCWritable) b).record.getHeader();
+            int cmp = compareFields(headerA, headerA.indexOf("WARC-Date"), headerB, headerB.indexOf("WARC-Date"));
+            if (cmp != 0) return cmp;
+            return compareFields(headerA, headerA.indexOf("WARC-Target-URI"), headerB, headerB.indexOf("WARC-Target-URI"));
+        }
+    }
+
+    /** Compares two length-prefixed values, where a length of -1 means absent. */
+    private static int compareValues(byte[] b1, int s1, int length1, byte[] b2, int s2, int length2) {
+        if (length1 < 0 || length2 < 0) return (length1 < 0 ? 0 : 1) - (length2 < 0 ? 0 : 1);
+        return WritableComparator.compareBytes(b1, s1, length1, b2, s2, length2);
+    }
+}
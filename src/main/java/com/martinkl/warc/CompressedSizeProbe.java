@@ -0,0 +1,138 @@
+package com.martinkl.warc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import com.github.luben.zstd.EndDirective;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdException;
+
+/**
+ * Measures how large data becomes when it is compressed in the format of a WARC file, so that
+ * {@link WARCFileWriter} can cut a record that doesn't fit into a segment into parts that do.
+ * The data is compressed and the output is thrown away. The compressor is flushed after every
+ * write, so the size is exact at that point. Compressing the same data without the flushes,
+ * as the writer does, can only make it smaller, so the size is a safe upper bound. (Flushing
+ * gzip output needs `Deflater.SYNC_FLUSH`, from Java 7.)
+ */
+abstract class CompressedSizeProbe {
+    protected long size = 0;
+
+    /**
+     * Creates a probe for the given format.
+     * @param compression The compression format of the WARC file.
+     * @param zstdLevel For zstd, the compression level.
+     * @param zstdDictionary For zstd, the dictionary used to compress every frame, or null.
+     */
+    static CompressedSizeProbe create(WARCCompression compression, int zstdLevel, byte[] zstdDictionary) {
+        switch (compression) {
+        case GZIP:
+            return new GzipProbe();
+        case ZSTD:
+            return new ZstdProbe(zstdLevel, zstdDictionary);
+        default:
+            return new CompressedSizeProbe() {
+                @Override
+                void write(byte[] b, int off, int len) {
+                    size += len;
+                }
+            };
+        }
+    }
+
+    /** Compresses more data, adding its compressed size to {@link #getSize()}. */
+    abstract void write(byte[] b, int off, int len) throws IOException;
+
+    /** Returns the compressed size of everything written since creation or the last reset. */
+    long getSize() {
+        return size;
+    }
+
+    /** Starts measuring a new member or frame, which shares no history with the last one. */
+    void reset() throws IOException {
+        size = 0;
+    }
+
+    /** Releases the compressor. */
+    void close() {
+    }
+
+    private static class GzipProbe extends CompressedSizeProbe {
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final byte[] output = new byte[65536];
+
+        @Override
+        void write(byte[] b, int off, int len) {
+            deflater.setInput(b, off, len);
+            int n;
+            do {
+                n = deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+                size += n;
+            } while (n == output.length);
+        }
+
+        @Override
+        void reset() {
+            deflater.reset();
+            size = 0;
+        }
+
+        @Override
+        void close() {
+            deflater.end();
+        }
+    }
+
+    private static class ZstdProbe extends CompressedSizeProbe {
+        private final ZstdCompressCtx context = new ZstdCompressCtx();
+        private final ByteBuffer input = ByteBuffer.allocateDirect(65536);
+        private final ByteBuffer output = ByteBuffer.allocateDirect(65536);
+
+        ZstdProbe(int level, byte[] dictionary) {
+            context.setLevel(level);
+            context.setChecksum(true);
+            if (dictionary != null) context.loadDict(dictionary);
+        }
+
+        @Override
+        void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, input.remaining());
+                input.put(b, off, n);
+                off += n;
+                len -= n;
+                size += compress(EndDirective.FLUSH);
+            }
+        }
+
+        /** Compresses the buffered input, returning the size of the output. */
+        private long compress(EndDirective directive) throws IOException {
+            input.flip();
+            long produced = 0;
+            try {
+                boolean done;
+                do {
+                    done = context.compressDirectByteBufferStream(output, input, directive);
+                    produced += output.position();
+                    output.clear();
+                } while (!done || input.hasRemaining());
+            } catch (ZstdException e) {
+                throw new IOException("zstd compression failed: " + e.getMessage(), e);
+            } finally {
+                input.clear();
+            }
+            return produced;
+        }
+
+        @Override
+        void reset() throws IOException {
+            compress(EndDirective.END); // the next input starts a new frame
+            size = 0;
+        }
+
+        @Override
+        void close() {
+            context.close();
+        }
+    }
+}
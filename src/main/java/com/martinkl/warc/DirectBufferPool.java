@@ -0,0 +1,118 @@
+package com.martinkl.warc;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A pool of direct (off-heap) {@link ByteBuffer}s, used to hold record bodies outside of the
+ * Java heap when `warc.input.offheap` is set to true (see {@link WARCFileReader}). Keeping
+ * large, short-lived bodies off the heap avoids promoting them to the old generation, which
+ * fragments it and causes long GC pauses in long-running processes.
+ *
+ * Buffers are grouped into size classes (powers of two from 4kB to 64MB): a request is served
+ * from the smallest class that fits, and a released buffer goes back to the queue of its
+ * class. At most `warc.input.offheap.pool.size` bytes (default 256MB) are kept in the pool;
+ * buffers released beyond that, and buffers for bodies larger than the largest size class,
+ * are left to the garbage collector.
+ *
+ * The pool is thread-safe. {@link #getHits()} and {@link #getMisses()} report how many
+ * requests were served from the pool and how many required a new allocation.
+ */
+public class DirectBufferPool {
+    public static final String POOL_SIZE_KEY = "warc.input.offheap.pool.size";
+    public static final long DEFAULT_POOL_SIZE = 256 * 1024 * 1024;
+    private static final int MIN_CLASS_SHIFT = 12, MAX_CLASS_SHIFT = 26;
+
+    private static DirectBufferPool shared = null;
+
+    private final long maxPooledBytes;
+    private final Queue<ByteBuffer>[] classes;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * Creates a pool that retains at most the given number of bytes in released buffers.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public DirectBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.classes = new Queue[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+        for (int i = 0; i < classes.length; i++) classes[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+    }
+
+    /**
+     * Returns the pool shared by all readers in this JVM, creating it with the size set in
+     * the configuration if it doesn't exist yet.
+     */
+    public static synchronized DirectBufferPool getShared(Configuration conf) {
+        if (shared == null) shared = new DirectBufferPool(conf.getLong(POOL_SIZE_KEY, DEFAULT_POOL_SIZE));
+        return shared;
+    }
+
+    /**
+     * Returns a direct buffer with at least the given capacity, positioned at 0 and with its
+     * limit set to `size`. The contents of the buffer are undefined.
+     */
+    public ByteBuffer acquire(int size) {
+        int index = classIndex(size);
+        ByteBuffer buffer = (index < 0) ? null : classes[index].poll();
+        if (buffer != null) {
+            hits.incrementAndGet();
+            pooledBytes.addAndGet(-buffer.capacity());
+        } else {
+            misses.incrementAndGet();
+            int capacity = (index < 0) ? size : 1 << (index + MIN_CLASS_SHIFT);
+            buffer = ByteBuffer.allocateDirect(capacity);
+            allocatedBytes.addAndGet(capacity);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire(int)} to the pool. The caller must not
+     * use the buffer (or any view of it) afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int index = classIndex(capacity);
+        if (index < 0 || capacity != 1 << (index + MIN_CLASS_SHIFT)) return;
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        classes[index].offer(buffer);
+    }
+
+    /** Returns the index of the smallest size class that fits `size`, or -1 if none does. */
+    private static int classIndex(int size) {
+        if (size > 1 << MAX_CLASS_SHIFT) return -1;
+        int shift = (size <= 1 << MIN_CLASS_SHIFT) ? MIN_CLASS_SHIFT : 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift - MIN_CLASS_SHIFT;
+    }
+
+    /** Returns the number of requests that were served with a buffer from the pool. */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Returns the number of requests for which a new buffer had to be allocated. */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Returns the total number of bytes of direct memory allocated by this pool. */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /** Returns the number of bytes in buffers that are currently waiting in the pool. */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+}
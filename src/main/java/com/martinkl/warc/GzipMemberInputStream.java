@@ -0,0 +1,221 @@
+package com.martinkl.warc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses a gzip stream consisting of one or more concatenated gzip members, while
+ * keeping track of the compressed offset at which each member starts. WARC files are
+ * conventionally compressed with one gzip member per record, which makes the member
+ * boundaries the points at which a reader can start reading in the middle of a file.
+ *
+ * Unlike {@link java.util.zip.GZIPInputStream}, a single call to `read()` never returns
+ * bytes from more than one member, and {@link #getMemberOffset()} tells you which member
+ * the next byte will come from.
+ */
+class GzipMemberInputStream extends MemberInputStream {
+    private static final int BUFFER_SIZE = 65536;
+    private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+
+    private final InputStream in;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] inputBuf = new byte[BUFFER_SIZE];
+    private final byte[] oneByte = new byte[1];
+    private byte[] skipBuf = null;
+    private int inputPos = 0, inputLimit = 0;
+    private long inputOffset; // compressed offset of inputBuf[0]
+    private long memberOffset = -1;
+    private boolean inMember = false, eof = false;
+    private int pushback = -1;
+    private volatile long inflateNanos = 0;
+
+    /**
+     * Creates a decompressing stream.
+     * @param in The compressed input, positioned at the start of a gzip member.
+     * @param offset The position of `in` within the file, used for reporting member offsets.
+     */
+    public GzipMemberInputStream(InputStream in, long offset) {
+        this.in = in;
+        this.inputOffset = offset;
+    }
+
+    @Override
+    void restart(long offset) {
+        inputOffset = offset;
+        inputPos = 0;
+        inputLimit = 0;
+        memberOffset = -1;
+        inMember = false;
+        eof = false;
+        pushback = -1;
+    }
+
+    @Override
+    public long getMemberOffset() throws IOException {
+        if (inMember && pushback < 0) {
+            int n = inflateInto(oneByte, 0, 1);
+            if (n == 1) pushback = oneByte[0] & 0xff;
+        }
+        return inMember ? memberOffset : inputOffset + inputPos;
+    }
+
+    @Override
+    public long getCurrentMemberOffset() {
+        return memberOffset;
+    }
+
+    @Override
+    public long getCompressedPosition() {
+        return inputOffset + (inMember ? inputLimit - inflater.getRemaining() : inputPos);
+    }
+
+    @Override
+    long getDecompressNanos() {
+        return inflateNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(oneByte, 0, 1);
+        return n == 1 ? oneByte[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (pushback >= 0) {
+            b[off] = (byte) pushback;
+            pushback = -1;
+            return 1 + (len > 1 ? inflateInto(b, off + 1, len - 1) : 0);
+        }
+        while (!eof) {
+            if (!inMember && !readMemberHeader()) {
+                eof = true;
+                break;
+            }
+            int n = inflateInto(b, off, len);
+            if (n > 0) return n;
+        }
+        return -1;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (skipBuf == null) skipBuf = new byte[BUFFER_SIZE];
+        long skipped = 0;
+        while (skipped < n) {
+            int len = read(skipBuf, 0, (int) Math.min(skipBuf.length, n - skipped));
+            if (len < 0) break;
+            skipped += len;
+        }
+        return skipped;
+    }
+
+    /**
+     * Inflates up to `len` bytes of the current member. Returns 0 (and leaves the member)
+     * if the end of the member is reached before any bytes are produced.
+     */
+    private int inflateInto(byte[] b, int off, int len) throws IOException {
+        try {
+            while (true) {
+                long startTime = System.nanoTime();
+                int n = inflater.inflate(b, off, len);
+                inflateNanos += System.nanoTime() - startTime;
+                if (n > 0) {
+                    crc.update(b, off, n);
+                    return n;
+                }
+                if (inflater.finished()) {
+                    inputPos = inputLimit - inflater.getRemaining();
+                    readMemberTrailer();
+                    return 0;
+                }
+                if (inflater.needsDictionary()) throw new ZipException("Unexpected preset dictionary");
+                if (inflater.needsInput()) {
+                    inputPos = inputLimit;
+                    if (!fillInput()) throw new EOFException("Unexpected end of gzip member");
+                    inflater.setInput(inputBuf, inputPos, inputLimit - inputPos);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt gzip member at offset " + memberOffset + ": " + e.getMessage());
+        }
+    }
+
+    private boolean readMemberHeader() throws IOException {
+        if (inputPos == inputLimit && !fillInput()) return false;
+        long offset = inputOffset + inputPos;
+        int magic1 = readInputByte(false), magic2 = readInputByte(false);
+        if (magic1 != 0x1f || magic2 != 0x8b) {
+            // Like java.util.zip.GZIPInputStream, ignore trailing garbage after the last member,
+            // but fail if the very first member is missing.
+            if (memberOffset < 0) throw new ZipException("Not in gzip format");
+            return false;
+        }
+        if (readInputByte(true) != 8) throw new ZipException("Unsupported gzip compression method");
+        int flags = readInputByte(true);
+        skipInput(6); // MTIME, XFL, OS
+        if ((flags & FEXTRA) != 0) skipInput(readInputByte(true) | (readInputByte(true) << 8));
+        if ((flags & FNAME) != 0) while (readInputByte(true) != 0);
+        if ((flags & FCOMMENT) != 0) while (readInputByte(true) != 0);
+        if ((flags & FHCRC) != 0) skipInput(2);
+
+        memberOffset = offset;
+        inMember = true;
+        inflater.reset();
+        crc.reset();
+        inflater.setInput(inputBuf, inputPos, inputLimit - inputPos);
+        return true;
+    }
+
+    private void readMemberTrailer() throws IOException {
+        long expectedCrc = readInputInt(), expectedSize = readInputInt();
+        if (expectedCrc != crc.getValue()) {
+            throw new ZipException("CRC mismatch in gzip member at offset " + memberOffset);
+        }
+        if (expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+            throw new ZipException("Size mismatch in gzip member at offset " + memberOffset);
+        }
+        inMember = false;
+    }
+
+    private long readInputInt() throws IOException {
+        long b0 = readInputByte(true), b1 = readInputByte(true), b2 = readInputByte(true), b3 = readInputByte(true);
+        return b0 | (b1 << 8) | (b2 << 16) | (b3 << 24);
+    }
+
+    private void skipInput(int n) throws IOException {
+        for (int i = 0; i < n; i++) readInputByte(true);
+    }
+
+    private int readInputByte(boolean required) throws IOException {
+        if (inputPos == inputLimit && !fillInput()) {
+            if (required) throw new EOFException("Unexpected end of gzip header");
+            return -1;
+        }
+        return inputBuf[inputPos++] & 0xff;
+    }
+
+    /** Reads more compressed input into the (fully consumed) input buffer. */
+    private boolean fillInput() throws IOException {
+        inputOffset += inputLimit;
+        inputPos = 0;
+        inputLimit = 0;
+        int n = in.read(inputBuf, 0, inputBuf.length);
+        if (n <= 0) return false;
+        inputLimit = n;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+}
@@ -0,0 +1,130 @@
+package com.martinkl.warc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses data as a sequence of independent gzip members. Everything written between
+ * two calls to {@link #finishMember()} becomes one member, so that a reader can start
+ * decompressing at the beginning of any member. This is the conventional way of
+ * compressing WARC files, with one member per record.
+ *
+ * The Deflater and buffers are reused from one member to the next.
+ */
+class GzipMemberOutputStream extends OutputStream {
+    private static final int BUFFER_SIZE = 65536;
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final OutputStream out;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] inputBuf = new byte[BUFFER_SIZE];
+    private final byte[] outputBuf = new byte[BUFFER_SIZE];
+    private final byte[] trailer = new byte[8];
+    private int inputLength = 0;
+    private boolean inMember = false;
+    private long deflateNanos = 0;
+
+    /**
+     * Creates a compressing stream.
+     * @param out The stream to which the compressed members are written.
+     * @param level The deflate compression level, or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public GzipMemberOutputStream(OutputStream out, int level) {
+        this.out = out;
+        this.deflater = new Deflater(level, true);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (inputLength == inputBuf.length) deflateInput();
+        inputBuf[inputLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len <= inputBuf.length - inputLength) {
+            System.arraycopy(b, off, inputBuf, inputLength, len);
+            inputLength += len;
+        } else {
+            deflateInput();
+            deflate(b, off, len);
+        }
+    }
+
+    private void deflateInput() throws IOException {
+        deflate(inputBuf, 0, inputLength);
+        inputLength = 0;
+    }
+
+    private void deflate(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return;
+        if (!inMember) {
+            out.write(HEADER);
+            inMember = true;
+        }
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            long startTime = System.nanoTime();
+            int n = deflater.deflate(outputBuf, 0, outputBuf.length);
+            deflateNanos += System.nanoTime() - startTime;
+            if (n > 0) out.write(outputBuf, 0, n);
+        }
+    }
+
+    /**
+     * Completes the current gzip member. The next byte written will start a new member.
+     * If nothing has been written since the last member was completed, an empty member
+     * is written.
+     */
+    public void finishMember() throws IOException {
+        deflateInput();
+        if (!inMember) {
+            out.write(HEADER);
+            inMember = true;
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            long startTime = System.nanoTime();
+            int n = deflater.deflate(outputBuf, 0, outputBuf.length);
+            deflateNanos += System.nanoTime() - startTime;
+            if (n > 0) out.write(outputBuf, 0, n);
+        }
+        writeIntLE(trailer, 0, crc.getValue());
+        writeIntLE(trailer, 4, deflater.getBytesRead());
+        out.write(trailer);
+
+        deflater.reset();
+        crc.reset();
+        inMember = false;
+    }
+
+    /** Returns the total time spent in the Deflater, in nanoseconds. */
+    long getDeflateNanos() {
+        return deflateNanos;
+    }
+
+    private static void writeIntLE(byte[] buf, int off, long value) {
+        buf[off]     = (byte) value;
+        buf[off + 1] = (byte) (value >> 8);
+        buf[off + 2] = (byte) (value >> 16);
+        buf[off + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * Completes the current member, if any data has been written to it, and closes the
+     * underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (inMember || inputLength > 0) finishMember();
+            out.close();
+        } finally {
+            deflater.end();
+        }
+    }
+}
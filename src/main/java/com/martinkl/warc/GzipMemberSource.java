@@ -0,0 +1,31 @@
+package com.martinkl.warc;
+
+import java.io.IOException;
+
+/**
+ * A source of decompressed bytes that knows which gzip member (or zstd frame) each byte came
+ * from. Implemented by {@link MemberInputStream}, and by {@link ReadAheadInputStream} when
+ * it is reading ahead from a {@link MemberInputStream} on a background thread.
+ */
+interface GzipMemberSource {
+
+    /**
+     * Returns the compressed offset of the gzip member from which the next byte will be
+     * read. If the current member has been fully consumed, this is the offset at which
+     * the following member starts (or the end of the compressed data, if there are no
+     * more members).
+     */
+    long getMemberOffset() throws IOException;
+
+    /**
+     * Returns the compressed offset of the gzip member from which the most recently returned
+     * bytes were read.
+     */
+    long getCurrentMemberOffset();
+
+    /**
+     * Returns the position in the compressed data up to which input has been consumed in
+     * order to produce the bytes returned so far.
+     */
+    long getCompressedPosition();
+}
@@ -0,0 +1,432 @@
+package com.martinkl.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A view of the HTTP request or response in the body of a WARC record (a `response`,
+ * `request` or `revisit` record with `Content-Type: application/http`). Nothing is parsed
+ * when the view is created: the start line is parsed when you first ask for the status code,
+ * method and so on, and the headers when you first ask for a header. So if you reject most
+ * records by their status code, you only pay for parsing one line of them.
+ *
+ * If the record's body is in memory, the entity body (the part after the headers) is
+ * available as a read-only slice of the record's buffer with {@link #getEntityBuffer()},
+ * without copying. For streaming records, the HTTP headers are read from the stream when
+ * the view is created, and the entity can be read once with {@link #getEntityStream()}.
+ * {@link #getDecodedEntityStream()} undoes `Transfer-Encoding: chunked` and `gzip` or
+ * `deflate` compression as the entity is read, without buffering it.
+ *
+ * Parsing is lenient, since archived traffic often doesn't follow the spec: lines may end
+ * with LF instead of CRLF, malformed header lines are skipped, and the entity extends to
+ * the end of the record regardless of any `Content-Length` header. Header names and values
+ * are decoded as ISO-8859-1. A view is not thread-safe.
+ */
+public class HTTPMessage {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int MAX_HEADER_SIZE = 256 * 1024;
+    private static final int MAX_CHUNK_LINE = 8192;
+    private static final int READ_SIZE = 4096;
+
+    private final ByteBuffer data; // the record body if in memory; otherwise the bytes read so far
+    private final InputStream rest; // the unread part of a streaming body, or null
+    private boolean entityRead = false;
+    private int headerEnd = -1, lineEnd = -1;
+    private String version, method, requestURI, reason;
+    private int status = -1;
+    private List<String> names = null, values = null;
+
+    /**
+     * Creates a view of the HTTP message in a record's body. If the body is not in memory,
+     * the HTTP headers (and possibly the first few kB of the entity) are read from
+     * {@link WARCRecord#getContentStream()}, and nothing else may read from that stream.
+     * @param record The record containing the HTTP message.
+     * @throws IOException if a streaming body can't be read, or has more than 256kB of
+     *         headers.
+     * @throws IllegalStateException if the record was read without its body.
+     */
+    public HTTPMessage(WARCRecord record) throws IOException {
+        if (record.isInMemory()) {
+            this.data = record.getContentBuffer().slice();
+            this.rest = null;
+        } else {
+            this.rest = record.getContentStream();
+            this.data = readHead(rest);
+        }
+    }
+
+    private HTTPMessage(ByteBuffer data) {
+        this.data = data;
+        this.rest = null;
+    }
+
+    /**
+     * Returns the media type of the HTTP message in a record's body, as {@link #getMimeType()}
+     * does, without using up the body: returns null if the body can only be read once.
+     */
+    static String readMimeType(WARCRecord record) throws IOException {
+        if (record.isInMemory()) return new HTTPMessage(record).getMimeType();
+        if (!record.isRepeatable()) return null;
+        InputStream in = record.getContentStream();
+        try {
+            return new HTTPMessage(readHead(in)).getMimeType();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads from a stream until the end of the HTTP headers has been read, or the stream
+     * ends. Returns the bytes read, which may include the start of the entity.
+     */
+    private static ByteBuffer readHead(InputStream in) throws IOException {
+        byte[] buf = new byte[READ_SIZE];
+        int length = 0, n;
+        while ((n = in.read(buf, length, buf.length - length)) > 0) {
+            int scanFrom = Math.max(0, length - 2);
+            length += n;
+            if (findHeaderEnd(ByteBuffer.wrap(buf, 0, length), scanFrom) >= 0) break;
+            if (length == buf.length) {
+                if (buf.length >= MAX_HEADER_SIZE) throw new IOException("HTTP headers are longer than " + MAX_HEADER_SIZE + " bytes");
+                buf = Arrays.copyOf(buf, 2 * buf.length);
+            }
+        }
+        return ByteBuffer.wrap(buf, 0, length).slice();
+    }
+
+    /**
+     * Returns the position after the blank line (CRLF CRLF, or LF LF) that ends the headers,
+     * looking for it from position `from`, or -1 if there is none.
+     */
+    static int findHeaderEnd(ByteBuffer data, int from) {
+        for (int i = Math.max(1, from); i < data.limit(); i++) {
+            if (data.get(i) != '\n') continue;
+            if (data.get(i - 1) == '\n') return i + 1;
+            if (i >= 2 && data.get(i - 1) == '\r' && data.get(i - 2) == '\n') return i + 1;
+        }
+        return -1;
+    }
+
+    /** Returns the position of the first byte after the headers. */
+    private int headerEnd() {
+        if (headerEnd < 0) {
+            headerEnd = findHeaderEnd(data, 0);
+            if (headerEnd < 0) headerEnd = data.limit(); // headers without an entity
+        }
+        return headerEnd;
+    }
+
+    /** Returns the end of the line starting at `start` (the position of its LF, or the limit). */
+    private int lineEnd(int start, int limit) {
+        int i = start;
+        while (i < limit && data.get(i) != '\n') i++;
+        return i;
+    }
+
+    /** Decodes the bytes from `start` to `end`, without a trailing CR. */
+    private String decode(int start, int end) {
+        if (end > start && data.get(end - 1) == '\r') end--;
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = data.get(start + i);
+        return new String(bytes, ISO_8859_1);
+    }
+
+    private void parseStartLine() {
+        if (lineEnd >= 0) return;
+        lineEnd = lineEnd(0, headerEnd());
+        String line = decode(0, lineEnd).trim();
+        String[] parts = line.split(" +", 3);
+        if (line.startsWith("HTTP/")) {
+            version = parts[0];
+            if (parts.length > 1) {
+                try {
+                    status = Integer.parseInt(parts[1]);
+                } catch (NumberFormatException e) {
+                    status = -1;
+                }
+            }
+            reason = (parts.length > 2) ? parts[2] : "";
+        } else if (parts.length >= 2) {
+            method = parts[0];
+            requestURI = parts[1];
+            version = (parts.length > 2) ? parts[2] : null;
+        }
+    }
+
+    private void parseHeaders() {
+        if (names != null) return;
+        parseStartLine();
+        names = new ArrayList<String>();
+        values = new ArrayList<String>();
+        int end = headerEnd();
+        for (int start = lineEnd + 1; start < end; ) {
+            int eol = lineEnd(start, end);
+            String line = decode(start, eol);
+            start = eol + 1;
+            if (line.isEmpty()) break;
+            if ((line.charAt(0) == ' ' || line.charAt(0) == '\t') && !values.isEmpty()) {
+                // Folded line: continues the previous header's value
+                int last = values.size() - 1;
+                values.set(last, values.get(last) + " " + line.trim());
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) continue; // malformed
+            names.add(line.substring(0, colon).trim());
+            values.add(line.substring(colon + 1).trim());
+        }
+    }
+
+    /** Returns true if this is an HTTP response (its start line is a status line). */
+    public boolean isResponse() {
+        parseStartLine();
+        return version != null && method == null;
+    }
+
+    /** Returns the status code of a response, or -1 for a request or a malformed status line. */
+    public int getStatusCode() {
+        parseStartLine();
+        return status;
+    }
+
+    /** Returns the reason phrase of a response (e.g. `Not Found`), or null for a request. */
+    public String getReasonPhrase() {
+        parseStartLine();
+        return reason;
+    }
+
+    /** Returns the method of a request (e.g. `GET`), or null for a response. */
+    public String getMethod() {
+        parseStartLine();
+        return method;
+    }
+
+    /** Returns the request target of a request (e.g. `/index.html`), or null for a response. */
+    public String getRequestURI() {
+        parseStartLine();
+        return requestURI;
+    }
+
+    /** Returns the HTTP version (e.g. `HTTP/1.1`), or null if the start line doesn't have one. */
+    public String getVersion() {
+        parseStartLine();
+        return version;
+    }
+
+    /** Returns the names of all headers, in order, with repeated headers repeated. */
+    public List<String> getHeaderNames() {
+        parseHeaders();
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Returns the value of the first header with the given name (ignoring case), or null if
+     * there is none.
+     */
+    public String getHeader(String name) {
+        parseHeaders();
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) return values.get(i);
+        }
+        return null;
+    }
+
+    /** Returns the values of all headers with the given name (ignoring case), in order. */
+    public List<String> getHeaders(String name) {
+        parseHeaders();
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) result.add(values.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the media type from the `Content-Type` header, without parameters and in lower
+     * case (e.g. `text/html`), or null if there is no such header.
+     */
+    public String getMimeType() {
+        String contentType = getHeader("Content-Type");
+        if (contentType == null) return null;
+        int semicolon = contentType.indexOf(';');
+        return (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /** Returns the offset of the entity within the record body, i.e. the length of the headers. */
+    public int getEntityOffset() {
+        return headerEnd();
+    }
+
+    /**
+     * Returns the entity as it was transferred (without undoing any transfer or content
+     * encoding), as a read-only slice of the record's body. Nothing is copied, so the buffer
+     * is only valid as long as the record's body is.
+     * @throws IllegalStateException if the record's body is not in memory.
+     */
+    public ByteBuffer getEntityBuffer() {
+        if (rest != null) {
+            throw new IllegalStateException("The record's body is not in memory; use getEntityStream()");
+        }
+        ByteBuffer entity = data.duplicate();
+        entity.position(headerEnd());
+        return entity.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the entity as it was transferred (without undoing any transfer or content
+     * encoding). If the record's body is in memory, a new stream over it is returned on
+     * every call; otherwise the entity is read from the record's stream, and can only be
+     * read once.
+     * @throws IllegalStateException if the entity of a streaming record has already been read.
+     */
+    public InputStream getEntityStream() {
+        if (rest == null) return new WARCRecord.BufferInputStream(getEntityBuffer());
+        if (entityRead) throw new IllegalStateException("The entity of a streaming record can only be read once");
+        entityRead = true;
+        ByteBuffer head = data.duplicate();
+        head.position(headerEnd());
+        return new SequenceInputStream(new WARCRecord.BufferInputStream(head), rest);
+    }
+
+    /**
+     * Returns the entity with `Transfer-Encoding` and `Content-Encoding` undone, i.e. with
+     * chunked encoding removed and `gzip` or `deflate` compression decompressed as the
+     * stream is read. A compressed entity that doesn't start like the declared compression
+     * format is returned as it is, since servers sometimes declare compression that they
+     * didn't apply. The same restrictions apply as to {@link #getEntityStream()}.
+     * @throws IOException if an encoding is not supported (e.g. `br`, as the JDK has no
+     *         Brotli decoder), or the start of the compressed data can't be read.
+     */
+    public InputStream getDecodedEntityStream() throws IOException {
+        List<String> transfer = getCodings("Transfer-Encoding"), content = getCodings("Content-Encoding");
+        for (String coding : transfer) checkSupported(coding);
+        for (String coding : content) checkSupported(coding);
+        InputStream in = getEntityStream();
+        for (int i = transfer.size() - 1; i >= 0; i--) in = decode(in, transfer.get(i));
+        for (int i = content.size() - 1; i >= 0; i--) in = decode(in, content.get(i));
+        return in;
+    }
+
+    /** Returns the codings listed in a header, in the order in which they were applied. */
+    private List<String> getCodings(String header) {
+        List<String> codings = new ArrayList<String>();
+        for (String value : getHeaders(header)) {
+            for (String coding : value.split(",")) {
+                coding = coding.trim().toLowerCase(Locale.ROOT);
+                if (!coding.isEmpty() && !coding.equals("identity")) codings.add(coding);
+            }
+        }
+        return codings;
+    }
+
+    private static void checkSupported(String coding) throws IOException {
+        if (!coding.equals("chunked") && !coding.equals("gzip") && !coding.equals("x-gzip") && !coding.equals("deflate")) {
+            throw new IOException("Unsupported HTTP encoding: " + coding);
+        }
+    }
+
+    private static InputStream decode(InputStream in, String coding) throws IOException {
+        if (coding.equals("chunked")) return new ChunkedInputStream(in);
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        byte[] head = new byte[2];
+        int length = 0, n;
+        while (length < 2 && (n = pushback.read(head, length, 2 - length)) > 0) length += n;
+        pushback.unread(head, 0, length);
+        if (length < 2) return pushback; // empty, e.g. the response to a HEAD request
+        int b0 = head[0] & 0xff, b1 = head[1] & 0xff;
+        if (coding.equals("deflate")) {
+            // Servers send either zlib-wrapped (as specified) or raw deflate data
+            boolean zlib = (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+            return new InflaterInputStream(pushback, new Inflater(!zlib));
+        }
+        if (b0 != 0x1f || b1 != 0x8b) return pushback; // not actually gzipped
+        return new GZIPInputStream(pushback);
+    }
+
+    /**
+     * Decodes `Transfer-Encoding: chunked`. Chunk extensions and trailers are ignored. A
+     * stream that ends in the middle of a chunk, as truncated captures do, just ends early.
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining = 0;
+        private boolean first = true, finished = false;
+
+        ChunkedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (remaining == 0 && !nextChunk()) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                finished = true;
+                return -1;
+            }
+            remaining -= n;
+            return n;
+        }
+
+        /** Reads the next chunk-size line, and returns false at the last chunk or end of stream. */
+        private boolean nextChunk() throws IOException {
+            if (finished) return false;
+            String line = readLine();
+            if (!first && line != null && line.isEmpty()) line = readLine(); // CRLF after the chunk data
+            first = false;
+            if (line == null) {
+                finished = true;
+                return false;
+            }
+            int semicolon = line.indexOf(';');
+            if (semicolon >= 0) line = line.substring(0, semicolon);
+            try {
+                remaining = Long.parseLong(line.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed chunk size: " + line);
+            }
+            if (remaining < 0) throw new IOException("Malformed chunk size: " + line);
+            if (remaining == 0) finished = true;
+            return remaining > 0;
+        }
+
+        /** Reads a line without its line ending, or returns null at the end of the stream. */
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) >= 0 && c != '\n') {
+                if (line.length() >= MAX_CHUNK_LINE) throw new IOException("Chunk-size line too long");
+                line.append((char) c);
+            }
+            if (c < 0 && line.length() == 0) return null;
+            int length = line.length();
+            if (length > 0 && line.charAt(length - 1) == '\r') line.setLength(length - 1);
+            return line.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.martinkl.warc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.apache.hadoop.fs.ByteBufferReadable;
+
+/**
+ * Reads a local file through memory mappings, so that data can be copied straight from the
+ * page cache into a destination buffer, or handed out as a read-only slice of the mapping
+ * without copying at all. The file is mapped in windows of up to 1 GB, one after another,
+ * as reading progresses.
+ *
+ * Mappings can't be released explicitly in Java; they are unmapped when the garbage
+ * collector finds them unreachable, i.e. once the stream and all slices taken from it are
+ * gone.
+ */
+class MappedFileInputStream extends InputStream implements ByteBufferReadable {
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long length;
+    private MappedByteBuffer window = null;
+    private long windowStart = 0;
+    private long position = 0;
+
+    /**
+     * Opens a file for reading.
+     * @param file The file, which must not change while it is being read.
+     * @throws IOException
+     */
+    public MappedFileInputStream(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.length = channel.size();
+    }
+
+    /**
+     * Returns the window containing the current position, mapping it if necessary, or null
+     * at the end of the file.
+     */
+    private MappedByteBuffer currentWindow() throws IOException {
+        if (position >= length) return null;
+        if (!inWindow(position)) mapWindow(position);
+        window.position((int) (position - windowStart));
+        return window;
+    }
+
+    private boolean inWindow(long offset) {
+        return window != null && offset >= windowStart && offset < windowStart + window.capacity();
+    }
+
+    private void mapWindow(long offset) throws IOException {
+        window = null; // allow the old mapping to be collected
+        windowStart = offset - offset % WINDOW_SIZE;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW_SIZE, length - windowStart));
+    }
+
+    @Override
+    public int read() throws IOException {
+        MappedByteBuffer buffer = currentWindow();
+        if (buffer == null) return -1;
+        position++;
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        MappedByteBuffer buffer = currentWindow();
+        if (buffer == null) return -1;
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) return 0;
+        MappedByteBuffer buffer = currentWindow();
+        if (buffer == null) return -1;
+        int n = Math.min(dst.remaining(), buffer.remaining());
+        ByteBuffer source = buffer.duplicate();
+        source.limit(source.position() + n);
+        dst.put(source);
+        position += n;
+        return n;
+    }
+
+    /**
+     * Returns `len` bytes starting at offset `start` in the file as a read-only slice of the
+     * mapping, without copying them. The stream's position is unchanged. Returns null if the
+     * bytes cross a window boundary or the end of the file.
+     */
+    ByteBuffer slice(long start, int len) throws IOException {
+        if (start < 0 || len < 0 || start + len > length) return null;
+        if (!inWindow(start)) mapWindow(start);
+        if (start + len > windowStart + window.capacity()) return null;
+        ByteBuffer slice = window.duplicate();
+        slice.position((int) (start - windowStart));
+        slice.limit(slice.position() + len);
+        return slice.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, length - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+}
@@ -0,0 +1,25 @@
+package com.martinkl.warc;
+
+import java.io.InputStream;
+
+/**
+ * A decompressing stream over a file made of independently compressed members (gzip members
+ * or zstd frames), which can be repositioned at the start of any member. See
+ * {@link GzipMemberInputStream} and {@link ZstdFrameInputStream}.
+ */
+abstract class MemberInputStream extends InputStream implements GzipMemberSource {
+
+    /**
+     * Discards all buffered input and decompression state, so that decompression can start
+     * again at a different member. The caller must position the underlying stream at the
+     * start of that member before reading again.
+     * @param offset The new position of the underlying stream within the file.
+     */
+    abstract void restart(long offset);
+
+    /**
+     * Returns the total time spent in the decompressor, in nanoseconds. Safe to call from a
+     * different thread than the one that is reading.
+     */
+    abstract long getDecompressNanos();
+}
@@ -0,0 +1,128 @@
+package com.martinkl.warc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compresses blocks of data into independent gzip members on a pool of background threads.
+ * Each submitted block becomes one complete gzip member; it's up to the caller to write the
+ * results out in the right order. This is used by {@link WARCFileWriter} to compress records
+ * in parallel, in the style of pigz.
+ */
+class ParallelGzipCompressor {
+    private static final AtomicInteger poolNumber = new AtomicInteger();
+
+    private final ExecutorService executor;
+    private final BlockingQueue<Compressor> compressors;
+    private final AtomicLong deflateNanos = new AtomicLong();
+    private boolean shutdown = false; // guarded by compressors
+
+    /**
+     * Starts the compression threads.
+     * @param threads The number of threads, each of which has its own Deflater.
+     * @param level The deflate compression level.
+     */
+    public ParallelGzipCompressor(int threads, int level) {
+        final String namePrefix = "warc-gzip-" + poolNumber.incrementAndGet() + "-";
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.compressors = new ArrayBlockingQueue<Compressor>(threads);
+        for (int i = 0; i < threads; i++) compressors.add(new Compressor(level));
+    }
+
+    /**
+     * Schedules a block of data for compression. The returned future yields the complete
+     * gzip member.
+     * @param data The uncompressed data. Must not be modified until the future completes.
+     */
+    public Future<byte[]> submit(final ByteArrayOutputStream data) {
+        return executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException, InterruptedException {
+                Compressor compressor = compressors.take();
+                long before = compressor.gzip.getDeflateNanos();
+                try {
+                    return compressor.compress(data);
+                } finally {
+                    deflateNanos.addAndGet(compressor.gzip.getDeflateNanos() - before);
+                    release(compressor);
+                }
+            }
+        });
+    }
+
+    /**
+     * Hands a compressor back to the pool once a task is done with it, or closes it if the
+     * pool has been shut down in the meantime (which the shutdown can't do, since the task
+     * was using it).
+     */
+    private void release(Compressor compressor) {
+        synchronized (compressors) {
+            if (shutdown) {
+                compressor.close();
+            } else {
+                compressors.add(compressor);
+            }
+        }
+    }
+
+    /** Returns the total time the compression threads have spent in their Deflaters, in nanoseconds. */
+    public long getDeflateNanos() {
+        return deflateNanos.get();
+    }
+
+    /**
+     * Stops the compression threads and releases the Deflaters. Any compression tasks that
+     * have not yet started are abandoned; the Deflaters of tasks that are still running are
+     * released when those tasks finish.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        synchronized (compressors) {
+            shutdown = true;
+            for (Compressor compressor : compressors) compressor.close();
+            compressors.clear();
+        }
+    }
+
+    private static class Compressor {
+        private final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        private final GzipMemberOutputStream gzip;
+
+        Compressor(int level) {
+            this.gzip = new GzipMemberOutputStream(sink, level);
+        }
+
+        byte[] compress(ByteArrayOutputStream data) throws IOException {
+            sink.reset();
+            data.writeTo(gzip);
+            gzip.finishMember();
+            return sink.toByteArray();
+        }
+
+        void close() {
+            try {
+                gzip.close();
+            } catch (IOException e) {
+                // can't happen, since sink is in memory
+            }
+        }
+    }
+}
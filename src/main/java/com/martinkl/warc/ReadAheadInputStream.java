@@ -0,0 +1,178 @@
+package com.martinkl.warc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads from an input stream on a background thread, ahead of the consumer, so that the
+ * consumer's processing overlaps with the source's I/O or decompression work. Data is passed
+ * in chunks through a bounded queue, and chunk buffers are recycled, so the memory used is
+ * fixed at `chunkSize * numChunks` bytes.
+ *
+ * Each chunk is filled by exactly one `read()` on the source. If the source is a
+ * {@link MemberInputStream}, a chunk therefore never contains bytes from more than one
+ * gzip member or zstd frame, and this stream can report member offsets like the source does.
+ */
+class ReadAheadInputStream extends InputStream implements GzipMemberSource {
+
+    private final InputStream in;
+    private final MemberInputStream gzip;
+    private final BlockingQueue<Chunk> full, empty;
+    private final Thread thread;
+    private Chunk current = null;
+    private int pos = 0;
+    private long position = 0, lastCompressedPosition = 0, waitNanos = 0;
+
+    /**
+     * Starts reading ahead from a stream.
+     * @param in The stream to read from. It is only accessed by the background thread
+     *           until this stream is closed.
+     * @param chunkSize The maximum number of bytes in each chunk.
+     * @param numChunks The number of chunks that may be buffered.
+     * @param threadName Name of the background thread.
+     */
+    public ReadAheadInputStream(InputStream in, int chunkSize, int numChunks, String threadName) {
+        this.in = in;
+        this.gzip = (in instanceof MemberInputStream) ? (MemberInputStream) in : null;
+        this.full = new ArrayBlockingQueue<Chunk>(numChunks);
+        this.empty = new ArrayBlockingQueue<Chunk>(numChunks);
+        for (int i = 0; i < numChunks; i++) empty.add(new Chunk(chunkSize));
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readAhead();
+            }
+        }, threadName);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void readAhead() {
+        try {
+            while (true) {
+                Chunk chunk = empty.take();
+                try {
+                    int n = in.read(chunk.data, 0, chunk.data.length);
+                    chunk.length = Math.max(n, 0);
+                    chunk.eof = n < 0;
+                    if (gzip != null) {
+                        chunk.memberOffset = chunk.eof ? gzip.getMemberOffset() : gzip.getCurrentMemberOffset();
+                        chunk.compressedPosition = gzip.getCompressedPosition();
+                    }
+                } catch (Throwable e) {
+                    chunk.error = e;
+                }
+                full.put(chunk);
+                if (chunk.eof || chunk.error != null) return;
+            }
+        } catch (InterruptedException e) {
+            // closed by the consumer
+        }
+    }
+
+    /**
+     * Makes sure that `current` has unread bytes, unless the end of the stream has been
+     * reached. Returns false at the end of the stream.
+     */
+    private boolean ensureAvailable() throws IOException {
+        while (current == null || (pos == current.length && !current.eof)) {
+            if (current != null) empty.add(current);
+            try {
+                long startTime = System.nanoTime();
+                current = full.take();
+                waitNanos += System.nanoTime() - startTime;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for read-ahead");
+            }
+            pos = 0;
+            if (current.error instanceof IOException) throw (IOException) current.error;
+            if (current.error instanceof RuntimeException) throw (RuntimeException) current.error;
+            if (current.error instanceof Error) throw (Error) current.error;
+            if (gzip != null) lastCompressedPosition = current.compressedPosition;
+        }
+        return pos < current.length;
+    }
+
+    /** Returns the time the consumer has spent waiting for the background thread, in nanoseconds. */
+    long getWaitNanos() {
+        return waitNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) return -1;
+        position++;
+        return current.data[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!ensureAvailable()) return -1;
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current.data, pos, b, off, n);
+        pos += n;
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - pos;
+    }
+
+    /**
+     * Returns the number of bytes that have been returned to the consumer.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public long getMemberOffset() throws IOException {
+        ensureAvailable();
+        return current.memberOffset;
+    }
+
+    @Override
+    public long getCurrentMemberOffset() {
+        return current == null ? -1 : current.memberOffset;
+    }
+
+    @Override
+    public long getCompressedPosition() {
+        return lastCompressedPosition;
+    }
+
+    /**
+     * Stops the background thread, waits for it to finish, and closes the source stream.
+     */
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing read-ahead stream");
+        }
+        in.close();
+    }
+
+    private static class Chunk {
+        final byte[] data;
+        int length;
+        boolean eof;
+        long memberOffset, compressedPosition;
+        Throwable error;
+
+        Chunk(int size) {
+            this.data = new byte[size];
+        }
+    }
+}
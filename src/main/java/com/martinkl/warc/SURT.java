@@ -0,0 +1,104 @@
+package com.martinkl.warc;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Converts URIs into SURT form (Sort-friendly URI Reordering Transform), as used as the
+ * key in CDX indexes. The host name is reversed so that all the pages of a domain and its
+ * subdomains sort next to each other, e.g. `http://www.Example.com:80/a?b=2&a=1` becomes
+ * `com,example)/a?a=1&b=2`.
+ *
+ * The canonicalization follows the usual conventions of CDX indexes: the scheme, a leading
+ * `www.`, the default port, any user info and the fragment are removed; the URI is
+ * lowercased; and query parameters are sorted. URIs which don't have a host (such as
+ * `dns:` or `urn:` URIs) are just lowercased.
+ */
+public final class SURT {
+
+    private SURT() {}
+
+    /**
+     * Returns the SURT form of a URI.
+     * @param uri The URI to convert, e.g. the `WARC-Target-URI` of a record.
+     */
+    public static String toSURT(String uri) {
+        String lower = uri.trim().toLowerCase(Locale.ROOT).replace(" ", "%20");
+        int schemeEnd = lower.indexOf("://");
+        if (schemeEnd < 0) return lower;
+        String scheme = lower.substring(0, schemeEnd);
+
+        int hostStart = schemeEnd + 3;
+        int hostEnd = hostStart;
+        while (hostEnd < lower.length() && "/?#".indexOf(lower.charAt(hostEnd)) < 0) hostEnd++;
+        String authority = lower.substring(hostStart, hostEnd);
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) authority = authority.substring(at + 1);
+
+        String port = null;
+        int colon = authority.lastIndexOf(':');
+        if (colon >= 0 && authority.indexOf(']', colon) < 0) {
+            port = authority.substring(colon + 1);
+            authority = authority.substring(0, colon);
+            if (port.isEmpty() || isDefaultPort(scheme, port)) port = null;
+        }
+        while (authority.endsWith(".")) authority = authority.substring(0, authority.length() - 1);
+        if (authority.startsWith("www") && authority.indexOf('.') > 0 &&
+                isDigits(authority, 3, authority.indexOf('.'))) {
+            authority = authority.substring(authority.indexOf('.') + 1);
+        }
+
+        StringBuilder surt = new StringBuilder(lower.length() + 2);
+        if (authority.startsWith("[") || isIPv4(authority)) {
+            surt.append(authority);
+        } else {
+            String[] labels = authority.split("\\.");
+            for (int i = labels.length - 1; i >= 0; i--) {
+                surt.append(labels[i]);
+                if (i > 0) surt.append(',');
+            }
+        }
+        if (port != null) surt.append(':').append(port);
+        surt.append(')');
+
+        int fragment = lower.indexOf('#', hostEnd);
+        String rest = lower.substring(hostEnd, fragment < 0 ? lower.length() : fragment);
+        int query = rest.indexOf('?');
+        String path = (query < 0) ? rest : rest.substring(0, query);
+        surt.append(path.isEmpty() ? "/" : path);
+
+        if (query >= 0 && query < rest.length() - 1) {
+            String[] params = rest.substring(query + 1).split("&");
+            Arrays.sort(params);
+            surt.append('?');
+            boolean first = true;
+            for (String param : params) {
+                if (param.isEmpty()) continue;
+                if (!first) surt.append('&');
+                surt.append(param);
+                first = false;
+            }
+        }
+        return surt.toString();
+    }
+
+    private static boolean isDefaultPort(String scheme, String port) {
+        return (scheme.equals("http") && port.equals("80")) || (scheme.equals("https") && port.equals("443"));
+    }
+
+    private static boolean isDigits(String str, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (str.charAt(i) < '0' || str.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+
+    private static boolean isIPv4(String host) {
+        String[] parts = host.split("\\.");
+        if (parts.length != 4) return false;
+        for (String part : parts) {
+            if (part.isEmpty() || part.length() > 3 || !isDigits(part, 0, part.length())) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,178 @@
+package com.martinkl.warc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * The compression formats in which WARC files can be read and written. The format of a file
+ * is recognised by its filename extension (`.gz` or `.zst`), or failing that, by the magic
+ * number at the start of the file.
+ *
+ * Both compressed formats compress each record separately -- as a gzip member, or as a
+ * Zstandard frame -- which allows a reader to start at the beginning of any record. Zstandard
+ * files may begin with a dictionary in a skippable frame (see {@link WARCZstdDictionary}),
+ * which is needed to decompress the records. Zstandard support requires the zstd-jni library
+ * (`com.github.luben:zstd-jni`) on the classpath.
+ */
+public enum WARCCompression {
+    /** Uncompressed WARC files (`.warc`). */
+    NONE(""),
+    /** Gzip-compressed WARC files (`.warc.gz`), usually with one gzip member per record. */
+    GZIP(".gz"),
+    /** Zstandard-compressed WARC files (`.warc.zst`), with one frame per record. */
+    ZSTD(".zst");
+
+    private static final int MAGIC_LENGTH = 4;
+
+    private final String extension;
+
+    private WARCCompression(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the filename extension of this format, including the dot (an empty string
+     * for uncompressed files).
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Returns true for the compressed formats, which can be read in parts.
+     */
+    public boolean isCompressed() {
+        return this != NONE;
+    }
+
+    /**
+     * Returns the format indicated by a filename's extension, or `NONE` if the extension
+     * isn't one of the compressed formats.
+     */
+    public static WARCCompression forFilename(String filename) {
+        for (WARCCompression compression : values()) {
+            if (compression.isCompressed() && filename.endsWith(compression.extension)) return compression;
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the format indicated by the magic number at the start of a file, or `NONE` if
+     * it isn't one of the compressed formats.
+     * @param head The first bytes of the file.
+     * @param length The number of bytes in `head` (at least 4 are needed to recognise a format).
+     */
+    public static WARCCompression forMagic(byte[] head, int length) {
+        if (length >= 2 && (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b) return GZIP;
+        if (length >= MAGIC_LENGTH) {
+            int magic = readIntLE(head, 0);
+            if (magic == ZstdFrameInputStream.FRAME_MAGIC || magic == ZstdFrameInputStream.DICTIONARY_MAGIC) return ZSTD;
+        }
+        return NONE;
+    }
+
+    /**
+     * Determines the format of a file: by its extension if it has a known one, otherwise by
+     * looking at its first few bytes.
+     * @param fs The filesystem on which the file is stored.
+     * @param path The path of the file.
+     * @throws IOException
+     */
+    public static WARCCompression detect(FileSystem fs, Path path) throws IOException {
+        WARCCompression compression = forFilename(path.getName());
+        if (compression.isCompressed()) return compression;
+        FSDataInputStream in = fs.open(path);
+        try {
+            return detect(path, in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Like {@link #detect(FileSystem, Path)}, but for a file that is already open. Only
+     * positional reads are used, so the stream's position is unchanged.
+     */
+    static WARCCompression detect(Path path, FSDataInputStream in) throws IOException {
+        WARCCompression compression = forFilename(path.getName());
+        if (compression.isCompressed()) return compression;
+        byte[] head = new byte[MAGIC_LENGTH];
+        int length = 0, n;
+        while (length < head.length && (n = in.read(length, head, length, head.length - length)) > 0) length += n;
+        return forMagic(head, length);
+    }
+
+    /**
+     * Returns true if a compressed member of this format (a gzip member or a zstd frame)
+     * appears to start at `buf[i]`, where `buf` holds `length` bytes. Used to scan for
+     * record boundaries; a match still needs to be confirmed by decompressing.
+     */
+    boolean isMemberStart(byte[] buf, int i, int length) {
+        switch (this) {
+        case GZIP:
+            return i + 2 < length && buf[i] == 0x1f && buf[i + 1] == (byte) 0x8b && buf[i + 2] == 8;
+        case ZSTD:
+            return i + 3 < length && readIntLE(buf, i) == ZstdFrameInputStream.FRAME_MAGIC;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Creates a stream that decompresses members of this format.
+     * @param in The compressed input, positioned at the start of a member.
+     * @param offset The position of `in` within the file.
+     * @param dictionary For zstd, the dictionary from the start of the file, or null.
+     * @throws IOException if the format is not compressed, or the zstd-jni library is missing.
+     */
+    MemberInputStream newMemberInputStream(InputStream in, long offset, byte[] dictionary) throws IOException {
+        switch (this) {
+        case GZIP:
+            return new GzipMemberInputStream(in, offset);
+        case ZSTD:
+            try {
+                return new ZstdFrameInputStream(in, offset, dictionary);
+            } catch (LinkageError e) {
+                throw new IOException("Reading zstd-compressed WARC files requires zstd-jni on the classpath", e);
+            }
+        default:
+            throw new IllegalStateException("Not a compressed format: " + this);
+        }
+    }
+
+    /**
+     * Reads the dictionary from the skippable frame at the start of a zstd-compressed file, so
+     * that a reader can start decompressing in the middle of the file. Returns null if the
+     * format isn't zstd or the file has no dictionary. Only positional reads are used, so
+     * the stream's position is unchanged.
+     * @param in The file.
+     * @param fileSize The length of the file, which the dictionary frame must fit into.
+     * @throws IOException if the dictionary frame is malformed.
+     */
+    byte[] readDictionary(FSDataInputStream in, long fileSize) throws IOException {
+        if (this != ZSTD) return null;
+        byte[] header = new byte[8];
+        try {
+            in.readFully(0, header);
+        } catch (EOFException e) {
+            return null;
+        }
+        if (readIntLE(header, 0) != ZstdFrameInputStream.DICTIONARY_MAGIC) return null;
+        long size = readIntLE(header, 4) & 0xffffffffL;
+        if (size > ZstdFrameInputStream.MAX_DICTIONARY_SIZE || size > fileSize - header.length) {
+            throw new IOException("Malformed zstd dictionary frame: " + size + " bytes in a file of " + fileSize);
+        }
+        byte[] dictionary = new byte[(int) size];
+        in.readFully(header.length, dictionary);
+        return dictionary;
+    }
+
+    private static int readIntLE(byte[] buf, int off) {
+        return (buf[off] & 0xff) | ((buf[off + 1] & 0xff) << 8) |
+               ((buf[off + 2] & 0xff) << 16) | ((buf[off + 3] & 0xff) << 24);
+    }
+}
@@ -0,0 +1,79 @@
+package com.martinkl.warc;
+
+/**
+ * The metrics collected by {@link WARCFileReader} and {@link WARCFileWriter} in their
+ * {@link WARCMetrics}. When the InputFormats and OutputFormats are used, these are reported
+ * as Hadoop counters (in the group `WARC input` for reading and `WARC output` for writing),
+ * so they show up in the job history. Times are measured in nanoseconds.
+ */
+public enum WARCCounter {
+    /** Records returned by the reader. */
+    RECORDS_READ,
+    /** Records skipped by the reader because they didn't match the {@link WARCRecordFilter}. */
+    RECORDS_SKIPPED,
+    /** Records that could not be parsed. */
+    RECORDS_MALFORMED,
+    /**
+     * Bytes of the file (compressed, if the file is compressed) skipped in lenient mode to get
+     * past malformed records.
+     */
+    MALFORMED_BYTES_SKIPPED,
+    /** Block and payload digests that matched the record body, with `warc.input.digest.verify`. */
+    DIGESTS_VERIFIED,
+    /** Block and payload digests that did not match the record body. */
+    DIGEST_MISMATCHES,
+    /** Bytes read from the file (compressed, if the file is compressed). */
+    COMPRESSED_BYTES_READ,
+    /** Bytes of WARC data read, after decompression. */
+    UNCOMPRESSED_BYTES_READ,
+    /**
+     * Time the reader spent blocked waiting for input: reading from the filesystem, or, with
+     * `warc.input.readahead`, waiting for the background threads to supply data.
+     */
+    READ_WAIT_NANOS,
+    /** Time spent decompressing gzip or zstd data (on background threads, if read-ahead is enabled). */
+    INFLATE_NANOS,
+    /** Time spent parsing record headers. */
+    HEADER_PARSE_NANOS,
+    /** Records written by the writer. */
+    RECORDS_WRITTEN,
+    /** Bytes of WARC data written, before compression. */
+    UNCOMPRESSED_BYTES_WRITTEN,
+    /** Bytes written to the file (compressed, if the file is compressed). */
+    COMPRESSED_BYTES_WRITTEN,
+    /** Time the writer spent blocked writing to the filesystem or waiting for compression threads. */
+    WRITE_WAIT_NANOS,
+    /** Time spent compressing gzip or zstd data (on background threads, if parallel compression is enabled). */
+    DEFLATE_NANOS,
+    /** Number of times the writer closed a segment because it was full, and started a new one. */
+    SEGMENTS_ROLLED,
+    /** Records that the writer split into continuation records, with `warc.output.continuation`. */
+    RECORDS_SPLIT,
+    /** Records that the reader reassembled from continuation records. */
+    RECORDS_REASSEMBLED,
+    /** Segments of split records that the reader returned unmerged, because other segments were missing or out of order. */
+    RECORDS_NOT_REASSEMBLED,
+    /** Responses that the writer replaced with `revisit` records, with `warc.output.dedup`. */
+    RECORDS_DEDUPLICATED,
+    /**
+     * The largest `Content-Length` of any record read or written. Unlike the other counters,
+     * this is a maximum rather than a sum. It is per reader or writer, and is not reported as a
+     * Hadoop counter, since Hadoop would add it up across tasks.
+     */
+    MAX_RECORD_LENGTH(true);
+
+    private final boolean maximum;
+
+    private WARCCounter() {
+        this(false);
+    }
+
+    private WARCCounter(boolean maximum) {
+        this.maximum = maximum;
+    }
+
+    /** Returns true if this counter tracks a maximum value, and false if it is a sum. */
+    public boolean isMaximum() {
+        return maximum;
+    }
+}
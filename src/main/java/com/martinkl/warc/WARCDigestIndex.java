@@ -0,0 +1,293 @@
+package com.martinkl.warc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * A memory-bounded index from payload digests to the record in which each payload was first
+ * seen, used by {@link WARCFileWriter} to write duplicate responses as `revisit` records.
+ * It can be seeded with the digests of records in existing archives by loading their CDX or
+ * CDXJ indexes with {@link #load(FileSystem, Path)}.
+ *
+ * Every lookup first goes to a Bloom filter on the heap (about 10 bits per entry), which
+ * answers most lookups of new payloads without touching the table. The table itself is an
+ * open-addressing hash table in a direct buffer, with a 16-byte slot per entry: the first
+ * 8 bytes of the digest, and the position of the entry's details (the full digest, record
+ * ID, target URI and date) in a log of off-heap chunks. Neither the table nor the details
+ * add to the Java heap or to garbage collection, so millions of digests can be indexed.
+ *
+ * The index holds at most `maxEntries` digests and `maxBytes` bytes of details; once
+ * either limit is reached, further digests are not added (so their duplicates are written
+ * out in full), but lookups keep working. An index is not thread-safe.
+ */
+public class WARCDigestIndex {
+    public static final String DEDUP_KEY = "warc.output.dedup";
+    public static final String MAX_ENTRIES_KEY = "warc.output.dedup.max.entries";
+    public static final String MAX_BYTES_KEY = "warc.output.dedup.max.bytes";
+    public static final String SEED_KEY = "warc.output.dedup.seed";
+    public static final long DEFAULT_MAX_ENTRIES = 1 << 20;
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024; // 256 MB
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int SLOT_SIZE = 16;
+    private static final int MAX_SLOTS = 1 << 26; // a 1 GB table
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int MAX_ENTRY_SIZE = 16384;
+    private static final int BLOOM_BITS_PER_ENTRY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private final long maxEntries, maxBytes;
+    private final ByteBuffer table;
+    private final int slotMask;
+    private final long[] bloom;
+    private final long bloomMask;
+    private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    private long size = 0;
+
+    /** The record in which a payload was first seen. */
+    public static class Entry {
+        private final String recordID, targetURI, date;
+
+        Entry(String recordID, String targetURI, String date) {
+            this.recordID = recordID;
+            this.targetURI = targetURI;
+            this.date = date;
+        }
+
+        /** Returns the `WARC-Record-ID` of the record, or null if unknown (e.g. from a CDX file). */
+        public String getRecordID() {
+            return recordID;
+        }
+
+        /** Returns the `WARC-Target-URI` of the record, or null if unknown. */
+        public String getTargetURI() {
+            return targetURI;
+        }
+
+        /** Returns the `WARC-Date` of the record, or null if unknown. */
+        public String getDate() {
+            return date;
+        }
+    }
+
+    /**
+     * Creates an empty index. The hash table (16 bytes per slot, two slots per entry) is
+     * allocated up front; the details of entries are allocated in 1 MB chunks as needed.
+     * @param maxEntries The maximum number of digests to hold.
+     * @param maxBytes The maximum number of bytes of entry details to hold off-heap.
+     */
+    public WARCDigestIndex(long maxEntries, long maxBytes) {
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        int slots = 2;
+        while (slots < 2 * maxEntries && slots < MAX_SLOTS) slots <<= 1;
+        this.maxEntries = Math.min(maxEntries, slots / 2);
+        this.maxBytes = maxBytes;
+        this.table = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+        this.slotMask = slots - 1;
+        long bits = 64;
+        while (bits < BLOOM_BITS_PER_ENTRY * this.maxEntries) bits <<= 1;
+        this.bloom = new long[(int) (bits / 64)];
+        this.bloomMask = bits - 1;
+    }
+
+    /**
+     * Creates an index with the limits configured in `warc.output.dedup.max.entries` and
+     * `warc.output.dedup.max.bytes`, and seeds it with the CDX or CDXJ files listed in
+     * `warc.output.dedup.seed` (comma-separated paths).
+     * @param conf The Hadoop configuration.
+     * @throws IOException if a seed file can't be read.
+     */
+    public static WARCDigestIndex create(Configuration conf) throws IOException {
+        WARCDigestIndex index = new WARCDigestIndex(conf.getLong(MAX_ENTRIES_KEY, DEFAULT_MAX_ENTRIES),
+                                                    conf.getLong(MAX_BYTES_KEY, DEFAULT_MAX_BYTES));
+        for (String seed : conf.getTrimmedStrings(SEED_KEY)) {
+            Path path = new Path(seed);
+            index.load(path.getFileSystem(conf), path);
+        }
+        return index;
+    }
+
+    /** Returns the number of digests in the index. */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Looks up a payload digest.
+     * @param digest A digest header value such as `sha1:3I42H3S6...`, in Base32 or hex.
+     * @return The record in which the payload was first seen, or null if the digest is not
+     *         in the index (or can't be decoded).
+     */
+    public Entry get(String digest) {
+        byte[] key = WARCDigester.decodeDigest(digest);
+        return (key == null) ? null : find(key);
+    }
+
+    private Entry find(byte[] key) {
+        if (!mightContain(key)) return null;
+        long fingerprint = fingerprint(key);
+        for (int slot = (int) mix(fingerprint) & slotMask; ; slot = (slot + 1) & slotMask) {
+            long stored = table.getLong(slot * SLOT_SIZE);
+            if (stored == 0) return null;
+            if (stored == fingerprint) {
+                long ref = table.getLong(slot * SLOT_SIZE + 8);
+                ByteBuffer chunk = chunks.get((int) (ref / CHUNK_SIZE)).duplicate();
+                chunk.position((int) (ref % CHUNK_SIZE));
+                if (keyEquals(chunk, key)) return new Entry(readString(chunk), readString(chunk), readString(chunk));
+            }
+        }
+    }
+
+    /**
+     * Adds a payload digest, unless it is already in the index.
+     * @param digest A digest header value such as `sha1:3I42H3S6...`, in Base32 or hex.
+     * @param recordID The `WARC-Record-ID` of the record with this payload, or null.
+     * @param targetURI The `WARC-Target-URI` of the record, or null.
+     * @param date The `WARC-Date` of the record, or null.
+     * @return True if the digest was added; false if it was already present, can't be
+     *         decoded, or the index is full.
+     */
+    public boolean put(String digest, String recordID, String targetURI, String date) {
+        byte[] key = WARCDigester.decodeDigest(digest);
+        if (key == null || size >= maxEntries || find(key) != null) return false;
+        byte[][] fields = { encode(recordID), encode(targetURI), encode(date) };
+        int entrySize = 1 + key.length;
+        for (byte[] field : fields) entrySize += 2 + field.length;
+        if (entrySize > MAX_ENTRY_SIZE) return false;
+
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || chunk.remaining() < entrySize) {
+            int capacity = (int) Math.min(CHUNK_SIZE, maxBytes - (long) chunks.size() * CHUNK_SIZE);
+            if (capacity < entrySize) return false;
+            chunk = ByteBuffer.allocateDirect(capacity);
+            chunks.add(chunk);
+        }
+        long ref = (long) (chunks.size() - 1) * CHUNK_SIZE + chunk.position();
+        chunk.put((byte) key.length).put(key);
+        for (byte[] field : fields) chunk.putShort((short) field.length).put(field);
+
+        long fingerprint = fingerprint(key);
+        int slot = (int) mix(fingerprint) & slotMask;
+        while (table.getLong(slot * SLOT_SIZE) != 0) slot = (slot + 1) & slotMask;
+        table.putLong(slot * SLOT_SIZE, fingerprint);
+        table.putLong(slot * SLOT_SIZE + 8, ref);
+        addToBloom(key);
+        size++;
+        return true;
+    }
+
+    /**
+     * Adds the payload digests of the records listed in a CDXJ index (as written by
+     * {@link WARCIndexWriter}) or a classic 11-field CDX index (`N b a m s k r M S V g`, whose
+     * digests are Base32 SHA-1 values without a prefix). Files ending in `.gz` are
+     * decompressed. Revisit records, and lines without a digest, are skipped.
+     * @param fs The filesystem on which the file is stored.
+     * @param path The path of the index file.
+     * @return The number of digests added.
+     * @throws IOException
+     */
+    public long load(FileSystem fs, Path path) throws IOException {
+        InputStream in = fs.open(path);
+        if (path.getName().endsWith(".gz")) in = new GZIPInputStream(in);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8));
+        long added = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith(" CDX") || line.startsWith("!")) continue;
+                if (loadLine(line)) added++;
+            }
+        } finally {
+            reader.close();
+        }
+        return added;
+    }
+
+    private boolean loadLine(String line) {
+        String[] fields = line.split(" ", 4);
+        if (fields.length > 2 && fields[2].startsWith("{")) {
+            WARCIndexEntry entry = WARCIndexEntry.parse(line);
+            if ("revisit".equals(entry.getRecordType()) || entry.getDigest() == null) return false;
+            return put(entry.getDigest(), entry.getRecordID(), entry.getURL(), toDate(entry.getTimestamp()));
+        }
+        fields = line.split(" ");
+        if (fields.length < 6 || fields[3].equals("warc/revisit") || fields[5].equals("-")) return false;
+        return put("sha1:" + fields[5], null, fields[2], toDate(fields[1]));
+    }
+
+    /** Converts a CDX timestamp (`20140318174738`) into a `WARC-Date` value. */
+    static String toDate(String timestamp) {
+        if (timestamp == null || timestamp.length() < 14) return null;
+        return timestamp.substring(0, 4) + "-" + timestamp.substring(4, 6) + "-" + timestamp.substring(6, 8) + "T" +
+               timestamp.substring(8, 10) + ":" + timestamp.substring(10, 12) + ":" + timestamp.substring(12, 14) + "Z";
+    }
+
+    private static long fingerprint(byte[] key) {
+        long fingerprint = 0;
+        for (int i = 0; i < 8; i++) fingerprint = (fingerprint << 8) | (key[i] & 0xff);
+        return fingerprint == 0 ? 1 : fingerprint; // 0 marks an empty slot
+    }
+
+    /** The finalizer of MurmurHash3, so that similar digests don't cluster in the table. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    private boolean mightContain(byte[] key) {
+        long h1 = bloomHash(key), h2 = mix(fingerprint(key)) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = (h1 + i * h2) & bloomMask;
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    private void addToBloom(byte[] key) {
+        long h1 = bloomHash(key), h2 = mix(fingerprint(key)) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = (h1 + i * h2) & bloomMask;
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /** Hashes the digest bytes after the fingerprint, so the two Bloom hashes are independent. */
+    private static long bloomHash(byte[] key) {
+        long h = 0;
+        for (int i = 8; i < key.length; i++) h = 31 * h + key[i];
+        return mix(h);
+    }
+
+    private static boolean keyEquals(ByteBuffer chunk, byte[] key) {
+        if ((chunk.get() & 0xff) != key.length) return false;
+        for (byte b : key) {
+            if (chunk.get() != b) return false;
+        }
+        return true;
+    }
+
+    private static byte[] encode(String value) {
+        return (value == null) ? new byte[0] : value.getBytes(UTF8);
+    }
+
+    private static String readString(ByteBuffer chunk) {
+        int length = chunk.getShort() & 0xffff;
+        if (length == 0) return null;
+        byte[] bytes = new byte[length];
+        chunk.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
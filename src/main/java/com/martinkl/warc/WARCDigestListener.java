@@ -0,0 +1,22 @@
+package com.martinkl.warc;
+
+/**
+ * Is told by a {@link WARCFileReader} about records whose body does not match a digest in
+ * their header, when digest verification is enabled with `warc.input.digest.verify`.
+ * Register a listener with {@link WARCFileReader#addDigestListener(WARCDigestListener)}.
+ */
+public interface WARCDigestListener {
+
+    /**
+     * Called after the body of a record has been read, if its digest differs from the one
+     * declared in its header. For a streaming record, this happens when the reader moves on
+     * to the next record.
+     * @param header The header of the record. If records are reused, it is only valid
+     *               during this call.
+     * @param field The header field that didn't match: `WARC-Block-Digest` or
+     *              `WARC-Payload-Digest`.
+     * @param expected The value of that field.
+     * @param computed The digest computed from the body, in the same algorithm.
+     */
+    void digestMismatch(WARCRecord.Header header, String field, String expected, String computed);
+}
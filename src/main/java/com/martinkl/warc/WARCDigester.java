@@ -0,0 +1,271 @@
+package com.martinkl.warc;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Computes the block digest and payload digest of a record body incrementally, as the bytes
+ * of the body go past. The block digest covers the whole body. The payload digest of an
+ * HTTP request or response record (`Content-Type: application/http`) covers the bytes after
+ * the HTTP headers, which end with a blank line (CRLF CRLF, or LF LF); for other records, it is the same as the block digest. Following common
+ * practice, the payload is digested as it was transferred, without removing any
+ * `Transfer-Encoding`.
+ *
+ * Digests are written in WARC headers as `algorithm:value`, e.g. `sha1:` followed by the
+ * Base32-encoded SHA-1 hash. This class understands the algorithms `sha1`, `sha256`,
+ * `sha512` and `md5` (also spelt with a hyphen), and values encoded in Base32 or
+ * hexadecimal.
+ *
+ * A digester is not thread-safe, and can be reused for one record after another.
+ */
+class WARCDigester {
+    static final String BLOCK_DIGEST = "WARC-Block-Digest";
+    static final String PAYLOAD_DIGEST = "WARC-Payload-Digest";
+    private static final char[] BASE32 = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+    // States of the scan for the blank line that ends the HTTP headers
+    private static final int IN_LINE = 0, AFTER_LF = 1, AFTER_LF_CR = 2, IN_PAYLOAD = 3;
+    private static final int CHUNK_SIZE = 65536;
+
+    // Separate instances, since block and payload may use the same algorithm
+    private final Map<String, MessageDigest> blockDigests = new HashMap<String, MessageDigest>();
+    private final Map<String, MessageDigest> payloadDigests = new HashMap<String, MessageDigest>();
+    private MessageDigest block = null, payload = null;
+    private String blockAlgorithm = null, payloadAlgorithm = null;
+    private int headerState = IN_PAYLOAD;
+    private byte[] chunk = null;
+
+    /**
+     * Prepares to digest a new body.
+     * @param blockAlgorithm The algorithm for the block digest (e.g. `sha1`), or null.
+     * @param payloadAlgorithm The algorithm for the payload digest, or null.
+     * @param httpPayload True if the payload starts after the HTTP headers at the start of
+     *                    the body, false if it is the whole body.
+     * @throws IllegalArgumentException if an algorithm is not supported.
+     */
+    void start(String blockAlgorithm, String payloadAlgorithm, boolean httpPayload) {
+        this.blockAlgorithm = blockAlgorithm;
+        this.payloadAlgorithm = payloadAlgorithm;
+        this.block = (blockAlgorithm == null) ? null : getDigest(blockDigests, blockAlgorithm);
+        this.payload = (payloadAlgorithm == null) ? null : getDigest(payloadDigests, payloadAlgorithm);
+        this.headerState = httpPayload ? IN_LINE : IN_PAYLOAD;
+    }
+
+    private static MessageDigest getDigest(Map<String, MessageDigest> cache, String algorithm) {
+        MessageDigest digest = cache.get(algorithm);
+        if (digest == null) {
+            String name = getJavaName(algorithm);
+            if (name == null) throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm);
+            try {
+                digest = MessageDigest.getInstance(name);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm, e);
+            }
+            cache.put(algorithm, digest);
+        }
+        digest.reset();
+        return digest;
+    }
+
+    /** Adds the next bytes of the body. */
+    void update(byte[] b, int off, int len) {
+        if (block != null) block.update(b, off, len);
+        if (payload == null) return;
+        // Look for the blank line (CRLF CRLF, or LF LF) that ends the HTTP headers, by the same
+        // rule as HTTPMessage.findHeaderEnd. They are short, so this is cheap.
+        while (headerState != IN_PAYLOAD && len > 0) {
+            byte c = b[off++];
+            len--;
+            if (c == '\n') {
+                headerState = (headerState == IN_LINE) ? AFTER_LF : IN_PAYLOAD;
+            } else if (c == '\r' && headerState == AFTER_LF) {
+                headerState = AFTER_LF_CR;
+            } else {
+                headerState = IN_LINE;
+            }
+        }
+        if (len > 0) payload.update(b, off, len);
+    }
+
+    /** Adds the remaining bytes of a buffer, without changing the buffer's position. */
+    void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        if (chunk == null) chunk = new byte[CHUNK_SIZE];
+        ByteBuffer source = buffer.duplicate();
+        while (source.hasRemaining()) {
+            int n = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, n);
+            update(chunk, 0, n);
+        }
+    }
+
+    /**
+     * Returns the block digest of the bytes added since {@link #start}, formatted as in a
+     * WARC header, or null if no block digest was requested.
+     */
+    String getBlockDigest() {
+        return (block == null) ? null : format(blockAlgorithm, block.digest());
+    }
+
+    /**
+     * Returns the payload digest of the bytes added since {@link #start}, formatted as in a
+     * WARC header, or null if no payload digest was requested.
+     */
+    String getPayloadDigest() {
+        return (payload == null) ? null : format(payloadAlgorithm, payload.digest());
+    }
+
+    /**
+     * Returns true if the record has an HTTP message as its body, whose payload starts after
+     * the HTTP headers. Revisit records have no payload (only the HTTP headers), so they
+     * don't count.
+     */
+    static boolean hasHttpPayload(WARCRecord.Header header) {
+        String contentType = header.getContentType();
+        return contentType != null && !"revisit".equals(header.getRecordType()) &&
+               contentType.toLowerCase(Locale.ROOT).startsWith("application/http");
+    }
+
+    /**
+     * Returns the algorithm of a digest header value (the part before the colon, in lower
+     * case), or null if the value is missing or the algorithm is not supported.
+     */
+    static String getAlgorithm(String digest) {
+        if (digest == null) return null;
+        int colon = digest.indexOf(':');
+        if (colon <= 0) return null;
+        String algorithm = digest.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+        return getJavaName(algorithm) == null ? null : algorithm;
+    }
+
+    /** Returns true if the given algorithm name (e.g. `sha1`) is supported. */
+    static boolean isSupported(String algorithm) {
+        return getJavaName(algorithm.toLowerCase(Locale.ROOT)) != null;
+    }
+
+    private static String getJavaName(String algorithm) {
+        String name = algorithm.replace("-", "");
+        if (name.equals("sha1")) return "SHA-1";
+        if (name.equals("sha256")) return "SHA-256";
+        if (name.equals("sha512")) return "SHA-512";
+        if (name.equals("md5")) return "MD5";
+        return null;
+    }
+
+    /**
+     * Returns true if a digest header value has the same algorithm and hash value as a
+     * digest computed by this class, regardless of how the header value is encoded.
+     */
+    static boolean matches(String expected, String computed) {
+        String algorithm = getAlgorithm(expected);
+        if (algorithm == null || !getJavaName(algorithm).equals(getJavaName(getAlgorithm(computed)))) return false;
+        byte[] computedBytes = decodeBase32(computed.substring(computed.indexOf(':') + 1));
+        byte[] expectedBytes = decode(expected.substring(expected.indexOf(':') + 1).trim(), computedBytes.length);
+        return expectedBytes != null && Arrays.equals(expectedBytes, computedBytes);
+    }
+
+    /**
+     * Returns the raw hash value of a digest header value such as `sha1:3I42H3S6...`, or null
+     * if the algorithm is not supported or the value can't be decoded.
+     */
+    static byte[] decodeDigest(String digest) {
+        String algorithm = getAlgorithm(digest);
+        if (algorithm == null) return null;
+        int length;
+        try {
+            length = MessageDigest.getInstance(getJavaName(algorithm)).getDigestLength();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        byte[] bytes = decode(digest.substring(digest.indexOf(':') + 1).trim(), length);
+        return (bytes != null && bytes.length == length) ? bytes : null;
+    }
+
+    /**
+     * Returns true if a digest header value is the digest of no bytes at all, as is the
+     * payload digest of an HTTP message without an entity, or one whose headers don't end.
+     */
+    static boolean isEmptyDigest(String digest) {
+        byte[] bytes = decodeDigest(digest);
+        if (bytes == null) return false;
+        try {
+            return Arrays.equals(bytes, MessageDigest.getInstance(getJavaName(getAlgorithm(digest))).digest());
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    /** Formats a digest as `algorithm:value`, with the value in Base32. */
+    static String format(String algorithm, byte[] digest) {
+        return algorithm + ":" + base32(digest);
+    }
+
+    /** Encodes bytes in Base32 (RFC 4648), with padding. */
+    static String base32(byte[] bytes) {
+        StringBuilder str = new StringBuilder((bytes.length + 4) / 5 * 8);
+        int buffer = 0, bits = 0;
+        for (byte b : bytes) {
+            buffer = (buffer << 8) | (b & 0xff);
+            bits += 8;
+            while (bits >= 5) {
+                str.append(BASE32[(buffer >> (bits - 5)) & 31]);
+                bits -= 5;
+            }
+        }
+        if (bits > 0) str.append(BASE32[(buffer << (5 - bits)) & 31]);
+        while (str.length() % 8 != 0) str.append('=');
+        return str.toString();
+    }
+
+    /**
+     * Decodes a hash value of the given number of bytes, which may be in hexadecimal or in
+     * Base32 (with or without padding, in either case); the length tells which. Returns null
+     * if the value can't be decoded.
+     */
+    static byte[] decode(String value, int length) {
+        return (value.length() == 2 * length) ? decodeHex(value) : decodeBase32(value);
+    }
+
+    private static byte[] decodeBase32(String value) {
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) == '=') end--;
+        byte[] bytes = new byte[end * 5 / 8];
+        int buffer = 0, bits = 0, index = 0;
+        for (int i = 0; i < end; i++) {
+            char c = Character.toUpperCase(value.charAt(i));
+            int digit;
+            if (c >= 'A' && c <= 'Z') {
+                digit = c - 'A';
+            } else if (c >= '2' && c <= '7') {
+                digit = c - '2' + 26;
+            } else {
+                return null;
+            }
+            buffer = (buffer << 5) | digit;
+            bits += 5;
+            if (bits >= 8) {
+                bytes[index++] = (byte) (buffer >> (bits - 8));
+                bits -= 8;
+            }
+        }
+        return bytes;
+    }
+
+    private static byte[] decodeHex(String value) {
+        if (value.length() % 2 != 0) return null;
+        byte[] bytes = new byte[value.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(value.charAt(2 * i), 16), low = Character.digit(value.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) return null;
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+}
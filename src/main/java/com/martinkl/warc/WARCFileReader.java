@@ -1,14 +1,20 @@
 package com.martinkl.warc;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.RawLocalFileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.compress.CompressionCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,42 +24,582 @@ import org.slf4j.LoggerFactory;
  * not tied to the MapReduce APIs -- that link is provided by the mapred
  * {@link com.martinkl.warc.mapred.WARCInputFormat} and the mapreduce
  * {@link com.martinkl.warc.mapreduce.WARCInputFormat}.
+ *
+ * Gzip-compressed WARC files are usually compressed with one gzip member per record. If you
+ * know that a file was written that way, you can read just a part of it by passing a byte
+ * range to the constructor: the reader then starts at the first gzip member at or after
+ * the start of the range which contains the beginning of a WARC record, and reads records
+ * until it reaches a member that starts at or after the end of the range. This is what
+ * allows the InputFormats to split large files if `warc.input.splittable` is set to true
+ * in the Hadoop configuration.
+ *
+ * Zstandard-compressed WARC files (one frame per record, as written by {@link WARCFileWriter}
+ * with `warc.output.compression.format` set to `zstd`) are read and split in the same way,
+ * using the dictionary from the skippable frame at the start of the file if there is one.
+ * The compression format is recognised by the filename extension or, failing that, by the
+ * magic number at the start of the file; see {@link WARCCompression}.
+ *
+ * If `warc.input.streaming` is set to true in the Hadoop configuration, records are not read
+ * into memory; instead, their bodies are streamed from the file as you read them from
+ * {@link WARCRecord#getContentStream()}. Any part of the body you don't read is skipped when
+ * the next record is read. This allows records of any size to be read with a constant amount
+ * of memory.
+ *
+ * If `warc.input.reuse.records` is set to true, `read()` returns the same {@link WARCRecord}
+ * object every time, refilling its header and body buffers in place, so that reading does not
+ * allocate memory for every record. Each record is then only valid until the next call to
+ * `read()`; use {@link WARCRecord#copy()} if you need to keep it.
+ *
+ * Records can also be filtered by their headers before their bodies are read; see
+ * {@link WARCRecordFilter} for the configuration options. Records that don't match the
+ * filter are skipped.
+ *
+ * If `warc.input.readahead` is set to true, the file is read and decompressed on background
+ * threads, ahead of the records being parsed, so that I/O, decompression and your own
+ * processing of the records overlap. `warc.input.readahead.buffer.size` sets the maximum
+ * number of bytes buffered ahead (default 16 MB).
+ *
+ * If `warc.input.offheap` is set to true, record bodies are read into direct buffers from a
+ * shared {@link DirectBufferPool} rather than into `byte[]` arrays on the heap. The buffer
+ * of each record is returned to the pool when the next record is read (or the reader is
+ * closed), so use {@link WARCRecord#copy()} on any record you need to keep. If the
+ * filesystem stream supports {@link ByteBufferReadable} (as HDFS does), large bodies of
+ * uncompressed files are read from it straight into the direct buffers, and compressed
+ * zstd data is read straight into the decompressor's direct input buffer.
+ *
+ * If `warc.input.mmap` is set to true, uncompressed files on the local filesystem are
+ * memory-mapped instead of being read through a stream (unless reading ahead). Combined
+ * with `warc.input.offheap`, each record body is then a read-only slice of the mapping,
+ * which involves no copying at all.
+ *
+ * The reader collects {@link WARCMetrics} as it goes (records per type, bytes before and
+ * after decompression, time spent waiting for input, decompressing and parsing headers,
+ * and so on), which are passed to any {@link WARCMetricsListener}s configured in
+ * `warc.metrics.listeners` every few hundred records, and when the reader is closed.
+ *
+ * If `warc.input.digest.verify` is set to true, the reader checks the `WARC-Block-Digest`
+ * and `WARC-Payload-Digest` headers of every record whose body it reads (records skipped by
+ * a {@link WARCRecordFilter} are not checked). The digests are computed as the body is read
+ * from the stream, so they don't need another pass over it. Matches and mismatches are
+ * counted in the metrics; mismatches are also passed to any {@link WARCDigestListener}s.
+ *
+ * By default, a record that cannot be parsed causes `read()` to throw an exception. If
+ * `warc.input.lenient` is set to true, the reader instead logs a warning, skips forward to
+ * the next record, and carries on. In a compressed file (unless reading ahead), it seeks to
+ * the next gzip member or zstd frame after the one in which the malformed record started that
+ * begins with a WARC version line, which also gets past corrupt compressed data. Otherwise it scans
+ * the data for the next `WARC/1.` at the start of a line or gzip member; any records that
+ * were consumed while reading the malformed one are lost. Once more than
+ * `warc.input.lenient.max.errors` records (default 100) in a file are malformed, the next
+ * error is thrown after all, since the file is probably not a WARC file at all.
  */
 public class WARCFileReader {
     private static final Logger logger = LoggerFactory.getLogger(WARCFileReader.class);
+    private static final int SYNC_SCAN_SIZE = 65536;
+    private static final int MAGIC_OVERLAP = 3; // a magic number may straddle two scan buffers
+    private static final byte[] VERSION_PREFIX = { 'W', 'A', 'R', 'C', '/', '1', '.' };
+    private static final int DEFAULT_READAHEAD_BUFFER_SIZE = 16 * 1024 * 1024;
+    private static final int RAW_CHUNK_SIZE = 1024 * 1024, DECOMPRESSED_CHUNK_SIZE = 65536;
+    private static final int METRICS_INTERVAL = 256;
+    private static final int DEFAULT_MAX_ERRORS = 100;
 
-    private final long fileSize;
+    private final Path filePath;
+    private final WARCCompression compression;
+    private final byte[] dictionary;
+    private final long fileSize, start, end;
+    private final boolean streaming;
+    private final WARCRecordFilter filter;
+    private final boolean headersOnly;
+    private final DirectBufferPool bufferPool;
+    private final WARCMetrics metrics;
+    private final boolean lenient;
+    private final int maxErrors;
+    private final WARCDigester digester;
+    private final List<WARCDigestListener> digestListeners = new ArrayList<WARCDigestListener>();
+    private boolean verifyCurrent = false;
+    private FSDataInputStream fsStream = null;
     private CountingInputStream byteStream = null;
-    private DataInputStream dataStream = null;
-    private long bytesRead = 0, recordsRead = 0;
+    private MappedFileInputStream mapped = null;
+    private GzipMemberSource gzipStream = null;
+    private ReadAheadInputStream readAhead = null;
+    private MemberInputStream memberStream = null;
+    private MemberInputStream probe = null;
+    private WARCInputStream dataStream = null;
+    private long bytesRead = 0, recordsRead = 0, recordsSkipped = 0, recordsMalformed = 0, readNanos = 0;
+    private long recordOffset = 0;
+    private long reportedBytesRead = 0, reportedUncompressed = 0, reportedWait = 0, reportedInflate = 0;
+    private WARCRecord current = null, reusable = null, offHeap = null;
 
     /**
-     * Opens a file for reading. If the filename ends in `.gz`, it is automatically decompressed
-     * on the fly.
+     * Opens a file for reading. If the file is gzip- or zstd-compressed, it is automatically
+     * decompressed on the fly.
      * @param conf The Hadoop configuration.
      * @param filePath The Hadoop path to the file that should be read.
      * @throws IOException
      */
     public WARCFileReader(Configuration conf, Path filePath) throws IOException {
+        this(conf, filePath, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens a file for reading only the records in a particular byte range. This is only
+     * possible if the file is compressed with (at least) one gzip member or zstd frame per
+     * record. The reader skips forward to the first member at or after `start` that begins
+     * with a WARC version line, and stops before the first member that starts at or after `start + length`.
+     * If the range covers the whole file, this is equivalent to the two-argument constructor.
+     *
+     * @param conf The Hadoop configuration.
+     * @param filePath The Hadoop path to the file that should be read.
+     * @param start The compressed byte offset at which to start looking for records.
+     * @param length The number of compressed bytes in which records may start.
+     * @throws IOException
+     */
+    public WARCFileReader(Configuration conf, Path filePath, long start, long length) throws IOException {
+        this(conf, filePath, start, length, new WARCMetrics(conf));
+    }
+
+    /**
+     * Opens a file for reading only the records in a particular byte range, adding the
+     * reader's metrics to an existing {@link WARCMetrics}. This is useful for reading several
+     * files with a single set of metrics.
+     *
+     * @param conf The Hadoop configuration.
+     * @param filePath The Hadoop path to the file that should be read.
+     * @param start The compressed byte offset at which to start looking for records.
+     * @param length The number of compressed bytes in which records may start.
+     * @param metrics The metrics to update.
+     * @throws IOException
+     */
+    public WARCFileReader(Configuration conf, Path filePath, long start, long length, WARCMetrics metrics)
+            throws IOException {
+        this.metrics = metrics;
+        this.filePath = filePath;
         FileSystem fs = filePath.getFileSystem(conf);
         this.fileSize = fs.getFileStatus(filePath).getLen();
-        logger.info("Reading from " + filePath);
+        fsStream = fs.open(filePath);
+        this.compression = WARCCompression.detect(filePath, fsStream);
+        try {
+            this.dictionary = compression.readDictionary(fsStream, fileSize);
+        } catch (IOException e) {
+            fsStream.close();
+            throw e;
+        }
+        boolean compressed = compression.isCompressed();
+        boolean wholeFile = start <= 0 && length >= fileSize - start;
+        if (!wholeFile && !compressed) {
+            fsStream.close();
+            throw new IllegalArgumentException("Only compressed WARC files can be read in parts: " + filePath);
+        }
+        this.streaming = conf.getBoolean("warc.input.streaming", false);
+        WARCRecordFilter filter = new WARCRecordFilter(conf);
+        this.filter = filter.acceptsAll() ? null : filter;
+        this.headersOnly = filter.isHeadersOnly();
+        if (conf.getBoolean("warc.input.reuse.records", false)) {
+            reusable = new WARCRecord(new WARCRecord.Header());
+        }
+        this.bufferPool = conf.getBoolean("warc.input.offheap", false) ? DirectBufferPool.getShared(conf) : null;
+        this.lenient = conf.getBoolean("warc.input.lenient", false);
+        this.maxErrors = conf.getInt("warc.input.lenient.max.errors", DEFAULT_MAX_ERRORS);
+        this.digester = conf.getBoolean("warc.input.digest.verify", false) ? new WARCDigester() : null;
+        logger.info("Reading from " + filePath + (wholeFile ? "" : " (bytes " + start + " to " + (start + length) + ")"));
+
+        if (wholeFile) {
+            this.start = 0;
+            this.end = Long.MAX_VALUE;
+        } else {
+            this.start = (start <= 0) ? 0 : findRecordStart(fsStream, start, start + length);
+            this.end = start + length;
+            fsStream.seek(this.start);
+        }
+
+        boolean useReadAhead = conf.getBoolean("warc.input.readahead", false);
+        InputStream source = fsStream;
+        if (!compressed && !useReadAhead && conf.getBoolean("warc.input.mmap", false) &&
+                (fs instanceof LocalFileSystem || fs instanceof RawLocalFileSystem)) {
+            mapped = new MappedFileInputStream(fs instanceof LocalFileSystem ?
+                    ((LocalFileSystem) fs).pathToFile(filePath) : ((RawLocalFileSystem) fs).pathToFile(filePath));
+            fsStream.close();
+            fsStream = null;
+            source = mapped;
+        }
+        // With read-ahead, reads happen on a background thread, and waiting is measured in ReadAheadInputStream
+        byteStream = supportsByteBuffers(source) ? new DirectCountingInputStream(source, !useReadAhead) :
+                                                   new CountingInputStream(source, !useReadAhead);
+        if (useReadAhead) {
+            int bufferSize = conf.getInt("warc.input.readahead.buffer.size", DEFAULT_READAHEAD_BUFFER_SIZE);
+            String threadName = "warc-readahead-" + filePath.getName();
+            if (compressed) {
+                // Split the buffer between compressed and decompressed data
+                InputStream raw = new ReadAheadInputStream(byteStream, RAW_CHUNK_SIZE,
+                        Math.max(2, bufferSize / 2 / RAW_CHUNK_SIZE), threadName + "-io");
+                memberStream = compression.newMemberInputStream(raw, this.start, dictionary);
+                readAhead = new ReadAheadInputStream(memberStream,
+                        DECOMPRESSED_CHUNK_SIZE, Math.max(2, bufferSize / 2 / DECOMPRESSED_CHUNK_SIZE),
+                        threadName + "-gunzip");
+                gzipStream = readAhead;
+            } else {
+                readAhead = new ReadAheadInputStream(byteStream, RAW_CHUNK_SIZE,
+                        Math.max(2, bufferSize / RAW_CHUNK_SIZE), threadName + "-io");
+            }
+            dataStream = new WARCInputStream(readAhead);
+        } else if (compressed) {
+            memberStream = compression.newMemberInputStream(byteStream, this.start, dictionary);
+            gzipStream = memberStream;
+            dataStream = new WARCInputStream(memberStream);
+        } else {
+            dataStream = new WARCInputStream(byteStream);
+        }
+    }
+
+    /**
+     * Returns true if reads into a `ByteBuffer` can be passed on to the given stream.
+     * FSDataInputStream always implements {@link ByteBufferReadable}, but only supports it if
+     * the stream it wraps does.
+     */
+    private static boolean supportsByteBuffers(InputStream in) {
+        if (in instanceof FSDataInputStream) {
+            return ((FSDataInputStream) in).getWrappedStream() instanceof ByteBufferReadable;
+        }
+        return in instanceof ByteBufferReadable;
+    }
+
+    /**
+     * Scans forward from `pos` to find the first gzip member (or zstd frame) that decompresses
+     * to the start of a WARC record. Returns `end` if there is no such member starting before
+     * `end`.
+     */
+    private long findRecordStart(FSDataInputStream in, long pos, long end) throws IOException {
+        byte[] buf = new byte[SYNC_SCAN_SIZE + MAGIC_OVERLAP];
+        while (pos < end) {
+            in.seek(pos);
+            int len = 0, n;
+            while (len < buf.length && (n = in.read(buf, len, buf.length - len)) > 0) len += n;
+            if (len <= MAGIC_OVERLAP) break;
 
-        CompressionCodec codec = filePath.getName().endsWith(".gz") ?
-                                 WARCFileWriter.getGzipCodec(conf) : null;
-        byteStream = new CountingInputStream(new BufferedInputStream(fs.open(filePath)));
-        dataStream = new DataInputStream(codec == null ? byteStream : codec.createInputStream(byteStream));
+            for (int i = 0; i < len && pos + i < end; i++) {
+                if (compression.isMemberStart(buf, i, len) && startsWithVersion(in, pos + i)) {
+                    return pos + i;
+                }
+            }
+            pos += len - MAGIC_OVERLAP;
+        }
+        return end;
     }
 
     /**
-     * Reads the next record from the file.
+     * Returns true if a gzip member (or zstd frame) can be decompressed from the given
+     * offset, and its content starts with a WARC/1.x version line.
+     */
+    private boolean startsWithVersion(FSDataInputStream in, long offset) throws IOException {
+        in.seek(offset);
+        if (probe == null) {
+            // Reused for every candidate; closing it must not close the file
+            probe = compression.newMemberInputStream(new FilterInputStream(in) {
+                @Override
+                public void close() {
+                }
+            }, offset, dictionary);
+        } else {
+            probe.restart(offset);
+        }
+        try {
+            for (byte expected : VERSION_PREFIX) {
+                if (probe.read() != expected) return false;
+            }
+            return true;
+        } catch (IOException e) {
+            return false; // not a valid member, or truncated
+        }
+    }
+
+    /**
+     * Reads the next record from the file (skipping any records that don't match the
+     * configured {@link WARCRecordFilter}).
      * @return The record that was read.
+     * @throws EOFException if there are no more records in the file (or in the byte range
+     *         being read).
+     * @throws IllegalStateException if a record is malformed (and the reader is not lenient,
+     *         or has used up its error budget).
      * @throws IOException
      */
     public WARCRecord read() throws IOException {
-        WARCRecord record = new WARCRecord(dataStream);
-        recordsRead++;
-        return record;
+        if (current != null) {
+            WARCRecord finished = current;
+            current = null;
+            try {
+                finished.finish();
+                if (verifyCurrent) verifyDigests(finished.getHeader());
+            } catch (IllegalStateException e) {
+                if (!recover(e, recordOffset)) throw e;
+            } catch (ZipException e) {
+                if (!recover(e, gzipStream.getCurrentMemberOffset())) throw e;
+            }
+        }
+        if (offHeap != null) {
+            offHeap.release();
+            offHeap = null;
+        }
+        while (true) {
+            WARCRecord record = (reusable != null) ? reusable : new WARCRecord(new WARCRecord.Header());
+            try {
+                recordOffset = getPosition();
+                if (gzipStream != null && recordOffset >= end) {
+                    throw new EOFException("Reached end of byte range");
+                }
+                if (!readRecord(record)) {
+                    recordsSkipped++;
+                    metrics.add(WARCCounter.RECORDS_SKIPPED, 1);
+                    continue;
+                }
+            } catch (IllegalStateException e) {
+                if (!recover(e, recordOffset)) throw e;
+                continue;
+            } catch (ZipException e) {
+                if (!recover(e, gzipStream.getCurrentMemberOffset())) throw e;
+                continue;
+            }
+            recordsRead++;
+            metrics.add(WARCCounter.RECORDS_READ, 1);
+            metrics.countRecordType(record.getHeader().getRecordType());
+            metrics.max(WARCCounter.MAX_RECORD_LENGTH, record.getHeader().getContentLength());
+            if (recordsRead % METRICS_INTERVAL == 0) publishMetrics();
+            return record;
+        }
+    }
+
+    /**
+     * Reads a record's header and, if it matches the filter, its body. Returns false if the
+     * record was skipped.
+     */
+    private boolean readRecord(WARCRecord record) throws IOException {
+        WARCRecord.Header header = record.getHeader();
+        if (digester != null) dataStream.digestNext(null, 0);
+        long startTime = System.nanoTime();
+        header.read(dataStream);
+        metrics.add(WARCCounter.HEADER_PARSE_NANOS, System.nanoTime() - startTime);
+        boolean accepted = filter == null || filter.accept(header);
+        // The payload of an HTTP record may match the content types even if the record doesn't
+        boolean recheck = !accepted && !headersOnly && !streaming && filter.needsHttpMimeType(header);
+
+        if (headersOnly || !(accepted || recheck)) {
+            skipFully(header.getContentLength());
+            WARCRecord.readSeparator(dataStream);
+            if (!accepted) return false;
+            record.clearContent();
+        } else if (streaming) {
+            verifyCurrent = startDigest(header);
+            record.streamContent(dataStream);
+            current = record;
+        } else {
+            boolean verify = startDigest(header);
+            ByteBuffer mappedBody = (mapped != null && bufferPool != null) ? sliceBody(header.getContentLength()) : null;
+            if (mappedBody != null) {
+                if (verify) {
+                    dataStream.digestNext(null, 0);
+                    digester.update(mappedBody);
+                }
+                skipFully(header.getContentLength());
+                record.mapContent(mappedBody, dataStream);
+                offHeap = record;
+            } else if (bufferPool != null) {
+                record.readContent(dataStream, bufferPool);
+                offHeap = record;
+            } else {
+                record.readContent(dataStream);
+            }
+            if (verify) verifyDigests(header);
+            if (recheck && !filter.accept(header, HTTPMessage.readMimeType(record))) {
+                record.clearContent();
+                offHeap = null;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next `length` bytes of a memory-mapped file as a slice of the mapping, or
+     * null if they can't be sliced (an empty body, or one that crosses a mapping window).
+     */
+    private ByteBuffer sliceBody(long length) throws IOException {
+        if (length <= 0 || length > Integer.MAX_VALUE) return null;
+        return mapped.slice(dataStream.getBytesRead() - dataStream.buffered(), (int) length);
+    }
+
+    /**
+     * If digests are being verified and the record declares any that we can compute, sets up
+     * the stream to digest the body as it is read, and returns true.
+     */
+    private boolean startDigest(WARCRecord.Header header) {
+        if (digester == null) return false;
+        String blockAlgorithm = WARCDigester.getAlgorithm(header.getField(WARCDigester.BLOCK_DIGEST));
+        String payloadAlgorithm = WARCDigester.getAlgorithm(header.getField(WARCDigester.PAYLOAD_DIGEST));
+        if (blockAlgorithm == null && payloadAlgorithm == null) return false;
+        digester.start(blockAlgorithm, payloadAlgorithm, WARCDigester.hasHttpPayload(header));
+        dataStream.digestNext(digester, header.getContentLength());
+        return true;
+    }
+
+    /** Compares the digests computed from a body that has been read with its header. */
+    private void verifyDigests(WARCRecord.Header header) {
+        checkDigest(header, WARCDigester.BLOCK_DIGEST, digester.getBlockDigest());
+        checkDigest(header, WARCDigester.PAYLOAD_DIGEST, digester.getPayloadDigest());
+    }
+
+    private void checkDigest(WARCRecord.Header header, String field, String computed) {
+        if (computed == null) return;
+        String expected = header.getField(field);
+        if (WARCDigester.matches(expected, computed)) {
+            metrics.add(WARCCounter.DIGESTS_VERIFIED, 1);
+        } else {
+            metrics.add(WARCCounter.DIGEST_MISMATCHES, 1);
+            for (WARCDigestListener listener : digestListeners) {
+                listener.digestMismatch(header, field, expected, computed);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener that is told about records whose body doesn't match its digest
+     * headers. Only used if `warc.input.digest.verify` is set to true.
+     */
+    public void addDigestListener(WARCDigestListener listener) {
+        digestListeners.add(listener);
+    }
+
+    /**
+     * Counts a record that could not be read. In lenient mode, if the error budget allows,
+     * skips to the next record and returns true; otherwise returns false, and the caller
+     * rethrows the exception.
+     * @param e The parse or decompression error.
+     * @param failedOffset The offset of the record (for compressed files, of the gzip member)
+     *        that could not be read.
+     */
+    private boolean recover(Exception e, long failedOffset) throws IOException {
+        recordsMalformed++;
+        metrics.add(WARCCounter.RECORDS_MALFORMED, 1);
+        boolean seekable = memberStream != null && readAhead == null;
+        if (!lenient || (e instanceof ZipException && !seekable)) {
+            publishMetrics();
+            return false;
+        }
+        if (recordsMalformed > maxErrors) {
+            logger.error("Giving up on " + filePath + " after " + recordsMalformed + " malformed records");
+            publishMetrics();
+            return false;
+        }
+
+        long resumeOffset;
+        if (seekable) {
+            resumeOffset = findRecordStart(fsStream, failedOffset + 1, Math.min(end, fileSize));
+            fsStream.seek(resumeOffset);
+            memberStream.restart(resumeOffset);
+            dataStream.discard();
+            bytesRead = Math.max(bytesRead, resumeOffset - start);
+        } else {
+            skipToVersionLine();
+            resumeOffset = getPosition();
+        }
+        metrics.add(WARCCounter.MALFORMED_BYTES_SKIPPED, Math.max(0, resumeOffset - failedOffset));
+        logger.warn("Skipped malformed data in " + filePath + " from byte " + failedOffset +
+                    " to " + resumeOffset + ": " + e.getMessage());
+        return true;
+    }
+
+    /**
+     * Discards input up to the next `WARC/1.` that begins a line or a gzip member. Returns
+     * false if the end of the input was reached without finding one.
+     */
+    private boolean skipToVersionLine() throws IOException {
+        byte[] buf = dataStream.buf;
+        boolean lineStart = false;
+        long member = (gzipStream != null) ? gzipStream.getCurrentMemberOffset() : -1;
+        while (true) {
+            int i = dataStream.pos, limit = dataStream.limit;
+            for (; i < limit; i++) {
+                if (lineStart && buf[i] == VERSION_PREFIX[0]) {
+                    if (limit - i < VERSION_PREFIX.length) break; // need more data to decide
+                    if (startsWithVersion(buf, i)) {
+                        dataStream.pos = i;
+                        return true;
+                    }
+                }
+                lineStart = buf[i] == '\n';
+            }
+            dataStream.pos = i;
+            boolean partial = i < limit;
+            if (!dataStream.fillKeepingUnread()) {
+                dataStream.pos = dataStream.limit;
+                return false;
+            }
+            // Each fill reads from only one gzip member, so a new member starts at the buffer start
+            if (!partial && gzipStream != null && gzipStream.getCurrentMemberOffset() != member) {
+                member = gzipStream.getCurrentMemberOffset();
+                lineStart = true;
+            }
+        }
+    }
+
+    private static boolean startsWithVersion(byte[] buf, int offset) {
+        for (int i = 0; i < VERSION_PREFIX.length; i++) {
+            if (buf[offset + i] != VERSION_PREFIX[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the byte counts and timings accumulated by the streams to the metrics, and passes
+     * the metrics to the listeners.
+     */
+    private void publishMetrics() {
+        long bytes = getBytesRead(), uncompressed = dataStream.getBytesRead();
+        long wait = (readAhead != null) ? readAhead.getWaitNanos() : readNanos;
+        long inflate = (memberStream != null) ? memberStream.getDecompressNanos() : 0;
+        metrics.add(WARCCounter.COMPRESSED_BYTES_READ, bytes - reportedBytesRead);
+        metrics.add(WARCCounter.UNCOMPRESSED_BYTES_READ, uncompressed - reportedUncompressed);
+        metrics.add(WARCCounter.READ_WAIT_NANOS, wait - reportedWait);
+        metrics.add(WARCCounter.INFLATE_NANOS, inflate - reportedInflate);
+        reportedBytesRead = bytes;
+        reportedUncompressed = uncompressed;
+        reportedWait = wait;
+        reportedInflate = inflate;
+        metrics.publish();
+    }
+
+    /**
+     * Returns the metrics collected by this reader. Byte counts and timings are brought up
+     * to date every few hundred records, and when the reader is closed.
+     */
+    public WARCMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void skipFully(long length) throws IOException {
+        while (length > 0) {
+            long skipped = dataStream.skip(length);
+            if (skipped <= 0) {
+                if (dataStream.read() < 0) throw new EOFException("Unexpected end of file in record body");
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    /**
+     * Returns the offset in the file of the next byte to be parsed, or for compressed files,
+     * of the gzip member it comes from.
+     */
+    private long getPosition() throws IOException {
+        return (gzipStream != null) ? getMemberOffset() : dataStream.getBytesRead() - dataStream.buffered();
+    }
+
+    /**
+     * Returns the compressed offset of the gzip member from which the next record byte will
+     * be read. Bytes in the stream's buffer all come from the member that was being read
+     * when the buffer was last filled.
+     */
+    private long getMemberOffset() throws IOException {
+        return dataStream.buffered() > 0 ? gzipStream.getCurrentMemberOffset() : gzipStream.getMemberOffset();
     }
 
     /**
@@ -61,9 +607,18 @@ public class WARCFileReader {
      * @throws IOException
      */
     public void close() throws IOException {
-        if (dataStream != null) dataStream.close();
+        if (offHeap != null) offHeap.release();
+        offHeap = null;
+        if (probe != null) probe.close();
+        probe = null;
+        if (dataStream != null) {
+            publishMetrics();
+            dataStream.close();
+        }
         byteStream = null;
         dataStream = null;
+        fsStream = null;
+        mapped = null;
     }
 
     /**
@@ -73,38 +628,65 @@ public class WARCFileReader {
         return recordsRead;
     }
 
+    /**
+     * Returns the number of records that have been skipped because they did not match the
+     * configured {@link WARCRecordFilter}.
+     */
+    public long getRecordsSkipped() {
+        return recordsSkipped;
+    }
+
+    /**
+     * Returns the number of records that could not be parsed. In lenient mode, these were
+     * skipped; otherwise there is at most one, whose exception was thrown by `read()`.
+     */
+    public long getRecordsMalformed() {
+        return recordsMalformed;
+    }
+
     /**
      * Returns the number of bytes that have been read from file since it was opened.
      * If the file is compressed, this refers to the compressed file size.
      */
     public long getBytesRead() {
-        return bytesRead;
+        if (readAhead == null) return bytesRead;
+        // bytesRead is updated by the background thread, so report what has been consumed
+        if (gzipStream != null) return Math.max(0, readAhead.getCompressedPosition() - start);
+        return readAhead.getPosition();
     }
 
     /**
-     * Returns the proportion of the file that has been read, as a number between 0.0
-     * and 1.0.
+     * Returns the proportion of the file (or of the byte range, if only part of the file
+     * is being read) that has been read, as a number between 0.0 and 1.0.
      */
     public float getProgress() {
-        if (fileSize == 0) return 1.0f;
-        return (float) bytesRead / (float) fileSize;
+        long total = Math.min(end, fileSize) - start;
+        if (total <= 0) return 1.0f;
+        return Math.min(1.0f, (float) getBytesRead() / (float) total);
     }
 
     private class CountingInputStream extends FilterInputStream {
-        public CountingInputStream(InputStream in) {
+        final boolean timed;
+
+        public CountingInputStream(InputStream in, boolean timed) {
             super(in);
+            this.timed = timed;
         }
 
         @Override
         public int read() throws IOException {
+            long startTime = timed ? System.nanoTime() : 0;
             int result = in.read();
+            if (timed) readNanos += System.nanoTime() - startTime;
             if (result != -1) bytesRead++;
             return result;
         }
 
         @Override
         public int read(byte[] b, int off, int len) throws IOException {
+            long startTime = timed ? System.nanoTime() : 0;
             int result = in.read(b, off, len);
+            if (timed) readNanos += System.nanoTime() - startTime;
             if (result != -1) bytesRead += result;
             return result;
         }
@@ -116,4 +698,20 @@ public class WARCFileReader {
             return result;
         }
     }
+
+    /** A {@link CountingInputStream} over a source that can read into a `ByteBuffer`. */
+    private class DirectCountingInputStream extends CountingInputStream implements ByteBufferReadable {
+        public DirectCountingInputStream(InputStream in, boolean timed) {
+            super(in, timed);
+        }
+
+        @Override
+        public int read(ByteBuffer buf) throws IOException {
+            long startTime = timed ? System.nanoTime() : 0;
+            int result = ((ByteBufferReadable) in).read(buf);
+            if (timed) readNanos += System.nanoTime() - startTime;
+            if (result > 0) bytesRead += result;
+            return result;
+        }
+    }
 }
@@ -1,10 +1,26 @@
 package com.martinkl.warc;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
@@ -30,10 +46,84 @@ import org.slf4j.LoggerFactory;
  * `warc.output.segment.size` key in the Hadoop configuration to the number of bytes.
  * (Files may actually be a bit larger than this threshold, since we finish writing the
  * current record before opening a new file.)
+ *
+ * If gzip compression is used, each record is compressed as a separate gzip member, which
+ * is the standard convention for WARC files. This allows readers to start reading at the
+ * beginning of any record (e.g. to split the file, or to look up a record by offset). Set
+ * `warc.output.gzip.per.record` to false in the Hadoop configuration to compress each
+ * segment as a single gzip stream instead. The offset and compressed length of each
+ * record are passed to any {@link WARCWriterListener}s registered with the writer.
+ *
+ * Gzip compression can be performed in parallel on several threads by setting
+ * `warc.output.compression.threads` to the number of threads to use. Records are then
+ * compressed in the background and written to the file in their original order. At most
+ * `warc.output.compression.buffer.size` bytes of uncompressed records (default 64MB) are
+ * buffered while waiting to be compressed; records larger than this are compressed on the
+ * calling thread. Segment sizes are the same as they would be with a single thread.
+ *
+ * If `warc.output.compression.format` is set to `zstd` (rather than the default `gzip`),
+ * compressed output is written in Zstandard format instead, with one frame per record and
+ * the extension `.warc.zst`. The compression level is set by `warc.output.zstd.level`
+ * (default 3). A dictionary, trained on a sample of records with {@link WARCZstdDictionary}
+ * and configured in `warc.output.zstd.dictionary`, is embedded at the start of every segment
+ * and used to compress all of its records. Zstd output is always compressed on the calling
+ * thread. This requires the zstd-jni library.
+ *
+ * If `warc.output.continuation` is set to true, a record that doesn't fit into the rest of
+ * the current segment is split into segments, which are written as WARC `continuation`
+ * records: the first part keeps the original record's header (plus `WARC-Segment-Number: 1`),
+ * and each following part is a `continuation` record with `WARC-Segment-Origin-ID` set to
+ * the original record ID and the next `WARC-Segment-Number`; the last one also has
+ * `WARC-Segment-Total-Length`. Each part fills the rest of a segment, so segment sizes stay
+ * within the configured size even for records much larger than a segment. Since segment
+ * sizes count compressed bytes, a record that might not fit is first compressed without
+ * keeping the output, to find out where to cut it; a record that fits once compressed is
+ * written whole. A body that can only be read once is copied to a local temporary file for
+ * this. Records smaller than `warc.output.continuation.min.size` (default 1MB) are never
+ * split; a segment with less space than that left is closed before a record is split.
+ * Since the block digest of a
+ * split record no longer matches any one part, `WARC-Block-Digest` is dropped from its
+ * parts (`WARC-Payload-Digest`, which covers the whole payload, stays on the first part).
+ * {@link CombinedWARCFileReader} can reassemble the parts when reading.
+ *
+ * If `warc.output.index` is set to true, a CDXJ index of the records in each segment is
+ * written next to the segment file, as described in {@link WARCIndexWriter}.
+ *
+ * If `warc.output.digest` is set to a digest algorithm (`sha1` or `sha256`), the writer adds
+ * a `WARC-Block-Digest` header to records that don't have one, and a `WARC-Payload-Digest` to
+ * HTTP request and response records. The digest is computed from the record body in memory
+ * while the record is written (streaming records, whose body can only be read once, are
+ * written as they are). The record passed to `write()` is not modified, but
+ * {@link WARCWriterListener}s see the header as it was written, including the digests.
+ *
+ * If `warc.output.dedup` is set to true, the writer remembers the payload digest of every
+ * `response` record it writes in a {@link WARCDigestIndex}, which can be seeded with the
+ * CDX or CDXJ indexes of existing archives listed in `warc.output.dedup.seed`. A response
+ * whose payload digest is already in the index is written as a `revisit` record instead,
+ * with the profile `identical-payload-digest`, only the HTTP headers of the response as its
+ * body, and `WARC-Refers-To`, `WARC-Refers-To-Target-URI` and `WARC-Refers-To-Date` fields
+ * pointing at the original. This needs a `WARC-Payload-Digest` on responses, either from
+ * the crawler or added by `warc.output.digest`. Responses with an empty payload (including
+ * those whose HTTP headers have no end) are never deduplicated. The size of the index is
+ * limited by `warc.output.dedup.max.entries` (default 1M digests) and
+ * `warc.output.dedup.max.bytes` (default 256MB, off-heap).
+ *
+ * The writer collects {@link WARCMetrics} (records per type, bytes before and after
+ * compression, time spent compressing and writing, segments rolled), which are passed to any
+ * {@link WARCMetricsListener}s configured in `warc.metrics.listeners` every few hundred
+ * records, and when the writer is closed.
  */
 public class WARCFileWriter {
     private static final Logger logger = LoggerFactory.getLogger(WARCFileWriter.class);
     public static final long DEFAULT_MAX_SEGMENT_SIZE = 1000000000L; // 1 GB
+    public static final long DEFAULT_COMPRESSION_BUFFER_SIZE = 64 * 1024 * 1024; // 64 MB
+    public static final int DEFAULT_ZSTD_LEVEL = 3;
+    public static final long DEFAULT_CONTINUATION_MIN_SIZE = 1024 * 1024; // 1 MB
+    private static final int PROBE_CHUNK_SIZE = 16384;
+    private static final int PART_OVERHEAD = 512; // allowance for separators, gzip or zstd framing
+    private static final int METRICS_INTERVAL = 256;
+    private static final String REVISIT_PROFILE = "http://netpreserve.org/warc/1.0/revisit/identical-payload-digest";
+    private static final int MAX_REVISIT_BODY = 65536;
 
     private final Configuration conf;
     private final CompressionCodec codec;
@@ -41,8 +131,32 @@ public class WARCFileWriter {
     private final Progressable progress;
     private final String extensionFormat;
     private final long maxSegmentSize;
-    private long segmentsCreated = 0, segmentsAttempted = 0, bytesWritten = 0;
+    private final boolean splitRecords;
+    private final long minSplitSize;
+    private final boolean gzipPerRecord;
+    private final WARCCompression compression;
+    private final int zstdLevel;
+    private final byte[] zstdDictionary;
+    private final List<WARCWriterListener> listeners = new ArrayList<WARCWriterListener>();
+    private boolean indexing = false; // true if a listener is a WARCIndexWriter
+    private final ParallelGzipCompressor compressor;
+    private final ArrayDeque<PendingRecord> pending = new ArrayDeque<PendingRecord>();
+    private final int maxPendingRecords;
+    private final long maxPendingBytes;
+    private long pendingBytes = 0, pendingBound = 0;
+    private long segmentsCreated = 0, segmentsAttempted = 0, bytesWritten = 0, segmentRecords = 0;
+    private long segmentStartBytes = 0; // bytes written at the start of a segment, e.g. a zstd dictionary
+    private final WARCMetrics metrics;
+    private final String digestAlgorithm;
+    private final WARCDigester digester;
+    private final WARCDigestIndex dedupIndex;
+    private long recordsWritten = 0, totalBytesWritten = 0, uncompressedBytes = 0, writeNanos = 0;
+    private long closedDeflateNanos = 0;
+    private long reportedBytes = 0, reportedUncompressed = 0, reportedWrite = 0, reportedDeflate = 0;
+    private Path segmentPath;
     private CountingOutputStream byteStream;
+    private GzipMemberOutputStream gzipStream;
+    private ZstdFrameOutputStream zstdStream;
     private DataOutputStream dataStream;
 
     /**
@@ -68,7 +182,8 @@ public class WARCFileWriter {
      *
      * @param conf The Hadoop configuration.
      * @param codec If null, the file is uncompressed. If non-null, this compression codec
-     *              will be used. The codec's default file extension is appended to the filename.
+     *              will be used (unless `warc.output.compression.format` is `zstd`). The
+     *              codec's default file extension is appended to the filename.
      * @param workOutputPath The directory and filename prefix to which the data should be
      *                       written. We append a segment number and filename extensions to it.
      * @param progress An object used by the mapred API for tracking a task's progress.
@@ -80,10 +195,36 @@ public class WARCFileWriter {
         this.codec = codec;
         this.workOutputPath = workOutputPath;
         this.progress = progress;
-        this.extensionFormat = ".seg-%05d.attempt-%05d.warc" +
-                (codec == null ? "" : codec.getDefaultExtension());
+        String format = conf.get("warc.output.compression.format", "gzip");
+        if (!format.equals("gzip") && !format.equals("zstd")) {
+            throw new IllegalArgumentException("Unsupported warc.output.compression.format: " + format);
+        }
+        this.compression = (codec == null) ? WARCCompression.NONE :
+                           format.equals("zstd") ? WARCCompression.ZSTD : WARCCompression.forFilename(codec.getDefaultExtension());
+        this.extensionFormat = ".seg-%05d.attempt-%05d.warc" + (codec == null ? "" :
+                (compression == WARCCompression.ZSTD) ? compression.getExtension() : codec.getDefaultExtension());
         this.maxSegmentSize = conf.getLong("warc.output.segment.size", DEFAULT_MAX_SEGMENT_SIZE);
+        this.splitRecords = conf.getBoolean("warc.output.continuation", false);
+        this.minSplitSize = conf.getLong("warc.output.continuation.min.size", DEFAULT_CONTINUATION_MIN_SIZE);
+        this.gzipPerRecord = compression == WARCCompression.GZIP &&
+                             conf.getBoolean("warc.output.gzip.per.record", true);
+        this.zstdLevel = conf.getInt("warc.output.zstd.level", DEFAULT_ZSTD_LEVEL);
+        this.zstdDictionary = (compression == WARCCompression.ZSTD) ? WARCZstdDictionary.load(conf) : null;
+        int threads = conf.getInt("warc.output.compression.threads", 1);
+        this.compressor = (gzipPerRecord && threads > 1) ?
+                          new ParallelGzipCompressor(threads, Deflater.DEFAULT_COMPRESSION) : null;
+        this.maxPendingRecords = 4 * threads;
+        this.maxPendingBytes = conf.getLong("warc.output.compression.buffer.size", DEFAULT_COMPRESSION_BUFFER_SIZE);
+        this.metrics = new WARCMetrics(conf);
         createSegment();
+        String algorithm = conf.get("warc.output.digest");
+        if (algorithm != null && !WARCDigester.isSupported(algorithm)) {
+            throw new IllegalArgumentException("Unsupported digest algorithm in warc.output.digest: " + algorithm);
+        }
+        this.digestAlgorithm = (algorithm == null) ? null : algorithm.toLowerCase(Locale.ROOT);
+        this.digester = (algorithm == null) ? null : new WARCDigester();
+        this.dedupIndex = conf.getBoolean(WARCDigestIndex.DEDUP_KEY, false) ? WARCDigestIndex.create(conf) : null;
+        if (conf.getBoolean(WARCIndexWriter.INDEX_KEY, false)) addListener(new WARCIndexWriter(conf));
     }
 
     /**
@@ -115,6 +256,7 @@ public class WARCFileWriter {
     private void createSegment() throws IOException {
         segmentsAttempted = 0;
         bytesWritten = 0;
+        segmentRecords = 0;
         boolean success = false;
 
         while (!success) {
@@ -127,9 +269,20 @@ public class WARCFileWriter {
                 // Here, overwrite if progress != null, i.e. if using mapred API.
                 FSDataOutputStream fsStream = (progress == null) ? fs.create(path, false): fs.create(path, progress);
                 byteStream = new CountingOutputStream(new BufferedOutputStream(fsStream));
-                dataStream = new DataOutputStream(codec == null ? byteStream : codec.createOutputStream(byteStream));
+                if (gzipPerRecord) {
+                    gzipStream = new GzipMemberOutputStream(byteStream, Deflater.DEFAULT_COMPRESSION);
+                    dataStream = new DataOutputStream(new UncompressedCountingStream(gzipStream));
+                } else if (compression == WARCCompression.ZSTD) {
+                    zstdStream = newZstdStream(byteStream);
+                    dataStream = new DataOutputStream(new UncompressedCountingStream(zstdStream));
+                } else {
+                    dataStream = new DataOutputStream(new UncompressedCountingStream(
+                            codec == null ? byteStream : codec.createOutputStream(byteStream)));
+                }
                 segmentsCreated++;
+                segmentPath = path;
                 logger.info("Writing to output file: {}", path);
+                segmentStartBytes = bytesWritten;
                 success = true;
 
             } catch (IOException e) {
@@ -141,6 +294,45 @@ public class WARCFileWriter {
                 }
             }
         }
+        for (WARCWriterListener listener : listeners) listener.segmentOpened(segmentPath);
+    }
+
+    /** Opens a zstd stream, which writes the dictionary (if any) at the start of the segment. */
+    private ZstdFrameOutputStream newZstdStream(OutputStream out) throws IOException {
+        try {
+            return new ZstdFrameOutputStream(out, zstdLevel, zstdDictionary);
+        } catch (LinkageError e) {
+            throw new IOException("Writing zstd-compressed WARC files requires zstd-jni on the classpath", e);
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        drainPending();
+        dataStream.close();
+        if (gzipStream != null) closedDeflateNanos += gzipStream.getDeflateNanos();
+        if (zstdStream != null) closedDeflateNanos += zstdStream.getCompressNanos();
+        gzipStream = null;
+        zstdStream = null;
+        for (WARCWriterListener listener : listeners) listener.segmentClosed(segmentPath);
+    }
+
+    /**
+     * Registers a listener to be notified about records and segments written. The listener
+     * is immediately told about the segment that is currently open.
+     * @param listener The listener to add.
+     * @throws IOException
+     */
+    public void addListener(WARCWriterListener listener) throws IOException {
+        listeners.add(listener);
+        if (listener instanceof WARCIndexWriter) indexing = true;
+        listener.segmentOpened(segmentPath);
+    }
+
+    /**
+     * Returns the path of the segment file that is currently being written.
+     */
+    public Path getSegmentPath() {
+        return segmentPath;
     }
 
     /**
@@ -149,11 +341,381 @@ public class WARCFileWriter {
      * @throws IOException
      */
     public void write(WARCRecord record) throws IOException {
-        if (bytesWritten > maxSegmentSize) {
-            dataStream.close();
-            createSegment();
+        WARCRecord.Header header = addDigests(record);
+        if (dedupIndex != null) {
+            WARCRecord revisit = deduplicate(record, header);
+            if (revisit != null) {
+                record = revisit;
+                header = addDigests(revisit);
+            }
+        }
+        metrics.add(WARCCounter.RECORDS_WRITTEN, 1);
+        metrics.countRecordType(header.getRecordType());
+        metrics.max(WARCCounter.MAX_RECORD_LENGTH, header.getContentLength());
+        if (++recordsWritten % METRICS_INTERVAL == 0) publishMetrics();
+        // The index needs the media type of the HTTP payload, which has to be read before the body is written
+        String httpMimeType = (indexing && WARCIndexEntry.isHttp(header)) ? HTTPMessage.readMimeType(record) : null;
+
+        if (mightNeedSplit(record, header, bytesWritten + pendingBound)) {
+            drainPending();
+            if (!hasSpaceToSplit()) rollSegment();
+            if (mightNeedSplit(record, header, bytesWritten)) {
+                writeSplit(record, header, httpMimeType);
+                return;
+            }
+        }
+
+        if (compressor != null && header.getContentLength() < maxPendingBytes) {
+            writeParallel(record, header, httpMimeType);
+            return;
+        }
+
+        drainPending();
+        if (bytesWritten > maxSegmentSize) rollSegment();
+        long offset = bytesWritten;
+        record.write(dataStream, header);
+        finishRecord(header, httpMimeType, offset);
+    }
+
+    /** Completes the compressed member of a record, and tells the listeners about it. */
+    private void finishRecord(WARCRecord.Header header, String httpMimeType, long offset) throws IOException {
+        if (gzipStream != null) gzipStream.finishMember();
+        if (zstdStream != null) zstdStream.finishMember();
+        segmentRecords++;
+
+        if (!listeners.isEmpty()) {
+            boolean offsetKnown = codec == null || gzipStream != null || zstdStream != null;
+            notifyWritten(header, httpMimeType, offsetKnown ? offset : -1, offsetKnown ? bytesWritten - offset : -1);
         }
-        record.write(dataStream);
+    }
+
+    /**
+     * Tells the listeners that a record has been written. A {@link WARCIndexWriter} is also
+     * given the media type of the HTTP payload.
+     */
+    private void notifyWritten(WARCRecord.Header header, String httpMimeType, long offset, long length)
+            throws IOException {
+        for (WARCWriterListener listener : listeners) {
+            if (listener instanceof WARCIndexWriter) {
+                ((WARCIndexWriter) listener).recordWritten(header, httpMimeType, offset, length);
+            } else {
+                listener.recordWritten(header, offset, length);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the current segment has enough space left to start a split record in
+     * it (or has no records yet, in which case a new segment would be no better).
+     */
+    private boolean hasSpaceToSplit() {
+        return segmentRecords == 0 || maxSegmentSize - bytesWritten >= minSplitSize;
+    }
+
+    private void rollSegment() throws IOException {
+        closeSegment();
+        createSegment();
+        metrics.add(WARCCounter.SEGMENTS_ROLLED, 1);
+    }
+
+    /**
+     * Returns true if a record may have to be split into continuation records because it
+     * might not fit into a segment of which `used` (compressed) bytes are already taken. Only
+     * a record whose uncompressed body doesn't fit can need splitting; whether it really does
+     * depends on how well it compresses. Continuation records themselves, and records
+     * without an ID to refer to, are not split.
+     */
+    private boolean mightNeedSplit(WARCRecord record, WARCRecord.Header header, long used) {
+        if (!splitRecords || !record.hasContent()) return false;
+        long length = header.getContentLength();
+        return length >= minSplitSize && length > maxSegmentSize - used &&
+               header.getRecordID() != null && !"continuation".equals(header.getRecordType());
+    }
+
+    /**
+     * Writes a record that might not fit into the rest of the current segment. The body is
+     * first compressed without keeping the output, to find out how many bytes of it fit into
+     * the rest of this segment and into each new segment once compressed (see
+     * {@link #planParts}). If it all fits, the record is written whole; otherwise it is
+     * written as a series of parts, each filling the rest of a segment file. The body is
+     * never held in memory in full: if it can only be read once, it is copied to a local
+     * temporary file while it is measured.
+     */
+    private void writeSplit(WARCRecord record, WARCRecord.Header header, String httpMimeType) throws IOException {
+        long totalLength = header.getContentLength();
+        long overhead = headerLength(header) + PART_OVERHEAD;
+        long firstSpace = maxSegmentSize - bytesWritten - overhead;
+        long nextSpace = maxSegmentSize - segmentStartBytes - overhead;
+        File spool = record.isRepeatable() ? null : File.createTempFile("warc-split-", ".tmp");
+        try {
+            List<Long> parts;
+            InputStream in = record.getContentStream();
+            OutputStream spoolOut = (spool == null) ? null : new BufferedOutputStream(new FileOutputStream(spool));
+            try {
+                parts = planParts(in, totalLength, firstSpace, nextSpace, spoolOut);
+            } finally {
+                in.close();
+                if (spoolOut != null) spoolOut.close();
+            }
+
+            InputStream body = (spool == null) ? record.getContentStream() : new FileInputStream(spool);
+            try {
+                if (parts.size() == 1) {
+                    long offset = bytesWritten;
+                    WARCRecord.write(dataStream, header, body, totalLength);
+                    finishRecord(header, httpMimeType, offset);
+                } else {
+                    writeParts(header, httpMimeType, body, parts);
+                }
+            } finally {
+                body.close();
+            }
+        } finally {
+            if (spool != null && !spool.delete()) logger.warn("Could not delete temporary file {}", spool);
+        }
+    }
+
+    /**
+     * Reads a body of `totalLength` bytes, and returns the lengths of the parts into which it
+     * needs to be cut so that each part, compressed, fits into `firstSpace` bytes (for the
+     * first part) or `nextSpace` bytes (for the others). The body is fed to a
+     * {@link CompressedSizeProbe} in chunks (of at most 16kB, and at most a sixteenth of a
+     * segment), and a part is ended before the chunk that would take it over the limit; a
+     * part always has at least one chunk. If `spool` is not null,
+     * the body is also copied to it.
+     */
+    private List<Long> planParts(InputStream body, long totalLength, long firstSpace, long nextSpace,
+                                 OutputStream spool) throws IOException {
+        List<Long> parts = new ArrayList<Long>();
+        CompressedSizeProbe probe = CompressedSizeProbe.create(compression, zstdLevel, zstdDictionary);
+        try {
+            // Small enough chunks that a part is cut close to the limit, even in small segments
+            byte[] buf = new byte[(int) Math.max(512, Math.min(PROBE_CHUNK_SIZE, nextSpace / 16))];
+            long space = firstSpace, partLength = 0, remaining = totalLength;
+            while (remaining > 0) {
+                int n = body.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (n < 0) throw new EOFException("Record body ended after " + (totalLength - remaining) + " of " + totalLength + " bytes");
+                if (spool != null) spool.write(buf, 0, n);
+                probe.write(buf, 0, n);
+                if (partLength > 0 && probe.getSize() > space) {
+                    parts.add(partLength);
+                    space = nextSpace;
+                    partLength = 0;
+                    probe.reset();
+                    probe.write(buf, 0, n);
+                }
+                partLength += n;
+                remaining -= n;
+            }
+            parts.add(partLength);
+        } finally {
+            probe.close();
+        }
+        return parts;
+    }
+
+    /**
+     * Writes a record as a series of parts with the given lengths, the first in the rest of
+     * the current segment and each of the others in a new segment.
+     */
+    private void writeParts(WARCRecord.Header header, String httpMimeType, InputStream body, List<Long> parts)
+            throws IOException {
+        long totalLength = header.getContentLength();
+        String originID = header.getRecordID();
+        for (int number = 1; number <= parts.size(); number++) {
+            long partLength = parts.get(number - 1);
+            WARCRecord.Header part;
+            if (number == 1) {
+                part = header.copyExcept("Content-Length", WARCDigester.BLOCK_DIGEST);
+            } else {
+                rollSegment();
+                part = new WARCRecord.Header();
+                part.appendField("WARC-Type", "continuation");
+                part.appendField("WARC-Record-ID", WARCRecordBuilder.newRecordID());
+                copyField(header, part, "WARC-Date");
+                copyField(header, part, "WARC-Target-URI");
+                copyField(header, part, "WARC-Warcinfo-ID");
+                part.appendField("WARC-Segment-Origin-ID", originID);
+            }
+            part.appendField("WARC-Segment-Number", Integer.toString(number));
+            if (number == parts.size()) part.appendField("WARC-Segment-Total-Length", Long.toString(totalLength));
+            part.appendField("Content-Length", Long.toString(partLength));
+
+            long offset = bytesWritten;
+            WARCRecord.write(dataStream, part, body, partLength);
+            finishRecord(part, number == 1 ? httpMimeType : null, offset);
+        }
+        metrics.add(WARCCounter.RECORDS_SPLIT, 1);
+    }
+
+    /** Returns the number of bytes a header takes up when written. */
+    private static long headerLength(WARCRecord.Header header) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(1024);
+        header.write(new DataOutputStream(buf));
+        return buf.size();
+    }
+
+    private static void copyField(WARCRecord.Header from, WARCRecord.Header to, String name) {
+        String value = from.getField(name);
+        if (value != null) to.appendField(name, value);
+    }
+
+    /**
+     * Returns the header with which a record should be written: its own header, or if
+     * digests need to be added, a copy with the digest fields appended.
+     */
+    private WARCRecord.Header addDigests(WARCRecord record) throws IOException {
+        WARCRecord.Header header = record.getHeader();
+        if (digester == null || !record.hasContent()) return header;
+        boolean addBlock = header.getField(WARCDigester.BLOCK_DIGEST) == null;
+        boolean addPayload = WARCDigester.hasHttpPayload(header) && header.getField(WARCDigester.PAYLOAD_DIGEST) == null;
+        if (!addBlock && !addPayload) return header;
+
+        digester.start(addBlock ? digestAlgorithm : null, addPayload ? digestAlgorithm : null, true);
+        if (!record.digestBody(digester)) return header;
+        header = header.copy();
+        if (addBlock) header.appendField(WARCDigester.BLOCK_DIGEST, digester.getBlockDigest());
+        if (addPayload) header.appendField(WARCDigester.PAYLOAD_DIGEST, digester.getPayloadDigest());
+        return header;
+    }
+
+    /**
+     * Looks up the payload digest of a response record in the dedup index. If the payload
+     * has been written before, returns a `revisit` record to write instead; otherwise adds
+     * the digest to the index and returns null. The revisit record keeps the response's
+     * fields, and its body is the HTTP headers of the response.
+     */
+    private WARCRecord deduplicate(WARCRecord record, WARCRecord.Header header) throws IOException {
+        if (!"response".equals(header.getRecordType()) || !record.hasContent()) return null;
+        String digest = header.getField(WARCDigester.PAYLOAD_DIGEST);
+        // Without a payload, every response would look like a copy of the first one
+        if (digest == null || WARCDigester.isEmptyDigest(digest)) return null;
+        WARCDigestIndex.Entry original = dedupIndex.get(digest);
+        if (original == null) {
+            dedupIndex.put(digest, header.getRecordID(), header.getTargetURI(), header.getDateString());
+            return null;
+        }
+
+        byte[] httpHeaders = readHttpHeaders(record);
+        WARCRecord.Header revisitHeader = new WARCRecord.Header();
+        revisitHeader.appendField("WARC-Type", "revisit");
+        revisitHeader.appendFieldsExcept(header, "WARC-Type", "Content-Length", "WARC-Truncated",
+                                         WARCDigester.BLOCK_DIGEST, WARCDigester.PAYLOAD_DIGEST);
+        revisitHeader.appendField("WARC-Profile", REVISIT_PROFILE);
+        if (original.getRecordID() != null) revisitHeader.appendField("WARC-Refers-To", original.getRecordID());
+        if (original.getTargetURI() != null) revisitHeader.appendField("WARC-Refers-To-Target-URI", original.getTargetURI());
+        if (original.getDate() != null) revisitHeader.appendField("WARC-Refers-To-Date", original.getDate());
+        revisitHeader.appendField(WARCDigester.PAYLOAD_DIGEST, digest);
+        revisitHeader.appendField("WARC-Truncated", "length");
+        revisitHeader.appendField("Content-Length", Integer.toString(httpHeaders.length));
+        WARCRecord revisit = new WARCRecord(revisitHeader);
+        revisit.setContent(httpHeaders);
+        metrics.add(WARCCounter.RECORDS_DEDUPLICATED, 1);
+        return revisit;
+    }
+
+    /**
+     * Reads the HTTP headers at the start of a record body, up to and including the blank
+     * line that ends them (CRLF CRLF, or LF LF as in {@link HTTPMessage}), or at most 64kB
+     * if there is no blank line.
+     */
+    private static byte[] readHttpHeaders(WARCRecord record) throws IOException {
+        byte[] buf = new byte[MAX_REVISIT_BODY];
+        int length = 0, end = -1, n;
+        InputStream in = record.getContentStream();
+        try {
+            while (end < 0 && length < buf.length && (n = in.read(buf, length, buf.length - length)) > 0) {
+                end = HTTPMessage.findHeaderEnd(ByteBuffer.wrap(buf, 0, length + n), Math.max(0, length - 2));
+                length += n;
+            }
+        } finally {
+            in.close();
+        }
+        return Arrays.copyOf(buf, end < 0 ? length : end);
+    }
+
+    /**
+     * Serializes a record and hands it to the background compression threads. To decide
+     * whether to start a new segment, we need to know the compressed size of all preceding
+     * records; we only wait for them to be compressed if their worst-case compressed size
+     * could take the segment over the size limit.
+     */
+    private void writeParallel(WARCRecord record, WARCRecord.Header header, String httpMimeType) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(
+                (int) Math.min(maxPendingBytes, header.getContentLength() + 1024));
+        record.write(new DataOutputStream(buf), header);
+        uncompressedBytes += buf.size();
+
+        if (bytesWritten + pendingBound > maxSegmentSize) {
+            drainPending();
+            if (bytesWritten > maxSegmentSize) rollSegment();
+        }
+
+        // Worst-case deflate output size, plus gzip header and trailer
+        long bound = buf.size() + (buf.size() >> 3) + 64;
+        // The listeners are called later, when the caller may have reused the record
+        WARCRecord.Header listenerHeader = null;
+        if (!listeners.isEmpty()) listenerHeader = (header == record.getHeader()) ? header.copy() : header;
+        pending.add(new PendingRecord(compressor.submit(buf), listenerHeader, httpMimeType, buf.size(), bound));
+        pendingBytes += buf.size();
+        pendingBound += bound;
+
+        while (pending.size() > maxPendingRecords || pendingBytes > maxPendingBytes) writeNextPending();
+    }
+
+    /** Waits for the oldest pending record to be compressed, and writes it to the file. */
+    private void writeNextPending() throws IOException {
+        PendingRecord record = pending.remove();
+        byte[] member;
+        long startTime = System.nanoTime();
+        try {
+            member = record.compressed.get();
+            writeNanos += System.nanoTime() - startTime;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compression");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Compression failed", e.getCause());
+        }
+        pendingBytes -= record.size;
+        pendingBound -= record.bound;
+
+        long offset = bytesWritten;
+        byteStream.write(member);
+        segmentRecords++;
+        notifyWritten(record.header, record.httpMimeType, offset, member.length);
+    }
+
+    private void drainPending() throws IOException {
+        while (!pending.isEmpty()) writeNextPending();
+    }
+
+    /**
+     * Adds the byte counts and timings accumulated by the streams to the metrics, and passes
+     * the metrics to the listeners.
+     */
+    private void publishMetrics() {
+        long deflate = closedDeflateNanos + (gzipStream != null ? gzipStream.getDeflateNanos() : 0) +
+                       (zstdStream != null ? zstdStream.getCompressNanos() : 0) +
+                       (compressor != null ? compressor.getDeflateNanos() : 0);
+        metrics.add(WARCCounter.COMPRESSED_BYTES_WRITTEN, totalBytesWritten - reportedBytes);
+        metrics.add(WARCCounter.UNCOMPRESSED_BYTES_WRITTEN, uncompressedBytes - reportedUncompressed);
+        metrics.add(WARCCounter.WRITE_WAIT_NANOS, writeNanos - reportedWrite);
+        metrics.add(WARCCounter.DEFLATE_NANOS, deflate - reportedDeflate);
+        reportedBytes = totalBytesWritten;
+        reportedUncompressed = uncompressedBytes;
+        reportedWrite = writeNanos;
+        reportedDeflate = deflate;
+        metrics.publish();
+    }
+
+    /**
+     * Returns the metrics collected by this writer. Byte counts and timings are brought up
+     * to date every few hundred records, and when the writer is closed.
+     */
+    public WARCMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -170,7 +732,28 @@ public class WARCFileWriter {
      * @throws IOException
      */
     public void close() throws IOException {
-        dataStream.close();
+        try {
+            closeSegment();
+            publishMetrics();
+        } finally {
+            if (compressor != null) compressor.shutdown();
+        }
+    }
+
+
+    private static class PendingRecord {
+        final Future<byte[]> compressed;
+        final WARCRecord.Header header;
+        final String httpMimeType;
+        final long size, bound;
+
+        PendingRecord(Future<byte[]> compressed, WARCRecord.Header header, String httpMimeType, long size, long bound) {
+            this.compressed = compressed;
+            this.header = header;
+            this.httpMimeType = httpMimeType;
+            this.size = size;
+            this.bound = bound;
+        }
     }
 
 
@@ -181,19 +764,50 @@ public class WARCFileWriter {
 
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
+            long startTime = System.nanoTime();
             out.write(b, off, len);
+            writeNanos += System.nanoTime() - startTime;
             bytesWritten += len;
+            totalBytesWritten += len;
         }
 
         @Override
         public void write(int b) throws IOException {
             out.write(b);
             bytesWritten++;
+            totalBytesWritten++;
         }
 
         // Overriding close() because FilterOutputStream's close() method pre-JDK8 has bad behavior:
         // it silently ignores any exception thrown by flush(). Instead, just close the delegate stream.
         // It should flush itself if necessary. (Thanks to the Guava project for noticing this.)
+        @Override
+        public void close() throws IOException {
+            long startTime = System.nanoTime();
+            out.close();
+            writeNanos += System.nanoTime() - startTime;
+        }
+    }
+
+
+    /** Counts the bytes written before compression. */
+    private class UncompressedCountingStream extends FilterOutputStream {
+        public UncompressedCountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            uncompressedBytes += len;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            uncompressedBytes++;
+        }
+
         @Override
         public void close() throws IOException {
             out.close();
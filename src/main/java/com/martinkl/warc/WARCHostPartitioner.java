@@ -0,0 +1,79 @@
+package com.martinkl.warc;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Assigns {@link WARCKey}s to partitions so that all captures from the same host (the part
+ * of the SURT up to the closing parenthesis, e.g. `com,example)`) go to the same reducer.
+ * This is the logic behind the mapred {@link com.martinkl.warc.mapred.WARCKeyPartitioner}
+ * and the mapreduce {@link com.martinkl.warc.mapreduce.WARCKeyPartitioner}.
+ *
+ * A few very large hosts can make some reducers take much longer than the others. Hosts
+ * listed in `warc.partition.spread.hosts` (whitespace-separated SURT prefixes, e.g.
+ * `com,example)` or `com,blogspot,`) are therefore spread across
+ * `warc.partition.spread.factor` partitions (default 8). All captures of the same URI still
+ * go to the same partition.
+ */
+public class WARCHostPartitioner {
+    public static final String SPREAD_HOSTS_KEY = "warc.partition.spread.hosts";
+    public static final String SPREAD_FACTOR_KEY = "warc.partition.spread.factor";
+    public static final int DEFAULT_SPREAD_FACTOR = 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final byte[][] spreadHosts;
+    private final int spreadFactor;
+
+    /**
+     * Creates a partitioner using the settings in a Hadoop configuration.
+     * @param conf The Hadoop configuration.
+     */
+    public WARCHostPartitioner(Configuration conf) {
+        String hosts = conf.get(SPREAD_HOSTS_KEY, "").trim().toLowerCase(Locale.ROOT);
+        String[] prefixes = hosts.isEmpty() ? new String[0] : hosts.split("\\s+");
+        this.spreadHosts = new byte[prefixes.length][];
+        for (int i = 0; i < prefixes.length; i++) spreadHosts[i] = prefixes[i].getBytes(UTF8);
+        this.spreadFactor = Math.max(1, conf.getInt(SPREAD_FACTOR_KEY, DEFAULT_SPREAD_FACTOR));
+    }
+
+    /**
+     * Configures hosts to be spread across several partitions.
+     * @param conf The Hadoop configuration.
+     * @param factor The number of partitions across which each of these hosts is spread.
+     * @param hosts SURT prefixes of the hosts, e.g. `com,example)`.
+     */
+    public static void setSpreadHosts(Configuration conf, int factor, String... hosts) {
+        StringBuilder value = new StringBuilder();
+        for (String host : hosts) {
+            if (value.length() > 0) value.append(' ');
+            value.append(host);
+        }
+        conf.set(SPREAD_HOSTS_KEY, value.toString());
+        conf.setInt(SPREAD_FACTOR_KEY, factor);
+    }
+
+    /**
+     * Returns the partition (between 0 and numPartitions - 1) for a key.
+     */
+    public int getPartition(WARCKey key, int numPartitions) {
+        int partition = key.getHostHash() & Integer.MAX_VALUE;
+        if (spreadFactor > 1 && isSpreadHost(key.getSURTBytes(), key.getSURTLength())) {
+            int uriHash = WritableComparator.hashBytes(key.getSURTBytes(), key.getSURTLength()) & Integer.MAX_VALUE;
+            partition = (partition % numPartitions) + (uriHash % spreadFactor);
+        }
+        return partition % numPartitions;
+    }
+
+    private boolean isSpreadHost(byte[] surt, int length) {
+        for (byte[] prefix : spreadHosts) {
+            if (prefix.length > length) continue;
+            int i = 0;
+            while (i < prefix.length && prefix[i] == surt[i]) i++;
+            if (i == prefix.length) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,269 @@
+package com.martinkl.warc;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One line of a CDXJ index: the location of a WARC record within a file, together with the
+ * header fields that are most commonly used to look records up. A line has the form
+ *
+ *     com,example)/page 20140318174738 {"url": "http://example.com/page", ...}
+ *
+ * i.e. the SURT form of the target URI (see {@link SURT}), a 14-digit timestamp, and a JSON
+ * object with the fields `url`, `mime`, `digest`, `offset`, `length`, `id`, `type` and
+ * `filename`. Fields whose value is unknown are omitted from the JSON object. Sorting the
+ * lines as strings sorts the records by URI and then by time.
+ */
+public class WARCIndexEntry {
+    private String urlKey, timestamp, url, mime, digest, recordID, type, filename;
+    private long offset = -1, length = -1;
+
+    /** Creates an entry with no fields set. */
+    public WARCIndexEntry() {}
+
+    /**
+     * Creates an entry for a record that was written to a file. The `mime` field of an HTTP
+     * record (`Content-Type: application/http`) is left unknown, since it should be the media
+     * type of the HTTP payload, which is not in the WARC header.
+     * @param header The header of the record. It must have a `WARC-Target-URI`.
+     * @param filename The name of the file containing the record.
+     * @param offset The byte offset of the record (or its gzip member) within the file.
+     * @param length The number of bytes the record occupies in the file.
+     */
+    public WARCIndexEntry(WARCRecord.Header header, String filename, long offset, long length) {
+        this(header, null, filename, offset, length);
+    }
+
+    /**
+     * Creates an entry for a record that was written to a file.
+     * @param header The header of the record. It must have a `WARC-Target-URI`.
+     * @param httpMimeType For an HTTP record, the media type from the HTTP `Content-Type`
+     *                     header (e.g. `text/html`), or null if unknown. Ignored for other
+     *                     records, whose `mime` is their WARC `Content-Type`.
+     * @param filename The name of the file containing the record.
+     * @param offset The byte offset of the record (or its gzip member) within the file.
+     * @param length The number of bytes the record occupies in the file.
+     */
+    public WARCIndexEntry(WARCRecord.Header header, String httpMimeType, String filename, long offset, long length) {
+        this.url = header.getTargetURI();
+        this.urlKey = SURT.toSURT(url);
+        this.timestamp = toTimestamp(header.getDateString());
+        this.mime = isHttp(header) ? httpMimeType : header.getContentType();
+        this.digest = header.getField("WARC-Payload-Digest");
+        if (digest == null) digest = header.getField("WARC-Block-Digest");
+        this.recordID = header.getRecordID();
+        this.type = header.getRecordType();
+        this.filename = filename;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /** Returns true if a record's body is an HTTP message (`Content-Type: application/http`). */
+    static boolean isHttp(WARCRecord.Header header) {
+        String contentType = header.getContentType();
+        return contentType != null && contentType.trim().toLowerCase(Locale.ROOT).startsWith("application/http");
+    }
+
+    /**
+     * Converts a `WARC-Date` value such as `2014-03-18T17:47:38Z` into the 14-digit
+     * timestamp format used in CDX indexes (`20140318174738`).
+     */
+    public static String toTimestamp(String date) {
+        if (date == null) return "-";
+        StringBuilder timestamp = new StringBuilder(14);
+        for (int i = 0; i < date.length() && timestamp.length() < 14; i++) {
+            char c = date.charAt(i);
+            if (c >= '0' && c <= '9') timestamp.append(c);
+        }
+        return timestamp.length() == 0 ? "-" : timestamp.toString();
+    }
+
+    /** Returns the SURT form of the record's target URI. */
+    public String getURLKey() {
+        return urlKey;
+    }
+
+    /** Returns the record's date as a timestamp of up to 14 digits (yyyyMMddHHmmss). */
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    /** Returns the record's `WARC-Target-URI`. */
+    public String getURL() {
+        return url;
+    }
+
+    /**
+     * Returns the media type of the record: for HTTP records, that of the HTTP payload (e.g.
+     * `text/html`), and for others, the record's `Content-Type`. Returns null if unknown.
+     */
+    public String getMimeType() {
+        return mime;
+    }
+
+    /** Returns the record's payload digest (or block digest, if it has no payload digest), or null. */
+    public String getDigest() {
+        return digest;
+    }
+
+    /** Returns the record's `WARC-Record-ID`, or null if unknown. */
+    public String getRecordID() {
+        return recordID;
+    }
+
+    /** Returns the record's `WARC-Type`, or null if unknown. */
+    public String getRecordType() {
+        return type;
+    }
+
+    /** Returns the name of the file containing the record, or null if unknown. */
+    public String getFilename() {
+        return filename;
+    }
+
+    /** Returns the byte offset of the record within its file, or -1 if unknown. */
+    public long getOffset() {
+        return offset;
+    }
+
+    /** Returns the number of bytes the record occupies in its file, or -1 if unknown. */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Parses a line of a CDXJ index.
+     * @param line The line to parse, without the trailing newline.
+     * @throws IllegalArgumentException if the line is not in CDXJ format.
+     */
+    public static WARCIndexEntry parse(String line) {
+        int space1 = line.indexOf(' ');
+        int space2 = (space1 < 0) ? -1 : line.indexOf(' ', space1 + 1);
+        if (space2 < 0) throw new IllegalArgumentException("Malformed CDXJ line: " + line);
+
+        WARCIndexEntry entry = new WARCIndexEntry();
+        entry.urlKey = line.substring(0, space1);
+        entry.timestamp = line.substring(space1 + 1, space2);
+        Map<String, String> fields = parseJSON(line, space2 + 1);
+        entry.url = fields.get("url");
+        entry.mime = fields.get("mime");
+        entry.digest = fields.get("digest");
+        entry.recordID = fields.get("id");
+        entry.type = fields.get("type");
+        entry.filename = fields.get("filename");
+        try {
+            if (fields.containsKey("offset")) entry.offset = Long.parseLong(fields.get("offset"));
+            if (fields.containsKey("length")) entry.length = Long.parseLong(fields.get("length"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed CDXJ line: " + line, e);
+        }
+        return entry;
+    }
+
+    /**
+     * Parses a flat JSON object whose values are strings or numbers, as found in CDXJ
+     * lines. Numbers are returned in their string form.
+     */
+    private static Map<String, String> parseJSON(String line, int pos) {
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        StringBuilder buf = new StringBuilder();
+        pos = skipSpace(line, pos);
+        if (pos >= line.length() || line.charAt(pos) != '{') throw new IllegalArgumentException("Malformed CDXJ line: " + line);
+        pos = skipSpace(line, pos + 1);
+        if (pos < line.length() && line.charAt(pos) == '}') return fields;
+
+        while (true) {
+            pos = parseString(line, pos, buf);
+            String key = buf.toString();
+            pos = skipSpace(line, pos);
+            if (pos >= line.length() || line.charAt(pos) != ':') throw new IllegalArgumentException("Malformed CDXJ line: " + line);
+            pos = skipSpace(line, pos + 1);
+            if (pos < line.length() && line.charAt(pos) == '"') {
+                pos = parseString(line, pos, buf);
+            } else {
+                buf.setLength(0);
+                while (pos < line.length() && ",} ".indexOf(line.charAt(pos)) < 0) buf.append(line.charAt(pos++));
+            }
+            fields.put(key, buf.toString());
+            pos = skipSpace(line, pos);
+            if (pos >= line.length()) throw new IllegalArgumentException("Malformed CDXJ line: " + line);
+            if (line.charAt(pos) == '}') return fields;
+            if (line.charAt(pos) != ',') throw new IllegalArgumentException("Malformed CDXJ line: " + line);
+            pos = skipSpace(line, pos + 1);
+        }
+    }
+
+    private static int skipSpace(String line, int pos) {
+        while (pos < line.length() && line.charAt(pos) == ' ') pos++;
+        return pos;
+    }
+
+    private static int parseString(String line, int pos, StringBuilder buf) {
+        if (pos >= line.length() || line.charAt(pos) != '"') throw new IllegalArgumentException("Malformed CDXJ line: " + line);
+        buf.setLength(0);
+        pos++;
+        while (pos < line.length()) {
+            char c = line.charAt(pos++);
+            if (c == '"') return pos;
+            if (c == '\\' && pos < line.length()) {
+                c = line.charAt(pos++);
+                switch (c) {
+                    case 'n': buf.append('\n'); break;
+                    case 'r': buf.append('\r'); break;
+                    case 't': buf.append('\t'); break;
+                    case 'b': buf.append('\b'); break;
+                    case 'f': buf.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > line.length()) throw new IllegalArgumentException("Malformed CDXJ line: " + line);
+                        buf.append((char) Integer.parseInt(line.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: buf.append(c);
+                }
+            } else {
+                buf.append(c);
+            }
+        }
+        throw new IllegalArgumentException("Malformed CDXJ line: " + line);
+    }
+
+    /** Returns this entry formatted as a CDXJ line (without a trailing newline). */
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder(256);
+        line.append(urlKey).append(' ').append(timestamp == null ? "-" : timestamp).append(" {");
+        int start = line.length();
+        appendField(line, start, "url", url);
+        appendField(line, start, "mime", mime);
+        appendField(line, start, "digest", digest);
+        if (offset >= 0) appendField(line, start, "offset", offset);
+        if (length >= 0) appendField(line, start, "length", length);
+        appendField(line, start, "id", recordID);
+        appendField(line, start, "type", type);
+        appendField(line, start, "filename", filename);
+        return line.append('}').toString();
+    }
+
+    private static void appendField(StringBuilder line, int start, String key, long value) {
+        if (line.length() > start) line.append(", ");
+        line.append('"').append(key).append("\": ").append(value);
+    }
+
+    private static void appendField(StringBuilder line, int start, String key, String value) {
+        if (value == null) return;
+        if (line.length() > start) line.append(", ");
+        line.append('"').append(key).append("\": \"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,150 @@
+package com.martinkl.warc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Uses the CDXJ index sidecar of a WARC file (see {@link WARCIndexWriter}) to work out which
+ * byte ranges of the file contain records matching the configured {@link WARCRecordFilter}.
+ * This is used by the indexed InputFormats
+ * ({@link com.martinkl.warc.mapred.IndexedWARCInputFormat} and
+ * {@link com.martinkl.warc.mapreduce.IndexedWARCInputFormat}) to create splits that cover
+ * only the matching records, and to skip files without any matching records entirely.
+ *
+ * Matching records that are close together are merged into one range, so that a job doesn't
+ * end up with one split per record: two records are put in the same range if the gap between
+ * them is at most `warc.input.index.merge.gap` bytes (default 1MB), and the range would not
+ * become longer than `warc.input.index.split.size` bytes (default 256MB). Any non-matching
+ * records inside a range are skipped by the {@link WARCFileReader}, which applies the same
+ * filter.
+ */
+public class WARCIndexSplitter {
+    public static final String MERGE_GAP_KEY = "warc.input.index.merge.gap";
+    public static final String SPLIT_SIZE_KEY = "warc.input.index.split.size";
+    public static final long DEFAULT_MERGE_GAP = 1024 * 1024;
+    public static final long DEFAULT_SPLIT_SIZE = 256 * 1024 * 1024;
+
+    private final Configuration conf;
+    private final WARCRecordFilter filter;
+    private final long mergeGap, splitSize;
+
+    /**
+     * A range of bytes in a WARC file, and the hosts that store the block where it begins.
+     */
+    public static class Range {
+        private final long start, length;
+        private final String[] hosts;
+
+        public Range(long start, long length, String[] hosts) {
+            this.start = start;
+            this.length = length;
+            this.hosts = hosts;
+        }
+
+        /** Returns the offset of the first byte of the range. */
+        public long getStart() {
+            return start;
+        }
+
+        /** Returns the number of bytes in the range. */
+        public long getLength() {
+            return length;
+        }
+
+        /** Returns the hosts on which the start of the range is stored. */
+        public String[] getHosts() {
+            return hosts;
+        }
+
+        @Override
+        public String toString() {
+            return start + "+" + length;
+        }
+    }
+
+    /**
+     * Creates a splitter using the filter and settings in a Hadoop configuration.
+     * @param conf The Hadoop configuration.
+     */
+    public WARCIndexSplitter(Configuration conf) {
+        this.conf = conf;
+        this.filter = new WARCRecordFilter(conf);
+        this.mergeGap = conf.getLong(MERGE_GAP_KEY, DEFAULT_MERGE_GAP);
+        this.splitSize = conf.getLong(SPLIT_SIZE_KEY, DEFAULT_SPLIT_SIZE);
+    }
+
+    /**
+     * Returns the byte ranges of a WARC file that contain matching records, sorted by offset.
+     * Returns null if the file can't be pruned using an index, because it has no index
+     * sidecar or is not compressed (only compressed files can be read in parts). In that
+     * case the whole file needs to be read.
+     * @param file The path of the WARC file.
+     * @throws IOException
+     */
+    public List<Range> getRanges(Path file) throws IOException {
+        if (!WARCCompression.forFilename(file.getName()).isCompressed()) return null;
+        Path indexPath = WARCIndexWriter.getIndexPath(file);
+        FileSystem fs = indexPath.getFileSystem(conf);
+        if (!fs.exists(indexPath)) return null;
+
+        List<WARCIndexEntry> matches = new ArrayList<WARCIndexEntry>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(indexPath), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                WARCIndexEntry entry = WARCIndexEntry.parse(line);
+                if (entry.getOffset() < 0 || entry.getLength() < 0) return null;
+                if (filter.accept(entry)) matches.add(entry);
+            }
+        } finally {
+            reader.close();
+        }
+        FileSystem warcFs = file.getFileSystem(conf);
+        FileStatus status = warcFs.getFileStatus(file);
+        return mergeRanges(matches, warcFs.getFileBlockLocations(status, 0, status.getLen()));
+    }
+
+    private List<Range> mergeRanges(List<WARCIndexEntry> entries, BlockLocation[] blocks) throws IOException {
+        Collections.sort(entries, new Comparator<WARCIndexEntry>() {
+            @Override
+            public int compare(WARCIndexEntry a, WARCIndexEntry b) {
+                return Long.valueOf(a.getOffset()).compareTo(b.getOffset());
+            }
+        });
+
+        List<Range> ranges = new ArrayList<Range>();
+        long start = -1, end = -1;
+        for (WARCIndexEntry entry : entries) {
+            long entryEnd = entry.getOffset() + entry.getLength();
+            if (start >= 0 && entry.getOffset() - end <= mergeGap && entryEnd - start <= splitSize) {
+                end = Math.max(end, entryEnd);
+            } else {
+                if (start >= 0) ranges.add(new Range(start, end - start, getHosts(blocks, start)));
+                start = entry.getOffset();
+                end = entryEnd;
+            }
+        }
+        if (start >= 0) ranges.add(new Range(start, end - start, getHosts(blocks, start)));
+        return ranges;
+    }
+
+    private static String[] getHosts(BlockLocation[] blocks, long offset) throws IOException {
+        for (BlockLocation block : blocks) {
+            if (offset >= block.getOffset() && offset < block.getOffset() + block.getLength()) {
+                return block.getHosts();
+            }
+        }
+        return new String[0];
+    }
+}
@@ -0,0 +1,95 @@
+package com.martinkl.warc;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Builds a CDXJ index for each segment file written by a {@link WARCFileWriter}, using the
+ * offsets that the writer reports as it writes records (so no second pass over the data is
+ * needed). When a segment is closed, its index entries are sorted and written to a sidecar
+ * file next to the segment, with `.cdxj` appended to the segment's filename. See
+ * {@link WARCIndexEntry} for the format of each line.
+ *
+ * The writer installs this listener automatically if `warc.output.index` is set to true in
+ * the Hadoop configuration. Records are only indexed if they have a `WARC-Target-URI` and
+ * their offset in the file is known (i.e. the file is uncompressed, or compressed with one
+ * gzip member or zstd frame per record). The index entries of a segment are held in memory
+ * until the segment is closed.
+ *
+ * For HTTP records, the `mime` field is the media type from the HTTP `Content-Type` header,
+ * as CDX readers expect, rather than `application/http`. The writer reads it from the start
+ * of the body before writing the record; it is left out if the body can only be read once
+ * (e.g. a record given as an `InputStream`).
+ */
+public class WARCIndexWriter implements WARCWriterListener {
+    public static final String INDEX_KEY = "warc.output.index";
+    public static final String EXTENSION = ".cdxj";
+
+    private final Configuration conf;
+    private final List<String> lines = new ArrayList<String>();
+    private String filename;
+
+    /**
+     * Creates an index writer.
+     * @param conf The Hadoop configuration, used to access the filesystem.
+     */
+    public WARCIndexWriter(Configuration conf) {
+        this.conf = conf;
+    }
+
+    /** Enables or disables writing an index sidecar for every output segment. */
+    public static void setIndexEnabled(Configuration conf, boolean enabled) {
+        conf.setBoolean(INDEX_KEY, enabled);
+    }
+
+    /** Returns the path of the index sidecar for a given WARC file. */
+    public static Path getIndexPath(Path warcFile) {
+        return warcFile.suffix(EXTENSION);
+    }
+
+    @Override
+    public void segmentOpened(Path path) {
+        lines.clear();
+        filename = path.getName();
+    }
+
+    @Override
+    public void recordWritten(WARCRecord.Header header, long offset, long length) {
+        recordWritten(header, null, offset, length);
+    }
+
+    /**
+     * Indexes a record, like {@link #recordWritten(WARCRecord.Header, long, long)}. The
+     * {@link WARCFileWriter} calls this instead, passing the media type of the HTTP payload,
+     * which goes into the `mime` field of HTTP records.
+     */
+    void recordWritten(WARCRecord.Header header, String httpMimeType, long offset, long length) {
+        if (offset < 0 || header.getTargetURI() == null) return;
+        lines.add(new WARCIndexEntry(header, httpMimeType, filename, offset, length).toString());
+    }
+
+    @Override
+    public void segmentClosed(Path path) throws IOException {
+        Collections.sort(lines);
+        Path indexPath = getIndexPath(path);
+        FileSystem fs = indexPath.getFileSystem(conf);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(fs.create(indexPath, true), "UTF-8"));
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        lines.clear();
+    }
+}
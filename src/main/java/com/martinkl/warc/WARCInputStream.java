@@ -0,0 +1,298 @@
+package com.martinkl.warc;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import org.apache.hadoop.fs.ByteBufferReadable;
+
+/**
+ * A buffered input stream that {@link WARCRecord} can parse directly: rather than reading
+ * header lines one byte at a time through the {@link DataInput} interface, the header parser
+ * scans for line endings inside this stream's buffer.
+ *
+ * Each refill of the buffer performs exactly one `read()` on the underlying stream. Together
+ * with {@link GzipMemberInputStream}, this ensures that the buffer never contains bytes from
+ * more than one gzip member, so that record offsets can be determined exactly.
+ *
+ * If the underlying stream implements {@link ByteBufferReadable}, large reads into a
+ * `ByteBuffer` (e.g. an off-heap record body) bypass this stream's buffer and are read
+ * straight into the destination.
+ *
+ * The stream can also pass the bytes of a record body to a {@link WARCDigester} as they are
+ * consumed (through `read`, `readFully` or `skip`), so that digests are computed without a
+ * second pass over the body.
+ */
+final class WARCInputStream extends InputStream implements DataInput {
+    private static final int BUFFER_SIZE = 65536;
+
+    private final InputStream in;
+    private final ByteBufferReadable direct;
+    private final DataInputStream dataInput = new DataInputStream(this);
+    final byte[] buf = new byte[BUFFER_SIZE];
+    int pos = 0, limit = 0;
+    private long bytesRead = 0;
+    private WARCDigester digester = null;
+    private long digestRemaining = 0;
+
+    public WARCInputStream(InputStream in) {
+        this.in = in;
+        this.direct = (in instanceof ByteBufferReadable) ? (ByteBufferReadable) in : null;
+    }
+
+    /**
+     * Discards the (fully consumed) buffer contents and reads more data from the underlying
+     * stream. Returns false at the end of the stream.
+     */
+    boolean fill() throws IOException {
+        pos = 0;
+        limit = 0;
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) return false;
+        limit = n;
+        bytesRead += n;
+        return true;
+    }
+
+    /**
+     * Like {@link #fill()}, but keeps the bytes that have not been consumed yet, moving them
+     * to the start of the buffer. This is for scanning for a pattern that may straddle two
+     * reads. Returns false if no more bytes could be read.
+     */
+    boolean fillKeepingUnread() throws IOException {
+        int keep = limit - pos;
+        System.arraycopy(buf, pos, buf, 0, keep);
+        pos = 0;
+        limit = keep;
+        int n = in.read(buf, keep, buf.length - keep);
+        if (n <= 0) return false;
+        limit += n;
+        bytesRead += n;
+        return true;
+    }
+
+    /** Discards any buffered bytes, e.g. after the underlying stream has been repositioned. */
+    void discard() {
+        pos = 0;
+        limit = 0;
+    }
+
+    /**
+     * Passes the next `length` bytes consumed from this stream to a digester. Afterwards, or
+     * if the digester is null, bytes are no longer digested.
+     */
+    void digestNext(WARCDigester digester, long length) {
+        this.digester = (length > 0) ? digester : null;
+        this.digestRemaining = length;
+    }
+
+    private void digest(byte[] b, int off, int len) {
+        int n = (int) Math.min(len, digestRemaining);
+        digester.update(b, off, n);
+        digestRemaining -= n;
+        if (digestRemaining == 0) digester = null;
+    }
+
+    /** Digests the bytes of `buffer` from `start` up to its position. */
+    private void digest(ByteBuffer buffer, int start) {
+        ByteBuffer region = buffer.duplicate();
+        region.limit(region.position());
+        region.position(start);
+        if (region.remaining() > digestRemaining) region.limit(start + (int) digestRemaining);
+        digester.update(region);
+        digestRemaining -= region.remaining();
+        if (digestRemaining == 0) digester = null;
+    }
+
+    /** Returns the number of bytes that can be read without touching the underlying stream. */
+    int buffered() {
+        return limit - pos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        if (digester != null) digest(buf, pos, 1);
+        return buf[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (pos == limit) {
+            // Large reads bypass the buffer, avoiding a copy
+            if (len >= buf.length) {
+                int n = in.read(b, off, len);
+                if (n > 0) {
+                    bytesRead += n;
+                    if (digester != null) digest(b, off, n);
+                }
+                return n;
+            }
+            if (!fill()) return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        if (digester != null) digest(buf, pos, n);
+        pos += n;
+        return n;
+    }
+
+    /** Returns the number of bytes read from the underlying stream so far. */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) return 0;
+        if (digester != null) {
+            // Skipped bytes still need to be digested, so they have to go through the buffer
+            if (pos == limit && !fill()) return 0;
+            int skipped = (int) Math.min(n, limit - pos);
+            digest(buf, pos, skipped);
+            pos += skipped;
+            return skipped;
+        }
+        if (pos == limit) {
+            long skipped = in.skip(n);
+            bytesRead += skipped;
+            return skipped;
+        }
+        int skipped = (int) Math.min(n, limit - pos);
+        pos += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (limit - pos) + in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = read(b, off, len);
+            if (n < 0) throw new EOFException();
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Fills the remaining space of a (typically direct) buffer, copying straight from this
+     * stream's buffer, or once that is empty, reading directly from the underlying stream
+     * if it supports that.
+     */
+    void readFully(ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (pos == limit && direct != null && dst.remaining() >= buf.length) {
+                int start = dst.position();
+                int n = direct.read(dst);
+                if (n < 0) throw new EOFException();
+                bytesRead += n;
+                if (digester != null && n > 0) digest(dst, start);
+                continue;
+            }
+            if (pos == limit && !fill()) throw new EOFException();
+            int n = Math.min(dst.remaining(), limit - pos);
+            if (digester != null) digest(buf, pos, n);
+            dst.put(buf, pos, n);
+            pos += n;
+        }
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+        int total = 0;
+        while (total < n) {
+            long skipped = skip(n - total);
+            if (skipped <= 0) {
+                if (read() < 0) break;
+                skipped = 1;
+            }
+            total += skipped;
+        }
+        return total;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        if (pos == limit && !fill()) throw new EOFException();
+        return buf[pos++];
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xff;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        if (limit - pos < 4) return dataInput.readInt();
+        int result = ((buf[pos] & 0xff) << 24) | ((buf[pos + 1] & 0xff) << 16) |
+                     ((buf[pos + 2] & 0xff) << 8) | (buf[pos + 3] & 0xff);
+        pos += 4;
+        return result;
+    }
+
+    // The remaining DataInput methods are not used when parsing WARC records.
+
+    @Override
+    public short readShort() throws IOException {
+        return dataInput.readShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return dataInput.readUnsignedShort();
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return dataInput.readChar();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return dataInput.readLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return dataInput.readFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return dataInput.readDouble();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String readLine() throws IOException {
+        return dataInput.readLine();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return dataInput.readUTF();
+    }
+}
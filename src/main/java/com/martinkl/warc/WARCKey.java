@@ -0,0 +1,198 @@
+package com.martinkl.warc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A key identifying a capture: the SURT form of a record's target URI (see {@link SURT}),
+ * and the capture time (from `WARC-Date`) in milliseconds since the epoch. Keys sort by SURT
+ * and then by time, which groups the captures of each host together, with the captures of
+ * each URI in chronological order. The {@link Comparator} is registered as the default
+ * comparator, so keys are sorted without being deserialized.
+ *
+ * Keys are mutable and can be reused with {@link #set(WARCRecord.Header)}. Records without
+ * a target URI have an empty SURT, and records without a valid date have a timestamp of
+ * `Long.MIN_VALUE`, so both sort first.
+ */
+public class WARCKey implements WritableComparable<WARCKey> {
+    public static final long UNKNOWN_TIMESTAMP = Long.MIN_VALUE;
+
+    static {
+        WritableComparator.define(WARCKey.class, new Comparator());
+    }
+
+    private final Text surt = new Text();
+    private long timestamp = UNKNOWN_TIMESTAMP;
+
+    /** Creates a key with an empty SURT and unknown timestamp. */
+    public WARCKey() {
+    }
+
+    /** Creates a key with the given SURT and timestamp. */
+    public WARCKey(String surt, long timestamp) {
+        set(surt, timestamp);
+    }
+
+    /** Sets the SURT and timestamp of this key. */
+    public void set(String surt, long timestamp) {
+        this.surt.set(surt);
+        this.timestamp = timestamp;
+    }
+
+    /** Sets this key to identify the capture described by a record header. */
+    public void set(WARCRecord.Header header) {
+        String uri = header.getTargetURI();
+        surt.set(uri == null ? "" : SURT.toSURT(uri));
+        timestamp = parseDate(header.getDateString());
+    }
+
+    /** Returns the SURT form of the target URI. */
+    public String getSURT() {
+        return surt.toString();
+    }
+
+    /**
+     * Returns the host part of the SURT, up to and including the closing parenthesis
+     * (e.g. `com,example)`), or the whole SURT if it has no host part.
+     */
+    public String getHost() {
+        String str = surt.toString();
+        int paren = str.indexOf(')');
+        return paren < 0 ? str : str.substring(0, paren + 1);
+    }
+
+    /** Returns the capture time in milliseconds since the epoch, or {@link #UNKNOWN_TIMESTAMP}. */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns a hash of the host part of the SURT, computed on its bytes. Keys with the same
+     * host have the same host hash.
+     */
+    public int getHostHash() {
+        return WritableComparator.hashBytes(surt.getBytes(), hostLength(surt.getBytes(), 0, surt.getLength()));
+    }
+
+    /** Returns the buffer containing the UTF-8 bytes of the SURT; see {@link #getSURTLength()}. */
+    byte[] getSURTBytes() {
+        return surt.getBytes();
+    }
+
+    /** Returns the number of valid bytes in {@link #getSURTBytes()}. */
+    int getSURTLength() {
+        return surt.getLength();
+    }
+
+    private static int hostLength(byte[] bytes, int start, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[start + i] == ')') return i + 1;
+        }
+        return length;
+    }
+
+    /**
+     * Parses a `WARC-Date` of the form `YYYY-MM-DDThh:mm:ssZ` (optionally with fractional
+     * seconds) into milliseconds since the epoch, without allocating any objects. Returns
+     * {@link #UNKNOWN_TIMESTAMP} if the date is missing or malformed.
+     */
+    public static long parseDate(String date) {
+        if (date == null || date.length() < 19 || date.charAt(4) != '-' || date.charAt(7) != '-' ||
+                date.charAt(10) != 'T' || date.charAt(13) != ':' || date.charAt(16) != ':') {
+            return UNKNOWN_TIMESTAMP;
+        }
+        int year = digits(date, 0, 4), month = digits(date, 5, 2), day = digits(date, 8, 2);
+        int hour = digits(date, 11, 2), minute = digits(date, 14, 2), second = digits(date, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 ||
+                hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return UNKNOWN_TIMESTAMP;
+        }
+        int millis = 0, pos = 19;
+        if (pos < date.length() && date.charAt(pos) == '.') {
+            for (int scale = 100; ++pos < date.length() && date.charAt(pos) >= '0' && date.charAt(pos) <= '9'; scale /= 10) {
+                millis += scale * (date.charAt(pos) - '0');
+            }
+        }
+
+        // Days since the epoch in the proleptic Gregorian calendar
+        int y = (month <= 2) ? year - 1 : year;
+        int era = y / 400, yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+    }
+
+    private static int digits(String str, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = 10 * value + (c - '0');
+        }
+        return value;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        surt.write(out);
+        out.writeLong(timestamp);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        surt.readFields(in);
+        timestamp = in.readLong();
+    }
+
+    @Override
+    public int compareTo(WARCKey other) {
+        int cmp = surt.compareTo(other.surt);
+        if (cmp != 0) return cmp;
+        return timestamp < other.timestamp ? -1 : (timestamp == other.timestamp ? 0 : 1);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof WARCKey && compareTo((WARCKey) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * surt.hashCode() + (int) (timestamp ^ (timestamp >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return surt + " " + timestamp;
+    }
+
+    /**
+     * Compares serialized keys by SURT and then by timestamp, without deserializing them.
+     */
+    public static class Comparator extends WritableComparator {
+        public Comparator() {
+            super(WARCKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                int vintSize1 = WritableUtils.decodeVIntSize(b1[s1]), vintSize2 = WritableUtils.decodeVIntSize(b2[s2]);
+                int length1 = readVInt(b1, s1), length2 = readVInt(b2, s2);
+                int cmp = compareBytes(b1, s1 + vintSize1, length1, b2, s2 + vintSize2, length2);
+                if (cmp != 0) return cmp;
+                long timestamp1 = readLong(b1, s1 + vintSize1 + length1);
+                long timestamp2 = readLong(b2, s2 + vintSize2 + length2);
+                return timestamp1 < timestamp2 ? -1 : (timestamp1 == timestamp2 ? 0 : 1);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.martinkl.warc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Collects the metrics of a {@link WARCFileReader} or {@link WARCFileWriter}: record counts
+ * (in total and per standard `WARC-Type`), bytes before and after compression, time spent waiting for
+ * I/O, compressing and parsing, and so on (see {@link WARCCounter}). The current values can
+ * be read at any time with {@link #get(WARCCounter)}; {@link WARCMetricsListener}s receive
+ * them as increments whenever the reader or writer calls {@link #publish()}.
+ *
+ * Updating a counter is cheap and thread-safe, so that background threads (read-ahead,
+ * parallel compression) can contribute their timings.
+ */
+public class WARCMetrics {
+    public static final String LISTENERS_KEY = "warc.metrics.listeners";
+    public static final String OTHER_TYPE = "other";
+    private static final WARCCounter[] COUNTERS = WARCCounter.values();
+    private static final Set<String> STANDARD_TYPES = new HashSet<String>(Arrays.asList(
+            "warcinfo", "response", "resource", "request", "metadata", "revisit", "conversion", "continuation"));
+
+    private final AtomicLong[] values = new AtomicLong[COUNTERS.length];
+    private final long[] published = new long[COUNTERS.length];
+    private final ConcurrentHashMap<String, AtomicLong> recordTypes = new ConcurrentHashMap<String, AtomicLong>();
+    private final Map<String, Long> publishedTypes = new HashMap<String, Long>();
+    private final List<WARCMetricsListener> listeners = new ArrayList<WARCMetricsListener>();
+
+    /** Creates a set of metrics with all counters at zero and no listeners. */
+    public WARCMetrics() {
+        for (int i = 0; i < values.length; i++) values[i] = new AtomicLong();
+    }
+
+    /**
+     * Creates a set of metrics with all counters at zero, and registers instances of any
+     * listener classes listed in `warc.metrics.listeners`.
+     * @param conf The Hadoop configuration.
+     */
+    public WARCMetrics(Configuration conf) {
+        this();
+        for (Class<?> listenerClass : conf.getClasses(LISTENERS_KEY)) {
+            addListener((WARCMetricsListener) ReflectionUtils.newInstance(listenerClass, conf));
+        }
+    }
+
+    /** Registers a listener, which is told about all counts from now on. */
+    public synchronized void addListener(WARCMetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    /** Increases a counter. */
+    public void add(WARCCounter counter, long delta) {
+        values[counter.ordinal()].addAndGet(delta);
+    }
+
+    /** Raises a maximum counter to `value`, if it is currently lower. */
+    public void max(WARCCounter counter, long value) {
+        AtomicLong current = values[counter.ordinal()];
+        long old;
+        while ((old = current.get()) < value && !current.compareAndSet(old, value));
+    }
+
+    /**
+     * Counts one record of the given type (null for records without a `WARC-Type`). Types
+     * other than the eight defined by the WARC standard are counted as `other`, so that junk
+     * in the input can't create an unbounded number of counters.
+     */
+    public void countRecordType(String recordType) {
+        if (!STANDARD_TYPES.contains(recordType)) recordType = OTHER_TYPE;
+        AtomicLong count = recordTypes.get(recordType);
+        if (count == null) {
+            AtomicLong existing = recordTypes.putIfAbsent(recordType, count = new AtomicLong());
+            if (existing != null) count = existing;
+        }
+        count.incrementAndGet();
+    }
+
+    /** Returns the current value of a counter. */
+    public long get(WARCCounter counter) {
+        return values[counter.ordinal()].get();
+    }
+
+    /** Returns the number of records of each type counted so far. */
+    public Map<String, Long> getRecordTypeCounts() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : recordTypes.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * Tells the listeners about everything that has changed since the last call.
+     */
+    public synchronized void publish() {
+        if (listeners.isEmpty()) return;
+        for (int i = 0; i < COUNTERS.length; i++) {
+            long value = values[i].get(), delta = value - published[i];
+            if (delta == 0) continue;
+            published[i] = value;
+            for (WARCMetricsListener listener : listeners) listener.counterUpdated(COUNTERS[i], delta);
+        }
+        for (Map.Entry<String, AtomicLong> entry : recordTypes.entrySet()) {
+            long value = entry.getValue().get();
+            Long previous = publishedTypes.put(entry.getKey(), value);
+            long delta = value - (previous == null ? 0 : previous);
+            if (delta == 0) continue;
+            for (WARCMetricsListener listener : listeners) listener.recordTypeCounted(entry.getKey(), delta);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        for (WARCCounter counter : COUNTERS) {
+            str.append(counter).append('=').append(get(counter)).append(", ");
+        }
+        return str.append("types=").append(getRecordTypeCounts()).toString();
+    }
+}
@@ -0,0 +1,31 @@
+package com.martinkl.warc;
+
+/**
+ * Receives the metrics collected by a {@link WARCFileReader} or {@link WARCFileWriter}. A
+ * listener can be registered with {@link WARCMetrics#addListener(WARCMetricsListener)}, or
+ * by listing its class name in the `warc.metrics.listeners` configuration key, in which case
+ * it needs a no-argument constructor (and, if it implements
+ * {@link org.apache.hadoop.conf.Configurable}, is given the configuration).
+ *
+ * Updates are delivered as increments every few hundred records, and when the reader or
+ * writer is closed, always on the thread that is reading or writing records.
+ */
+public interface WARCMetricsListener {
+
+    /**
+     * Called when a counter has changed since the last update.
+     * @param counter The counter that changed.
+     * @param delta The amount by which it increased. For a maximum
+     *              ({@link WARCCounter#isMaximum()}), this is the increase of the maximum,
+     *              so that the sum of all deltas is the current maximum.
+     */
+    void counterUpdated(WARCCounter counter, long delta);
+
+    /**
+     * Called when more records of a particular type (the `WARC-Type` header) have been read
+     * or written since the last update.
+     * @param recordType The record type, e.g. `response`.
+     * @param delta The number of additional records of that type.
+     */
+    void recordTypeCounted(String recordType, long delta);
+}
@@ -0,0 +1,203 @@
+package com.martinkl.warc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Reads individual {@link WARCRecord}s from a WARC file, given their byte offsets in the
+ * file (e.g. from a CDX index, see {@link WARCIndexWriter}). If the file is compressed, the
+ * offset must be the start of the gzip member or zstd frame containing the record, which
+ * requires the file to be compressed with one member per record.
+ *
+ * Only positional reads are performed on the underlying file handle, so one instance can
+ * be used by many threads concurrently. Use {@link #readAll(long[])} to fetch several
+ * records at once: the offsets are sorted internally, and records that are close together
+ * in the file are served from a single read.
+ */
+public class WARCRandomAccessReader implements Closeable {
+    private static final int BLOCK_SIZE = 65536;
+
+    private final Path path;
+    private final FSDataInputStream fsStream;
+    private final long fileSize;
+    private final WARCCompression compression;
+    private final byte[] dictionary;
+
+    /**
+     * Opens a file for random access. If the file is gzip- or zstd-compressed, records are
+     * decompressed on the fly.
+     * @param conf The Hadoop configuration.
+     * @param filePath The Hadoop path to the file that should be read.
+     * @throws IOException
+     */
+    public WARCRandomAccessReader(Configuration conf, Path filePath) throws IOException {
+        FileSystem fs = filePath.getFileSystem(conf);
+        this.path = filePath;
+        this.fileSize = fs.getFileStatus(filePath).getLen();
+        this.fsStream = fs.open(filePath);
+        this.compression = WARCCompression.detect(filePath, fsStream);
+        try {
+            this.dictionary = compression.readDictionary(fsStream, fileSize);
+        } catch (IOException e) {
+            fsStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the record at a given offset.
+     * @param offset The byte offset at which the record (or its gzip member) starts.
+     * @return The record, with its body read into memory.
+     * @throws IOException if there is no record starting at the given offset.
+     */
+    public WARCRecord read(long offset) throws IOException {
+        Cursor cursor = new Cursor();
+        try {
+            return cursor.read(offset);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads the records at several offsets. The records are returned in the same order as
+     * the offsets, but they are read in the order in which they appear in the file, reusing
+     * data that has already been read where possible.
+     * @param offsets The byte offsets at which the records (or their gzip members) start.
+     * @return The records, in the order of `offsets`.
+     * @throws IOException if there is no record starting at one of the offsets.
+     */
+    public List<WARCRecord> readAll(final long[] offsets) throws IOException {
+        Integer[] order = new Integer[offsets.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.valueOf(offsets[a]).compareTo(offsets[b]);
+            }
+        });
+
+        WARCRecord[] records = new WARCRecord[offsets.length];
+        Cursor cursor = new Cursor();
+        try {
+            for (int i = 0; i < order.length; i++) {
+                int index = order[i];
+                if (i > 0 && offsets[index] == offsets[order[i - 1]]) {
+                    records[index] = records[order[i - 1]].copy();
+                } else {
+                    records[index] = cursor.read(offsets[index]);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return new ArrayList<WARCRecord>(Arrays.asList(records));
+    }
+
+    /**
+     * Returns the path of the file being read.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Closes the file. No more reading is possible after the file has been closed.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        fsStream.close();
+    }
+
+    /**
+     * The per-call state of a lookup: buffers and a decompressor. Kept separate from the
+     * reader so that concurrent lookups don't interfere with each other.
+     */
+    private class Cursor {
+        private final BlockInputStream blocks = new BlockInputStream();
+        private final MemberInputStream members;
+        private final WARCInputStream dataStream;
+
+        Cursor() throws IOException {
+            members = compression.isCompressed() ? compression.newMemberInputStream(blocks, 0, dictionary) : null;
+            dataStream = new WARCInputStream(members != null ? members : blocks);
+        }
+
+        WARCRecord read(long offset) throws IOException {
+            if (offset < 0 || offset >= fileSize) {
+                throw new IllegalArgumentException("Offset " + offset + " is outside of file " + path);
+            }
+            blocks.seek(offset);
+            if (members != null) members.restart(offset);
+            dataStream.discard();
+            WARCRecord record = new WARCRecord(new WARCRecord.Header());
+            record.getHeader().read(dataStream);
+            record.readContent(dataStream);
+            return record;
+        }
+
+        /** Releases the decompressor's native memory. */
+        void close() throws IOException {
+            if (members != null) members.close();
+        }
+    }
+
+    /**
+     * An input stream over the file that fetches data in blocks using positional reads.
+     * Seeking to a position inside the current block doesn't require another read.
+     */
+    private class BlockInputStream extends InputStream {
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private long blockStart = 0;
+        private int blockLength = 0, pos = 0;
+
+        void seek(long position) {
+            if (position >= blockStart && position < blockStart + blockLength) {
+                pos = (int) (position - blockStart);
+            } else {
+                blockStart = position;
+                blockLength = 0;
+                pos = 0;
+            }
+        }
+
+        private boolean fill() throws IOException {
+            blockStart += blockLength;
+            blockLength = 0;
+            pos = 0;
+            if (blockStart >= fileSize) return false;
+            while (blockLength == 0) {
+                int n = fsStream.read(blockStart, block, 0, (int) Math.min(block.length, fileSize - blockStart));
+                if (n <= 0) return false;
+                blockLength = n;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos == blockLength && !fill()) return -1;
+            return block[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (pos == blockLength && !fill()) return -1;
+            int n = Math.min(len, blockLength - pos);
+            System.arraycopy(block, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+}
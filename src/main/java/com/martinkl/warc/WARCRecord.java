@@ -1,16 +1,38 @@
 package com.martinkl.warc;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.regex.Pattern;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
 /**
- * Immutable implementation of a record in a WARC file. You create a {@link WARCRecord}
- * by parsing it out of a {@link DataInput} stream.
+ * Implementation of a record in a WARC file. You create a {@link WARCRecord}
+ * by parsing it out of a {@link DataInput} stream, or from scratch with a
+ * {@link WARCRecordBuilder}.
+ *
+ * Normally the whole body of the record is read into memory. Alternatively,
+ * {@link WARCFileReader} can produce *streaming* records (if `warc.input.streaming` is set
+ * to true in the Hadoop configuration), whose body is not read until you read it from
+ * {@link #getContentStream()}. This allows records of any size to be processed in a
+ * constant amount of memory. The body of a streaming record can only be read once, and
+ * only until the next record is read from the same file.
+ *
+ * Records are immutable, with one exception: if `warc.input.reuse.records` is set to true,
+ * {@link WARCFileReader} returns the same record object from every call to `read()`, and
+ * refills its header and body buffers in place. This avoids allocating memory for every
+ * record, but it means that a record is only valid until the next one is read. If you need
+ * to keep a record for longer, call {@link #copy()}.
+ *
+ * If `warc.input.offheap` is set to true, {@link WARCFileReader} reads bodies into direct
+ * buffers taken from a {@link DirectBufferPool} instead of `byte[]` arrays. Such a body is
+ * available through {@link #getContentBuffer()} and {@link #getContentStream()} without
+ * copying, and its buffer goes back to the pool when the reader moves on to the next record,
+ * or earlier if you call {@link #release()}. After that, the body can no longer be read.
  *
  * The file format is documented in the
  * [ISO Standard](http://bibnum.bnf.fr/warc/WARC_ISO_28500_version1_latestdraft.pdf).
@@ -30,13 +52,25 @@ public class WARCRecord {
 
     public static final String WARC_VERSION = "WARC/1.0";
     private static final int MAX_LINE_LENGTH = 10000;
-    private static final Pattern VERSION_PATTERN = Pattern.compile("WARC/[0-9\\.]+");
-    private static final Pattern CONTINUATION_PATTERN = Pattern.compile("^[\\t ]+.*");
+    private static final int SEPARATOR = 0x0d0a0d0a; // CR LF CR LF
+    private static final Charset UTF8 = Charset.forName("UTF-8");
     private static final String CRLF = "\r\n";
     private static final byte[] CRLF_BYTES = { 13, 10 };
+    private static final byte[] VERSION_BYTES = WARC_VERSION.getBytes(UTF8);
+    private static final byte[] FIELD_SEPARATOR_BYTES = { ':', ' ' };
+    private static final byte[] EMPTY = new byte[0];
+    private static final int MAX_CONTENT_LENGTH = Integer.MAX_VALUE - 8;
+    private static final int COPY_BUFFER_SIZE = 65536;
 
     private final Header header;
-    private final byte[] content;
+    private byte[] content = EMPTY; // the body is in the first contentLength bytes
+    private int contentLength = 0;
+    private ContentStream contentStream = null;
+    private ByteBuffer directContent = null; // if non-null, holds the body instead of content
+    private DirectBufferPool pool = null;
+    private boolean owned = false; // directContent was given to a builder, rather than lent by a reader
+    private WARCRecordBuilder.BodySource source = null; // if non-null, the body is read from here
+    private boolean hasContent = false, released = false;
 
     /**
      * Creates a new WARCRecord by parsing it out of a {@link DataInput} stream.
@@ -44,63 +78,185 @@ public class WARCRecord {
      * @throws IOException
      */
     public WARCRecord(DataInput in) throws IOException {
-        header = readHeader(in);
-        content = new byte[header.getContentLength()];
-        in.readFully(content);
+        this(Header.parse(in));
+        readContent(in);
+    }
+
+    /**
+     * Creates a record with an already-parsed header and no body. The body can then be
+     * set with {@link #readContent(DataInput)} or {@link #streamContent(WARCInputStream)}.
+     */
+    WARCRecord(Header header) {
+        this.header = header;
+    }
+
+    /**
+     * Reads the body of the record, and the separator following it, into memory. The
+     * existing body buffer is reused if it is large enough.
+     */
+    void readContent(DataInput in) throws IOException {
+        readBody(in, header.getContentLength());
         readSeparator(in);
     }
 
-    private static Header readHeader(DataInput in) throws IOException {
-        String versionLine = readLine(in);
-        if (!VERSION_PATTERN.matcher(versionLine).matches()) {
-            throw new IllegalStateException("Expected WARC version, but got: " + versionLine);
+    /**
+     * Reads a body of the given length into memory, reusing the existing body buffer if it
+     * is large enough.
+     */
+    void readBody(DataInput in, long length) throws IOException {
+        if (length > MAX_CONTENT_LENGTH) {
+            throw new IllegalStateException("Record of " + length + " bytes is too large to be read into memory; " +
+                                            "use streaming mode instead");
         }
+        release();
+        if (content.length < length) content = new byte[(int) length];
+        contentLength = (int) length;
+        contentStream = null;
+        hasContent = true;
+        released = false;
+        in.readFully(content, 0, contentLength);
+    }
 
-        LinkedHashMap<String, String> headers = new LinkedHashMap<String, String>();
-        String line, fieldName = null;
+    /**
+     * Reads the body of the record, and the separator following it, into a direct buffer
+     * taken from a pool. Empty bodies are kept on the heap.
+     */
+    void readContent(WARCInputStream in, DirectBufferPool pool) throws IOException {
+        long length = header.getContentLength();
+        if (length == 0) {
+            readContent(in);
+            return;
+        }
+        if (length > MAX_CONTENT_LENGTH) {
+            throw new IllegalStateException("Record of " + length + " bytes is too large to be read into memory; " +
+                                            "use streaming mode instead");
+        }
+        release();
+        ByteBuffer buffer = pool.acquire((int) length);
+        try {
+            in.readFully(buffer);
+        } catch (IOException e) {
+            pool.release(buffer);
+            throw e;
+        }
+        buffer.flip();
+        directContent = buffer;
+        this.pool = pool;
+        contentLength = (int) length;
+        contentStream = null;
+        hasContent = true;
+        released = false;
+        readSeparator(in);
+    }
 
-        do {
-            line = readLine(in);
-            if (fieldName != null && CONTINUATION_PATTERN.matcher(line).matches()) {
-                headers.put(fieldName, headers.get(fieldName) + line);
-            } else if (!line.isEmpty()) {
-                String[] field = line.split(":", 2);
-                if (field.length < 2) throw new IllegalStateException("Malformed header line: " + line);
-                fieldName = field[0].trim();
-                headers.put(fieldName, field[1].trim());
-            }
-        } while (!line.isEmpty());
+    /**
+     * Uses a buffer that already holds the body -- a slice of a memory-mapped file -- as the
+     * body of the record, and reads the separator following it from the stream (which must
+     * be positioned after the body).
+     */
+    void mapContent(ByteBuffer body, DataInput in) throws IOException {
+        release();
+        directContent = body;
+        pool = null;
+        contentLength = body.remaining();
+        contentStream = null;
+        hasContent = true;
+        released = false;
+        readSeparator(in);
+    }
 
-        return new Header(headers);
+    /** Uses an array as the body of a record that is being built. */
+    void setContent(byte[] body) {
+        content = body;
+        contentLength = body.length;
+        hasContent = true;
     }
 
-    private static String readLine(DataInput in) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        boolean seenCR = false, seenCRLF = false;
-        while (!seenCRLF) {
-            if (out.size() > MAX_LINE_LENGTH) {
-                throw new IllegalStateException("Exceeded maximum line length");
-            }
-            byte b = in.readByte();
-            if (!seenCR && b == 13) {
-                seenCR = true;
-            } else if (seenCR && b == 10) {
-                seenCRLF = true;
-            } else {
-                seenCR = false;
-                out.write(b);
-            }
-        }
-        return out.toString("UTF-8");
+    /** Uses a buffer as the body of a record that is being built. */
+    void setContent(ByteBuffer body) {
+        directContent = body;
+        contentLength = body.remaining();
+        owned = true;
+        hasContent = true;
+    }
+
+    /** Makes the body of a record that is being built come from a stream or file. */
+    void setContent(WARCRecordBuilder.BodySource body) {
+        source = body;
+        hasContent = true;
     }
 
-    private static void readSeparator(DataInput in) throws IOException {
-        byte[] sep = new byte[4];
-        in.readFully(sep);
-        if (sep[0] != 13 || sep[1] != 10 || sep[2] != 13 || sep[3] != 10) {
+    /**
+     * Returns the off-heap buffer holding the body (see {@link #readContent(WARCInputStream,
+     * DirectBufferPool)}) to its pool. Afterwards the body can no longer be read. This is
+     * done automatically by {@link WARCFileReader} when it reads the next record, but you
+     * can call it earlier to make the buffer available for reuse sooner. Does nothing if the
+     * body is not held off-heap, or if it is a buffer given to a {@link WARCRecordBuilder}.
+     */
+    public void release() {
+        if (directContent == null || owned) return;
+        if (pool != null) pool.release(directContent);
+        directContent = null;
+        pool = null;
+        contentLength = 0;
+        released = true;
+    }
+
+    /**
+     * Returns the length of the body in bytes (which, for a streaming record, has not
+     * necessarily been read yet).
+     */
+    long getBodyLength() {
+        if (source != null) return source.length;
+        return contentStream != null ? contentStream.length : contentLength;
+    }
+
+    /**
+     * Makes this a streaming record, whose body is left in the stream, to be read through
+     * {@link #getContentStream()}. {@link #finish()} must be called before reading anything
+     * else from the stream.
+     */
+    void streamContent(WARCInputStream in) {
+        release();
+        released = false;
+        contentLength = 0;
+        contentStream = new ContentStream(in, header.getContentLength());
+        hasContent = true;
+    }
+
+    /**
+     * Marks this record as having been read without its body.
+     */
+    void clearContent() {
+        release();
+        released = false;
+        contentLength = 0;
+        contentStream = null;
+        hasContent = false;
+    }
+
+    /**
+     * Reads the separator `\r\n\r\n` that follows the body of every record.
+     */
+    static void readSeparator(DataInput in) throws IOException {
+        int sep = in.readInt();
+        if (sep != SEPARATOR) {
             throw new IllegalStateException(String.format(
                 "Expected final separator CR LF CR LF, but got: %d %d %d %d",
-                sep[0], sep[1], sep[2], sep[3]));
+                (byte) (sep >> 24), (byte) (sep >> 16), (byte) (sep >> 8), (byte) sep));
+        }
+    }
+
+    /**
+     * For streaming records, skips any part of the body that has not been read, and
+     * consumes the separator following the record. Afterwards the body can no longer be
+     * read. Does nothing for records whose body was read into memory.
+     */
+    void finish() throws IOException {
+        if (contentStream != null && !contentStream.finished) {
+            contentStream.skipRemaining();
+            contentStream.finished = true;
+            readSeparator(contentStream.in);
         }
     }
 
@@ -111,14 +267,134 @@ public class WARCRecord {
         return header;
     }
 
+    /**
+     * Returns true if this record has a body, and false if it was read in header-only
+     * mode (see {@link WARCRecordFilter}).
+     */
+    public boolean hasContent() {
+        return hasContent;
+    }
+
     /**
      * Returns the body of the record, as an unparsed raw array of bytes. The content
      * of the body depends on the type of record (see {@link Header#getRecordType()}).
      * For example, in the case of a `response` type header, the body consists of the
-     * full HTTP response returned by the server (HTTP headers followed by the body).
+     * full HTTP response returned by the server (HTTP headers followed by the body),
+     * which {@link HTTPMessage} can parse for you.
+     *
+     * If the record is being reused (see above), its body buffer may be larger than the
+     * body, and if the body is held off-heap it is not in an array at all; in those cases
+     * this method has to return a copy. Use {@link #getContentBuffer()} to avoid the copy.
+     *
+     * @throws IllegalStateException if this is a streaming record or a record built with a
+     *         body from a stream or file, whose body is only available through
+     *         {@link #getContentStream()}, or if the record was read without its body.
      */
     public byte[] getContent() {
-        return content;
+        checkInMemory();
+        if (directContent != null) {
+            byte[] copy = new byte[contentLength];
+            directContent.duplicate().get(copy);
+            return copy;
+        }
+        if (content.length == contentLength) return content;
+        return Arrays.copyOf(content, contentLength);
+    }
+
+    /**
+     * Returns a read-only view of the body of the record, without copying it. If the body is
+     * held off-heap, this is a view of the direct buffer, which is only valid until the
+     * record is released.
+     *
+     * @throws IllegalStateException if this is a streaming record or a record built with a
+     *         body from a stream or file, whose body is only available through
+     *         {@link #getContentStream()}, or if the record was read without its body.
+     */
+    public ByteBuffer getContentBuffer() {
+        checkInMemory();
+        if (directContent != null) return directContent.asReadOnlyBuffer();
+        return ByteBuffer.wrap(content, 0, contentLength).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the body of the record as a stream of bytes. For a streaming record, this
+     * reads directly from the underlying file, always returns the same stream, and the
+     * stream can only be read until the next record is read from the file. For other
+     * records, a new stream over the in-memory body is returned on every call. For a record
+     * built with a body from a file, a new stream over the file is returned on every call,
+     * and you should close it; a body from an `InputStream` can only be read once.
+     *
+     * @throws IllegalStateException if the record was read without its body.
+     */
+    public InputStream getContentStream() {
+        checkHasContent();
+        if (source != null) return source.open();
+        if (contentStream != null) return contentStream;
+        if (directContent != null) return new BufferInputStream(directContent.duplicate());
+        return new ByteArrayInputStream(content, 0, contentLength);
+    }
+
+    /**
+     * Returns true if the body is in memory, so that {@link #getContentBuffer()} can be
+     * called, and false for streaming records, bodies from a stream or file, and records
+     * without a body.
+     */
+    boolean isInMemory() {
+        return hasContent && !released && contentStream == null && source == null;
+    }
+
+    /**
+     * Returns true if {@link #getContentStream()} can be called more than once to read the
+     * body again: false for streaming records, bodies from an `InputStream`, and records
+     * without a body.
+     */
+    boolean isRepeatable() {
+        return hasContent && !released && contentStream == null && (source == null || source.isRepeatable());
+    }
+
+    private void checkHasContent() {
+        if (released) throw new IllegalStateException("The body of the record has been released");
+        if (!hasContent) throw new IllegalStateException("The record was read without its body");
+    }
+
+    private void checkInMemory() {
+        checkHasContent();
+        if (contentStream != null) {
+            throw new IllegalStateException("The body of a streaming record is only available through getContentStream()");
+        }
+        if (source != null) {
+            throw new IllegalStateException("The body of this record is not in memory; use getContentStream()");
+        }
+    }
+
+    /**
+     * Returns a copy of this record that does not share any mutable state with it, and so
+     * remains valid after the reader has moved on to the next record. Records without a
+     * body are copied without a body, and bodies held off-heap are copied onto the heap. A
+     * built record whose body comes from a file shares the file with its copy.
+     *
+     * @throws IllegalStateException if this is a streaming record, or a record built with a
+     *         body from an `InputStream`, whose body can't be copied without reading it.
+     */
+    public WARCRecord copy() {
+        if (contentStream != null) throw new IllegalStateException("Cannot copy a streaming record");
+        if (source != null && !source.isRepeatable()) {
+            throw new IllegalStateException("Cannot copy a record whose body comes from an InputStream");
+        }
+        WARCRecord copy = new WARCRecord(header.copy());
+        copy.hasContent = hasContent;
+        copy.source = source;
+        if (released) throw new IllegalStateException("The body of the record has been released");
+        if (contentLength == 0) {
+            copy.content = EMPTY;
+        } else if (directContent != null) {
+            copy.content = new byte[contentLength];
+            directContent.duplicate().get(copy.content);
+        } else {
+            copy.content = Arrays.copyOf(content, contentLength);
+        }
+        copy.contentLength = contentLength;
+        return copy;
     }
 
     /**
@@ -129,13 +405,112 @@ public class WARCRecord {
      * @throws IOException
      */
     public void write(DataOutput out) throws IOException {
+        write(out, header);
+    }
+
+    /**
+     * Writes this record with a different header (e.g. a copy of its own header with fields
+     * added) but the same body.
+     */
+    void write(DataOutput out, Header header) throws IOException {
+        checkHasContent();
+        header.write(out);
+        out.write(CRLF_BYTES);
+        writeBody(out);
+        out.write(CRLF_BYTES);
+        out.write(CRLF_BYTES);
+    }
+
+    /**
+     * Writes just the body of the record. For a streaming record, the body is copied from
+     * the stream, which must not have been read yet. A body from a stream or file is copied
+     * in chunks.
+     */
+    void writeBody(DataOutput out) throws IOException {
+        checkHasContent();
+        if (source != null) {
+            InputStream in = source.open();
+            try {
+                copyBody(in, out, source.length);
+            } finally {
+                in.close();
+            }
+        } else if (directContent != null) {
+            ByteBuffer source = directContent.duplicate();
+            byte[] buf = new byte[Math.min(COPY_BUFFER_SIZE, Math.max(1, contentLength))];
+            while (source.hasRemaining()) {
+                int n = Math.min(buf.length, source.remaining());
+                source.get(buf, 0, n);
+                out.write(buf, 0, n);
+            }
+        } else if (contentStream == null) {
+            out.write(content, 0, contentLength);
+        } else {
+            if (contentStream.position > 0 || contentStream.finished) {
+                throw new IllegalStateException("Cannot write a streaming record whose body has already been read");
+            }
+            byte[] buf = new byte[(int) Math.min(COPY_BUFFER_SIZE, Math.max(1, contentStream.length))];
+            int n;
+            while ((n = contentStream.read(buf, 0, buf.length)) > 0) out.write(buf, 0, n);
+        }
+    }
+
+    /**
+     * Copies `length` bytes of a body from a stream, in chunks. If the length is negative,
+     * copies everything up to the end of the stream.
+     * @throws EOFException if the stream ends before `length` bytes.
+     */
+    static void copyBody(InputStream in, DataOutput out, long length) throws IOException {
+        byte[] buf = new byte[(int) (length < 0 ? COPY_BUFFER_SIZE : Math.min(COPY_BUFFER_SIZE, Math.max(1, length)))];
+        long remaining = length < 0 ? Long.MAX_VALUE : length;
+        while (remaining > 0) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (n < 0) {
+                if (length < 0) return;
+                throw new EOFException("Record body ended after " + (length - remaining) + " of " + length + " bytes");
+            }
+            out.write(buf, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Writes a record consisting of the given header and `length` bytes of body from a
+     * stream. Used to write a record in parts (see {@link WARCFileWriter}).
+     */
+    static void write(DataOutput out, Header header, InputStream body, long length) throws IOException {
         header.write(out);
         out.write(CRLF_BYTES);
-        out.write(content);
+        copyBody(body, out, length);
         out.write(CRLF_BYTES);
         out.write(CRLF_BYTES);
     }
 
+    /**
+     * Passes the body of the record to a digester. Returns false, without reading anything,
+     * for a streaming record or a body from an `InputStream`, which can only be read once.
+     */
+    boolean digestBody(WARCDigester digester) throws IOException {
+        checkHasContent();
+        if (contentStream != null) return false;
+        if (source != null) {
+            if (!source.isRepeatable()) return false;
+            InputStream in = source.open();
+            try {
+                byte[] buf = new byte[(int) Math.min(COPY_BUFFER_SIZE, Math.max(1, source.length))];
+                int n;
+                while ((n = in.read(buf, 0, buf.length)) > 0) digester.update(buf, 0, n);
+            } finally {
+                in.close();
+            }
+        } else if (directContent != null) {
+            digester.update(directContent);
+        } else {
+            digester.update(content, 0, contentLength);
+        }
+        return true;
+    }
+
     /**
      * Returns a human-readable string representation of the record.
      */
@@ -145,6 +520,104 @@ public class WARCRecord {
     }
 
 
+    /**
+     * An input stream over the remaining bytes of a buffer, such as the body of a record that
+     * is held in a direct buffer.
+     */
+    static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * The body of a streaming record: reads at most the record's content length from the
+     * underlying stream.
+     */
+    private static class ContentStream extends InputStream {
+        private final WARCInputStream in;
+        private final long length;
+        private long position = 0;
+        private boolean finished = false;
+
+        ContentStream(WARCInputStream in, long length) {
+            this.in = in;
+            this.length = length;
+        }
+
+        private void checkNotFinished() throws IOException {
+            if (finished) throw new IOException("Stream closed: the reader has moved on to the next record");
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkNotFinished();
+            if (position >= length) return -1;
+            int b = in.read();
+            if (b < 0) throw new EOFException("Unexpected end of file in record body");
+            position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkNotFinished();
+            if (len == 0) return 0;
+            if (position >= length) return -1;
+            int n = in.read(b, off, (int) Math.min(len, length - position));
+            if (n < 0) throw new EOFException("Unexpected end of file in record body");
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            checkNotFinished();
+            long skipped = in.skip(Math.min(n, length - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return finished ? 0 : (int) Math.min(in.buffered(), length - position);
+        }
+
+        void skipRemaining() throws IOException {
+            while (position < length) {
+                if (skip(length - position) <= 0 && read() < 0) break;
+            }
+        }
+    }
+
     /**
      * Contains the parsed headers of a {@link WARCRecord}. Each record contains a number
      * of headers in key-value format, where some header keys are standardised, but
@@ -153,12 +626,287 @@ public class WARCRecord {
      * The documentation of the methods in this class is excerpted from the
      * [WARC 1.0 specification](http://bibnum.bnf.fr/warc/WARC_ISO_28500_version1_latestdraft.pdf).
      * Please see the specification for more detail.
+     *
+     * The header is parsed directly from bytes: field names and values are only decoded
+     * into strings when they are requested. If a field name appears more than once, all
+     * occurrences are retained when the header is written out, and {@link #getField(String)}
+     * returns the last one.
      */
     public static class Header {
-        private final Map<String, String> fields;
+        // Raw bytes of field names and values. Each field occupies four entries in
+        // fieldOffsets: name start, name end, value start, value end (indexes into data).
+        private byte[] data = new byte[1024];
+        private int dataLength = 0;
+        private int[] fieldOffsets = new int[64];
+        private int fieldCount = 0;
+        private String[] names = new String[16], values = new String[16];
+
+        Header() {
+        }
+
+        /**
+         * Parses a header (the version line, followed by fields, followed by an empty
+         * line) from a {@link DataInput}.
+         */
+        static Header parse(DataInput in) throws IOException {
+            Header header = new Header();
+            header.read(in);
+            return header;
+        }
+
+        /**
+         * Returns a deep copy of this header.
+         */
+        Header copy() {
+            Header copy = new Header();
+            copy.data = Arrays.copyOf(data, dataLength);
+            copy.dataLength = dataLength;
+            copy.fieldOffsets = Arrays.copyOf(fieldOffsets, 4 * fieldCount);
+            copy.fieldCount = fieldCount;
+            copy.names = Arrays.copyOf(names, fieldCount);
+            copy.values = Arrays.copyOf(values, fieldCount);
+            return copy;
+        }
+
+        /**
+         * Returns a copy of this header without any of the named fields.
+         */
+        Header copyExcept(String... names) {
+            Header copy = new Header();
+            copy.data = new byte[Math.max(1, dataLength)];
+            copy.appendFieldsExcept(this, names);
+            return copy;
+        }
+
+        /**
+         * Appends all fields of another header to this one, except any of the named fields.
+         */
+        void appendFieldsExcept(Header from, String... names) {
+            fields: for (int i = 0; i < from.fieldCount; i++) {
+                for (String name : names) {
+                    if (from.nameEquals(i, name)) continue fields;
+                }
+                int nameStart = from.fieldOffsets[4 * i], valueStart = from.fieldOffsets[4 * i + 2];
+                appendField(from.data, nameStart, from.fieldOffsets[4 * i + 1] - nameStart,
+                            from.data, valueStart, from.fieldOffsets[4 * i + 3] - valueStart);
+            }
+        }
+
+        /**
+         * Parses a header from a {@link DataInput}, replacing any fields this header contained.
+         */
+        void read(DataInput in) throws IOException {
+            dataLength = 0;
+            fieldCount = 0;
+
+            int lineStart = readLine(in);
+            if (!isVersionLine(lineStart, dataLength)) {
+                throw new IllegalStateException("Expected WARC version, but got: " + decode(lineStart, dataLength));
+            }
+            dataLength = 0;
+
+            while (true) {
+                lineStart = readLine(in);
+                int lineEnd = dataLength;
+                if (lineStart == lineEnd) break;
+
+                if (fieldCount > 0 && (data[lineStart] == ' ' || data[lineStart] == '\t')) {
+                    // Continuation line: append it to the previous field's value. The previous
+                    // value ends at or before lineStart, so we can move the line in place.
+                    int valueEnd = fieldOffsets[4 * fieldCount - 1];
+                    System.arraycopy(data, lineStart, data, valueEnd, lineEnd - lineStart);
+                    fieldOffsets[4 * fieldCount - 1] = valueEnd + lineEnd - lineStart;
+                    dataLength = fieldOffsets[4 * fieldCount - 1];
+                    values[fieldCount - 1] = null;
+                    continue;
+                }
+
+                int colon = lineStart;
+                while (colon < lineEnd && data[colon] != ':') colon++;
+                if (colon == lineEnd) {
+                    throw new IllegalStateException("Malformed header line: " + decode(lineStart, lineEnd));
+                }
+                addField(lineStart, colon, colon + 1, lineEnd);
+            }
+        }
+
+        /**
+         * Reads bytes up to the next CR LF and appends them (without the line ending) to
+         * the data buffer. Returns the index in the data buffer at which the line starts.
+         */
+        private int readLine(DataInput in) throws IOException {
+            int lineStart = dataLength;
+            if (in instanceof WARCInputStream) {
+                readLine((WARCInputStream) in, lineStart);
+            } else {
+                while (true) {
+                    byte b = in.readByte();
+                    if (b == 10 && dataLength > lineStart && data[dataLength - 1] == 13) break;
+                    appendByte(b, lineStart);
+                }
+            }
+            dataLength--; // remove CR
+            return lineStart;
+        }
+
+        /** Fast path of readLine, scanning for line endings within the stream's buffer. */
+        private void readLine(WARCInputStream in, int lineStart) throws IOException {
+            while (true) {
+                if (in.pos == in.limit && !in.fill()) throw new EOFException();
+                byte[] buf = in.buf;
+                int start = in.pos, end = in.limit, i = start;
+                while (i < end && buf[i] != 10) i++;
+
+                int len = i - start;
+                if (dataLength + len - lineStart > MAX_LINE_LENGTH) {
+                    throw new IllegalStateException("Exceeded maximum line length");
+                }
+                ensureDataCapacity(dataLength + len);
+                System.arraycopy(buf, start, data, dataLength, len);
+                dataLength += len;
+
+                if (i == end) {
+                    in.pos = end;
+                } else if (dataLength > lineStart && data[dataLength - 1] == 13) {
+                    in.pos = i + 1;
+                    return;
+                } else {
+                    // LF without preceding CR is not a line ending
+                    appendByte((byte) 10, lineStart);
+                    in.pos = i + 1;
+                }
+            }
+        }
+
+        private void appendByte(byte b, int lineStart) {
+            if (dataLength - lineStart > MAX_LINE_LENGTH) {
+                throw new IllegalStateException("Exceeded maximum line length");
+            }
+            ensureDataCapacity(dataLength + 1);
+            data[dataLength++] = b;
+        }
+
+        private void ensureDataCapacity(int capacity) {
+            if (capacity > data.length) {
+                data = Arrays.copyOf(data, Math.max(capacity, 2 * data.length));
+            }
+        }
+
+        /** Matches `WARC/[0-9\.]+` */
+        private boolean isVersionLine(int start, int end) {
+            if (end - start <= 5) return false;
+            for (int i = 0; i < 5; i++) {
+                if (data[start + i] != VERSION_BYTES[i]) return false;
+            }
+            for (int i = start + 5; i < end; i++) {
+                if ((data[i] < '0' || data[i] > '9') && data[i] != '.') return false;
+            }
+            return true;
+        }
+
+        /** Adds a field, given the untrimmed positions of its name and value in the data buffer. */
+        private void addField(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+            // Same definition of whitespace as String.trim()
+            while (nameStart < nameEnd && (data[nameStart] & 0xff) <= ' ') nameStart++;
+            while (nameEnd > nameStart && (data[nameEnd - 1] & 0xff) <= ' ') nameEnd--;
+            while (valueStart < valueEnd && (data[valueStart] & 0xff) <= ' ') valueStart++;
+            while (valueEnd > valueStart && (data[valueEnd - 1] & 0xff) <= ' ') valueEnd--;
+
+            if (4 * fieldCount + 4 > fieldOffsets.length) {
+                fieldOffsets = Arrays.copyOf(fieldOffsets, Math.max(64, 2 * fieldOffsets.length));
+            }
+            if (fieldCount == names.length) {
+                names = Arrays.copyOf(names, Math.max(16, 2 * names.length));
+                values = Arrays.copyOf(values, Math.max(16, 2 * values.length));
+            }
+            fieldOffsets[4 * fieldCount]     = nameStart;
+            fieldOffsets[4 * fieldCount + 1] = nameEnd;
+            fieldOffsets[4 * fieldCount + 2] = valueStart;
+            fieldOffsets[4 * fieldCount + 3] = valueEnd;
+            names[fieldCount] = null;
+            values[fieldCount] = null;
+            fieldCount++;
+        }
+
+        /** Returns the number of fields in the header, counting repeated fields separately. */
+        int getFieldCount() {
+            return fieldCount;
+        }
+
+        /**
+         * Returns the buffer containing the raw bytes of all field names and values. The
+         * positions of field `i` are given by {@link #getFieldOffset(int)}.
+         */
+        byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Returns the start (k = 4i) and end (4i + 1) of the name of field `i`, and the start
+         * (4i + 2) and end (4i + 3) of its value, as positions in {@link #getData()}.
+         */
+        int getFieldOffset(int k) {
+            return fieldOffsets[k];
+        }
+
+        /** Removes all fields from the header. */
+        void clear() {
+            dataLength = 0;
+            fieldCount = 0;
+        }
+
+        /** Appends a field, given the raw bytes of its name and value. */
+        void appendField(byte[] name, int nameOff, int nameLen, byte[] value, int valueOff, int valueLen) {
+            ensureDataCapacity(dataLength + nameLen + valueLen);
+            int nameStart = dataLength;
+            System.arraycopy(name, nameOff, data, nameStart, nameLen);
+            int valueStart = nameStart + nameLen;
+            System.arraycopy(value, valueOff, data, valueStart, valueLen);
+            dataLength = valueStart + valueLen;
+            addField(nameStart, valueStart, valueStart, dataLength);
+        }
+
+        /** Appends a field with the given name and value. */
+        void appendField(String name, String value) {
+            byte[] nameBytes = name.getBytes(UTF8), valueBytes = value.getBytes(UTF8);
+            appendField(nameBytes, 0, nameBytes.length, valueBytes, 0, valueBytes.length);
+        }
+
+        /** Returns the index of the last field with the given name, or -1 if there is none. */
+        int indexOf(String name) {
+            for (int i = fieldCount - 1; i >= 0; i--) {
+                if (nameEquals(i, name)) return i;
+            }
+            return -1;
+        }
+
+        private boolean nameEquals(int index, String name) {
+            int start = fieldOffsets[4 * index], end = fieldOffsets[4 * index + 1];
+            int len = name.length();
+            for (int i = 0; i < len; i++) {
+                char c = name.charAt(i);
+                if (c >= 0x80) return name.equals(getName(index)); // non-ASCII, compare decoded
+                if (start + i >= end || data[start + i] != c) return false;
+            }
+            return start + len == end;
+        }
+
+        private String getName(int index) {
+            if (names[index] == null) {
+                names[index] = decode(fieldOffsets[4 * index], fieldOffsets[4 * index + 1]);
+            }
+            return names[index];
+        }
+
+        private String getValue(int index) {
+            if (values[index] == null) {
+                values[index] = decode(fieldOffsets[4 * index + 2], fieldOffsets[4 * index + 3]);
+            }
+            return values[index];
+        }
 
-        private Header(Map<String, String> fields) {
-            this.fields = fields;
+        private String decode(int start, int end) {
+            return new String(data, start, end - start, UTF8);
         }
 
         /**
@@ -243,7 +991,7 @@ public class WARCRecord {
          * @return The record's `WARC-Type` header field, as a string.
          */
         public String getRecordType() {
-            return fields.get("WARC-Type");
+            return getField("WARC-Type");
         }
 
         /**
@@ -256,7 +1004,7 @@ public class WARCRecord {
          * @return The record's `WARC-Date` header field, as a string.
          */
         public String getDateString() {
-            return fields.get("WARC-Date");
+            return getField("WARC-Date");
         }
 
         /**
@@ -269,7 +1017,7 @@ public class WARCRecord {
          * @return The record's `WARC-Record-ID` header field, as a string.
          */
         public String getRecordID() {
-            return fields.get("WARC-Record-ID");
+            return getField("WARC-Record-ID");
         }
 
         /**
@@ -286,7 +1034,7 @@ public class WARCRecord {
          * @return The record's `Content-Type` header field, as a string.
          */
         public String getContentType() {
-            return fields.get("Content-Type");
+            return getField("Content-Type");
         }
 
         /**
@@ -301,22 +1049,28 @@ public class WARCRecord {
          * @return The record's `WARC-Target-URI` header field, as a string.
          */
         public String getTargetURI() {
-            return fields.get("WARC-Target-URI");
+            return getField("WARC-Target-URI");
         }
 
         /**
          * The number of bytes in the body of the record, similar to RFC2616.
          *
-         * @return The record's `Content-Length` header field, parsed into an int.
+         * @return The record's `Content-Length` header field, parsed into a long.
          */
-        public int getContentLength() {
-            String lengthStr = fields.get("Content-Length");
-            if (lengthStr == null) throw new IllegalStateException("Missing Content-Length header");
-            try {
-                return Integer.parseInt(lengthStr);
-            } catch (NumberFormatException e) {
-                throw new IllegalStateException("Malformed Content-Length header: " + lengthStr);
+        public long getContentLength() {
+            int index = indexOf("Content-Length");
+            if (index < 0) throw new IllegalStateException("Missing Content-Length header");
+            int start = fieldOffsets[4 * index + 2], end = fieldOffsets[4 * index + 3];
+            long length = 0;
+            boolean valid = start < end && end - start <= 18; // at most 18 digits, to avoid overflow
+            for (int i = start; valid && i < end; i++) {
+                valid = data[i] >= '0' && data[i] <= '9';
+                length = 10 * length + (data[i] - '0');
             }
+            if (!valid) {
+                throw new IllegalStateException("Malformed Content-Length header: " + getValue(index));
+            }
+            return length;
         }
 
         /**
@@ -326,7 +1080,8 @@ public class WARCRecord {
          * @return The value associated with that field name, or null if not present.
          */
         public String getField(String field) {
-            return fields.get(field);
+            int index = indexOf(field);
+            return index < 0 ? null : getValue(index);
         }
 
         /**
@@ -335,7 +1090,14 @@ public class WARCRecord {
          * @throws IOException
          */
         public void write(DataOutput out) throws IOException {
-            out.write(toString().getBytes("UTF-8"));
+            out.write(VERSION_BYTES);
+            out.write(CRLF_BYTES);
+            for (int i = 0; i < fieldCount; i++) {
+                out.write(data, fieldOffsets[4 * i], fieldOffsets[4 * i + 1] - fieldOffsets[4 * i]);
+                out.write(FIELD_SEPARATOR_BYTES);
+                out.write(data, fieldOffsets[4 * i + 2], fieldOffsets[4 * i + 3] - fieldOffsets[4 * i + 2]);
+                out.write(CRLF_BYTES);
+            }
         }
 
         /**
@@ -347,10 +1109,10 @@ public class WARCRecord {
             StringBuffer buf = new StringBuffer();
             buf.append(WARC_VERSION);
             buf.append(CRLF);
-            for (Map.Entry<String, String> field : fields.entrySet()) {
-                buf.append(field.getKey());
+            for (int i = 0; i < fieldCount; i++) {
+                buf.append(getName(i));
                 buf.append(": ");
-                buf.append(field.getValue());
+                buf.append(getValue(i));
                 buf.append(CRLF);
             }
             return buf.toString();
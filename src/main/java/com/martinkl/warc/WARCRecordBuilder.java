@@ -0,0 +1,400 @@
+package com.martinkl.warc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.UUID;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Creates {@link WARCRecord}s from scratch, e.g. to archive the output of a crawler, without
+ * having to format a record as text and parse it back. The builder fills in the fields that
+ * every record needs: `WARC-Record-ID` (a random `urn:uuid` unless you give one), `WARC-Date`
+ * (the time of building, unless you give one) and `Content-Length` (from the body).
+ *
+ * ```java
+ * WARCRecord record = new WARCRecordBuilder("response")
+ *     .targetURI("http://example.com/")
+ *     .date(fetchTime)
+ *     .contentType("application/http; msgtype=response")
+ *     .field("WARC-IP-Address", "93.184.216.34")
+ *     .content(responseStream, responseLength)
+ *     .build();
+ * writer.write(record);
+ * ```
+ *
+ * The body can be a `byte[]` or a `ByteBuffer` (used as it is, without copying), an
+ * `InputStream` of known length, or a region of a file. Bodies from a stream or a file are
+ * not read until the record is written, and are then copied to the output in small chunks,
+ * so records of any size can be written in a constant amount of memory. A body from an
+ * `InputStream` can only be read once: the record can be written once, and
+ * {@link WARCRecord#getContentStream()} returns the stream itself.
+ *
+ * If you call {@link #digests(String)}, `WARC-Block-Digest` (and for HTTP request and
+ * response records, `WARC-Payload-Digest`) fields are computed from the body. This needs
+ * the body before the header is written, so it is not possible for a body from an
+ * `InputStream`; a file region is then read twice.
+ *
+ * A builder creates one record; don't reuse it after calling {@link #build()}.
+ */
+public class WARCRecordBuilder {
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format;
+        }
+    };
+
+    private final String recordType;
+    private String recordID = null, date = null, targetURI = null, contentType = null;
+    private final List<String> fields = new ArrayList<String>(); // alternating names and values
+    private String digestAlgorithm = null;
+    private byte[] content = null;
+    private ByteBuffer buffer = null;
+    private BodySource source = null;
+
+    /**
+     * Starts building a record.
+     * @param recordType The value of the `WARC-Type` field, e.g. `response` (see
+     *                   {@link WARCRecord.Header#getRecordType()}).
+     */
+    public WARCRecordBuilder(String recordType) {
+        checkValue("WARC-Type", recordType);
+        this.recordType = recordType;
+    }
+
+    /** Returns a new, random record ID, of the form `<urn:uuid:...>`. */
+    public static String newRecordID() {
+        return "<urn:uuid:" + UUID.randomUUID() + ">";
+    }
+
+    /** Formats a time as a `WARC-Date`, e.g. `2014-03-18T17:47:38Z`. */
+    public static String formatDate(Date date) {
+        return DATE_FORMAT.get().format(date);
+    }
+
+    /**
+     * Sets the `WARC-Record-ID` field. If not set, a random ID is generated.
+     * @param recordID The ID, including the angle brackets, e.g. `<urn:uuid:...>`.
+     */
+    public WARCRecordBuilder recordID(String recordID) {
+        checkValue("WARC-Record-ID", recordID);
+        this.recordID = recordID;
+        return this;
+    }
+
+    /**
+     * Sets the `WARC-Date` field: the time at which capture of the content began. If not set,
+     * the time at which {@link #build()} is called is used.
+     */
+    public WARCRecordBuilder date(Date date) {
+        this.date = formatDate(date);
+        return this;
+    }
+
+    /** Like {@link #date(Date)}, with the time in milliseconds since the epoch. */
+    public WARCRecordBuilder date(long millis) {
+        return date(new Date(millis));
+    }
+
+    /** Sets the `WARC-Target-URI` field. */
+    public WARCRecordBuilder targetURI(String targetURI) {
+        checkValue("WARC-Target-URI", targetURI);
+        this.targetURI = targetURI;
+        return this;
+    }
+
+    /**
+     * Sets the `Content-Type` field, which describes the body of the record (e.g.
+     * `application/http; msgtype=response` for a response record).
+     */
+    public WARCRecordBuilder contentType(String contentType) {
+        checkValue("Content-Type", contentType);
+        this.contentType = contentType;
+        return this;
+    }
+
+    /**
+     * Adds any other field (e.g. `WARC-IP-Address`, `WARC-Concurrent-To`). Fields are written
+     * in the order in which they are added, after the standard fields set by this builder.
+     * @throws IllegalArgumentException if the name is not a valid field name, the value
+     *         contains a line break, or the field is `Content-Length` (which is set from the
+     *         body).
+     */
+    public WARCRecordBuilder field(String name, String value) {
+        checkName(name);
+        if (name.equalsIgnoreCase("Content-Length")) {
+            throw new IllegalArgumentException("Content-Length is set from the body of the record");
+        }
+        checkValue(name, value);
+        fields.add(name);
+        fields.add(value);
+        return this;
+    }
+
+    /**
+     * Adds `WARC-Block-Digest` and, for HTTP request and response records,
+     * `WARC-Payload-Digest` fields, computed from the body when the record is built.
+     * @param algorithm The digest algorithm, e.g. `sha1` or `sha256`.
+     */
+    public WARCRecordBuilder digests(String algorithm) {
+        if (!WARCDigester.isSupported(algorithm)) {
+            throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm);
+        }
+        this.digestAlgorithm = algorithm.toLowerCase(Locale.ROOT);
+        return this;
+    }
+
+    /** Uses an array as the body, without copying it. */
+    public WARCRecordBuilder content(byte[] content) {
+        clearContent();
+        this.content = content;
+        return this;
+    }
+
+    /**
+     * Uses the remaining bytes of a buffer (heap or direct) as the body, without copying
+     * them. The buffer's position and limit are not changed, but its contents must not be
+     * modified while the record is in use.
+     */
+    public WARCRecordBuilder content(ByteBuffer content) {
+        clearContent();
+        this.buffer = content.slice();
+        return this;
+    }
+
+    /**
+     * Reads the body from a stream when the record is written. The stream is not closed.
+     * @param in The stream, positioned at the start of the body.
+     * @param length The length of the body. Exactly this many bytes are read from the
+     *               stream; if it ends sooner, writing the record fails.
+     */
+    public WARCRecordBuilder content(InputStream in, long length) {
+        clearContent();
+        this.source = new StreamSource(in, checkLength(length));
+        return this;
+    }
+
+    /**
+     * Reads the body from part of a file when the record is written. The file is opened
+     * each time the body is read, and closed afterwards.
+     * @param fs The filesystem on which the file is stored.
+     * @param path The file.
+     * @param offset The position in the file at which the body starts.
+     * @param length The length of the body.
+     */
+    public WARCRecordBuilder content(FileSystem fs, Path path, long offset, long length) {
+        clearContent();
+        if (offset < 0) throw new IllegalArgumentException("Negative offset: " + offset);
+        this.source = new RegionSource(fs, path, offset, checkLength(length));
+        return this;
+    }
+
+    private void clearContent() {
+        content = null;
+        buffer = null;
+        source = null;
+    }
+
+    /**
+     * Creates the record.
+     * @throws IOException if digests are requested and the body can't be read.
+     * @throws IllegalStateException if digests are requested for a body from an
+     *         `InputStream`.
+     */
+    public WARCRecord build() throws IOException {
+        WARCRecord.Header header = new WARCRecord.Header();
+        header.appendField("WARC-Type", recordType);
+        header.appendField("WARC-Record-ID", recordID != null ? recordID : newRecordID());
+        header.appendField("WARC-Date", date != null ? date : formatDate(new Date()));
+        if (targetURI != null) header.appendField("WARC-Target-URI", targetURI);
+        for (int i = 0; i < fields.size(); i += 2) header.appendField(fields.get(i), fields.get(i + 1));
+        if (contentType != null) header.appendField("Content-Type", contentType);
+
+        WARCRecord record = new WARCRecord(header);
+        if (source != null) {
+            record.setContent(source);
+        } else if (buffer != null) {
+            record.setContent(buffer);
+        } else {
+            record.setContent(content != null ? content : new byte[0]);
+        }
+
+        if (digestAlgorithm != null) {
+            boolean payload = WARCDigester.hasHttpPayload(header);
+            WARCDigester digester = new WARCDigester();
+            digester.start(digestAlgorithm, payload ? digestAlgorithm : null, payload);
+            if (!record.digestBody(digester)) {
+                throw new IllegalStateException("Digests can't be computed for a body from an InputStream, " +
+                                                "since the body is only read when the record is written");
+            }
+            header.appendField(WARCDigester.BLOCK_DIGEST, digester.getBlockDigest());
+            if (payload) header.appendField(WARCDigester.PAYLOAD_DIGEST, digester.getPayloadDigest());
+        }
+        header.appendField("Content-Length", Long.toString(record.getBodyLength()));
+        return record;
+    }
+
+    private static long checkLength(long length) {
+        if (length < 0) throw new IllegalArgumentException("Negative length: " + length);
+        return length;
+    }
+
+    /** Field names are HTTP tokens: no control characters, whitespace or separators. */
+    private static void checkName(String name) {
+        if (name == null || name.isEmpty()) throw new IllegalArgumentException("Empty field name");
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c >= 0x7f || "()<>@,;:\\\"/[]?={}".indexOf(c) >= 0) {
+                throw new IllegalArgumentException("Invalid field name: " + name);
+            }
+        }
+    }
+
+    private static void checkValue(String name, String value) {
+        if (value == null) throw new IllegalArgumentException("Missing value for " + name);
+        if (value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Line break in value of " + name);
+        }
+    }
+
+
+    /**
+     * A record body that is not held in memory, but read from somewhere when the record is
+     * written. Its length is -1 if it is only known once the body has been read (as for a
+     * record reassembled from continuation records).
+     */
+    abstract static class BodySource {
+        final long length;
+
+        BodySource(long length) {
+            this.length = length;
+        }
+
+        /** Returns true if {@link #open()} may be called more than once. */
+        abstract boolean isRepeatable();
+
+        /**
+         * Returns a stream of the body's bytes, which ends after `length` bytes (or sooner,
+         * if the underlying data is truncated). The caller must close it.
+         */
+        abstract InputStream open();
+    }
+
+
+    /** A body read (once) from a stream provided by the caller. */
+    private static class StreamSource extends BodySource {
+        private final InputStream in;
+        private boolean opened = false;
+
+        StreamSource(InputStream in, long length) {
+            super(length);
+            this.in = in;
+        }
+
+        @Override
+        boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        InputStream open() {
+            if (opened) throw new IllegalStateException("The body of the record has already been read from its stream");
+            opened = true;
+            return new InputStream() {
+                private long remaining = length;
+
+                @Override
+                public int read() throws IOException {
+                    if (remaining <= 0) return -1;
+                    int b = in.read();
+                    if (b >= 0) remaining--;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) return 0;
+                    if (remaining <= 0) return -1;
+                    int n = in.read(b, off, (int) Math.min(len, remaining));
+                    if (n > 0) remaining -= n;
+                    return n;
+                }
+
+                @Override
+                public void close() {
+                    // the caller's stream is left open
+                }
+            };
+        }
+    }
+
+
+    /** A body read from part of a file, which is opened on the first read. */
+    private static class RegionSource extends BodySource {
+        private final FileSystem fs;
+        private final Path path;
+        private final long offset;
+
+        RegionSource(FileSystem fs, Path path, long offset, long length) {
+            super(length);
+            this.fs = fs;
+            this.path = path;
+            this.offset = offset;
+        }
+
+        @Override
+        boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        InputStream open() {
+            return new InputStream() {
+                private FSDataInputStream in = null;
+                private long remaining = length;
+
+                private void ensureOpen() throws IOException {
+                    if (in != null) return;
+                    in = fs.open(path);
+                    if (offset > 0) in.seek(offset);
+                }
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) > 0 ? b[0] & 0xff : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) return 0;
+                    if (remaining <= 0) return -1;
+                    ensureOpen();
+                    int n = in.read(b, off, (int) Math.min(len, remaining));
+                    if (n < 0) throw new EOFException(path + " ends before the end of the record body");
+                    remaining -= n;
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (in != null) in.close();
+                    in = null;
+                    remaining = 0;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.martinkl.warc;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Decides which records {@link WARCFileReader} should return, based only on their headers.
+ * The filter is evaluated as soon as a record's header has been parsed, and the bodies of
+ * records that don't match are skipped without being copied into memory. Since both
+ * InputFormats read through {@link WARCFileReader}, this means that mappers are only handed
+ * records that match the filter.
+ *
+ * The filter is configured through the Hadoop configuration, using the following keys (or
+ * the static setter methods on this class). A record must match all of the criteria that
+ * are set; criteria that are not set match any record.
+ *
+ *  *  `warc.input.filter.types`: comma-separated list of `WARC-Type` values, e.g. `response`.
+ *  *  `warc.input.filter.uri.prefixes`: comma-separated list of prefixes, one of which the
+ *     `WARC-Target-URI` must start with.
+ *  *  `warc.input.filter.uri.regex`: a regular expression that must be found in the
+ *     `WARC-Target-URI`.
+ *  *  `warc.input.filter.surt.prefixes`: whitespace-separated list of prefixes (since SURTs
+ *     contain commas), one of which the SURT form of the `WARC-Target-URI` must start with (see {@link SURT}). For example,
+ *     `com,example)` matches only the host example.com, and `com,example,` matches its
+ *     subdomains.
+ *  *  `warc.input.filter.content.types`: comma-separated list of prefixes, one of which the
+ *     record's `Content-Type` must start with (ignoring case). For HTTP records
+ *     (`application/http`), the `Content-Type` of the HTTP message in the body may match
+ *     instead, so that e.g. `text/html` selects HTML responses. Checking that means reading
+ *     the body, so it is only done for records that match everything else, and not at all
+ *     when the body is streamed or skipped (`warc.input.streaming` or
+ *     `warc.input.headers.only`).
+ *  *  `warc.input.filter.date.from` and `warc.input.filter.date.to`: the `WARC-Date` must be
+ *     greater than or equal to the first, and less than the second. Dates are compared as
+ *     strings, so they should be given in the same format as in the WARC file
+ *     (e.g. `2014-03-18T17:47:38Z`, or a prefix such as `2014-03`).
+ *
+ * In addition, if `warc.input.headers.only` is set to true, the bodies of all records are
+ * skipped, and records are returned with only their header. This is useful for scanning
+ * metadata quickly.
+ *
+ * The same criteria can also be applied to the entries of a CDXJ index (see
+ * {@link #accept(WARCIndexEntry)}), which is how the indexed InputFormats decide which parts
+ * of a file need to be read.
+ */
+public class WARCRecordFilter {
+    public static final String TYPES_KEY = "warc.input.filter.types";
+    public static final String URI_PREFIXES_KEY = "warc.input.filter.uri.prefixes";
+    public static final String URI_REGEX_KEY = "warc.input.filter.uri.regex";
+    public static final String SURT_PREFIXES_KEY = "warc.input.filter.surt.prefixes";
+    public static final String CONTENT_TYPES_KEY = "warc.input.filter.content.types";
+    public static final String DATE_FROM_KEY = "warc.input.filter.date.from";
+    public static final String DATE_TO_KEY = "warc.input.filter.date.to";
+    public static final String HEADERS_ONLY_KEY = "warc.input.headers.only";
+
+    private static final String[] HTTP_TYPES = { "response", "request", "revisit" };
+
+    private final String[] types, uriPrefixes, surtPrefixes, contentTypes;
+    private final Pattern uriPattern;
+    private final String dateFrom, dateTo, timestampFrom, timestampTo;
+    private final boolean headersOnly;
+
+    /**
+     * Creates a filter from the settings in a Hadoop configuration.
+     * @param conf The Hadoop configuration.
+     */
+    public WARCRecordFilter(Configuration conf) {
+        this.types = conf.getTrimmedStrings(TYPES_KEY);
+        this.uriPrefixes = conf.getTrimmedStrings(URI_PREFIXES_KEY);
+        String surts = conf.get(SURT_PREFIXES_KEY, "").trim().toLowerCase(Locale.ROOT);
+        this.surtPrefixes = surts.isEmpty() ? new String[0] : surts.split("\\s+");
+        this.contentTypes = conf.getTrimmedStrings(CONTENT_TYPES_KEY);
+        String regex = conf.get(URI_REGEX_KEY);
+        this.uriPattern = (regex == null || regex.isEmpty()) ? null : Pattern.compile(regex);
+        this.dateFrom = conf.get(DATE_FROM_KEY);
+        this.dateTo = conf.get(DATE_TO_KEY);
+        this.timestampFrom = (dateFrom == null) ? null : WARCIndexEntry.toTimestamp(dateFrom);
+        this.timestampTo = (dateTo == null) ? null : WARCIndexEntry.toTimestamp(dateTo);
+        this.headersOnly = conf.getBoolean(HEADERS_ONLY_KEY, false);
+    }
+
+    /** Restricts the records read to the given `WARC-Type` values. */
+    public static void setRecordTypes(Configuration conf, String... types) {
+        conf.setStrings(TYPES_KEY, types);
+    }
+
+    /** Restricts the records read to those whose target URI starts with one of the given prefixes. */
+    public static void setURIPrefixes(Configuration conf, String... prefixes) {
+        conf.setStrings(URI_PREFIXES_KEY, prefixes);
+    }
+
+    /** Restricts the records read to those whose target URI, in SURT form, starts with one of the given prefixes. */
+    public static void setSURTPrefixes(Configuration conf, String... prefixes) {
+        StringBuilder value = new StringBuilder();
+        for (String prefix : prefixes) {
+            if (value.length() > 0) value.append(' ');
+            value.append(prefix);
+        }
+        conf.set(SURT_PREFIXES_KEY, value.toString());
+    }
+
+    /** Restricts the records read to those whose target URI contains a match of the regular expression. */
+    public static void setURIPattern(Configuration conf, String regex) {
+        conf.set(URI_REGEX_KEY, regex);
+    }
+
+    /** Restricts the records read to those whose `Content-Type` starts with one of the given prefixes. */
+    public static void setContentTypes(Configuration conf, String... contentTypes) {
+        conf.setStrings(CONTENT_TYPES_KEY, contentTypes);
+    }
+
+    /**
+     * Restricts the records read to those whose `WARC-Date` is in the range [from, to).
+     * Either bound may be null, meaning there is no limit in that direction.
+     */
+    public static void setDateRange(Configuration conf, String from, String to) {
+        if (from == null) conf.unset(DATE_FROM_KEY); else conf.set(DATE_FROM_KEY, from);
+        if (to == null) conf.unset(DATE_TO_KEY); else conf.set(DATE_TO_KEY, to);
+    }
+
+    /** If true, the bodies of records are skipped, and only their headers are read. */
+    public static void setHeadersOnly(Configuration conf, boolean headersOnly) {
+        conf.setBoolean(HEADERS_ONLY_KEY, headersOnly);
+    }
+
+    /** Returns true if records should be read without their body. */
+    public boolean isHeadersOnly() {
+        return headersOnly;
+    }
+
+    /** Returns true if this filter accepts every record. */
+    public boolean acceptsAll() {
+        return types.length == 0 && uriPrefixes.length == 0 && surtPrefixes.length == 0 &&
+               contentTypes.length == 0 && uriPattern == null && dateFrom == null && dateTo == null;
+    }
+
+    /**
+     * Returns true if a record with the given header should be returned to the caller,
+     * and false if it should be skipped.
+     */
+    public boolean accept(WARCRecord.Header header) {
+        return accept(header, null);
+    }
+
+    /**
+     * Like {@link #accept(WARCRecord.Header)}, but for an HTTP record whose payload has the
+     * given media type (or null if it is not known), which may also match the content types.
+     */
+    public boolean accept(WARCRecord.Header header, String httpMimeType) {
+        if (contentTypes.length > 0 && !matchesAny(header.getContentType(), contentTypes, true) &&
+                !matchesAny(httpMimeType, contentTypes, true)) return false;
+        return accept(header.getRecordType(), header.getDateString(), dateFrom, dateTo,
+                      header.getTargetURI(), null);
+    }
+
+    /**
+     * Returns true if a record with the given header is rejected only because of its
+     * `Content-Type`, and the media type of its HTTP payload might still match.
+     */
+    boolean needsHttpMimeType(WARCRecord.Header header) {
+        return contentTypes.length > 0 && WARCIndexEntry.isHttp(header) &&
+               !matchesAny(header.getContentType(), contentTypes, true) &&
+               accept(header.getRecordType(), header.getDateString(), dateFrom, dateTo,
+                      header.getTargetURI(), null);
+    }
+
+    /**
+     * Returns true if the record described by a CDXJ index entry matches this filter. The
+     * date range is compared with the entry's 14-digit timestamp, after removing everything
+     * except digits from the bounds.
+     *
+     * For HTTP records the index holds the media type of the payload, so an entry of type
+     * `response`, `request` or `revisit` also matches the content type `application/http`.
+     * Entries without a media type match any content type, since the index doesn't say.
+     */
+    public boolean accept(WARCIndexEntry entry) {
+        String mime = entry.getMimeType();
+        if (contentTypes.length > 0 && mime != null && !matchesAny(mime, contentTypes, true) &&
+                !(equalsAny(entry.getRecordType(), HTTP_TYPES) &&
+                  matchesAny("application/http", contentTypes, true))) return false;
+        String timestamp = "-".equals(entry.getTimestamp()) ? null : entry.getTimestamp();
+        return accept(entry.getRecordType(), timestamp, timestampFrom, timestampTo,
+                      entry.getURL(), entry.getURLKey());
+    }
+
+    private boolean accept(String type, String date, String from, String to, String uri, String surt) {
+        if (types.length > 0 && !equalsAny(type, types)) return false;
+
+        if (from != null || to != null) {
+            if (date == null) return false;
+            if (from != null && date.compareTo(from) < 0) return false;
+            if (to != null && date.compareTo(to) >= 0) return false;
+        }
+
+        if (uriPrefixes.length > 0 || surtPrefixes.length > 0 || uriPattern != null) {
+            if (uri == null) return false;
+            if (uriPrefixes.length > 0 && !matchesAny(uri, uriPrefixes, false)) return false;
+            if (uriPattern != null && !uriPattern.matcher(uri).find()) return false;
+            if (surtPrefixes.length > 0) {
+                if (surt == null) surt = SURT.toSURT(uri);
+                if (!matchesAny(surt, surtPrefixes, false)) return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsAny(String value, String[] candidates) {
+        for (String candidate : candidates) {
+            if (candidate.equals(value)) return true;
+        }
+        return false;
+    }
+
+    private static boolean matchesAny(String value, String[] prefixes, boolean ignoreCase) {
+        if (value == null) return false;
+        for (String prefix : prefixes) {
+            if (value.regionMatches(ignoreCase, 0, prefix, 0, prefix.length())) return true;
+        }
+        return false;
+    }
+}
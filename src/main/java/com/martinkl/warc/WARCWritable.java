@@ -10,7 +10,14 @@ import org.apache.hadoop.io.Writable;
  * A mutable wrapper around a {@link WARCRecord} implementing the Hadoop Writable interface.
  * This allows WARC records to be used throughout Hadoop (e.g. written to sequence files
  * when shuffling data between mappers and reducers). The record is encoded as a single
- * record in standard WARC/1.0 format.
+ * record in standard WARC/1.0 format. For data that is shuffled, {@link CompactWARCWritable}
+ * uses a binary encoding that is cheaper to deserialize and can be sorted without
+ * deserializing.
+ *
+ * If `warc.input.reuse.records` is enabled, the InputFormats hand the mapper the same
+ * writable, wrapping the same {@link WARCRecord}, for every record, and the record is
+ * refilled in place. Call {@link WARCRecord#copy()} on any record you need to keep after
+ * the mapper returns.
  */
 public class WARCWritable implements Writable {
 
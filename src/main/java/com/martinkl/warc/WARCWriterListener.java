@@ -0,0 +1,38 @@
+package com.martinkl.warc;
+
+import java.io.IOException;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Receives notifications from a {@link WARCFileWriter} as it writes records and segment
+ * files. This is useful for building an index of the records while they are being written.
+ */
+public interface WARCWriterListener {
+
+    /**
+     * Called when the writer has created a new segment file.
+     * @param path The path of the new segment file.
+     * @throws IOException
+     */
+    void segmentOpened(Path path) throws IOException;
+
+    /**
+     * Called after a record has been written to the current segment file.
+     * @param header The header of the record that was written.
+     * @param offset The byte offset within the segment file at which the record starts. If the
+     *               file is compressed, this is the offset of the gzip member containing the
+     *               record. If the record's position in the file is not known (because the
+     *               whole file is compressed as one stream), this is -1.
+     * @param length The number of bytes (compressed, if applicable) that the record occupies
+     *               in the file, or -1 if not known.
+     * @throws IOException
+     */
+    void recordWritten(WARCRecord.Header header, long offset, long length) throws IOException;
+
+    /**
+     * Called after the writer has finished writing to a segment file and closed it.
+     * @param path The path of the segment file that was closed.
+     * @throws IOException
+     */
+    void segmentClosed(Path path) throws IOException;
+}
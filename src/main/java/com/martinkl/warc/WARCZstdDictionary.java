@@ -0,0 +1,158 @@
+package com.martinkl.warc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+
+/**
+ * Trains, stores and configures the Zstandard dictionaries with which {@link WARCFileWriter}
+ * compresses records when `warc.output.compression.format` is set to `zstd`.
+ *
+ * WARC records are compressed one frame per record, so that files can be split and records
+ * looked up by offset; but most records are small, and share a lot of boilerplate (WARC and
+ * HTTP headers, HTML markup). A dictionary trained on a sample of typical records gives each
+ * frame that shared history up front, which typically improves compression a lot. The
+ * dictionary is embedded in a skippable frame at the start of each output file, so readers
+ * need nothing but the file itself.
+ *
+ * Training happens once, before the job that writes the files, because every task needs to
+ * use the same dictionary:
+ *
+ * ```java
+ * byte[] dict = WARCZstdDictionary.train(conf, new Path("sample.warc.gz"), 10000, 112640);
+ * WARCZstdDictionary.write(conf, dict, new Path("warc.dict"));
+ * WARCZstdDictionary.setDictionary(conf, new Path("warc.dict"));
+ * conf.set("warc.output.compression.format", "zstd");
+ * ```
+ *
+ * Requires the zstd-jni library.
+ */
+public class WARCZstdDictionary {
+    public static final String DICTIONARY_KEY = "warc.output.zstd.dictionary";
+    public static final int DEFAULT_DICTIONARY_SIZE = 112640; // 110 KB, the zstd CLI default
+    private static final int MAX_SAMPLE_SIZE = 131072; // only the start of a large record is used
+    private static final int SAMPLES_PER_DICTIONARY_SIZE = 100;
+
+    private WARCZstdDictionary() {
+    }
+
+    /**
+     * Sets the dictionary file with which WARC output is compressed.
+     * @param conf The Hadoop configuration.
+     * @param dictionary The path of a dictionary file, as written by {@link #write}.
+     */
+    public static void setDictionary(Configuration conf, Path dictionary) {
+        conf.set(DICTIONARY_KEY, dictionary.toString());
+    }
+
+    /**
+     * Loads the dictionary configured in `warc.output.zstd.dictionary`, or returns null if
+     * none is configured.
+     * @param conf The Hadoop configuration.
+     * @throws IOException
+     */
+    public static byte[] load(Configuration conf) throws IOException {
+        String location = conf.get(DICTIONARY_KEY);
+        if (location == null) return null;
+        Path path = new Path(location);
+        FileSystem fs = path.getFileSystem(conf);
+        long length = fs.getFileStatus(path).getLen();
+        if (length > Integer.MAX_VALUE) throw new IOException("Dictionary " + path + " is too large");
+        byte[] dictionary = new byte[(int) length];
+        InputStream in = fs.open(path);
+        try {
+            IOUtils.readFully(in, dictionary, 0, dictionary.length);
+        } finally {
+            in.close();
+        }
+        return dictionary;
+    }
+
+    /**
+     * Writes a dictionary to a file, from which it can be used by setting
+     * `warc.output.zstd.dictionary`.
+     * @param conf The Hadoop configuration.
+     * @param dictionary The dictionary, as returned by one of the `train` methods.
+     * @param path The file to create. An existing file is overwritten.
+     * @throws IOException
+     */
+    public static void write(Configuration conf, byte[] dictionary, Path path) throws IOException {
+        OutputStream out = path.getFileSystem(conf).create(path, true);
+        try {
+            out.write(dictionary);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Trains a dictionary on a sample of records. Each record is serialized as it would be
+     * written to a WARC file (only the first 128 kB of larger records are used). For good
+     * results, the records should add up to about 100 times the size of the dictionary;
+     * any beyond that are ignored.
+     * @param records The sample records. They must have their content in memory.
+     * @param dictionarySize The maximum size of the dictionary, in bytes.
+     * @return The dictionary.
+     * @throws IOException if training fails, e.g. because there are too few samples.
+     */
+    public static byte[] train(Iterable<WARCRecord> records, int dictionarySize) throws IOException {
+        ZstdDictTrainer trainer = new ZstdDictTrainer(
+                (int) Math.min(Integer.MAX_VALUE, (long) dictionarySize * SAMPLES_PER_DICTIONARY_SIZE), dictionarySize);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        for (WARCRecord record : records) {
+            buf.reset();
+            record.write(new DataOutputStream(buf));
+            byte[] sample = buf.toByteArray();
+            if (sample.length > MAX_SAMPLE_SIZE) {
+                byte[] prefix = new byte[MAX_SAMPLE_SIZE];
+                System.arraycopy(sample, 0, prefix, 0, prefix.length);
+                sample = prefix;
+            }
+            if (!trainer.addSample(sample)) break;
+        }
+        try {
+            return trainer.trainSamples();
+        } catch (ZstdException e) {
+            throw new IOException("Could not train zstd dictionary: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Trains a dictionary on the first records of a WARC file.
+     * @param conf The Hadoop configuration.
+     * @param sample The WARC file (compressed or not) from which to take the records.
+     * @param maxRecords The maximum number of records to use.
+     * @param dictionarySize The maximum size of the dictionary, in bytes.
+     * @return The dictionary.
+     * @throws IOException
+     */
+    public static byte[] train(Configuration conf, Path sample, int maxRecords, int dictionarySize)
+            throws IOException {
+        // The records are kept until training, so each needs its own in-memory body
+        Configuration readConf = new Configuration(conf);
+        readConf.setBoolean("warc.input.streaming", false);
+        readConf.setBoolean("warc.input.reuse.records", false);
+        readConf.setBoolean("warc.input.offheap", false);
+        List<WARCRecord> records = new ArrayList<WARCRecord>();
+        WARCFileReader reader = new WARCFileReader(readConf, sample);
+        try {
+            while (records.size() < maxRecords) records.add(reader.read());
+        } catch (EOFException e) {
+            // fewer records than requested
+        } finally {
+            reader.close();
+        }
+        return train(records, dictionarySize);
+    }
+}
@@ -0,0 +1,277 @@
+package com.martinkl.warc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.ZipException;
+import org.apache.hadoop.fs.ByteBufferReadable;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdException;
+
+/**
+ * Decompresses a Zstandard stream consisting of one or more concatenated frames, while keeping
+ * track of the compressed offset at which each frame starts. This is the zstd counterpart of
+ * {@link GzipMemberInputStream}: WARC files compressed with zstd have one frame per record,
+ * and a single call to `read()` never returns bytes from more than one frame.
+ *
+ * Skippable frames are skipped, except for a dictionary frame (magic number `0x184D2A5D`)
+ * as written at the start of a file by {@link ZstdFrameOutputStream}: its content is loaded
+ * as the dictionary with which the following frames are decompressed. The dictionary may
+ * itself be zstd-compressed. If decompression starts in the middle of a file, the dictionary
+ * must be passed to the constructor instead (see {@link WARCCompression#readDictionary}).
+ *
+ * Compressed input and decompressed output go through direct buffers, and the decompression
+ * context is reused from one frame to the next. If the compressed input implements
+ * {@link ByteBufferReadable}, it is read straight into the direct input buffer. Requires the
+ * zstd-jni library.
+ */
+class ZstdFrameInputStream extends MemberInputStream {
+    static final int FRAME_MAGIC = 0xFD2FB528;
+    static final int DICTIONARY_MAGIC = 0x184D2A5D;
+    /** Much larger than any trained dictionary; a larger size means the file is corrupt. */
+    static final int MAX_DICTIONARY_SIZE = 32 * 1024 * 1024;
+    private static final int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0, SKIPPABLE_MAGIC = 0x184D2A50;
+    private static final int BUFFER_SIZE = 131072;
+
+    private final InputStream in;
+    private final ZstdDecompressCtx context = new ZstdDecompressCtx();
+    private byte[] readBuf = null; // only needed if `in` can't read into a ByteBuffer
+    private final ByteBuffer input = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer output = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final byte[] oneByte = new byte[1];
+    private byte[] dictionary = null;
+    private long inputOffset; // compressed offset of input[0]
+    private long memberOffset = -1;
+    private boolean inFrame = false, eof = false;
+    private volatile long decompressNanos = 0;
+
+    /**
+     * Creates a decompressing stream.
+     * @param in The compressed input, positioned at the start of a frame.
+     * @param offset The position of `in` within the file, used for reporting frame offsets.
+     * @param dictionary The dictionary with which frames were compressed (as found in the
+     *                   dictionary frame, possibly compressed), or null.
+     * @throws ZipException if the dictionary can't be loaded.
+     */
+    public ZstdFrameInputStream(InputStream in, long offset, byte[] dictionary) throws ZipException {
+        this.in = in;
+        this.inputOffset = offset;
+        input.flip();
+        output.flip();
+        if (dictionary != null) loadDictionary(dictionary);
+    }
+
+    private void loadDictionary(byte[] dict) throws ZipException {
+        try {
+            if (dict.length >= 4 && ByteBuffer.wrap(dict).order(ByteOrder.LITTLE_ENDIAN).getInt(0) == FRAME_MAGIC) {
+                long size = Zstd.getFrameContentSize(dict);
+                if (size < 0 || size > Integer.MAX_VALUE) throw new ZipException("Compressed zstd dictionary without content size");
+                dict = Zstd.decompress(dict, (int) size);
+            }
+            context.loadDict(dict);
+            dictionary = dict;
+        } catch (ZstdException e) {
+            throw new ZipException("Invalid zstd dictionary: " + e.getMessage());
+        }
+    }
+
+    @Override
+    void restart(long offset) {
+        inputOffset = offset;
+        input.clear().flip();
+        output.clear().flip();
+        memberOffset = -1;
+        inFrame = false;
+        eof = false;
+        context.reset();
+        if (dictionary != null) context.loadDict(dictionary);
+    }
+
+    @Override
+    public long getMemberOffset() throws IOException {
+        if (!output.hasRemaining() && !eof) {
+            if (inFrame) decompress();
+            // Don't insist on a frame here: we may be at the end of a split, in the middle of a frame
+            if (!output.hasRemaining() && !inFrame) processSkippableFrames();
+        }
+        return (output.hasRemaining() || inFrame) ? memberOffset : inputOffset + input.position();
+    }
+
+    @Override
+    public long getCurrentMemberOffset() {
+        return memberOffset;
+    }
+
+    @Override
+    public long getCompressedPosition() {
+        return inputOffset + input.position();
+    }
+
+    @Override
+    long getDecompressNanos() {
+        return decompressNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(oneByte, 0, 1);
+        return n == 1 ? oneByte[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (!output.hasRemaining()) {
+            if (eof) return -1;
+            if (inFrame) {
+                decompress();
+            } else if (!readFrameHeader()) {
+                eof = true;
+            }
+        }
+        int n = Math.min(len, output.remaining());
+        output.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (!output.hasRemaining()) {
+                if (read(oneByte, 0, 1) < 0) break; // decompresses more output
+                skipped++;
+                continue;
+            }
+            int len = (int) Math.min(output.remaining(), n - skipped);
+            output.position(output.position() + len);
+            skipped += len;
+        }
+        return skipped;
+    }
+
+    /**
+     * Decompresses the next piece of the current frame into the (fully consumed) output
+     * buffer. At the end of the frame, leaves the frame, possibly without producing output.
+     */
+    private void decompress() throws IOException {
+        output.clear();
+        try {
+            while (true) {
+                if (!input.hasRemaining() && !fillInput()) throw new EOFException("Unexpected end of zstd frame");
+                int inputBefore = input.position();
+                long startTime = System.nanoTime();
+                boolean done = context.decompressDirectByteBufferStream(output, input);
+                decompressNanos += System.nanoTime() - startTime;
+                if (done) {
+                    inFrame = false;
+                    break;
+                }
+                if (output.position() > 0) break;
+                // The decompressor needs more input than is in the buffer
+                if (input.position() == inputBefore && !fillInput()) {
+                    throw new EOFException("Unexpected end of zstd frame");
+                }
+            }
+        } catch (ZstdException e) {
+            throw new ZipException("Corrupt zstd frame at offset " + memberOffset + ": " + e.getMessage());
+        } finally {
+            output.flip();
+        }
+    }
+
+    /**
+     * Reads up to the start of the next frame containing data, processing any skippable
+     * frames on the way. Returns false at the end of the input (or at trailing garbage).
+     */
+    private boolean readFrameHeader() throws IOException {
+        boolean more = processSkippableFrames();
+        if (more && input.getInt(input.position()) == FRAME_MAGIC) {
+            memberOffset = inputOffset + input.position();
+            inFrame = true;
+            return true;
+        }
+        if (!more && !input.hasRemaining()) return false;
+        // Like GzipMemberInputStream, ignore trailing garbage but not a missing first frame
+        if (memberOffset < 0) throw new ZipException("Not in zstd format");
+        return false;
+    }
+
+    /**
+     * Skips over any skippable frames at the current position, loading the dictionary if
+     * there is a dictionary frame. Returns true if at least four more bytes of input follow.
+     */
+    private boolean processSkippableFrames() throws IOException {
+        while (ensureInput(4)) {
+            int magic = input.getInt(input.position());
+            if ((magic & SKIPPABLE_MAGIC_MASK) != SKIPPABLE_MAGIC) return true;
+            if (!ensureInput(8)) throw new EOFException("Unexpected end of zstd skippable frame");
+            long size = input.getInt(input.position() + 4) & 0xffffffffL;
+            input.position(input.position() + 8);
+            if (magic == DICTIONARY_MAGIC) {
+                if (size > MAX_DICTIONARY_SIZE) throw new ZipException("zstd dictionary too large: " + size + " bytes");
+                byte[] dict = new byte[(int) size];
+                readInput(dict);
+                loadDictionary(dict);
+            } else {
+                skipInput(size);
+            }
+        }
+        return false;
+    }
+
+    private void readInput(byte[] b) throws IOException {
+        int off = 0;
+        while (off < b.length) {
+            if (!input.hasRemaining() && !fillInput()) throw new EOFException("Unexpected end of zstd skippable frame");
+            int n = Math.min(b.length - off, input.remaining());
+            input.get(b, off, n);
+            off += n;
+        }
+    }
+
+    private void skipInput(long n) throws IOException {
+        while (n > 0) {
+            if (!input.hasRemaining() && !fillInput()) throw new EOFException("Unexpected end of zstd skippable frame");
+            int len = (int) Math.min(n, input.remaining());
+            input.position(input.position() + len);
+            n -= len;
+        }
+    }
+
+    /** Makes sure that at least `n` bytes of input are buffered; returns false at the end. */
+    private boolean ensureInput(int n) throws IOException {
+        while (input.remaining() < n) {
+            if (!fillInput()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves any unconsumed input to the start of the input buffer, and appends more input
+     * from the underlying stream. Returns false if no more input could be read.
+     */
+    private boolean fillInput() throws IOException {
+        inputOffset += input.position();
+        input.compact();
+        try {
+            if (in instanceof ByteBufferReadable) return ((ByteBufferReadable) in).read(input) > 0;
+            if (readBuf == null) readBuf = new byte[BUFFER_SIZE];
+            int n = in.read(readBuf, 0, input.remaining());
+            if (n <= 0) return false;
+            input.put(readBuf, 0, n);
+            return true;
+        } finally {
+            input.flip();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        context.close();
+        in.close();
+    }
+}
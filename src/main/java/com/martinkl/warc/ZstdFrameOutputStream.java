@@ -0,0 +1,142 @@
+package com.martinkl.warc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import com.github.luben.zstd.EndDirective;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdException;
+
+/**
+ * Compresses data as a sequence of independent Zstandard frames. Everything written between
+ * two calls to {@link #finishMember()} becomes one frame, so that a reader can start
+ * decompressing at the beginning of any frame; this is the zstd counterpart of
+ * {@link GzipMemberOutputStream}. Frames include a checksum of their content.
+ *
+ * If a dictionary is given, it is written to the start of the output in a skippable frame
+ * (magic number `0x184D2A5D`), where {@link ZstdFrameInputStream} finds it, and every
+ * frame is compressed with it. This makes a big difference to the compression of small
+ * records, which on their own have too little data to build up a useful history.
+ *
+ * The compression context and the direct buffers are reused from one frame to the next.
+ * Requires the zstd-jni library.
+ */
+class ZstdFrameOutputStream extends OutputStream {
+    private static final int BUFFER_SIZE = 131072;
+
+    private final OutputStream out;
+    private final ZstdCompressCtx context = new ZstdCompressCtx();
+    private final ByteBuffer input = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer output = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final byte[] outputBuf = new byte[BUFFER_SIZE];
+    private boolean inFrame = false;
+    private long compressNanos = 0;
+
+    /**
+     * Creates a compressing stream.
+     * @param out The stream to which the compressed frames are written.
+     * @param level The zstd compression level (e.g. 3).
+     * @param dictionary The dictionary with which to compress every frame, or null.
+     * @throws IOException if the dictionary is too large, or its frame can't be written.
+     */
+    public ZstdFrameOutputStream(OutputStream out, int level, byte[] dictionary) throws IOException {
+        if (dictionary != null && dictionary.length > ZstdFrameInputStream.MAX_DICTIONARY_SIZE) {
+            throw new IOException("zstd dictionary too large: " + dictionary.length + " bytes");
+        }
+        this.out = out;
+        context.setLevel(level);
+        context.setChecksum(true);
+        if (dictionary != null) {
+            context.loadDict(dictionary);
+            byte[] header = new byte[8];
+            writeIntLE(header, 0, ZstdFrameInputStream.DICTIONARY_MAGIC);
+            writeIntLE(header, 4, dictionary.length);
+            out.write(header);
+            out.write(dictionary);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!input.hasRemaining()) compressInput(EndDirective.CONTINUE);
+        input.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!input.hasRemaining()) compressInput(EndDirective.CONTINUE);
+            int n = Math.min(len, input.remaining());
+            input.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Compresses the buffered input, and with `END`, completes the frame. Compressed output
+     * is written to the underlying stream as it is produced.
+     */
+    private void compressInput(EndDirective directive) throws IOException {
+        input.flip();
+        inFrame = true;
+        try {
+            boolean done;
+            do {
+                long startTime = System.nanoTime();
+                done = context.compressDirectByteBufferStream(output, input, directive);
+                compressNanos += System.nanoTime() - startTime;
+                writeOutput();
+            } while (directive == EndDirective.END ? !done : input.hasRemaining());
+        } catch (ZstdException e) {
+            throw new IOException("zstd compression failed: " + e.getMessage(), e);
+        } finally {
+            input.clear();
+        }
+    }
+
+    private void writeOutput() throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            int n = Math.min(output.remaining(), outputBuf.length);
+            output.get(outputBuf, 0, n);
+            out.write(outputBuf, 0, n);
+        }
+        output.clear();
+    }
+
+    /**
+     * Completes the current frame. The next byte written will start a new frame. If nothing
+     * has been written since the last frame was completed, an empty frame is written.
+     */
+    public void finishMember() throws IOException {
+        compressInput(EndDirective.END);
+        inFrame = false;
+    }
+
+    /** Returns the total time spent in the compressor, in nanoseconds. */
+    long getCompressNanos() {
+        return compressNanos;
+    }
+
+    private static void writeIntLE(byte[] buf, int off, int value) {
+        buf[off]     = (byte) value;
+        buf[off + 1] = (byte) (value >> 8);
+        buf[off + 2] = (byte) (value >> 16);
+        buf[off + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * Completes the current frame, if any data has been written to it, and closes the
+     * underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (inFrame || input.position() > 0) finishMember();
+            out.close();
+        } finally {
+            context.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.martinkl.warc.mapred;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobConfigurable;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.CombineFileInputFormat;
+import org.apache.hadoop.mapred.lib.CombineFileSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import com.martinkl.warc.CombinedWARCFileReader;
+import com.martinkl.warc.WARCCompression;
+import com.martinkl.warc.WARCIndexWriter;
+import com.martinkl.warc.WARCRecord;
+import com.martinkl.warc.WARCWritable;
+
+/**
+ * Hadoop InputFormat for mapred jobs ('old' API) that want to process data in many small
+ * WARC files. Instead of starting one mapper per file, as {@link WARCInputFormat} does, this
+ * packs several files into each split, preferring files whose blocks are stored on the same
+ * node or rack, up to a total of `warc.input.combine.split.size` bytes (default 256MB).
+ *
+ * Usage:
+ *
+ * ```java
+ * JobConf job = new JobConf(getConf());
+ * job.setInputFormat(CombineWARCInputFormat.class);
+ * ```
+ *
+ * Mappers should use a key of {@link org.apache.hadoop.io.LongWritable} (which is 1 for the
+ * first record in each file, 2 for the second record, etc.) and a value of
+ * {@link WARCWritable}. The files in a split are read one after another, and the status of
+ * the task shows the file currently being read. `warc.input.splittable` and record filters
+ * work as they do for {@link WARCInputFormat}.
+ *
+ * Files are grouped by location, not by the writer that produced them, so the segments of a
+ * record split into continuation records may be out of order or in different splits. With
+ * `warc.input.continuation.reassemble`, such segments are returned unmerged (see
+ * {@link CombinedWARCFileReader}).
+ */
+public class CombineWARCInputFormat extends CombineFileInputFormat<LongWritable, WARCWritable>
+        implements JobConfigurable {
+    public static final String SPLIT_SIZE_KEY = "warc.input.combine.split.size";
+    public static final long DEFAULT_SPLIT_SIZE = 256 * 1024 * 1024;
+
+    private boolean splittable = false;
+
+    @Override
+    public void configure(JobConf job) {
+        splittable = job.getBoolean("warc.input.splittable", false);
+    }
+
+    /**
+     * Groups the input files into splits of up to `warc.input.combine.split.size` bytes.
+     */
+    @Override
+    public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+        setMaxSplitSize(job.getLong(SPLIT_SIZE_KEY, DEFAULT_SPLIT_SIZE));
+        return super.getSplits(job, numSplits);
+    }
+
+    /**
+     * Returns a RecordReader that reads the WARC files in a split one after another.
+     */
+    @Override
+    public RecordReader<LongWritable, WARCWritable> getRecordReader(InputSplit split, JobConf job, Reporter reporter)
+            throws IOException {
+        reporter.setStatus(split.toString());
+        return new CombinedWARCReader(job, (CombineFileSplit) split, reporter);
+    }
+
+    /**
+     * Lists the input files, leaving out any CDXJ index sidecars written alongside WARC files
+     * (see {@link WARCIndexWriter}).
+     */
+    @Override
+    protected List<FileStatus> listStatus(JobContext job) throws IOException {
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        for (FileStatus file : super.listStatus(job)) {
+            if (!file.getPath().getName().endsWith(WARCIndexWriter.EXTENSION)) files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Returns true if `warc.input.splittable` is enabled in the configuration and the file is
+     * gzip- or zstd-compressed (according to its filename), and false otherwise.
+     */
+    @Override
+    protected boolean isSplitable(FileSystem fs, Path filename) {
+        return splittable && WARCCompression.forFilename(filename.getName()).isCompressed();
+    }
+
+    private static class CombinedWARCReader implements RecordReader<LongWritable, WARCWritable> {
+        private final JobConf job;
+        private final Reporter reporter;
+        private final CombinedWARCFileReader reader;
+        private Path currentPath;
+
+        public CombinedWARCReader(JobConf job, CombineFileSplit split, Reporter reporter) {
+            this.job = job;
+            this.reporter = reporter;
+            this.reader = new CombinedWARCFileReader(job, split.getPaths(), split.getStartOffsets(), split.getLengths());
+            reader.getMetrics().addListener(CounterMetricsListener.forReader(reporter));
+        }
+
+        @Override
+        public LongWritable createKey() {
+            return new LongWritable();
+        }
+
+        @Override
+        public WARCWritable createValue() {
+            return new WARCWritable();
+        }
+
+        @Override
+        public boolean next(LongWritable key, WARCWritable value) throws IOException {
+            try {
+                WARCRecord record = reader.read();
+                if (reader.getCurrentPath() != currentPath) {
+                    currentPath = reader.getCurrentPath();
+                    job.set("map.input.file", currentPath.toString());
+                    reporter.setStatus(currentPath.toString());
+                }
+                key.set(reader.getRecordsRead());
+                value.setRecord(record);
+                return true;
+            } catch (EOFException eof) {
+                return false;
+            }
+        }
+
+        @Override
+        public long getPos() throws IOException {
+            return reader.getBytesRead();
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            return reader.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
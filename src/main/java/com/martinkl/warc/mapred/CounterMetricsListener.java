@@ -0,0 +1,49 @@
+package com.martinkl.warc.mapred;
+
+import org.apache.hadoop.mapred.Reporter;
+import com.martinkl.warc.WARCCounter;
+import com.martinkl.warc.WARCMetricsListener;
+
+/**
+ * Reports the metrics of a reader or writer as Hadoop counters of the current task: the
+ * {@link WARCCounter}s in one group and the record counts per `WARC-Type` in another, with
+ * separate groups for reading and writing, since Hadoop would otherwise add them up. Maximum
+ * counters (such as {@link WARCCounter#MAX_RECORD_LENGTH}) are not reported, because Hadoop
+ * adds up counters across tasks; they are only available per task from
+ * {@link com.martinkl.warc.WARCMetrics}.
+ */
+class CounterMetricsListener implements WARCMetricsListener {
+    static final String READ_GROUP = "WARC input";
+    static final String WRITTEN_GROUP = "WARC output";
+    static final String TYPES_READ_GROUP = "WARC record types read";
+    static final String TYPES_WRITTEN_GROUP = "WARC record types written";
+
+    private final Reporter reporter;
+    private final String group, typesGroup;
+
+    private CounterMetricsListener(Reporter reporter, String group, String typesGroup) {
+        this.reporter = reporter;
+        this.group = group;
+        this.typesGroup = typesGroup;
+    }
+
+    /** Creates a listener for the metrics of a reader. */
+    static CounterMetricsListener forReader(Reporter reporter) {
+        return new CounterMetricsListener(reporter, READ_GROUP, TYPES_READ_GROUP);
+    }
+
+    /** Creates a listener for the metrics of a writer. */
+    static CounterMetricsListener forWriter(Reporter reporter) {
+        return new CounterMetricsListener(reporter, WRITTEN_GROUP, TYPES_WRITTEN_GROUP);
+    }
+
+    @Override
+    public void counterUpdated(WARCCounter counter, long delta) {
+        if (!counter.isMaximum()) reporter.incrCounter(group, counter.name(), delta);
+    }
+
+    @Override
+    public void recordTypeCounted(String recordType, long delta) {
+        reporter.incrCounter(typesGroup, recordType, delta);
+    }
+}
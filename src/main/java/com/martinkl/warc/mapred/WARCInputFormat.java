@@ -2,6 +2,9 @@ package com.martinkl.warc.mapred;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
@@ -9,9 +12,12 @@ import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileSplit;
 import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobConfigurable;
 import org.apache.hadoop.mapred.RecordReader;
 import org.apache.hadoop.mapred.Reporter;
+import com.martinkl.warc.WARCCompression;
 import com.martinkl.warc.WARCFileReader;
+import com.martinkl.warc.WARCIndexWriter;
 import com.martinkl.warc.WARCRecord;
 import com.martinkl.warc.WARCWritable;
 
@@ -28,8 +34,25 @@ import com.martinkl.warc.WARCWritable;
  * Mappers should use a key of {@link org.apache.hadoop.io.LongWritable} (which is
  * 1 for the first record in a file, 2 for the second record, etc.) and a value of
  * {@link WARCWritable}.
+ *
+ * By default, each file is processed by a single mapper. If your gzipped WARC files are
+ * compressed with one gzip member per record (as is standard practice), you can set
+ * `warc.input.splittable` to true in the job configuration, which allows large files to be
+ * split across several mappers. In that case, the key counts records from the start of the
+ * split, not the start of the file.
+ *
+ * To process only some of the records, configure a {@link com.martinkl.warc.WARCRecordFilter}
+ * (e.g. `WARCRecordFilter.setRecordTypes(conf, "response")`). Records that don't match are
+ * skipped before they reach the mapper, without reading their bodies into memory.
  */
-public class WARCInputFormat extends FileInputFormat<LongWritable, WARCWritable> {
+public class WARCInputFormat extends FileInputFormat<LongWritable, WARCWritable> implements JobConfigurable {
+
+    private boolean splittable = false;
+
+    @Override
+    public void configure(JobConf job) {
+        splittable = job.getBoolean("warc.input.splittable", false);
+    }
 
     /**
      * Opens a WARC file (possibly compressed) for reading, and returns a RecordReader for accessing it.
@@ -38,22 +61,37 @@ public class WARCInputFormat extends FileInputFormat<LongWritable, WARCWritable>
     public RecordReader<LongWritable, WARCWritable> getRecordReader(InputSplit split, JobConf job, Reporter reporter)
             throws IOException {
         reporter.setStatus(split.toString());
-        return new WARCReader(job, (FileSplit) split);
+        return new WARCReader(job, (FileSplit) split, reporter);
+    }
+
+    /**
+     * Lists the input files, leaving out any CDXJ index sidecars written alongside WARC files
+     * (see {@link WARCIndexWriter}).
+     */
+    @Override
+    protected FileStatus[] listStatus(JobConf job) throws IOException {
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        for (FileStatus file : super.listStatus(job)) {
+            if (!file.getPath().getName().endsWith(WARCIndexWriter.EXTENSION)) files.add(file);
+        }
+        return files.toArray(new FileStatus[files.size()]);
     }
 
     /**
-     * Always returns false, as WARC files cannot be split.
+     * Returns true if `warc.input.splittable` is enabled in the configuration and the file is
+     * gzip- or zstd-compressed (according to its filename), and false otherwise.
      */
     @Override
     protected boolean isSplitable(FileSystem fs, Path filename) {
-        return false;
+        return splittable && WARCCompression.forFilename(filename.getName()).isCompressed();
     }
 
     private static class WARCReader implements RecordReader<LongWritable, WARCWritable> {
         private final WARCFileReader reader;
 
-        public WARCReader(JobConf job, FileSplit split) throws IOException {
-            reader = new WARCFileReader(job, ((FileSplit) split).getPath());
+        public WARCReader(JobConf job, FileSplit split, Reporter reporter) throws IOException {
+            reader = new WARCFileReader(job, split.getPath(), split.getStart(), split.getLength());
+            reader.getMetrics().addListener(CounterMetricsListener.forReader(reporter));
         }
 
         @Override
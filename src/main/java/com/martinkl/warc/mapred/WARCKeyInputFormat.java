@@ -0,0 +1,128 @@
+package com.martinkl.warc.mapred;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobConfigurable;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import com.martinkl.warc.WARCCompression;
+import com.martinkl.warc.WARCFileReader;
+import com.martinkl.warc.WARCIndexWriter;
+import com.martinkl.warc.WARCKey;
+import com.martinkl.warc.WARCRecord;
+import com.martinkl.warc.WARCWritable;
+
+/**
+ * Hadoop InputFormat for mapred jobs ('old' API) that want to process WARC records keyed by
+ * capture rather than by position in the file. This works like {@link WARCInputFormat}
+ * (including `warc.input.splittable` and record filters), except that the key is a
+ * {@link WARCKey}: the SURT of the record's target URI and its capture time.
+ *
+ * Usage:
+ *
+ * ```java
+ * JobConf job = new JobConf(getConf());
+ * job.setInputFormat(WARCKeyInputFormat.class);
+ * job.setPartitionerClass(WARCKeyPartitioner.class);
+ * ```
+ *
+ * Mappers can emit the key unchanged, so that records are shuffled in SURT order using the
+ * raw {@link WARCKey.Comparator}, and {@link WARCKeyPartitioner} keeps each host on one
+ * reducer.
+ */
+public class WARCKeyInputFormat extends FileInputFormat<WARCKey, WARCWritable> implements JobConfigurable {
+
+    private boolean splittable = false;
+
+    @Override
+    public void configure(JobConf job) {
+        splittable = job.getBoolean("warc.input.splittable", false);
+    }
+
+    /**
+     * Opens a WARC file (possibly compressed) for reading, and returns a RecordReader for accessing it.
+     */
+    @Override
+    public RecordReader<WARCKey, WARCWritable> getRecordReader(InputSplit split, JobConf job, Reporter reporter)
+            throws IOException {
+        reporter.setStatus(split.toString());
+        return new WARCKeyReader(job, (FileSplit) split, reporter);
+    }
+
+    /**
+     * Lists the input files, leaving out any CDXJ index sidecars written alongside WARC files
+     * (see {@link WARCIndexWriter}).
+     */
+    @Override
+    protected FileStatus[] listStatus(JobConf job) throws IOException {
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        for (FileStatus file : super.listStatus(job)) {
+            if (!file.getPath().getName().endsWith(WARCIndexWriter.EXTENSION)) files.add(file);
+        }
+        return files.toArray(new FileStatus[files.size()]);
+    }
+
+    /**
+     * Returns true if `warc.input.splittable` is enabled in the configuration and the file is
+     * gzip- or zstd-compressed (according to its filename), and false otherwise.
+     */
+    @Override
+    protected boolean isSplitable(FileSystem fs, Path filename) {
+        return splittable && WARCCompression.forFilename(filename.getName()).isCompressed();
+    }
+
+    private static class WARCKeyReader implements RecordReader<WARCKey, WARCWritable> {
+        private final WARCFileReader reader;
+
+        public WARCKeyReader(JobConf job, FileSplit split, Reporter reporter) throws IOException {
+            reader = new WARCFileReader(job, split.getPath(), split.getStart(), split.getLength());
+            reader.getMetrics().addListener(CounterMetricsListener.forReader(reporter));
+        }
+
+        @Override
+        public WARCKey createKey() {
+            return new WARCKey();
+        }
+
+        @Override
+        public WARCWritable createValue() {
+            return new WARCWritable();
+        }
+
+        @Override
+        public boolean next(WARCKey key, WARCWritable value) throws IOException {
+            try {
+                WARCRecord record = reader.read();
+                key.set(record.getHeader());
+                value.setRecord(record);
+                return true;
+            } catch (EOFException eof) {
+                return false;
+            }
+        }
+
+        @Override
+        public long getPos() throws IOException {
+            return reader.getBytesRead();
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            return reader.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
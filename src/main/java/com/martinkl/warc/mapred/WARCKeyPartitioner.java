@@ -0,0 +1,33 @@
+package com.martinkl.warc.mapred;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+import com.martinkl.warc.WARCHostPartitioner;
+import com.martinkl.warc.WARCKey;
+
+/**
+ * Hadoop Partitioner for mapred jobs ('old' API) with {@link WARCKey} keys, which sends all
+ * captures from the same host to the same reducer. Very large hosts can be spread across
+ * several reducers; see {@link WARCHostPartitioner}.
+ *
+ * Usage:
+ *
+ * ```java
+ * job.setPartitionerClass(WARCKeyPartitioner.class);
+ * ```
+ */
+public class WARCKeyPartitioner<V> implements Partitioner<WARCKey, V> {
+
+    private WARCHostPartitioner partitioner;
+
+    @Override
+    public void configure(JobConf job) {
+        partitioner = new WARCHostPartitioner(job);
+    }
+
+    @Override
+    public int getPartition(WARCKey key, V value, int numPartitions) {
+        if (partitioner == null) configure(new JobConf());
+        return partitioner.getPartition(key, numPartitions);
+    }
+}
@@ -48,6 +48,9 @@ public class WARCOutputFormat extends FileOutputFormat<NullWritable, WARCWritabl
             CompressionCodec codec = getCompressOutput(job) ? WARCFileWriter.getGzipCodec(job) : null;
             Path workFile = FileOutputFormat.getTaskOutputPath(job, filename);
             this.writer = new WARCFileWriter(job, codec, workFile, progress);
+            if (progress instanceof Reporter) {
+                writer.getMetrics().addListener(CounterMetricsListener.forWriter((Reporter) progress));
+            }
         }
 
         @Override
@@ -0,0 +1,148 @@
+package com.martinkl.warc.mapreduce;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+
+import com.martinkl.warc.CombinedWARCFileReader;
+import com.martinkl.warc.WARCCompression;
+import com.martinkl.warc.WARCIndexWriter;
+import com.martinkl.warc.WARCRecord;
+import com.martinkl.warc.WARCWritable;
+
+
+/**
+ * Hadoop InputFormat for mapreduce jobs ('new' API) that want to process data in many small
+ * WARC files. Instead of starting one mapper per file, as {@link WARCInputFormat} does, this
+ * packs several files into each split, preferring files whose blocks are stored on the same
+ * node or rack, up to a total of `warc.input.combine.split.size` bytes (default 256MB).
+ *
+ * Usage:
+ *
+ * ```java
+ * Job job = new Job(getConf());
+ * job.setInputFormatClass(CombineWARCInputFormat.class);
+ * ```
+ *
+ * Mappers should use a key of {@link org.apache.hadoop.io.LongWritable} (which is 1 for the
+ * first record in each file, 2 for the second record, etc.) and a value of
+ * {@link WARCWritable}. The files in a split are read one after another, and the name of the
+ * file currently being read is available from the `mapreduce.map.input.file` configuration
+ * key. `warc.input.splittable` and record filters work as they do for {@link WARCInputFormat}.
+ *
+ * Files are grouped by location, not by the writer that produced them, so the segments of a
+ * record split into continuation records may be out of order or in different splits. With
+ * `warc.input.continuation.reassemble`, such segments are returned unmerged (see
+ * {@link CombinedWARCFileReader}).
+ */
+public class CombineWARCInputFormat extends CombineFileInputFormat<LongWritable, WARCWritable> {
+    public static final String SPLIT_SIZE_KEY = "warc.input.combine.split.size";
+    public static final long DEFAULT_SPLIT_SIZE = 256 * 1024 * 1024;
+
+    /**
+     * Groups the input files into splits of up to `warc.input.combine.split.size` bytes.
+     */
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        setMaxSplitSize(job.getConfiguration().getLong(SPLIT_SIZE_KEY, DEFAULT_SPLIT_SIZE));
+        return super.getSplits(job);
+    }
+
+    /**
+     * Returns a RecordReader that reads the WARC files in a split one after another.
+     */
+    @Override
+    public RecordReader<LongWritable, WARCWritable> createRecordReader(InputSplit split,
+                                                                       TaskAttemptContext context)
+            throws IOException {
+        return new CombinedWARCReader();
+    }
+
+    /**
+     * Lists the input files, leaving out any CDXJ index sidecars written alongside WARC files
+     * (see {@link WARCIndexWriter}).
+     */
+    @Override
+    protected List<FileStatus> listStatus(JobContext job) throws IOException {
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        for (FileStatus file : super.listStatus(job)) {
+            if (!file.getPath().getName().endsWith(WARCIndexWriter.EXTENSION)) files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Returns true if `warc.input.splittable` is enabled in the configuration and the file is
+     * gzip- or zstd-compressed (according to its filename), and false otherwise.
+     */
+    @Override
+    protected boolean isSplitable(JobContext context, Path filename) {
+        return context.getConfiguration().getBoolean("warc.input.splittable", false) &&
+               WARCCompression.forFilename(filename.getName()).isCompressed();
+    }
+
+    private static class CombinedWARCReader extends RecordReader<LongWritable, WARCWritable> {
+        private final LongWritable key = new LongWritable();
+        private final WARCWritable value = new WARCWritable();
+        private Configuration conf;
+        private CombinedWARCFileReader reader;
+        private Path currentPath;
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+            CombineFileSplit combineSplit = (CombineFileSplit) split;
+            conf = context.getConfiguration();
+            reader = new CombinedWARCFileReader(conf, combineSplit.getPaths(),
+                                                combineSplit.getStartOffsets(), combineSplit.getLengths());
+            reader.getMetrics().addListener(CounterMetricsListener.forReader(context));
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            try {
+                WARCRecord record = reader.read();
+                if (reader.getCurrentPath() != currentPath) {
+                    currentPath = reader.getCurrentPath();
+                    conf.set("mapreduce.map.input.file", currentPath.toString());
+                }
+                key.set(reader.getRecordsRead());
+                value.setRecord(record);
+                return true;
+            } catch (EOFException eof) {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            return reader.getProgress();
+        }
+
+        @Override
+        public LongWritable getCurrentKey() throws IOException, InterruptedException {
+            return key;
+        }
+
+        @Override
+        public WARCWritable getCurrentValue() throws IOException, InterruptedException {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.martinkl.warc.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import com.martinkl.warc.WARCIndexSplitter;
+
+
+/**
+ * Variant of {@link WARCInputFormat} for mapreduce jobs ('new' API) that only need some of
+ * the records in a large archive. When the job is submitted, it reads the CDXJ index sidecar
+ * of each input file (see {@link com.martinkl.warc.WARCIndexWriter}), and creates splits
+ * that cover only the byte ranges containing records that match the configured
+ * {@link com.martinkl.warc.WARCRecordFilter}. Files without any matching records are not
+ * read at all.
+ *
+ * Usage:
+ *
+ * ```java
+ * Job job = new Job(getConf());
+ * job.setInputFormatClass(IndexedWARCInputFormat.class);
+ * WARCRecordFilter.setSURTPrefixes(job.getConfiguration(), "com,example)");
+ * WARCRecordFilter.setDateRange(job.getConfiguration(), "2014-03", "2014-04");
+ * ```
+ *
+ * Files that are not gzip-compressed, or that don't have an index sidecar, are read in the
+ * same way as by {@link WARCInputFormat} (with the filter applied while reading). See
+ * {@link WARCIndexSplitter} for how the matching records are grouped into splits. Note
+ * that records without a `WARC-Target-URI` (such as `warcinfo` records) are not in the
+ * index, and therefore are never read from indexed files.
+ */
+public class IndexedWARCInputFormat extends WARCInputFormat {
+
+    /**
+     * Creates splits covering the matching records of each file, using the files' indexes.
+     */
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        WARCIndexSplitter splitter = new WARCIndexSplitter(job.getConfiguration());
+        Map<Path, List<WARCIndexSplitter.Range>> fileRanges = new HashMap<Path, List<WARCIndexSplitter.Range>>();
+        List<InputSplit> splits = new ArrayList<InputSplit>();
+
+        for (InputSplit split : super.getSplits(job)) {
+            Path path = ((FileSplit) split).getPath();
+            if (!fileRanges.containsKey(path)) {
+                List<WARCIndexSplitter.Range> ranges = splitter.getRanges(path);
+                fileRanges.put(path, ranges);
+                if (ranges != null) {
+                    for (WARCIndexSplitter.Range range : ranges) {
+                        splits.add(makeSplit(path, range.getStart(), range.getLength(), range.getHosts()));
+                    }
+                }
+            }
+            // Files that can't be pruned with an index are split in the usual way
+            if (fileRanges.get(path) == null) splits.add(split);
+        }
+        return splits;
+    }
+}
@@ -2,7 +2,10 @@ package com.martinkl.warc.mapreduce;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapreduce.InputSplit;
@@ -12,7 +15,9 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 
+import com.martinkl.warc.WARCCompression;
 import com.martinkl.warc.WARCFileReader;
+import com.martinkl.warc.WARCIndexWriter;
 import com.martinkl.warc.WARCRecord;
 import com.martinkl.warc.WARCWritable;
 
@@ -30,6 +35,16 @@ import com.martinkl.warc.WARCWritable;
  * Mappers should use a key of {@link org.apache.hadoop.io.LongWritable} (which is
  * 1 for the first record in a file, 2 for the second record, etc.) and a value of
  * {@link WARCWritable}.
+ *
+ * By default, each file is processed by a single mapper. If your gzipped WARC files are
+ * compressed with one gzip member per record (as is standard practice), you can set
+ * `warc.input.splittable` to true in the job configuration, which allows large files to be
+ * split across several mappers. In that case, the key counts records from the start of the
+ * split, not the start of the file.
+ *
+ * To process only some of the records, configure a {@link com.martinkl.warc.WARCRecordFilter}
+ * (e.g. `WARCRecordFilter.setRecordTypes(conf, "response")`). Records that don't match are
+ * skipped before they reach the mapper, without reading their bodies into memory.
  */
 public class WARCInputFormat extends FileInputFormat<LongWritable, WARCWritable> {
 
@@ -44,10 +59,26 @@ public class WARCInputFormat extends FileInputFormat<LongWritable, WARCWritable>
     }
 
     /**
-     * Always returns false, as WARC files cannot be split.
+     * Lists the input files, leaving out any CDXJ index sidecars written alongside WARC files
+     * (see {@link WARCIndexWriter}).
      */
+    @Override
+    protected List<FileStatus> listStatus(JobContext job) throws IOException {
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        for (FileStatus file : super.listStatus(job)) {
+            if (!file.getPath().getName().endsWith(WARCIndexWriter.EXTENSION)) files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Returns true if `warc.input.splittable` is enabled in the configuration and the file is
+     * gzip- or zstd-compressed (according to its filename), and false otherwise.
+     */
+    @Override
     protected boolean isSplitable(JobContext context, Path filename) {
-        return false;
+        return context.getConfiguration().getBoolean("warc.input.splittable", false) &&
+               WARCCompression.forFilename(filename.getName()).isCompressed();
     }
 
     private static class WARCReader extends RecordReader<LongWritable, WARCWritable> {
@@ -57,7 +88,10 @@ public class WARCInputFormat extends FileInputFormat<LongWritable, WARCWritable>
 
         @Override
         public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
-            reader = new WARCFileReader(context.getConfiguration(), ((FileSplit) split).getPath());
+            FileSplit fileSplit = (FileSplit) split;
+            reader = new WARCFileReader(context.getConfiguration(), fileSplit.getPath(),
+                                        fileSplit.getStart(), fileSplit.getLength());
+            reader.getMetrics().addListener(CounterMetricsListener.forReader(context));
         }
 
         @Override
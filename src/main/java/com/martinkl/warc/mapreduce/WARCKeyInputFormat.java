@@ -0,0 +1,123 @@
+package com.martinkl.warc.mapreduce;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import com.martinkl.warc.WARCCompression;
+import com.martinkl.warc.WARCFileReader;
+import com.martinkl.warc.WARCIndexWriter;
+import com.martinkl.warc.WARCKey;
+import com.martinkl.warc.WARCRecord;
+import com.martinkl.warc.WARCWritable;
+
+
+/**
+ * Hadoop InputFormat for mapreduce jobs ('new' API) that want to process WARC records keyed
+ * by capture rather than by position in the file. This works like {@link WARCInputFormat}
+ * (including `warc.input.splittable` and record filters), except that the key is a
+ * {@link WARCKey}: the SURT of the record's target URI and its capture time.
+ *
+ * Usage:
+ *
+ * ```java
+ * Job job = new Job(getConf());
+ * job.setInputFormatClass(WARCKeyInputFormat.class);
+ * job.setPartitionerClass(WARCKeyPartitioner.class);
+ * ```
+ *
+ * Mappers can emit the key unchanged, so that records are shuffled in SURT order using the
+ * raw {@link WARCKey.Comparator}, and {@link WARCKeyPartitioner} keeps each host on one
+ * reducer. The key object is reused for every record.
+ */
+public class WARCKeyInputFormat extends FileInputFormat<WARCKey, WARCWritable> {
+
+    /**
+     * Opens a WARC file (possibly compressed) for reading, and returns a RecordReader for accessing it.
+     */
+    @Override
+    public RecordReader<WARCKey, WARCWritable> createRecordReader(InputSplit split,
+                                                                  TaskAttemptContext context)
+            throws IOException, InterruptedException {
+        return new WARCKeyReader();
+    }
+
+    /**
+     * Lists the input files, leaving out any CDXJ index sidecars written alongside WARC files
+     * (see {@link WARCIndexWriter}).
+     */
+    @Override
+    protected List<FileStatus> listStatus(JobContext job) throws IOException {
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        for (FileStatus file : super.listStatus(job)) {
+            if (!file.getPath().getName().endsWith(WARCIndexWriter.EXTENSION)) files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Returns true if `warc.input.splittable` is enabled in the configuration and the file is
+     * gzip- or zstd-compressed (according to its filename), and false otherwise.
+     */
+    @Override
+    protected boolean isSplitable(JobContext context, Path filename) {
+        return context.getConfiguration().getBoolean("warc.input.splittable", false) &&
+               WARCCompression.forFilename(filename.getName()).isCompressed();
+    }
+
+    private static class WARCKeyReader extends RecordReader<WARCKey, WARCWritable> {
+        private final WARCKey key = new WARCKey();
+        private final WARCWritable value = new WARCWritable();
+        private WARCFileReader reader;
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+            FileSplit fileSplit = (FileSplit) split;
+            reader = new WARCFileReader(context.getConfiguration(), fileSplit.getPath(),
+                                        fileSplit.getStart(), fileSplit.getLength());
+            reader.getMetrics().addListener(CounterMetricsListener.forReader(context));
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            try {
+                WARCRecord record = reader.read();
+                key.set(record.getHeader());
+                value.setRecord(record);
+                return true;
+            } catch (EOFException eof) {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            return reader.getProgress();
+        }
+
+        @Override
+        public WARCKey getCurrentKey() throws IOException, InterruptedException {
+            return key;
+        }
+
+        @Override
+        public WARCWritable getCurrentValue() throws IOException, InterruptedException {
+            return value;
+        }
+    }
+}
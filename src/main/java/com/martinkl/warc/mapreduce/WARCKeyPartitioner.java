@@ -0,0 +1,42 @@
+package com.martinkl.warc.mapreduce;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import com.martinkl.warc.WARCHostPartitioner;
+import com.martinkl.warc.WARCKey;
+
+/**
+ * Hadoop Partitioner for mapreduce jobs ('new' API) with {@link WARCKey} keys, which sends
+ * all captures from the same host to the same reducer. Very large hosts can be spread
+ * across several reducers; see {@link WARCHostPartitioner}.
+ *
+ * Usage:
+ *
+ * ```java
+ * job.setPartitionerClass(WARCKeyPartitioner.class);
+ * ```
+ */
+public class WARCKeyPartitioner<V> extends Partitioner<WARCKey, V> implements Configurable {
+
+    private Configuration conf;
+    private WARCHostPartitioner partitioner;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        this.partitioner = new WARCHostPartitioner(conf);
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public int getPartition(WARCKey key, V value, int numPartitions) {
+        if (partitioner == null) setConf(new Configuration());
+        return partitioner.getPartition(key, numPartitions);
+    }
+}
@@ -47,6 +47,7 @@ public class WARCOutputFormat extends FileOutputFormat<NullWritable, WARCWritabl
             CompressionCodec codec = getCompressOutput(context) ? WARCFileWriter.getGzipCodec(conf) : null;
             Path workFile = getDefaultWorkFile(context, "");
             this.writer = new WARCFileWriter(conf, codec, workFile);
+            writer.getMetrics().addListener(CounterMetricsListener.forWriter(context));
         }
 
         @Override
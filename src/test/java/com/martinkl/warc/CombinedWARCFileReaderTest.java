@@ -0,0 +1,99 @@
+package com.martinkl.warc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.martinkl.warc.mapreduce.CombineWARCInputFormat;
+import static org.junit.Assert.*;
+
+public class CombinedWARCFileReaderTest {
+    private static final int NUM_FILES = 5, RECORDS_PER_FILE = 4;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path[] writeFiles(Configuration conf) throws IOException {
+        Path dir = new Path(tempFolder.getRoot().toURI().toString(), "input");
+        Path[] paths = new Path[NUM_FILES];
+        for (int f = 0; f < NUM_FILES; f++) {
+            WARCFileWriter writer = new WARCFileWriter(conf, WARCFileWriter.getGzipCodec(conf), new Path(dir, "part-" + f));
+            for (int i = 0; i < RECORDS_PER_FILE; i++) {
+                writer.write(WARCFileWriterTest.parseRecord(WARCFileReaderTest.makeRecord(f * RECORDS_PER_FILE + i)));
+            }
+            paths[f] = writer.getSegmentPath();
+            writer.close();
+        }
+        return paths;
+    }
+
+    @Test
+    public void testReadsFilesInSequence() throws IOException {
+        Configuration conf = new Configuration();
+        Path[] paths = writeFiles(conf);
+        long[] starts = new long[NUM_FILES], lengths = new long[NUM_FILES];
+        for (int f = 0; f < NUM_FILES; f++) {
+            lengths[f] = paths[f].getFileSystem(conf).getFileStatus(paths[f]).getLen();
+        }
+
+        CombinedWARCFileReader reader = new CombinedWARCFileReader(conf, paths, starts, lengths);
+        assertEquals(0.0f, reader.getProgress(), 0.0f);
+        float progress = 0.0f;
+        for (int i = 0; i < NUM_FILES * RECORDS_PER_FILE; i++) {
+            assertEquals("<urn:uuid:record-" + i + ">", reader.read().getHeader().getRecordID());
+            assertEquals(paths[i / RECORDS_PER_FILE], reader.getCurrentPath());
+            assertEquals(i % RECORDS_PER_FILE + 1, reader.getRecordsRead());
+            assertTrue(reader.getProgress() >= progress);
+            progress = reader.getProgress();
+        }
+        try {
+            reader.read();
+            fail("expected EOFException");
+        } catch (EOFException e) {
+            // expected
+        }
+        assertEquals(1.0f, reader.getProgress(), 0.0f);
+        reader.close();
+    }
+
+    @Test
+    public void testCombineInputFormat() throws Exception {
+        Job job = Job.getInstance(new Configuration());
+        Path[] paths = writeFiles(job.getConfiguration());
+        FileInputFormat.addInputPath(job, paths[0].getParent());
+
+        CombineWARCInputFormat format = new CombineWARCInputFormat();
+        List<InputSplit> splits = format.getSplits(job);
+        assertEquals(1, splits.size());
+        assertEquals(NUM_FILES, ((CombineFileSplit) splits.get(0)).getNumPaths());
+
+        TaskAttemptContext context = new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+        RecordReader<LongWritable, WARCWritable> reader = format.createRecordReader(splits.get(0), context);
+        reader.initialize(splits.get(0), context);
+        int count = 0;
+        while (reader.nextKeyValue()) {
+            assertEquals(count % RECORDS_PER_FILE + 1, reader.getCurrentKey().get());
+            assertTrue(context.getConfiguration().get("mapreduce.map.input.file").contains("part-"));
+            count++;
+        }
+        reader.close();
+        assertEquals(NUM_FILES * RECORDS_PER_FILE, count);
+
+        // A small target size yields several splits
+        job.getConfiguration().setLong(CombineWARCInputFormat.SPLIT_SIZE_KEY, 1);
+        assertEquals(NUM_FILES, format.getSplits(job).size());
+    }
+}
@@ -0,0 +1,83 @@
+package com.martinkl.warc;
+
+import java.io.IOException;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompactWARCWritableTest {
+
+    private static WARCRecord makeRecord(String uri, String date, String extra) throws IOException {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("WARC/1.0\r\n");
+        buffer.append("WARC-Type: response\r\n");
+        if (uri != null) buffer.append("WARC-Target-URI: " + uri + "\r\n");
+        if (date != null) buffer.append("WARC-Date: " + date + "\r\n");
+        buffer.append("X-Custom-Field: " + extra + "\r\n");
+        buffer.append("Content-Length: 5\r\n");
+        buffer.append("\r\n");
+        buffer.append("hello\r\n\r\n");
+        return WARCFileWriterTest.parseRecord(buffer.toString());
+    }
+
+    private static byte[] serialize(WARCRecord record) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        new CompactWARCWritable(record).write(out);
+        byte[] bytes = new byte[out.getLength()];
+        System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        WARCRecord record = makeRecord("http://example.com/", "2014-03-18T17:47:38Z", "x\u00e9");
+        byte[] bytes = serialize(record);
+        DataOutputBuffer text = new DataOutputBuffer();
+        record.write(text);
+        assertTrue(bytes.length < text.getLength());
+
+        CompactWARCWritable writable = new CompactWARCWritable();
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+        writable.readFields(in);
+        assertEquals(record.toString(), writable.getRecord().toString());
+        assertEquals("hello", new String(writable.getRecord().getContent(), "UTF-8"));
+        assertEquals("x\u00e9", writable.getRecord().getHeader().getField("X-Custom-Field"));
+
+        // Read another record into the same writable
+        byte[] bytes2 = serialize(makeRecord(null, null, "y"));
+        in.reset(bytes2, bytes2.length);
+        writable.readFields(in);
+        assertNull(writable.getRecord().getHeader().getTargetURI());
+        assertEquals("y", writable.getRecord().getHeader().getField("X-Custom-Field"));
+        assertEquals(5, writable.getRecord().getHeader().getContentLength());
+    }
+
+    private static void assertOrder(RawComparator<?> comparator, WARCRecord a, WARCRecord b) throws IOException {
+        byte[] bytesA = serialize(a), bytesB = serialize(b);
+        assertTrue(comparator.compare(bytesA, 0, bytesA.length, bytesB, 0, bytesB.length) < 0);
+        assertTrue(comparator.compare(bytesB, 0, bytesB.length, bytesA, 0, bytesA.length) > 0);
+        assertEquals(0, comparator.compare(bytesA, 0, bytesA.length, bytesA, 0, bytesA.length));
+    }
+
+    @Test
+    public void testRawComparators() throws IOException {
+        WARCRecord early = makeRecord("http://b.com/", "2013-01-01T00:00:00Z", "1");
+        WARCRecord late = makeRecord("http://a.com/", "2014-01-01T00:00:00Z", "2");
+        WARCRecord noURI = makeRecord(null, "2015-01-01T00:00:00Z", "3");
+
+        RawComparator<?> byURI = WritableComparator.get(CompactWARCWritable.class);
+        assertTrue(byURI instanceof CompactWARCWritable.URIComparator);
+        assertOrder(byURI, late, early);
+        assertOrder(byURI, noURI, late);
+        assertOrder(byURI, makeRecord("http://a.com/", "2013", "x"), late);
+        assertTrue(new CompactWARCWritable(late).compareTo(new CompactWARCWritable(early)) < 0);
+
+        RawComparator<?> byDate = new CompactWARCWritable.DateComparator();
+        assertOrder(byDate, early, late);
+        assertOrder(byDate, late, noURI);
+    }
+}
@@ -0,0 +1,166 @@
+package com.martinkl.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HTTPMessageTest {
+    private static final String ENTITY = "<html><body>Hello, world!</body></html>";
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) out.write(part, 0, part.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(String str) throws IOException {
+        return str.getBytes("ISO-8859-1");
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(buf);
+        out.write(data);
+        out.close();
+        return buf.toByteArray();
+    }
+
+    private static byte[] chunked(byte[] data, int chunkSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < data.length; i += chunkSize) {
+            int n = Math.min(chunkSize, data.length - i);
+            out.write(ascii(Integer.toHexString(n) + ";ext=1\r\n"));
+            out.write(data, i, n);
+            out.write(ascii("\r\n"));
+        }
+        out.write(ascii("0\r\nX-Trailer: yes\r\n\r\n"));
+        return out.toByteArray();
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[100];
+        int n;
+        while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        return out.toString("UTF-8");
+    }
+
+    private static WARCRecord record(String type, byte[] body) throws IOException {
+        return new WARCRecordBuilder(type).contentType("application/http; msgtype=" + type).content(body).build();
+    }
+
+    @Test
+    public void testResponse() throws IOException {
+        byte[] head = ascii("HTTP/1.1 404 Not Found\r\nContent-Type: Text/HTML; charset=utf-8\r\n" +
+                            "Set-Cookie: a=1\r\nX-Folded: one\r\n  two\r\nnot a header\r\nset-cookie: b=2\r\n\r\n");
+        byte[] body = concat(head, ascii(ENTITY));
+        HTTPMessage message = new HTTPMessage(record("response", body));
+        assertTrue(message.isResponse());
+        assertEquals(404, message.getStatusCode());
+        assertEquals("Not Found", message.getReasonPhrase());
+        assertEquals("HTTP/1.1", message.getVersion());
+        assertNull(message.getMethod());
+        assertEquals("text/html", message.getMimeType());
+        assertEquals("one two", message.getHeader("x-folded"));
+        assertEquals(Arrays.asList("a=1", "b=2"), message.getHeaders("Set-Cookie"));
+        assertEquals(4, message.getHeaderNames().size());
+        assertEquals(head.length, message.getEntityOffset());
+
+        // The entity is a slice of the record's buffer
+        ByteBuffer entity = message.getEntityBuffer();
+        assertTrue(entity.isReadOnly());
+        assertEquals(ENTITY.length(), entity.remaining());
+        assertEquals('<', entity.get(0));
+        assertEquals(ENTITY, readString(message.getEntityStream()));
+        assertEquals(ENTITY, readString(message.getDecodedEntityStream()));
+
+        // Bare LF line endings, and a request
+        message = new HTTPMessage(record("request", ascii("GET /a?b=c HTTP/1.0\nHost: example.com\n\n")));
+        assertFalse(message.isResponse());
+        assertEquals(-1, message.getStatusCode());
+        assertEquals("GET", message.getMethod());
+        assertEquals("/a?b=c", message.getRequestURI());
+        assertEquals("HTTP/1.0", message.getVersion());
+        assertEquals("example.com", message.getHeader("Host"));
+        assertEquals(0, message.getEntityBuffer().remaining());
+
+        // Headers without an entity, as in revisit records
+        message = new HTTPMessage(record("revisit", ascii("HTTP/1.1 200 OK\r\nContent-Encoding: gzip\r\n")));
+        assertEquals(200, message.getStatusCode());
+        assertEquals("gzip", message.getHeader("Content-Encoding"));
+        assertEquals("", readString(message.getDecodedEntityStream()));
+    }
+
+    @Test
+    public void testDecoding() throws IOException {
+        byte[] entity = ascii(ENTITY);
+        byte[] head = ascii("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nContent-Encoding: gzip\r\n\r\n");
+        HTTPMessage message = new HTTPMessage(record("response", concat(head, chunked(gzip(entity), 7))));
+        assertEquals(ENTITY, readString(message.getDecodedEntityStream()));
+
+        // Deflate, both zlib-wrapped and raw; and a stream truncated in the middle of a chunk
+        for (boolean nowrap : new boolean[] { false, true }) {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DeflaterOutputStream out = new DeflaterOutputStream(buf, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap));
+            out.write(entity);
+            out.close();
+            head = ascii("HTTP/1.1 200 OK\r\nContent-Encoding: deflate\r\n\r\n");
+            message = new HTTPMessage(record("response", concat(head, buf.toByteArray())));
+            assertEquals(ENTITY, readString(message.getDecodedEntityStream()));
+        }
+        byte[] truncated = chunked(entity, 10);
+        truncated = Arrays.copyOf(truncated, 25);
+        head = ascii("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n");
+        message = new HTTPMessage(record("response", concat(head, truncated)));
+        assertTrue(ENTITY.startsWith(readString(message.getDecodedEntityStream())));
+
+        // Claimed but missing compression is passed through; unsupported encodings fail
+        head = ascii("HTTP/1.1 200 OK\r\nContent-Encoding: gzip\r\n\r\n");
+        message = new HTTPMessage(record("response", concat(head, entity)));
+        assertEquals(ENTITY, readString(message.getDecodedEntityStream()));
+        head = ascii("HTTP/1.1 200 OK\r\nContent-Encoding: br\r\n\r\n");
+        message = new HTTPMessage(record("response", concat(head, entity)));
+        try {
+            message.getDecodedEntityStream();
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(ENTITY, readString(message.getEntityStream()));
+    }
+
+    @Test
+    public void testStreamingBody() throws IOException {
+        // Headers longer than the first read, followed by a chunked entity
+        StringBuilder headers = new StringBuilder("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n");
+        for (int i = 0; i < 500; i++) headers.append("X-Header-").append(i).append(": value\r\n");
+        byte[] body = concat(ascii(headers.append("\r\n").toString()), chunked(ascii(ENTITY), 5));
+        WARCRecord record = new WARCRecordBuilder("response")
+                .content(new ByteArrayInputStream(body), body.length)
+                .build();
+        HTTPMessage message = new HTTPMessage(record);
+        assertEquals(200, message.getStatusCode());
+        assertEquals("value", message.getHeader("X-Header-499"));
+        try {
+            message.getEntityBuffer();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected: the body is not in memory
+        }
+        assertEquals(ENTITY, readString(message.getDecodedEntityStream()));
+        try {
+            message.getEntityStream();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected: the entity can only be read once
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.martinkl.warc;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SURTTest {
+
+    @Test
+    public void testCanonicalization() {
+        assertEquals("com,example)/", SURT.toSURT("http://example.com"));
+        assertEquals("com,example)/", SURT.toSURT("https://www.example.com/"));
+        assertEquals("com,example)/a?a=1&b=2", SURT.toSURT("http://www.Example.com:80/A?b=2&a=1#frag"));
+        assertEquals("com,example,foo:8080)/x", SURT.toSURT("http://user:pw@foo.example.com:8080/x"));
+        assertEquals("com,example)/", SURT.toSURT("http://www2.example.com."));
+        assertEquals("192.168.1.1)/index.html", SURT.toSURT("http://192.168.1.1/index.html"));
+        assertEquals("dns:example.com", SURT.toSURT("dns:Example.com"));
+    }
+
+    @Test
+    public void testIndexEntryRoundTrip() {
+        WARCIndexEntry entry = WARCIndexEntry.parse(
+                "com,example)/ 20140318174738 {\"url\": \"http://example.com/\", \"mime\": \"text/html; \\\"x\\\"\", " +
+                "\"offset\": 1234, \"length\": 56, \"type\": \"response\"}");
+        assertEquals("com,example)/", entry.getURLKey());
+        assertEquals("20140318174738", entry.getTimestamp());
+        assertEquals("text/html; \"x\"", entry.getMimeType());
+        assertEquals(1234, entry.getOffset());
+        assertEquals(56, entry.getLength());
+        assertNull(entry.getDigest());
+        assertEquals(entry.toString(), WARCIndexEntry.parse(entry.toString()).toString());
+        assertEquals("20140318174738", WARCIndexEntry.toTimestamp("2014-03-18T17:47:38Z"));
+    }
+}
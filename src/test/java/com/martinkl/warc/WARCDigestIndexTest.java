@@ -0,0 +1,92 @@
+package com.martinkl.warc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class WARCDigestIndexTest {
+    private static final String ABC_SHA1 = "sha1:VGMT4NSHA2AWVOR6EVYXQUGCNSONBWE5";
+    private static final String ABC_SHA1_HEX = "sha1:a9993e364706816aba3e25717850c26c9cd0d89d";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static String digest(int i) {
+        byte[] bytes = new byte[20];
+        for (int j = 0; j < 4; j++) bytes[j] = (byte) (i >>> (8 * j));
+        return WARCDigester.format("sha1", bytes); // digests that share their last 16 bytes
+    }
+
+    @Test
+    public void testPutAndGet() {
+        WARCDigestIndex index = new WARCDigestIndex(1000, 1024 * 1024);
+        assertNull(index.get(ABC_SHA1));
+        assertTrue(index.put(ABC_SHA1, "<urn:uuid:abc>", "http://example.com/", "2014-03-18T17:47:38Z"));
+        assertFalse(index.put(ABC_SHA1_HEX, "<urn:uuid:other>", null, null));
+        WARCDigestIndex.Entry entry = index.get(ABC_SHA1_HEX);
+        assertEquals("<urn:uuid:abc>", entry.getRecordID());
+        assertEquals("http://example.com/", entry.getTargetURI());
+        assertEquals("2014-03-18T17:47:38Z", entry.getDate());
+        assertNull(index.get("sha256:VGMT4NSHA2AWVOR6EVYXQUGCNSONBWE5"));
+        assertFalse(index.put("crc32:1234", null, null, null));
+
+        for (int i = 0; i < 999; i++) assertTrue(index.put(digest(i), null, "http://example.com/" + i, null));
+        assertEquals(1000, index.size());
+        for (int i = 0; i < 999; i++) assertEquals("http://example.com/" + i, index.get(digest(i)).getTargetURI());
+        assertNull(index.get(digest(999)));
+
+        // Once full, nothing more is added, but lookups still work
+        assertFalse(index.put(digest(999), null, null, null));
+        assertNull(index.get(digest(999)));
+        assertEquals("<urn:uuid:abc>", index.get(ABC_SHA1).getRecordID());
+
+        // The details are limited by bytes, too
+        index = new WARCDigestIndex(1000, 100);
+        assertTrue(index.put(digest(0), null, "http://example.com/0", null));
+        assertFalse(index.put(digest(1), null, "http://example.com/this/is/a/long/url/that/does/not/fit/any/more", null));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testLoadSeeds() throws IOException {
+        File cdx = tempFolder.newFile("seed.cdx.gz");
+        GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(cdx));
+        out.write((" CDX N b a m s k r M S V g\n" +
+                   "com,example)/ 20140318174738 http://example.com/ text/html 200 " +
+                   "VGMT4NSHA2AWVOR6EVYXQUGCNSONBWE5 - - 100 0 a.warc.gz\n" +
+                   "com,example)/ 20140318174739 http://example.com/ warc/revisit - " +
+                   "3I42H3S6NNFQ2MSVX7XZKYAYSCX5QBYJ - - 100 100 a.warc.gz\n").getBytes("UTF-8"));
+        out.close();
+        File cdxj = tempFolder.newFile("seed.cdxj");
+        FileOutputStream cdxjOut = new FileOutputStream(cdxj);
+        cdxjOut.write(("com,example)/x 20150101000000 {\"url\": \"http://example.com/x\", \"digest\": \"" + digest(1) +
+                       "\", \"id\": \"<urn:uuid:x>\", \"type\": \"response\"}\n" +
+                       "com,example)/y 20150101000000 {\"url\": \"http://example.com/y\", \"digest\": \"" + digest(2) +
+                       "\", \"type\": \"revisit\"}\n").getBytes("UTF-8"));
+        cdxjOut.close();
+
+        Configuration conf = new Configuration();
+        conf.set("warc.output.dedup.seed", cdx.toURI() + ", " + cdxj.toURI());
+        WARCDigestIndex index = WARCDigestIndex.create(conf);
+        assertEquals(2, index.size());
+        WARCDigestIndex.Entry entry = index.get(ABC_SHA1);
+        assertNull(entry.getRecordID());
+        assertEquals("http://example.com/", entry.getTargetURI());
+        assertEquals("2014-03-18T17:47:38Z", entry.getDate());
+        assertNull(index.get("sha1:3I42H3S6NNFQ2MSVX7XZKYAYSCX5QBYJ"));
+        assertEquals("<urn:uuid:x>", index.get(digest(1)).getRecordID());
+        assertEquals("2015-01-01T00:00:00Z", index.get(digest(1)).getDate());
+        assertNull(index.get(digest(2)));
+
+        // Loading the same file again adds nothing
+        assertEquals(0, index.load(FileSystem.getLocal(conf), new Path(cdxj.toURI())));
+    }
+}
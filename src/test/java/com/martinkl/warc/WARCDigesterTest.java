@@ -0,0 +1,190 @@
+package com.martinkl.warc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class WARCDigesterTest {
+    // SHA-1 of "" and of "abc"
+    private static final String EMPTY_SHA1 = "sha1:3I42H3S6NNFQ2MSVX7XZKYAYSCX5QBYJ";
+    private static final String ABC_SHA1 = "sha1:VGMT4NSHA2AWVOR6EVYXQUGCNSONBWE5";
+    private static final String ABC_SHA1_HEX = "sha1:a9993e364706816aba3e25717850c26c9cd0d89d";
+    private static final String HTTP_RESPONSE = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\nabc";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static String makeRecord(int i, String body, String extraHeaders) {
+        return "WARC/1.0\r\n" +
+               "WARC-Type: response\r\n" +
+               "WARC-Target-URI: http://example.com/" + i + "\r\n" +
+               "WARC-Date: 2014-03-18T17:47:38Z\r\n" +
+               "WARC-Record-ID: <urn:uuid:record-" + i + ">\r\n" +
+               "Content-Type: application/http; msgtype=response\r\n" +
+               extraHeaders +
+               "Content-Length: " + body.length() + "\r\n" +
+               "\r\n" + body + "\r\n\r\n";
+    }
+
+    @Test
+    public void testEncoding() throws IOException {
+        WARCDigester digester = new WARCDigester();
+        digester.start("sha1", "sha1", false);
+        byte[] abc = "abc".getBytes("UTF-8");
+        digester.update(abc, 0, 3);
+        assertEquals(ABC_SHA1, digester.getBlockDigest());
+        assertEquals(ABC_SHA1, digester.getPayloadDigest());
+
+        digester.start("sha1", "sha1", true);
+        byte[] response = HTTP_RESPONSE.getBytes("UTF-8");
+        for (int i = 0; i < response.length; i++) digester.update(response, i, 1);
+        assertEquals(ABC_SHA1, digester.getPayloadDigest());
+        assertFalse(ABC_SHA1.equals(digester.getBlockDigest()));
+
+        digester.start(null, "sha1", true);
+        digester.update(abc, 0, 3); // no blank line, so no payload
+        assertEquals(EMPTY_SHA1, digester.getPayloadDigest());
+
+        assertTrue(WARCDigester.matches(ABC_SHA1, ABC_SHA1));
+        assertTrue(WARCDigester.matches(ABC_SHA1_HEX, ABC_SHA1));
+        assertTrue(WARCDigester.matches(ABC_SHA1.toLowerCase(), ABC_SHA1));
+        assertTrue(WARCDigester.matches("SHA-1:" + ABC_SHA1.substring(5), ABC_SHA1));
+        assertFalse(WARCDigester.matches(EMPTY_SHA1, ABC_SHA1));
+        assertFalse(WARCDigester.matches("sha1:nonsense!", ABC_SHA1));
+        assertFalse(WARCDigester.matches("unknown:" + ABC_SHA1.substring(5), ABC_SHA1));
+
+        digester.start("sha256", null, false);
+        String sha256 = digester.getBlockDigest();
+        assertEquals("sha256:4OYMIQUY7QOBJGX36TEJS35ZEQT24QPEMSNZGTFESWMRW6CSXBKQ====", sha256);
+        assertTrue(WARCDigester.matches(
+                "sha256:e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", sha256));
+    }
+
+    @Test
+    public void testLineFeedOnlyHeaders() throws IOException {
+        // Headers may end with LF LF (or a mix of line endings), as HTTPMessage accepts
+        WARCDigester digester = new WARCDigester();
+        for (String response : new String[] { "HTTP/1.1 200 OK\nContent-Type: text/plain\n\nabc",
+                                              "HTTP/1.1 200 OK\r\nContent-Type: text/plain\n\r\nabc",
+                                              "HTTP/1.1 200 OK\nContent-Type: text/plain\r\n\nabc" }) {
+            byte[] bytes = response.getBytes("UTF-8");
+            digester.start(null, "sha1", true);
+            digester.update(bytes, 0, bytes.length);
+            assertEquals(response, ABC_SHA1, digester.getPayloadDigest());
+            digester.start(null, "sha1", true);
+            for (int i = 0; i < bytes.length; i++) digester.update(bytes, i, 1);
+            assertEquals(response, ABC_SHA1, digester.getPayloadDigest());
+        }
+
+        // A CR on its own doesn't end a line
+        byte[] bytes = "HTTP/1.1 200 OK\nX-A: b\r\rabc\n\nxyz".getBytes("UTF-8");
+        digester.start(null, "sha1", true);
+        digester.update(bytes, 0, bytes.length);
+        String payload = digester.getPayloadDigest();
+        digester.start(null, "sha1", false);
+        digester.update(bytes, bytes.length - 3, 3);
+        assertEquals(digester.getPayloadDigest(), payload);
+    }
+
+    private static class MismatchListener implements WARCDigestListener {
+        final List<String> mismatches = new ArrayList<String>();
+
+        @Override
+        public void digestMismatch(WARCRecord.Header header, String field, String expected, String computed) {
+            mismatches.add(header.getRecordID() + " " + field + " " + expected + " " + computed);
+        }
+    }
+
+    private static class HeaderListener implements WARCWriterListener {
+        final List<WARCRecord.Header> headers = new ArrayList<WARCRecord.Header>();
+
+        @Override
+        public void segmentOpened(Path path) {
+        }
+
+        @Override
+        public void recordWritten(WARCRecord.Header header, long offset, long length) {
+            headers.add(header);
+        }
+
+        @Override
+        public void segmentClosed(Path path) {
+        }
+    }
+
+    private static MismatchListener readAll(Configuration conf, Path path, int bytesToRead) throws IOException {
+        WARCFileReader reader = new WARCFileReader(conf, path);
+        MismatchListener listener = new MismatchListener();
+        reader.addDigestListener(listener);
+        try {
+            while (true) {
+                WARCRecord record = reader.read();
+                InputStream body = record.getContentStream();
+                for (int i = 0; i < bytesToRead; i++) body.read();
+            }
+        } catch (EOFException e) {
+            reader.close();
+        }
+        assertEquals(listener.mismatches.size(), reader.getMetrics().get(WARCCounter.DIGEST_MISMATCHES));
+        assertEquals(6, reader.getMetrics().get(WARCCounter.DIGESTS_VERIFIED) + listener.mismatches.size());
+        return listener;
+    }
+
+    private Path writeRecords(Configuration conf, CompressionCodec codec, HeaderListener headers,
+                              WARCRecord original) throws IOException {
+        Path prefix = new Path(tempFolder.newFolder().toURI().toString(), "output");
+        WARCFileWriter writer = new WARCFileWriter(conf, codec, prefix);
+        writer.addListener(headers);
+        writer.write(original);
+        writer.write(WARCFileWriterTest.parseRecord(makeRecord(1, "", "")));
+        // Existing digests are left alone, even if they are wrong
+        writer.write(WARCFileWriterTest.parseRecord(makeRecord(2, HTTP_RESPONSE,
+                "WARC-Block-Digest: " + EMPTY_SHA1 + "\r\nWARC-Payload-Digest: " + ABC_SHA1_HEX + "\r\n")));
+        Path segment = writer.getSegmentPath();
+        writer.close();
+        return segment;
+    }
+
+    @Test
+    public void testWriteAndVerify() throws IOException {
+        Configuration conf = new Configuration();
+        conf.set("warc.output.digest", "sha1");
+        HeaderListener headers = new HeaderListener();
+        WARCRecord original = WARCFileWriterTest.parseRecord(makeRecord(0, HTTP_RESPONSE, ""));
+        Path segment = writeRecords(conf, WARCFileWriter.getGzipCodec(conf), headers, original);
+
+        assertNull(original.getHeader().getField("WARC-Block-Digest"));
+        assertEquals(ABC_SHA1, headers.headers.get(0).getField("WARC-Payload-Digest"));
+        assertEquals(EMPTY_SHA1, headers.headers.get(1).getField("WARC-Block-Digest"));
+        assertEquals(EMPTY_SHA1, headers.headers.get(1).getField("WARC-Payload-Digest"));
+        assertEquals(EMPTY_SHA1, headers.headers.get(2).getField("WARC-Block-Digest"));
+
+        conf.setBoolean("warc.input.digest.verify", true);
+        for (String mode : new String[] { "memory", "warc.input.streaming", "warc.input.offheap" }) {
+            Configuration readConf = new Configuration(conf);
+            if (!mode.equals("memory")) readConf.setBoolean(mode, true);
+            // Streaming bodies are partly read, and the rest is skipped
+            MismatchListener listener = readAll(readConf, segment, 10);
+            assertEquals(mode, 1, listener.mismatches.size());
+            assertTrue(listener.mismatches.get(0).startsWith("<urn:uuid:record-2> WARC-Block-Digest " + EMPTY_SHA1));
+        }
+
+        // Bodies that are slices of a memory-mapped file are digested without being copied
+        Path uncompressed = writeRecords(conf, null, new HeaderListener(),
+                WARCFileWriterTest.parseRecord(makeRecord(0, HTTP_RESPONSE, "")));
+        conf.setBoolean("warc.input.mmap", true);
+        conf.setBoolean("warc.input.offheap", true);
+        MismatchListener listener = readAll(conf, uncompressed, 10);
+        assertEquals(1, listener.mismatches.size());
+        assertTrue(listener.mismatches.get(0).startsWith("<urn:uuid:record-2> WARC-Block-Digest " + EMPTY_SHA1));
+    }
+}
@@ -0,0 +1,417 @@
+package com.martinkl.warc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class WARCFileReaderTest {
+    private static final int NUM_RECORDS = 50;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    static String makeRecord(int i) {
+        StringBuffer content = new StringBuffer();
+        for (int j = 0; j < i * 7; j++) content.append("line ").append(j).append(" of record ").append(i).append("\r\n");
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("WARC/1.0\r\n");
+        buffer.append("WARC-Type: response\r\n");
+        buffer.append("WARC-Target-URI: http://example.com/page/" + i + "\r\n");
+        buffer.append("WARC-Date: 2014-03-18T17:47:38Z\r\n");
+        buffer.append("WARC-Record-ID: <urn:uuid:record-" + i + ">\r\n");
+        buffer.append("Content-Type: application/http; msgtype=response\r\n");
+        buffer.append("Content-Length: " + content.length() + "\r\n");
+        buffer.append("\r\n");
+        buffer.append(content);
+        buffer.append("\r\n\r\n");
+        return buffer.toString();
+    }
+
+    private Path writeGzipPerRecord() throws IOException {
+        File file = tempFolder.newFile("test.warc.gz");
+        FileOutputStream out = new FileOutputStream(file);
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            ByteArrayOutputStream member = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(member);
+            gzip.write(makeRecord(i).getBytes("UTF-8"));
+            gzip.close();
+            out.write(member.toByteArray());
+        }
+        out.close();
+        return new Path(file.toURI());
+    }
+
+    /**
+     * Returns record i, broken for some values of i: record 10 has a malformed header line,
+     * and record 30 has a Content-Length that is too small.
+     */
+    private static String makeBrokenRecord(int i) {
+        String record = makeRecord(i);
+        if (i == 10) return record.replace("WARC-Type: response", "WARC-Type response");
+        if (i == 30) {
+            int start = record.indexOf("Content-Length: ") + 16, end = record.indexOf("\r\n", start);
+            int length = Integer.parseInt(record.substring(start, end));
+            return record.substring(0, start) + (length - 5) + record.substring(end);
+        }
+        return record;
+    }
+
+    /** Like writeGzipPerRecord(), but with broken records, and an unsupported compression method in record 20. */
+    private Path writeBrokenGzipPerRecord() throws IOException {
+        File file = tempFolder.newFile("broken.warc.gz");
+        FileOutputStream out = new FileOutputStream(file);
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            ByteArrayOutputStream member = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(member);
+            gzip.write(makeBrokenRecord(i).getBytes("UTF-8"));
+            gzip.close();
+            byte[] bytes = member.toByteArray();
+            if (i == 20) bytes[2] = 9;
+            out.write(bytes);
+        }
+        out.close();
+        return new Path(file.toURI());
+    }
+
+    private List<String> readIDs(WARCFileReader reader) throws IOException {
+        List<String> ids = new ArrayList<String>();
+        try {
+            while (true) ids.add(reader.read().getHeader().getRecordID());
+        } catch (EOFException e) {
+            reader.close();
+        }
+        return ids;
+    }
+
+    @Test
+    public void testReadWholeFile() throws IOException {
+        Path path = writeGzipPerRecord();
+        List<String> ids = readIDs(new WARCFileReader(new Configuration(), path));
+        assertEquals(NUM_RECORDS, ids.size());
+        assertEquals("<urn:uuid:record-0>", ids.get(0));
+        assertEquals("<urn:uuid:record-49>", ids.get(NUM_RECORDS - 1));
+    }
+
+    @Test
+    public void testReadSplits() throws IOException {
+        Configuration conf = new Configuration();
+        Path path = writeGzipPerRecord();
+        long fileSize = path.getFileSystem(conf).getFileStatus(path).getLen();
+
+        for (long splitSize : new long[] { 17, 100, 333, 1000, 4096, fileSize - 1 }) {
+            List<String> ids = new ArrayList<String>();
+            for (long start = 0; start < fileSize; start += splitSize) {
+                long length = Math.min(splitSize, fileSize - start);
+                ids.addAll(readIDs(new WARCFileReader(conf, path, start, length)));
+            }
+            assertEquals("split size " + splitSize, NUM_RECORDS, ids.size());
+            for (int i = 0; i < NUM_RECORDS; i++) {
+                assertEquals("<urn:uuid:record-" + i + ">", ids.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testReadAhead() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setBoolean("warc.input.readahead", true);
+        conf.setInt("warc.input.readahead.buffer.size", 1024);
+        Path path = writeGzipPerRecord();
+        long fileSize = path.getFileSystem(conf).getFileStatus(path).getLen();
+
+        WARCFileReader reader = new WARCFileReader(conf, path);
+        List<String> ids = readIDs(reader);
+        assertEquals(NUM_RECORDS, ids.size());
+        assertEquals("<urn:uuid:record-49>", ids.get(NUM_RECORDS - 1));
+        assertEquals(fileSize, reader.getBytesRead());
+        assertEquals(1.0f, reader.getProgress(), 0.0f);
+
+        ids.clear();
+        for (long start = 0; start < fileSize; start += 1000) {
+            ids.addAll(readIDs(new WARCFileReader(conf, path, start, Math.min(1000, fileSize - start))));
+        }
+        assertEquals(NUM_RECORDS, ids.size());
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            assertEquals("<urn:uuid:record-" + i + ">", ids.get(i));
+        }
+    }
+
+    private static String readString(InputStream in, int maxBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[100];
+        int n;
+        while (out.size() < maxBytes && (n = in.read(buf, 0, Math.min(buf.length, maxBytes - out.size()))) > 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testStreaming() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setBoolean("warc.input.streaming", true);
+        WARCFileReader reader = new WARCFileReader(conf, writeGzipPerRecord());
+
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            WARCRecord record = reader.read();
+            String expected = makeRecord(i);
+            expected = expected.substring(expected.indexOf("\r\n\r\n") + 4, expected.length() - 4);
+            assertEquals(expected.length(), record.getHeader().getContentLength());
+
+            if (i % 3 == 0) {
+                assertEquals(expected, readString(record.getContentStream(), Integer.MAX_VALUE));
+            } else if (i % 3 == 1) {
+                // Read only part of the body; the rest is skipped by the next read()
+                String prefix = readString(record.getContentStream(), 10);
+                assertTrue(expected.startsWith(prefix));
+            }
+            try {
+                record.getContent();
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        try {
+            reader.read();
+            fail("Expected EOFException");
+        } catch (EOFException e) {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testFilter() throws IOException {
+        Configuration conf = new Configuration();
+        WARCRecordFilter.setURIPattern(conf, "/page/[0-9]*5$");
+        WARCRecordFilter.setRecordTypes(conf, "response", "request");
+        Path path = writeGzipPerRecord();
+        WARCFileReader reader = new WARCFileReader(conf, path);
+        List<String> ids = readIDs(reader);
+        assertEquals(5, ids.size());
+        assertEquals("<urn:uuid:record-5>", ids.get(0));
+        assertEquals("<urn:uuid:record-45>", ids.get(4));
+        assertEquals(NUM_RECORDS - 5, reader.getRecordsSkipped());
+
+        WARCRecordFilter.setRecordTypes(conf, "warcinfo");
+        assertEquals(0, readIDs(new WARCFileReader(conf, path)).size());
+    }
+
+    @Test
+    public void testHeadersOnly() throws IOException {
+        Configuration conf = new Configuration();
+        WARCRecordFilter.setHeadersOnly(conf, true);
+        WARCFileReader reader = new WARCFileReader(conf, writeGzipPerRecord());
+        WARCRecord record = reader.read();
+        assertFalse(record.hasContent());
+        assertEquals("<urn:uuid:record-0>", record.getHeader().getRecordID());
+        assertEquals("<urn:uuid:record-1>", reader.read().getHeader().getRecordID());
+        reader.close();
+    }
+
+    @Test
+    public void testReuseRecords() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setBoolean("warc.input.reuse.records", true);
+        WARCFileReader reader = new WARCFileReader(conf, writeGzipPerRecord());
+
+        WARCRecord first = reader.read();
+        WARCRecord copy = first.copy();
+        for (int i = 1; i < NUM_RECORDS; i++) {
+            WARCRecord record = reader.read();
+            assertSame(first, record);
+            assertEquals("<urn:uuid:record-" + i + ">", record.getHeader().getRecordID());
+            String expected = makeRecord(i);
+            expected = expected.substring(expected.indexOf("\r\n\r\n") + 4, expected.length() - 4);
+            assertEquals(expected, new String(record.getContent(), "UTF-8"));
+            assertEquals(expected.length(), record.getContentBuffer().remaining());
+        }
+        reader.close();
+
+        assertEquals("<urn:uuid:record-0>", copy.getHeader().getRecordID());
+        assertEquals("http://example.com/page/0", copy.getHeader().getTargetURI());
+        assertEquals(0, copy.getContent().length);
+    }
+
+    @Test
+    public void testOffHeapBodies() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setBoolean("warc.input.offheap", true);
+        DirectBufferPool pool = DirectBufferPool.getShared(conf);
+        Path path = writeGzipPerRecord();
+        WARCFileReader reader = new WARCFileReader(conf, path);
+
+        WARCRecord previous = null;
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            WARCRecord record = reader.read();
+            if (i > 1) { // record 0 has an empty body, which is kept on the heap
+                try {
+                    previous.getContentBuffer();
+                    fail("expected IllegalStateException");
+                } catch (IllegalStateException e) {
+                    // expected: the buffer went back to the pool
+                }
+            }
+            String expected = makeRecord(i);
+            expected = expected.substring(expected.indexOf("\r\n\r\n") + 4, expected.length() - 4);
+            assertEquals(expected.length(), record.getContentBuffer().remaining());
+            assertTrue(i == 0 || record.getContentBuffer().isDirect());
+            assertEquals(expected, readString(record.getContentStream(), Integer.MAX_VALUE));
+            if (i == 3) assertEquals(expected, new String(record.copy().getContent(), "UTF-8"));
+            previous = record;
+        }
+        reader.close();
+        assertTrue(pool.getHits() > 0);
+        assertTrue(pool.getMisses() > 0);
+
+        // Explicit release returns the buffer straight away
+        reader = new WARCFileReader(conf, path);
+        reader.read();
+        WARCRecord record = reader.read();
+        long pooled = pool.getPooledBytes(), hits = pool.getHits();
+        record.release();
+        assertTrue(pool.getPooledBytes() > pooled);
+        reader.read();
+        assertEquals(hits + 1, pool.getHits());
+        reader.close();
+    }
+
+    @Test
+    public void testMemoryMapped() throws IOException {
+        File file = tempFolder.newFile("test.warc");
+        FileOutputStream out = new FileOutputStream(file);
+        for (int i = 0; i < NUM_RECORDS; i++) out.write(makeRecord(i).getBytes("UTF-8"));
+        out.close();
+        Path path = new Path(file.toURI());
+
+        Configuration conf = new Configuration();
+        conf.setBoolean("warc.input.mmap", true);
+        assertEquals(NUM_RECORDS, readIDs(new WARCFileReader(conf, path)).size());
+
+        // Off-heap bodies are slices of the mapping
+        conf.setBoolean("warc.input.offheap", true);
+        WARCFileReader reader = new WARCFileReader(conf, path);
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            WARCRecord record = reader.read();
+            String expected = makeRecord(i);
+            expected = expected.substring(expected.indexOf("\r\n\r\n") + 4, expected.length() - 4);
+            assertEquals("<urn:uuid:record-" + i + ">", record.getHeader().getRecordID());
+            assertEquals(expected, readString(record.getContentStream(), Integer.MAX_VALUE));
+            if (i > 0) assertTrue(record.getContentBuffer().isDirect());
+        }
+        assertEquals(file.length(), reader.getBytesRead());
+        reader.close();
+    }
+
+    @Test
+    public void testBufferPoolSizeClasses() {
+        DirectBufferPool pool = new DirectBufferPool(16384);
+        java.nio.ByteBuffer a = pool.acquire(5000);
+        assertEquals(8192, a.capacity());
+        assertEquals(5000, a.remaining());
+        pool.release(a);
+        assertEquals(8192, pool.getPooledBytes());
+        assertSame(a, pool.acquire(8000));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(4096, pool.acquire(1).capacity());
+
+        // Buffers beyond the pool size are not retained
+        pool.release(pool.acquire(16384));
+        pool.release(a);
+        assertEquals(16384, pool.getPooledBytes());
+    }
+
+    private static void assertAllExcept(List<String> ids, int... missing) {
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            if (Arrays.binarySearch(missing, i) < 0) expected.add("<urn:uuid:record-" + i + ">");
+        }
+        assertEquals(expected, ids);
+    }
+
+    @Test
+    public void testLenientGzip() throws IOException {
+        Configuration conf = new Configuration();
+        Path path = writeBrokenGzipPerRecord();
+        WARCFileReader reader = new WARCFileReader(conf, path);
+        for (int i = 0; i < 10; i++) reader.read();
+        try {
+            reader.read();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals(1, reader.getRecordsMalformed());
+            reader.close();
+        }
+
+        conf.setBoolean("warc.input.lenient", true);
+        reader = new WARCFileReader(conf, path);
+        assertAllExcept(readIDs(reader), 10, 20, 30);
+        assertEquals(3, reader.getRecordsMalformed());
+        assertEquals(3, reader.getMetrics().get(WARCCounter.RECORDS_MALFORMED));
+        assertTrue(reader.getMetrics().get(WARCCounter.MALFORMED_BYTES_SKIPPED) > 0);
+
+        // Splits resynchronise within their own byte range
+        long fileSize = path.getFileSystem(conf).getFileStatus(path).getLen();
+        List<String> ids = new ArrayList<String>();
+        for (long start = 0; start < fileSize; start += 1000) {
+            ids.addAll(readIDs(new WARCFileReader(conf, path, start, Math.min(1000, fileSize - start))));
+        }
+        assertAllExcept(ids, 10, 20, 30);
+
+        // With read-ahead, the stream can't be repositioned, so only parse errors are survivable
+        conf.setBoolean("warc.input.readahead", true);
+        reader = new WARCFileReader(conf, path);
+        try {
+            readIDs(reader);
+            fail("Expected ZipException");
+        } catch (ZipException e) {
+            assertEquals(2, reader.getRecordsMalformed());
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testLenientUncompressed() throws IOException {
+        File file = tempFolder.newFile("broken.warc");
+        FileOutputStream out = new FileOutputStream(file);
+        for (int i = 0; i < NUM_RECORDS; i++) out.write(makeBrokenRecord(i).getBytes("UTF-8"));
+        out.close();
+        Path path = new Path(file.toURI());
+
+        Configuration conf = new Configuration();
+        conf.setBoolean("warc.input.lenient", true);
+        WARCFileReader reader = new WARCFileReader(conf, path);
+        assertAllExcept(readIDs(reader), 10, 30);
+        assertEquals(2, reader.getRecordsMalformed());
+
+        // When streaming, record 30 is returned before its body is found to be too long
+        conf.setBoolean("warc.input.streaming", true);
+        assertAllExcept(readIDs(new WARCFileReader(conf, path)), 10);
+
+        // Exceeding the error budget
+        conf.setInt("warc.input.lenient.max.errors", 1);
+        reader = new WARCFileReader(conf, path);
+        try {
+            readIDs(reader);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals(2, reader.getRecordsMalformed());
+            reader.close();
+        }
+    }
+}
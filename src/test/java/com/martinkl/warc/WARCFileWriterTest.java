@@ -0,0 +1,545 @@
+package com.martinkl.warc;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class WARCFileWriterTest {
+    private static final int NUM_RECORDS = 50;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    static WARCRecord parseRecord(String record) throws IOException {
+        return new WARCRecord(new DataInputStream(new ByteArrayInputStream(record.getBytes("UTF-8"))));
+    }
+
+    private static class OffsetListener implements WARCWriterListener {
+        final List<Path> segments = new ArrayList<Path>();
+        final List<Path> recordSegments = new ArrayList<Path>();
+        final List<Long> offsets = new ArrayList<Long>(), lengths = new ArrayList<Long>();
+        int segmentsClosed = 0;
+
+        @Override
+        public void segmentOpened(Path path) {
+            segments.add(path);
+        }
+
+        @Override
+        public void recordWritten(WARCRecord.Header header, long offset, long length) {
+            recordSegments.add(segments.get(segments.size() - 1));
+            offsets.add(offset);
+            lengths.add(length);
+        }
+
+        @Override
+        public void segmentClosed(Path path) {
+            segmentsClosed++;
+        }
+    }
+
+    public static class SummingMetricsListener implements WARCMetricsListener {
+        static final Map<WARCCounter, Long> counters = new HashMap<WARCCounter, Long>();
+        static final Map<String, Long> types = new HashMap<String, Long>();
+
+        @Override
+        public void counterUpdated(WARCCounter counter, long delta) {
+            Long value = counters.get(counter);
+            counters.put(counter, (value == null ? 0 : value) + delta);
+        }
+
+        @Override
+        public void recordTypeCounted(String recordType, long delta) {
+            Long value = types.get(recordType);
+            types.put(recordType, (value == null ? 0 : value) + delta);
+        }
+    }
+
+    private OffsetListener writeRecords(Configuration conf, Path prefix) throws IOException {
+        WARCFileWriter writer = new WARCFileWriter(conf, WARCFileWriter.getGzipCodec(conf), prefix);
+        OffsetListener listener = new OffsetListener();
+        writer.addListener(listener);
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            writer.write(parseRecord(WARCFileReaderTest.makeRecord(i)));
+        }
+        writer.close();
+        return listener;
+    }
+
+    @Test
+    public void testGzipMemberPerRecord() throws IOException {
+        Configuration conf = new Configuration();
+        Path prefix = new Path(tempFolder.getRoot().toURI().toString(), "output");
+        OffsetListener listener = writeRecords(conf, prefix);
+        assertEquals(1, listener.segments.size());
+        assertEquals(1, listener.segmentsClosed);
+        assertEquals(NUM_RECORDS, listener.offsets.size());
+
+        Path segment = listener.segments.get(0);
+        assertTrue(segment.getName().endsWith(".seg-00000.attempt-00000.warc.gz"));
+        long fileSize = segment.getFileSystem(conf).getFileStatus(segment).getLen();
+        assertEquals(0L, (long) listener.offsets.get(0));
+        assertEquals(fileSize, listener.offsets.get(NUM_RECORDS - 1) + listener.lengths.get(NUM_RECORDS - 1));
+
+        // Each record can be read starting at its offset
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            WARCFileReader reader = new WARCFileReader(conf, segment, listener.offsets.get(i), 1);
+            assertEquals("<urn:uuid:record-" + i + ">", reader.read().getHeader().getRecordID());
+            try {
+                reader.read();
+                fail("Expected EOFException");
+            } catch (EOFException e) {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSegmentRolling() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setLong("warc.output.segment.size", 4000);
+        Path prefix = new Path(tempFolder.getRoot().toURI().toString(), "output");
+        OffsetListener listener = writeRecords(conf, prefix);
+        assertTrue(listener.segments.size() > 1);
+        assertEquals(listener.segments.size(), listener.segmentsClosed);
+
+        FileSystem fs = prefix.getFileSystem(conf);
+        int recordsRead = 0;
+        for (Path segment : listener.segments) {
+            FileStatus status = fs.getFileStatus(segment);
+            WARCFileReader reader = new WARCFileReader(conf, segment);
+            try {
+                while (true) {
+                    WARCRecord record = reader.read();
+                    assertEquals("<urn:uuid:record-" + recordsRead + ">", record.getHeader().getRecordID());
+                    assertEquals(segment, listener.recordSegments.get(recordsRead));
+                    recordsRead++;
+                }
+            } catch (EOFException e) {
+                reader.close();
+            }
+            assertTrue(status.getLen() > 0);
+        }
+        assertEquals(NUM_RECORDS, recordsRead);
+    }
+
+    @Test
+    public void testParallelCompression() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setLong("warc.output.segment.size", 4000);
+        OffsetListener sequential = writeRecords(conf, new Path(tempFolder.newFolder().toURI().toString(), "out"));
+
+        conf.setInt("warc.output.compression.threads", 4);
+        conf.setLong("warc.output.compression.buffer.size", 3000);
+        OffsetListener parallel = writeRecords(conf, new Path(tempFolder.newFolder().toURI().toString(), "out"));
+
+        // Deflate is deterministic, so the output should be identical
+        assertEquals(sequential.segments.size(), parallel.segments.size());
+        assertEquals(sequential.offsets, parallel.offsets);
+        assertEquals(sequential.lengths, parallel.lengths);
+        FileSystem fs = FileSystem.getLocal(conf);
+        for (int i = 0; i < sequential.segments.size(); i++) {
+            assertEquals(fs.getFileStatus(sequential.segments.get(i)).getLen(),
+                         fs.getFileStatus(parallel.segments.get(i)).getLen());
+            assertEquals(sequential.segments.get(i).getName(), parallel.segments.get(i).getName());
+        }
+    }
+
+    @Test
+    public void testIndexSidecar() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setLong("warc.output.segment.size", 4000);
+        WARCIndexWriter.setIndexEnabled(conf, true);
+        OffsetListener listener = writeRecords(conf, new Path(tempFolder.getRoot().toURI().toString(), "output"));
+
+        FileSystem fs = FileSystem.getLocal(conf);
+        int entries = 0;
+        String previous = "";
+        for (Path segment : listener.segments) {
+            Path indexPath = WARCIndexWriter.getIndexPath(segment);
+            assertTrue(indexPath.getName().endsWith(".warc.gz.cdxj"));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(indexPath), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                WARCIndexEntry entry = WARCIndexEntry.parse(line);
+                int i = Integer.parseInt(entry.getURL().substring(entry.getURL().lastIndexOf('/') + 1));
+                assertEquals("com,example)/page/" + i, entry.getURLKey());
+                assertEquals("20140318174738", entry.getTimestamp());
+                assertEquals(segment.getName(), entry.getFilename());
+                assertEquals((long) listener.offsets.get(i), entry.getOffset());
+                assertEquals((long) listener.lengths.get(i), entry.getLength());
+                assertTrue(line.compareTo(previous) > 0);
+                previous = line;
+                entries++;
+            }
+            reader.close();
+            previous = "";
+        }
+        assertEquals(NUM_RECORDS, entries);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int n;
+        while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testContinuationRecords() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setLong("warc.output.segment.size", 8000);
+        conf.setBoolean("warc.output.continuation", true);
+        conf.setLong("warc.output.continuation.min.size", 2000);
+        byte[] body = new byte[30000];
+        new Random(42).nextBytes(body); // incompressible
+        WARCFileWriter writer = new WARCFileWriter(conf, WARCFileWriter.getGzipCodec(conf),
+                new Path(tempFolder.getRoot().toURI().toString(), "output"));
+        OffsetListener listener = new OffsetListener();
+        writer.addListener(listener);
+        writer.write(parseRecord(WARCFileReaderTest.makeRecord(3)));
+        writer.write(new WARCRecordBuilder("resource").recordID("<urn:uuid:big>")
+                .targetURI("http://example.com/big").content(new ByteArrayInputStream(body), body.length).build());
+        writer.write(parseRecord(WARCFileReaderTest.makeRecord(4)));
+        writer.close();
+        assertEquals(1, writer.getMetrics().get(WARCCounter.RECORDS_SPLIT));
+
+        // Without splitting, one segment would hold the whole body
+        int n = listener.segments.size();
+        assertTrue(n >= 4);
+        FileSystem fs = FileSystem.getLocal(conf);
+        long[] starts = new long[n], lengths = new long[n];
+        for (int i = 0; i < n; i++) {
+            lengths[i] = fs.getFileStatus(listener.segments.get(i)).getLen();
+            assertTrue("segment " + i + " is " + lengths[i] + " bytes", lengths[i] < 9000);
+        }
+        Path[] paths = listener.segments.toArray(new Path[n]);
+
+        // The parts, as they are written
+        List<WARCRecord.Header> headers = new ArrayList<WARCRecord.Header>();
+        CombinedWARCFileReader reader = new CombinedWARCFileReader(conf, paths, starts, lengths);
+        try {
+            while (true) headers.add(reader.read().getHeader());
+        } catch (EOFException e) {
+            reader.close();
+        }
+        WARCRecord.Header first = headers.get(1), last = headers.get(headers.size() - 2);
+        assertEquals("resource", first.getRecordType());
+        assertEquals("1", first.getField("WARC-Segment-Number"));
+        assertNull(first.getField("WARC-Segment-Total-Length"));
+        assertEquals("continuation", last.getRecordType());
+        assertEquals("<urn:uuid:big>", last.getField("WARC-Segment-Origin-ID"));
+        assertEquals(Integer.toString(headers.size() - 2), last.getField("WARC-Segment-Number"));
+        assertEquals("30000", last.getField("WARC-Segment-Total-Length"));
+        assertEquals("http://example.com/big", last.getTargetURI());
+        assertEquals("<urn:uuid:record-4>", headers.get(headers.size() - 1).getRecordID());
+
+        // Reassembled while streaming
+        conf.setBoolean("warc.input.continuation.reassemble", true);
+        conf.setBoolean("warc.input.streaming", true);
+        reader = new CombinedWARCFileReader(conf, paths, starts, lengths);
+        assertEquals("<urn:uuid:record-3>", reader.read().getHeader().getRecordID());
+        WARCRecord big = reader.read();
+        assertEquals("<urn:uuid:big>", big.getHeader().getRecordID());
+        assertNull(big.getHeader().getField("WARC-Segment-Number"));
+        assertTrue(Arrays.equals(body, readFully(big.getContentStream())));
+        assertEquals(body.length, big.getHeader().getContentLength());
+        assertEquals("<urn:uuid:record-4>", reader.read().getHeader().getRecordID());
+        assertEquals(1, reader.getMetrics().get(WARCCounter.RECORDS_REASSEMBLED));
+        reader.close();
+
+        // An unread body is skipped, segments and all
+        conf.setBoolean("warc.input.streaming", false);
+        reader = new CombinedWARCFileReader(conf, paths, starts, lengths);
+        reader.read();
+        big = reader.read();
+        assertEquals(1000, big.getContentStream().read(new byte[1000]));
+        assertEquals("<urn:uuid:record-4>", reader.read().getHeader().getRecordID());
+        reader.close();
+
+        // Segments out of order: every part is returned unmerged
+        Path[] reversed = new Path[n];
+        for (int i = 0; i < n; i++) reversed[i] = paths[n - 1 - i];
+        reader = new CombinedWARCFileReader(conf, reversed, starts, lengths);
+        long bodyBytes = 0;
+        int records = 0;
+        try {
+            while (true) {
+                WARCRecord record = reader.read();
+                records++;
+                if ("<urn:uuid:big>".equals(record.getHeader().getRecordID())) {
+                    int length = readFully(record.getContentStream()).length;
+                    assertEquals("1", record.getHeader().getField("WARC-Segment-Number"));
+                    assertEquals(length, record.getHeader().getContentLength());
+                    bodyBytes += length;
+                } else if ("continuation".equals(record.getHeader().getRecordType())) {
+                    bodyBytes += record.getHeader().getContentLength();
+                }
+            }
+        } catch (EOFException e) {
+            reader.close();
+        }
+        assertEquals(headers.size(), records);
+        assertEquals(body.length, bodyBytes);
+        assertEquals(0, reader.getMetrics().get(WARCCounter.RECORDS_REASSEMBLED));
+        assertEquals(headers.size() - 2, reader.getMetrics().get(WARCCounter.RECORDS_NOT_REASSEMBLED));
+
+        // Segments split across two readers: each merges what it can, and no bytes are lost
+        bodyBytes = 0;
+        long notReassembled = 0;
+        for (int[] range : new int[][] { { 0, n / 2 }, { n / 2, n } }) {
+            reader = new CombinedWARCFileReader(conf, Arrays.copyOfRange(paths, range[0], range[1]),
+                    Arrays.copyOfRange(starts, range[0], range[1]), Arrays.copyOfRange(lengths, range[0], range[1]));
+            try {
+                while (true) {
+                    WARCRecord record = reader.read();
+                    if ("<urn:uuid:big>".equals(record.getHeader().getRecordID()) ||
+                            "continuation".equals(record.getHeader().getRecordType())) {
+                        bodyBytes += readFully(record.getContentStream()).length;
+                    }
+                }
+            } catch (EOFException e) {
+                reader.close();
+            }
+            assertEquals(0, reader.getMetrics().get(WARCCounter.RECORDS_REASSEMBLED));
+            notReassembled += reader.getMetrics().get(WARCCounter.RECORDS_NOT_REASSEMBLED);
+        }
+        assertEquals(body.length, bodyBytes);
+        assertTrue(notReassembled >= 2);
+    }
+
+    @Test
+    public void testContinuationRecordsCompressed() throws IOException {
+        // Repetitive text compresses so well that it fits into a segment, and is not split
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 3000000; i++) text.append("line ").append(i % 100).append(" of a repetitive body\n");
+        byte[] repetitive = text.toString().getBytes("UTF-8");
+        // Text from a 16-letter alphabet compresses to about half its size, and needs several segments
+        byte[] body = new byte[600000];
+        Random random = new Random(42);
+        for (int i = 0; i < body.length; i++) body[i] = (byte) ('a' + random.nextInt(16));
+
+        for (String format : new String[] { "gzip", "zstd" }) {
+            Configuration conf = new Configuration();
+            conf.set("warc.output.compression.format", format);
+            conf.setLong("warc.output.segment.size", 100000);
+            conf.setBoolean("warc.output.continuation", true);
+            conf.setLong("warc.output.continuation.min.size", 2000);
+            WARCFileWriter writer = new WARCFileWriter(conf, WARCFileWriter.getGzipCodec(conf),
+                    new Path(tempFolder.newFolder().toURI().toString(), "output"));
+            OffsetListener listener = new OffsetListener();
+            writer.addListener(listener);
+            writer.write(parseRecord(WARCFileReaderTest.makeRecord(3)));
+            writer.write(new WARCRecordBuilder("resource").recordID("<urn:uuid:repetitive>")
+                    .content(new ByteArrayInputStream(repetitive), repetitive.length).build());
+            assertEquals(0, writer.getMetrics().get(WARCCounter.RECORDS_SPLIT));
+            assertEquals(1, listener.segments.size());
+            // One body can be read again, the other has to be spooled
+            WARCRecordBuilder big = new WARCRecordBuilder("resource").recordID("<urn:uuid:big>");
+            writer.write((format.equals("gzip") ? big.content(new ByteArrayInputStream(body), body.length) : big.content(body)).build());
+            writer.write(parseRecord(WARCFileReaderTest.makeRecord(4)));
+            writer.close();
+            assertEquals(1, writer.getMetrics().get(WARCCounter.RECORDS_SPLIT));
+
+            // Each part fills a segment, and there is never more than one part in a segment
+            int n = listener.segments.size();
+            assertTrue(n >= 3);
+            FileSystem fs = FileSystem.getLocal(conf);
+            long[] starts = new long[n], lengths = new long[n];
+            for (int i = 0; i < n; i++) {
+                lengths[i] = fs.getFileStatus(listener.segments.get(i)).getLen();
+                assertTrue(format + " segment " + i + " is " + lengths[i] + " bytes", lengths[i] <= 100000);
+                if (i < n - 1) assertTrue(format + " segment " + i + " is " + lengths[i] + " bytes", lengths[i] > 90000);
+            }
+            List<Path> partSegments = listener.recordSegments.subList(2, listener.recordSegments.size() - 1);
+            assertEquals(partSegments.size(), new HashSet<Path>(partSegments).size());
+
+            conf.setBoolean("warc.input.continuation.reassemble", true);
+            CombinedWARCFileReader reader = new CombinedWARCFileReader(conf, listener.segments.toArray(new Path[n]), starts, lengths);
+            reader.read();
+            assertTrue(Arrays.equals(repetitive, reader.read().getContent()));
+            assertTrue(Arrays.equals(body, readFully(reader.read().getContentStream())));
+            assertEquals("<urn:uuid:record-4>", reader.read().getHeader().getRecordID());
+            reader.close();
+        }
+    }
+
+    private static WARCRecord response(String uri, long date, String body) throws IOException {
+        return response(uri, date, "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\n", body);
+    }
+
+    private static WARCRecord response(String uri, long date, String httpHeaders, String body) throws IOException {
+        return new WARCRecordBuilder("response")
+                .targetURI(uri)
+                .date(date)
+                .contentType("application/http; msgtype=response")
+                .content((httpHeaders + body).getBytes("UTF-8"))
+                .build();
+    }
+
+    @Test
+    public void testDeduplication() throws IOException {
+        // The seed says "abc" was already archived at http://example.com/old
+        File seed = tempFolder.newFile("seed.cdx");
+        FileOutputStream out = new FileOutputStream(seed);
+        out.write((" CDX N b a m s k r M S V g\n" +
+                   "com,example)/old 20140101000000 http://example.com/old text/plain 200 " +
+                   "VGMT4NSHA2AWVOR6EVYXQUGCNSONBWE5 - - 100 0 old.warc.gz\n").getBytes("UTF-8"));
+        out.close();
+
+        Configuration conf = new Configuration();
+        conf.set("warc.output.digest", "sha1");
+        conf.setBoolean("warc.output.dedup", true);
+        conf.set("warc.output.dedup.seed", seed.toURI().toString());
+        Path prefix = new Path(tempFolder.newFolder().toURI().toString(), "output");
+        WARCFileWriter writer = new WARCFileWriter(conf, WARCFileWriter.getGzipCodec(conf), prefix);
+        WARCRecord first = response("http://example.com/a", 1395164858000L, "hello world");
+        writer.write(first);
+        writer.write(response("http://example.com/b", 1395164859000L, "hello world"));
+        writer.write(response("http://example.com/c", 1395164860000L, "abc"));
+        writer.write(response("http://example.com/d", 1395164861000L, "different"));
+        // HTTP headers that end in LF LF rather than CRLF CRLF
+        char[] payload = new char[5000];
+        Arrays.fill(payload, 'x');
+        String lfHeaders = "HTTP/1.0 200 OK\nContent-Type: text/plain\n\n";
+        writer.write(response("http://example.com/e", 1395164862000L, lfHeaders, new String(payload)));
+        writer.write(response("http://example.com/f", 1395164863000L, lfHeaders, new String(payload)));
+        assertEquals(3, writer.getMetrics().get(WARCCounter.RECORDS_DEDUPLICATED));
+        assertEquals(Long.valueOf(3), writer.getMetrics().getRecordTypeCounts().get("revisit"));
+        Path segment = writer.getSegmentPath();
+        writer.close();
+
+        WARCFileReader reader = new WARCFileReader(conf, segment);
+        assertEquals("response", reader.read().getHeader().getRecordType());
+        WARCRecord revisit = reader.read();
+        WARCRecord.Header header = revisit.getHeader();
+        assertEquals("revisit", header.getRecordType());
+        assertEquals("http://example.com/b", header.getTargetURI());
+        assertEquals("http://netpreserve.org/warc/1.0/revisit/identical-payload-digest", header.getField("WARC-Profile"));
+        assertEquals(first.getHeader().getRecordID(), header.getField("WARC-Refers-To"));
+        assertEquals("http://example.com/a", header.getField("WARC-Refers-To-Target-URI"));
+        assertEquals("2014-03-18T17:47:38Z", header.getField("WARC-Refers-To-Date"));
+        assertNotNull(header.getField("WARC-Payload-Digest"));
+        assertTrue(header.getField("WARC-Block-Digest").startsWith("sha1:"));
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\n", new String(revisit.getContent(), "UTF-8"));
+
+        // The seed entry has no record ID, so there is no WARC-Refers-To
+        header = reader.read().getHeader();
+        assertEquals("revisit", header.getRecordType());
+        assertNull(header.getField("WARC-Refers-To"));
+        assertEquals("http://example.com/old", header.getField("WARC-Refers-To-Target-URI"));
+        assertEquals("2014-01-01T00:00:00Z", header.getField("WARC-Refers-To-Date"));
+        assertEquals("response", reader.read().getHeader().getRecordType());
+        assertEquals("response", reader.read().getHeader().getRecordType());
+        revisit = reader.read();
+        assertEquals("http://example.com/f", revisit.getHeader().getTargetURI());
+        assertEquals(lfHeaders, new String(revisit.getContent(), "UTF-8"));
+        reader.close();
+    }
+
+    @Test
+    public void testDeduplicationLineFeedOnly() throws IOException {
+        Configuration conf = new Configuration();
+        conf.set("warc.output.digest", "sha1");
+        conf.setBoolean("warc.output.dedup", true);
+        Path prefix = new Path(tempFolder.newFolder().toURI().toString(), "output");
+        WARCFileWriter writer = new WARCFileWriter(conf, WARCFileWriter.getGzipCodec(conf), prefix);
+        String lfHeaders = "HTTP/1.1 200 OK\nContent-Type: text/html\n\n";
+        writer.write(response("http://example.com/a", 1395164858000L, lfHeaders, "<p>first page</p>"));
+        writer.write(response("http://example.com/b", 1395164859000L, lfHeaders, "<p>second page</p>"));
+        // Empty payloads, and headers that never end, are not copies of each other
+        writer.write(response("http://example.com/c", 1395164860000L, lfHeaders, ""));
+        writer.write(response("http://example.com/d", 1395164861000L, lfHeaders, ""));
+        writer.write(response("http://example.com/e", 1395164862000L, "HTTP/1.1 200 OK\nX-A: b\n", ""));
+        writer.write(response("http://example.com/f", 1395164863000L, "HTTP/1.1 200 OK\nX-A: c\n", ""));
+        assertEquals(0, writer.getMetrics().get(WARCCounter.RECORDS_DEDUPLICATED));
+        Path segment = writer.getSegmentPath();
+        writer.close();
+
+        WARCFileReader reader = new WARCFileReader(conf, segment);
+        Set<String> digests = new HashSet<String>();
+        for (String body : new String[] { "<p>first page</p>", "<p>second page</p>" }) {
+            WARCRecord record = reader.read();
+            assertEquals("response", record.getHeader().getRecordType());
+            assertEquals(lfHeaders + body, new String(record.getContent(), "UTF-8"));
+            digests.add(record.getHeader().getField("WARC-Payload-Digest"));
+        }
+        assertEquals(2, digests.size());
+        for (int i = 0; i < 4; i++) assertEquals("response", reader.read().getHeader().getRecordType());
+        reader.close();
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setLong("warc.output.segment.size", 4000);
+        conf.setClass(WARCMetrics.LISTENERS_KEY, SummingMetricsListener.class, WARCMetricsListener.class);
+        SummingMetricsListener.counters.clear();
+        SummingMetricsListener.types.clear();
+        OffsetListener listener = writeRecords(conf, new Path(tempFolder.getRoot().toURI().toString(), "output"));
+
+        // The listener has received everything the writer counted before closing
+        Map<WARCCounter, Long> written = new HashMap<WARCCounter, Long>(SummingMetricsListener.counters);
+        assertEquals(Long.valueOf(NUM_RECORDS), written.get(WARCCounter.RECORDS_WRITTEN));
+        assertEquals(Long.valueOf(listener.segments.size() - 1), written.get(WARCCounter.SEGMENTS_ROLLED));
+        assertEquals(Long.valueOf(NUM_RECORDS), SummingMetricsListener.types.get("response"));
+        long compressed = 0, maxLength = 0;
+        FileSystem fs = FileSystem.getLocal(conf);
+        for (Path segment : listener.segments) compressed += fs.getFileStatus(segment).getLen();
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            maxLength = Math.max(maxLength, parseRecord(WARCFileReaderTest.makeRecord(i)).getHeader().getContentLength());
+        }
+        assertEquals(Long.valueOf(compressed), written.get(WARCCounter.COMPRESSED_BYTES_WRITTEN));
+        assertTrue(written.get(WARCCounter.UNCOMPRESSED_BYTES_WRITTEN) > compressed);
+        assertEquals(Long.valueOf(maxLength), written.get(WARCCounter.MAX_RECORD_LENGTH));
+
+        // Reading the segments back yields the same counts
+        int n = listener.segments.size();
+        long[] starts = new long[n], lengths = new long[n];
+        for (int i = 0; i < n; i++) lengths[i] = fs.getFileStatus(listener.segments.get(i)).getLen();
+        CombinedWARCFileReader reader = new CombinedWARCFileReader(new Configuration(),
+                listener.segments.toArray(new Path[n]), starts, lengths);
+        try {
+            while (true) reader.read();
+        } catch (EOFException e) {
+            reader.close();
+        }
+        WARCMetrics metrics = reader.getMetrics();
+        assertEquals(NUM_RECORDS, metrics.get(WARCCounter.RECORDS_READ));
+        assertEquals(0, metrics.get(WARCCounter.RECORDS_MALFORMED));
+        assertEquals(compressed, metrics.get(WARCCounter.COMPRESSED_BYTES_READ));
+        assertEquals(written.get(WARCCounter.UNCOMPRESSED_BYTES_WRITTEN), Long.valueOf(metrics.get(WARCCounter.UNCOMPRESSED_BYTES_READ)));
+        assertEquals(maxLength, metrics.get(WARCCounter.MAX_RECORD_LENGTH));
+        assertEquals(Long.valueOf(NUM_RECORDS), metrics.getRecordTypeCounts().get("response"));
+
+        // Non-standard types share one counter, however many there are
+        for (int i = 0; i < 200; i++) metrics.countRecordType("junk-" + i);
+        metrics.countRecordType(null);
+        assertEquals(2, metrics.getRecordTypeCounts().size());
+        assertEquals(Long.valueOf(201), metrics.getRecordTypeCounts().get(WARCMetrics.OTHER_TYPE));
+    }
+}
@@ -0,0 +1,166 @@
+package com.martinkl.warc;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.martinkl.warc.mapreduce.IndexedWARCInputFormat;
+import static org.junit.Assert.*;
+
+public class WARCIndexSplitterTest {
+    private static final int NUM_RECORDS = 50;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path writeIndexedFile() throws IOException {
+        Configuration conf = new Configuration();
+        WARCIndexWriter.setIndexEnabled(conf, true);
+        Path prefix = new Path(tempFolder.getRoot().toURI().toString(), "output");
+        WARCFileWriter writer = new WARCFileWriter(conf, WARCFileWriter.getGzipCodec(conf), prefix);
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            writer.write(WARCFileWriterTest.parseRecord(WARCFileReaderTest.makeRecord(i)));
+        }
+        Path path = writer.getSegmentPath();
+        writer.close();
+        return path;
+    }
+
+    @Test
+    public void testRangesCoverMatchingRecords() throws IOException {
+        Path path = writeIndexedFile();
+        Configuration conf = new Configuration();
+        conf.setLong(WARCIndexSplitter.MERGE_GAP_KEY, 0);
+        WARCRecordFilter.setSURTPrefixes(conf, "com,example)/page/1");
+
+        List<WARCIndexSplitter.Range> ranges = new WARCIndexSplitter(conf).getRanges(path);
+        assertEquals(2, ranges.size()); // record 1, and records 10 to 19
+
+        List<String> ids = new ArrayList<String>();
+        for (WARCIndexSplitter.Range range : ranges) {
+            WARCFileReader reader = new WARCFileReader(conf, path, range.getStart(), range.getLength());
+            try {
+                while (true) ids.add(reader.read().getHeader().getRecordID());
+            } catch (EOFException e) {
+                reader.close();
+            }
+        }
+        assertEquals(11, ids.size());
+        assertEquals("<urn:uuid:record-1>", ids.get(0));
+        assertEquals("<urn:uuid:record-19>", ids.get(10));
+
+        conf.setLong(WARCIndexSplitter.MERGE_GAP_KEY, WARCIndexSplitter.DEFAULT_MERGE_GAP);
+        assertEquals(1, new WARCIndexSplitter(conf).getRanges(path).size());
+        assertNull(new WARCIndexSplitter(conf).getRanges(new Path(path.getParent(), "missing.warc.gz")));
+    }
+
+    private static WARCRecord makeHttpRecord(int i) throws IOException {
+        String type = (i % 2 == 0) ? "text/plain" : "Text/HTML; charset=utf-8";
+        String body = "HTTP/1.1 200 OK\r\nContent-Type: " + type + "\r\n\r\nrecord " + i;
+        return WARCFileWriterTest.parseRecord("WARC/1.0\r\n" +
+                "WARC-Type: response\r\n" +
+                "WARC-Target-URI: http://example.com/page/" + i + "\r\n" +
+                "WARC-Date: 2014-03-18T17:47:38Z\r\n" +
+                "WARC-Record-ID: <urn:uuid:record-" + i + ">\r\n" +
+                "Content-Type: application/http; msgtype=response\r\n" +
+                "Content-Length: " + body.length() + "\r\n" +
+                "\r\n" + body + "\r\n\r\n");
+    }
+
+    @Test
+    public void testHttpPayloadTypes() throws IOException {
+        for (int threads : new int[] { 0, 4 }) {
+            Configuration conf = new Configuration();
+            WARCIndexWriter.setIndexEnabled(conf, true);
+            conf.setInt("warc.output.compression.threads", threads);
+            WARCFileWriter writer = new WARCFileWriter(conf, WARCFileWriter.getGzipCodec(conf),
+                    new Path(tempFolder.newFolder().toURI().toString(), "output"));
+            for (int i = 0; i < 10; i++) writer.write(makeHttpRecord(i));
+            Path path = writer.getSegmentPath();
+            writer.close();
+
+            // The index holds the media type of the HTTP payload, not application/http
+            FileSystem fs = path.getFileSystem(conf);
+            BufferedReader index = new BufferedReader(new InputStreamReader(
+                    fs.open(WARCIndexWriter.getIndexPath(path)), "UTF-8"));
+            int entries = 0;
+            String line;
+            while ((line = index.readLine()) != null) {
+                WARCIndexEntry entry = WARCIndexEntry.parse(line);
+                int i = Integer.parseInt(entry.getURL().substring(entry.getURL().lastIndexOf('/') + 1));
+                assertEquals((i % 2 == 0) ? "text/plain" : "text/html", entry.getMimeType());
+                entries++;
+            }
+            index.close();
+            assertEquals(10, entries);
+
+            // Both the index and the reader select HTML responses by their payload
+            conf.setLong(WARCIndexSplitter.MERGE_GAP_KEY, 0);
+            WARCRecordFilter.setContentTypes(conf, "text/html");
+            for (String mode : new String[] { "memory", "warc.input.offheap" }) {
+                Configuration readConf = new Configuration(conf);
+                if (!mode.equals("memory")) readConf.setBoolean(mode, true);
+                assertEquals(mode, 5, readIDs(readConf, path, new WARCIndexSplitter(readConf).getRanges(path)).size());
+                assertEquals(mode, 5, readIDs(readConf, path, null).size());
+            }
+
+            WARCRecordFilter.setContentTypes(conf, "application/http");
+            assertEquals(1, new WARCIndexSplitter(conf).getRanges(path).size());
+            assertEquals(10, readIDs(conf, path, null).size());
+            WARCRecordFilter.setContentTypes(conf, "image/");
+            assertEquals(0, new WARCIndexSplitter(conf).getRanges(path).size());
+            assertEquals(0, readIDs(conf, path, null).size());
+        }
+    }
+
+    private static List<String> readIDs(Configuration conf, Path path, List<WARCIndexSplitter.Range> ranges)
+            throws IOException {
+        List<WARCFileReader> readers = new ArrayList<WARCFileReader>();
+        if (ranges == null) {
+            readers.add(new WARCFileReader(conf, path));
+        } else {
+            for (WARCIndexSplitter.Range range : ranges) {
+                readers.add(new WARCFileReader(conf, path, range.getStart(), range.getLength()));
+            }
+        }
+        List<String> ids = new ArrayList<String>();
+        for (WARCFileReader reader : readers) {
+            try {
+                while (true) ids.add(reader.read().getHeader().getRecordID());
+            } catch (EOFException e) {
+                reader.close();
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void testIndexedInputFormat() throws IOException {
+        Path path = writeIndexedFile();
+        Job job = Job.getInstance(new Configuration());
+        FileInputFormat.addInputPath(job, path.getParent());
+        WARCRecordFilter.setURIPattern(job.getConfiguration(), "/page/4[0-9]$");
+
+        List<InputSplit> splits = new IndexedWARCInputFormat().getSplits(job);
+        assertEquals(1, splits.size());
+        FileSplit split = (FileSplit) splits.get(0);
+        assertEquals(path.getName(), split.getPath().getName());
+        assertTrue(split.getStart() > 0);
+
+        // No record matches, so the file is pruned
+        WARCRecordFilter.setDateRange(job.getConfiguration(), "2015-01-01", null);
+        assertEquals(0, new IndexedWARCInputFormat().getSplits(job).size());
+    }
+}
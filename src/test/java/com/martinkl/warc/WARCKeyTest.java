@@ -0,0 +1,79 @@
+package com.martinkl.warc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WARCKeyTest {
+
+    @Test
+    public void testParseDate() {
+        assertEquals(1395164858000L, WARCKey.parseDate("2014-03-18T17:47:38Z"));
+        assertEquals(1395164858123L, WARCKey.parseDate("2014-03-18T17:47:38.123456Z"));
+        assertEquals(0L, WARCKey.parseDate("1970-01-01T00:00:00Z"));
+        assertEquals(951782400000L, WARCKey.parseDate("2000-02-29T00:00:00Z"));
+        assertEquals(WARCKey.UNKNOWN_TIMESTAMP, WARCKey.parseDate("2014-13-18T17:47:38Z"));
+        assertEquals(WARCKey.UNKNOWN_TIMESTAMP, WARCKey.parseDate("yesterday"));
+        assertEquals(WARCKey.UNKNOWN_TIMESTAMP, WARCKey.parseDate(null));
+    }
+
+    @Test
+    public void testRawComparator() throws IOException {
+        WARCKey[] keys = {
+            new WARCKey("com,example)/", 2000L),
+            new WARCKey("com,example)/", 1000L),
+            new WARCKey("com,example)/", WARCKey.UNKNOWN_TIMESTAMP),
+            new WARCKey("com,example)/a", 0L),
+            new WARCKey("com,example,www2)/", 0L),
+            new WARCKey("", 5L),
+            new WARCKey("org,example)/\u00e9", -1L)
+        };
+        WritableComparator comparator = WritableComparator.get(WARCKey.class);
+        assertTrue(comparator instanceof WARCKey.Comparator);
+        for (WARCKey a : keys) {
+            byte[] bytesA = serialize(a);
+            for (WARCKey b : keys) {
+                byte[] bytesB = serialize(b);
+                int expected = Integer.signum(a.compareTo(b));
+                assertEquals(a + " vs " + b, expected,
+                             Integer.signum(comparator.compare(bytesA, 0, bytesA.length, bytesB, 0, bytesB.length)));
+            }
+        }
+    }
+
+    @Test
+    public void testPartitioning() {
+        Configuration conf = new Configuration();
+        WARCHostPartitioner partitioner = new WARCHostPartitioner(conf);
+        int partition = partitioner.getPartition(new WARCKey("com,example)/", 0L), 16);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(partition, partitioner.getPartition(new WARCKey("com,example)/page/" + i, i), 16));
+        }
+
+        WARCHostPartitioner.setSpreadHosts(conf, 4, "com,example)");
+        partitioner = new WARCHostPartitioner(conf);
+        Set<Integer> partitions = new HashSet<Integer>();
+        for (int i = 0; i < 100; i++) {
+            WARCKey key = new WARCKey("com,example)/page/" + i, i);
+            int p = partitioner.getPartition(key, 16);
+            assertTrue(p >= 0 && p < 16);
+            assertEquals(p, partitioner.getPartition(new WARCKey(key.getSURT(), i + 1000), 16));
+            partitions.add(p);
+        }
+        assertEquals(4, partitions.size());
+        int other = partitioner.getPartition(new WARCKey("org,example)/", 0L), 16);
+        assertEquals(other, partitioner.getPartition(new WARCKey("org,example)/page/1", 0L), 16));
+    }
+
+    private static byte[] serialize(WARCKey key) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        key.write(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,116 @@
+package com.martinkl.warc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class WARCRandomAccessReaderTest {
+    private static final int NUM_RECORDS = 50;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final List<Long> offsets = new ArrayList<Long>();
+
+    private Path writeFile(Configuration conf, boolean compressed) throws IOException {
+        Path prefix = new Path(tempFolder.newFolder().toURI().toString(), "output");
+        WARCFileWriter writer = new WARCFileWriter(conf, compressed ? WARCFileWriter.getGzipCodec(conf) : null, prefix);
+        offsets.clear();
+        writer.addListener(new WARCWriterListener() {
+            @Override
+            public void segmentOpened(Path path) {}
+
+            @Override
+            public void recordWritten(WARCRecord.Header header, long offset, long length) {
+                offsets.add(offset);
+            }
+
+            @Override
+            public void segmentClosed(Path path) {}
+        });
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            writer.write(WARCFileWriterTest.parseRecord(WARCFileReaderTest.makeRecord(i)));
+        }
+        Path path = writer.getSegmentPath();
+        writer.close();
+        return path;
+    }
+
+    private static void assertRecord(int i, WARCRecord record) throws IOException {
+        assertEquals("<urn:uuid:record-" + i + ">", record.getHeader().getRecordID());
+        String expected = WARCFileReaderTest.makeRecord(i);
+        expected = expected.substring(expected.indexOf("\r\n\r\n") + 4, expected.length() - 4);
+        assertEquals(expected, new String(record.getContent(), "UTF-8"));
+    }
+
+    @Test
+    public void testReadByOffset() throws IOException {
+        Configuration conf = new Configuration();
+        for (boolean compressed : new boolean[] { true, false }) {
+            WARCRandomAccessReader reader = new WARCRandomAccessReader(conf, writeFile(conf, compressed));
+            for (int i = NUM_RECORDS - 1; i >= 0; i -= 3) {
+                assertRecord(i, reader.read(offsets.get(i)));
+            }
+            try {
+                reader.read(offsets.get(1) + 1);
+                fail("Expected exception");
+            } catch (IOException e) {
+                assertTrue(compressed); // not a gzip member
+            } catch (IllegalStateException e) {
+                assertFalse(compressed); // not a WARC header
+            }
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testReadAll() throws IOException {
+        Configuration conf = new Configuration();
+        WARCRandomAccessReader reader = new WARCRandomAccessReader(conf, writeFile(conf, true));
+        List<Integer> indexes = new ArrayList<Integer>();
+        for (int i = 0; i < NUM_RECORDS; i++) indexes.add(i);
+        indexes.add(7);
+        Collections.shuffle(indexes, new Random(42));
+
+        long[] batch = new long[indexes.size()];
+        for (int i = 0; i < batch.length; i++) batch[i] = offsets.get(indexes.get(i));
+        List<WARCRecord> records = reader.readAll(batch);
+        assertEquals(indexes.size(), records.size());
+        for (int i = 0; i < batch.length; i++) assertRecord(indexes.get(i), records.get(i));
+        reader.close();
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        Configuration conf = new Configuration();
+        final WARCRandomAccessReader reader = new WARCRandomAccessReader(conf, writeFile(conf, true));
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int first = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = first; i < NUM_RECORDS; i += 2) assertRecord(i, reader.read(offsets.get(i)));
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        reader.close();
+        if (error.get() != null) throw new AssertionError(error.get());
+    }
+}
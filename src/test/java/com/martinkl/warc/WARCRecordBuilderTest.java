@@ -0,0 +1,193 @@
+package com.martinkl.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class WARCRecordBuilderTest {
+    private static final String HTTP_RESPONSE = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\nabc";
+    private static final String ABC_SHA1 = "sha1:VGMT4NSHA2AWVOR6EVYXQUGCNSONBWE5";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static WARCRecord roundTrip(WARCRecord record) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        record.write(new DataOutputStream(buf));
+        return new WARCRecord(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())));
+    }
+
+    /** A stream of `length` generated bytes, which is never held in memory. */
+    private static class PatternStream extends InputStream {
+        private long remaining;
+
+        PatternStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            return remaining-- > 0 ? (int) (remaining % 251) : -1;
+        }
+    }
+
+    private static void assertPattern(InputStream in, long length) throws IOException {
+        for (long i = length - 1; i >= 0; i--) assertEquals(i % 251, in.read());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testBuildInMemory() throws IOException {
+        WARCRecord record = new WARCRecordBuilder("response")
+                .targetURI("http://example.com/")
+                .date(1395164858000L)
+                .contentType("application/http; msgtype=response")
+                .field("WARC-IP-Address", "93.184.216.34")
+                .digests("sha1")
+                .content(HTTP_RESPONSE.getBytes("UTF-8"))
+                .build();
+        WARCRecord.Header header = record.getHeader();
+        assertEquals("response", header.getRecordType());
+        assertEquals("2014-03-18T17:47:38Z", header.getDateString());
+        assertTrue(header.getRecordID().matches("<urn:uuid:[0-9a-f-]{36}>"));
+        assertEquals("93.184.216.34", header.getField("WARC-IP-Address"));
+        assertEquals(HTTP_RESPONSE.length(), header.getContentLength());
+        assertEquals(ABC_SHA1, header.getField("WARC-Payload-Digest"));
+        assertNotNull(header.getField("WARC-Block-Digest"));
+
+        WARCRecord parsed = roundTrip(record);
+        assertEquals(header.toString(), parsed.getHeader().toString());
+        assertEquals(HTTP_RESPONSE, new String(parsed.getContent(), "UTF-8"));
+        assertFalse(header.getRecordID().equals(new WARCRecordBuilder("response").build().getHeader().getRecordID()));
+
+        // A buffer's remaining bytes are the body; release() leaves it alone
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        buffer.put("xxabcxx".getBytes("UTF-8")).flip();
+        buffer.position(2).limit(5);
+        record = new WARCRecordBuilder("resource").recordID("<urn:uuid:abc>").digests("sha1").content(buffer).build();
+        record.release();
+        assertEquals("abc", new String(record.getContent(), "UTF-8"));
+        assertEquals(ABC_SHA1, record.getHeader().getField("WARC-Block-Digest"));
+        assertNull(record.getHeader().getField("WARC-Payload-Digest"));
+        assertEquals("<urn:uuid:abc>", roundTrip(record).getHeader().getRecordID());
+        assertEquals(2, buffer.position());
+
+        // An empty body
+        record = new WARCRecordBuilder("warcinfo").date(new Date()).build();
+        assertEquals(0, record.getHeader().getContentLength());
+        assertEquals(0, roundTrip(record).getContent().length);
+    }
+
+    @Test
+    public void testStreamedBodies() throws IOException {
+        long length = 300000;
+        WARCRecord record = new WARCRecordBuilder("resource").content(new PatternStream(length), length).build();
+        assertEquals(length, record.getHeader().getContentLength());
+        try {
+            record.getContent();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected: the body is not in memory
+        }
+        try {
+            record.copy();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected: the body can only be read once
+        }
+
+        Configuration conf = new Configuration();
+        conf.setBoolean("warc.input.streaming", true);
+        Path prefix = new Path(tempFolder.newFolder().toURI().toString(), "output");
+        WARCFileWriter writer = new WARCFileWriter(conf, WARCFileWriter.getGzipCodec(conf), prefix);
+        writer.write(record);
+
+        // A file region is read when the record is written, and may be read again
+        File file = tempFolder.newFile("body");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("xxxx".getBytes("UTF-8"));
+        out.write(HTTP_RESPONSE.getBytes("UTF-8"));
+        out.write("yy".getBytes("UTF-8"));
+        out.close();
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path path = new Path(file.toURI());
+        WARCRecord region = new WARCRecordBuilder("response")
+                .contentType("application/http; msgtype=response")
+                .digests("sha1")
+                .content(fs, path, 4, HTTP_RESPONSE.length())
+                .build();
+        assertEquals(ABC_SHA1, region.getHeader().getField("WARC-Payload-Digest"));
+        writer.write(region);
+        writer.write(region.copy());
+        Path segment = writer.getSegmentPath();
+        writer.close();
+
+        WARCFileReader reader = new WARCFileReader(conf, segment);
+        assertPattern(reader.read().getContentStream(), length);
+        List<String> bodies = new ArrayList<String>();
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream in = reader.read().getContentStream();
+            int b;
+            while ((b = in.read()) >= 0) body.write(b);
+            bodies.add(body.toString("UTF-8"));
+        }
+        assertEquals(Arrays.asList(HTTP_RESPONSE, HTTP_RESPONSE), bodies);
+        reader.close();
+
+        // Digests can't be computed before writing a stream, and a short stream fails the write
+        try {
+            new WARCRecordBuilder("resource").digests("sha1").content(new PatternStream(10), 10).build();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            roundTrip(new WARCRecordBuilder("resource").content(new PatternStream(10), 20).build());
+            fail("expected EOFException");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testValidation() throws IOException {
+        WARCRecordBuilder builder = new WARCRecordBuilder("metadata");
+        for (String[] field : new String[][] {
+                { "Content-Length", "5" }, { "Bad Name", "x" }, { "", "x" }, { "X-Value", "a\r\nWARC-Type: response" } }) {
+            try {
+                builder.field(field[0], field[1]);
+                fail("expected IllegalArgumentException for " + field[0]);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            builder.digests("crc32");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        WARCRecord.Header header = builder.field("X-A", "1").field("X-A", "2").build().getHeader();
+        assertEquals("2", header.getField("X-A"));
+        assertTrue(header.toString().contains("X-A: 1\r\nX-A: 2\r\n"));
+    }
+}
@@ -1,7 +1,9 @@
 package com.martinkl.warc;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -39,4 +41,42 @@ public class WARCRecordTest {
         assertEquals("application/warc-fields", record.getHeader().getContentType());
         assertNull(record.getHeader().getTargetURI());
     }
+
+    @Test
+    public void testContinuationAndRepeatedFields() throws IOException {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("WARC/1.1\r\n");
+        buffer.append("WARC-Type: metadata\r\n");
+        buffer.append("WARC-Concurrent-To: <urn:uuid:one>\r\n");
+        buffer.append("WARC-Concurrent-To: <urn:uuid:two>\r\n");
+        buffer.append("X-Long-Field:  first part \r\n");
+        buffer.append("\tsecond part\r\n");
+        buffer.append("Content-Length: 5\r\n");
+        buffer.append("\r\n");
+        buffer.append("hello\r\n\r\n");
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(buffer.toString().getBytes("UTF-8")));
+        WARCRecord record = new WARCRecord(stream);
+        assertEquals("metadata", record.getHeader().getRecordType());
+        assertEquals("<urn:uuid:two>", record.getHeader().getField("WARC-Concurrent-To"));
+        assertEquals("first part\tsecond part", record.getHeader().getField("X-Long-Field"));
+        assertEquals(5, record.getHeader().getContentLength());
+        assertEquals("hello", new String(record.getContent(), "UTF-8"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        record.write(new DataOutputStream(bytes));
+        assertEquals("WARC/1.0\r\n" +
+                     "WARC-Type: metadata\r\n" +
+                     "WARC-Concurrent-To: <urn:uuid:one>\r\n" +
+                     "WARC-Concurrent-To: <urn:uuid:two>\r\n" +
+                     "X-Long-Field: first part\tsecond part\r\n" +
+                     "Content-Length: 5\r\n" +
+                     "\r\n" +
+                     "hello\r\n\r\n", bytes.toString("UTF-8"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMalformedHeaderLine() throws IOException {
+        String record = "WARC/1.0\r\nWARC-Type: warcinfo\r\nno colon here\r\n\r\n";
+        new WARCRecord(new DataInputStream(new ByteArrayInputStream(record.getBytes("UTF-8"))));
+    }
 }
@@ -0,0 +1,190 @@
+package com.martinkl.warc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class WARCZstdTest {
+    private static final int NUM_RECORDS = 50;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static class OffsetListener implements WARCWriterListener {
+        final List<Path> segments = new ArrayList<Path>();
+        final List<Path> recordSegments = new ArrayList<Path>();
+        final List<Long> offsets = new ArrayList<Long>();
+        long recordBytes = 0;
+
+        @Override
+        public void segmentOpened(Path path) {
+            segments.add(path);
+        }
+
+        @Override
+        public void recordWritten(WARCRecord.Header header, long offset, long length) {
+            recordSegments.add(segments.get(segments.size() - 1));
+            offsets.add(offset);
+            recordBytes += length;
+        }
+
+        @Override
+        public void segmentClosed(Path path) {
+        }
+    }
+
+    private OffsetListener writeRecords(Configuration conf) throws IOException {
+        Path prefix = new Path(tempFolder.newFolder().toURI().toString(), "output");
+        WARCFileWriter writer = new WARCFileWriter(conf, WARCFileWriter.getGzipCodec(conf), prefix);
+        OffsetListener listener = new OffsetListener();
+        writer.addListener(listener);
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            writer.write(WARCFileWriterTest.parseRecord(WARCFileReaderTest.makeRecord(i)));
+        }
+        writer.close();
+        return listener;
+    }
+
+    private Configuration zstdConf() throws IOException {
+        List<WARCRecord> sample = new ArrayList<WARCRecord>();
+        for (int i = 0; i < 200; i++) {
+            sample.add(WARCFileWriterTest.parseRecord(WARCFileReaderTest.makeRecord(i % NUM_RECORDS)));
+        }
+        Path dictionary = new Path(tempFolder.getRoot().toURI().toString(), "warc.dict");
+        Configuration conf = new Configuration();
+        WARCZstdDictionary.write(conf, WARCZstdDictionary.train(sample, 4096), dictionary);
+        WARCZstdDictionary.setDictionary(conf, dictionary);
+        conf.set("warc.output.compression.format", "zstd");
+        conf.setLong("warc.output.segment.size", 4000);
+        return conf;
+    }
+
+    private static List<String> readIDs(WARCFileReader reader) throws IOException {
+        List<String> ids = new ArrayList<String>();
+        try {
+            while (true) ids.add(reader.read().getHeader().getRecordID());
+        } catch (EOFException e) {
+            reader.close();
+        }
+        return ids;
+    }
+
+    @Test
+    public void testWriteAndReadWithDictionary() throws IOException {
+        Configuration conf = zstdConf();
+        OffsetListener listener = writeRecords(conf);
+        assertTrue(listener.segments.size() > 1);
+
+        FileSystem fs = FileSystem.getLocal(conf);
+        List<String> ids = new ArrayList<String>();
+        for (Path segment : listener.segments) {
+            assertTrue(segment.getName().endsWith(".warc.zst"));
+            InputStream in = fs.open(segment);
+            byte[] head = new byte[4];
+            assertEquals(4, in.read(head));
+            in.close();
+            assertEquals(WARCCompression.ZSTD, WARCCompression.forMagic(head, 4));
+            ids.addAll(readIDs(new WARCFileReader(conf, segment)));
+        }
+        assertEquals(NUM_RECORDS, ids.size());
+
+        // Every record can be read starting at its offset, which needs the dictionary
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            Path segment = listener.recordSegments.get(i);
+            long offset = listener.offsets.get(i);
+            assertTrue(offset > 0); // after the dictionary frame
+            List<String> split = readIDs(new WARCFileReader(conf, segment, offset, 1));
+            assertEquals(1, split.size());
+            assertEquals("<urn:uuid:record-" + i + ">", split.get(0));
+
+            WARCRandomAccessReader random = new WARCRandomAccessReader(conf, segment);
+            assertEquals("<urn:uuid:record-" + i + ">", random.read(offset).getHeader().getRecordID());
+            random.close();
+        }
+
+        // Records compress better with the dictionary than without
+        conf.unset(WARCZstdDictionary.DICTIONARY_KEY);
+        assertTrue(listener.recordBytes < writeRecords(conf).recordBytes);
+    }
+
+    @Test
+    public void testReadSplits() throws IOException {
+        Configuration conf = zstdConf();
+        conf.setLong("warc.output.segment.size", Long.MAX_VALUE);
+        Path path = writeRecords(conf).segments.get(0);
+        long fileSize = path.getFileSystem(conf).getFileStatus(path).getLen();
+
+        for (long splitSize : new long[] { 17, 333, 4096, fileSize - 1 }) {
+            List<String> ids = new ArrayList<String>();
+            for (long start = 0; start < fileSize; start += splitSize) {
+                long length = Math.min(splitSize, fileSize - start);
+                ids.addAll(readIDs(new WARCFileReader(conf, path, start, length)));
+            }
+            assertEquals("split size " + splitSize, NUM_RECORDS, ids.size());
+            for (int i = 0; i < NUM_RECORDS; i++) {
+                assertEquals("<urn:uuid:record-" + i + ">", ids.get(i));
+            }
+        }
+
+        conf.setBoolean("warc.input.readahead", true);
+        assertEquals(NUM_RECORDS, readIDs(new WARCFileReader(conf, path)).size());
+    }
+
+    @Test
+    public void testDetectFormat() throws IOException {
+        assertEquals(WARCCompression.GZIP, WARCCompression.forFilename("a.warc.gz"));
+        assertEquals(WARCCompression.ZSTD, WARCCompression.forFilename("a.warc.zst"));
+        assertEquals(WARCCompression.NONE, WARCCompression.forFilename("a.warc"));
+        assertEquals(WARCCompression.GZIP, WARCCompression.forMagic(new byte[] { 0x1f, (byte) 0x8b, 8, 0 }, 4));
+        assertEquals(WARCCompression.NONE, WARCCompression.forMagic("WARC/1.0".getBytes("UTF-8"), 8));
+
+        // A zstd file without the extension is recognised by its magic number
+        Configuration conf = new Configuration();
+        conf.set("warc.output.compression.format", "zstd");
+        Path segment = writeRecords(conf).segments.get(0);
+        Path renamed = new Path(tempFolder.getRoot().toURI().toString(), "renamed.warc");
+        FileSystem fs = FileSystem.getLocal(conf);
+        FileUtil.copy(fs, segment, fs, renamed, false, conf);
+        assertEquals(WARCCompression.ZSTD, WARCCompression.detect(fs, renamed));
+        List<String> ids = readIDs(new WARCFileReader(conf, renamed));
+        assertEquals(NUM_RECORDS, ids.size());
+        assertEquals("<urn:uuid:record-0>", ids.get(0));
+    }
+
+    @Test
+    public void testMalformedDictionaryFrame() throws IOException {
+        Configuration conf = new Configuration();
+        FileSystem fs = FileSystem.getLocal(conf);
+        // Dictionary frames claiming 2GB, 4GB - 1 (negative as an int), and more than the file
+        for (int length : new int[] { Integer.MAX_VALUE, -1, 100 }) {
+            Path path = new Path(tempFolder.getRoot().toURI().toString(), "bad.warc.zst");
+            OutputStream out = fs.create(path, true);
+            out.write(new byte[] { 0x5d, 0x2a, 0x4d, 0x18, (byte) length, (byte) (length >> 8),
+                                   (byte) (length >> 16), (byte) (length >> 24), 1, 2, 3 });
+            out.close();
+            try {
+                new WARCFileReader(conf, path);
+                fail("Expected IOException for length " + length);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed zstd dictionary frame"));
+            }
+            try {
+                new WARCRandomAccessReader(conf, path);
+                fail("Expected IOException for length " + length);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed zstd dictionary frame"));
+            }
+        }
+    }
+}